@@ -0,0 +1,428 @@
+package com.pi.bot;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import com.pi.bot.constants.BotConstants;
+import com.pi.common.constants.Direction;
+import com.pi.common.constants.InteractionButton;
+import com.pi.common.constants.NetworkConstants;
+import com.pi.common.database.Location;
+import com.pi.common.database.world.SectorLocation;
+import com.pi.common.net.WireFormat;
+import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.Packet10EntityDataRequest;
+import com.pi.common.net.packet.Packet12EntityDefRequest;
+import com.pi.common.net.packet.Packet14ClientMove;
+import com.pi.common.net.packet.Packet16EntityMove;
+import com.pi.common.net.packet.Packet17Clock;
+import com.pi.common.net.packet.Packet19Interact;
+import com.pi.common.net.packet.Packet1Login;
+import com.pi.common.net.packet.Packet3Register;
+import com.pi.common.net.packet.Packet5SectorRequest;
+import com.pi.common.util.PICryptUtils;
+
+/**
+ * A headless player that registers and logs in an account, then walks a path,
+ * attacks, and measures its round trip time to the server, requesting the
+ * sectors, entities and definitions it comes across like a real client.
+ * <p>
+ * The bot is ticked by the {@link BotDriver}, while the packets it receives
+ * are handled on its network's worker, so its state is guarded by the bot's
+ * lock.
+ * 
+ * @author Westin
+ * 
+ */
+public class Bot {
+	/**
+	 * The load test this bot belongs to.
+	 */
+	private final LoadTest test;
+	/**
+	 * The bot's account name, which is also its password.
+	 */
+	private final String username;
+	/**
+	 * The path this bot walks.
+	 */
+	private final BotPath path;
+	/**
+	 * The random number generator used to stagger this bot's actions.
+	 */
+	private final Random random;
+	/**
+	 * The packet handler for this bot.
+	 */
+	private final BotHandler handler;
+	/**
+	 * The network client this bot is connected with, or <code>null</code> if
+	 * it hasn't connected.
+	 */
+	private volatile BotClient netClient = null;
+
+	/**
+	 * If the server has answered this bot's registration.
+	 */
+	private boolean registered = false;
+	/**
+	 * If this bot has logged in.
+	 */
+	private volatile boolean loggedIn = false;
+	/**
+	 * If this bot has failed to log in, or been disconnected.
+	 */
+	private volatile boolean failed = false;
+	/**
+	 * The ID of this bot's entity, or <code>-1</code> if unknown.
+	 */
+	private int entityID = -1;
+	/**
+	 * The location this bot's entity spawned at, or <code>null</code> if
+	 * unknown.
+	 */
+	private Location origin = null;
+	/**
+	 * The current location of this bot's entity, or <code>null</code> if
+	 * unknown.
+	 */
+	private Location location = null;
+	/**
+	 * The sectors this bot has requested.
+	 */
+	private final Set<SectorLocation> requestedSectors =
+			new HashSet<SectorLocation>();
+	/**
+	 * The entity definitions this bot has requested.
+	 */
+	private final Set<Integer> requestedDefs = new HashSet<Integer>();
+	/**
+	 * The entities this bot has requested the data of.
+	 */
+	private final Set<Integer> requestedEntities = new HashSet<Integer>();
+
+	/**
+	 * The system time in milliseconds for this bot's next step, attack and
+	 * clock packet.
+	 */
+	private long nextMove, nextAttack, nextClock;
+
+	/**
+	 * Creates a bot for the given account.
+	 * 
+	 * @param sTest the load test
+	 * @param sUsername the account name
+	 * @param sPath the path to walk
+	 * @param sRandom the random number generator
+	 */
+	public Bot(final LoadTest sTest, final String sUsername,
+			final BotPath sPath, final Random sRandom) {
+		this.test = sTest;
+		this.username = sUsername;
+		this.path = sPath;
+		this.random = sRandom;
+		this.handler = new BotHandler(this);
+	}
+
+	/**
+	 * Connects this bot to the server with the given network, and sends its
+	 * registration and login. The registration is refused if the account
+	 * already exists, which is fine.
+	 * 
+	 * @param network the network to connect on
+	 * @throws IOException if the connection couldn't be started
+	 */
+	public final void connect(final BotNetwork network) throws IOException {
+		netClient = network.connect(this);
+		String password = PICryptUtils.crypt(username);
+		Packet3Register register = new Packet3Register();
+		register.username = username;
+		register.password = password;
+		send(register);
+		Packet1Login login = new Packet1Login();
+		login.username = username;
+		login.password = password;
+		login.features =
+				NetworkConstants.SUPPORTED_FEATURES
+						& ~NetworkConstants.FEATURE_DATAGRAMS;
+		send(login);
+	}
+
+	/**
+	 * Does whatever this bot is due to do.
+	 * 
+	 * @param now the system time in milliseconds
+	 */
+	public final void tick(final long now) {
+		if (!loggedIn || failed) {
+			return;
+		}
+		Location moved = null;
+		synchronized (this) {
+			if (location == null) {
+				return;
+			}
+			if (now >= nextMove) {
+				nextMove = now + test.getMoveTime();
+				Direction d = path.next(origin, location);
+				if (d != null) {
+					location =
+							new Location(location.x + d.getXOff(),
+									location.plane, location.z
+											+ d.getZOff());
+					moved = location;
+				}
+			}
+		}
+		if (moved != null) {
+			send(Packet14ClientMove.create(moved));
+			test.getStats().moved();
+			requestSectors(moved);
+		}
+		if (test.getAttackTime() > 0 && now >= nextAttack) {
+			nextAttack = now + test.getAttackTime();
+			send(Packet19Interact.create(InteractionButton.ATTACK));
+			test.getStats().attacked();
+		}
+		if (now >= nextClock) {
+			nextClock = now + test.getClockTime();
+			Packet17Clock clock = new Packet17Clock();
+			clock.clientSendTime = System.nanoTime();
+			send(clock);
+		}
+	}
+
+	/**
+	 * Requests each sector around the given location that this bot hasn't
+	 * already requested.
+	 * 
+	 * @param l the location
+	 */
+	private void requestSectors(final Location l) {
+		int r = BotConstants.SECTOR_VIEW_RADIUS;
+		for (int x = -r; x <= r; x++) {
+			for (int z = -r; z <= r; z++) {
+				SectorLocation sec =
+						new SectorLocation(l.getSectorX() + x, l.getPlane(),
+								l.getSectorZ() + z);
+				synchronized (this) {
+					if (!requestedSectors.add(sec)) {
+						continue;
+					}
+				}
+				Packet5SectorRequest pack = new Packet5SectorRequest();
+				pack.baseX = sec.getSectorX();
+				pack.plane = sec.getPlane();
+				pack.baseZ = sec.getSectorZ();
+				pack.revision = -1;
+				send(pack);
+				test.getStats().sectorRequested();
+			}
+		}
+	}
+
+	/**
+	 * Requests the given entity definition if this bot hasn't already.
+	 * 
+	 * @param defID the definition ID
+	 */
+	final void requestDef(final int defID) {
+		if (defID < 0) {
+			return;
+		}
+		synchronized (this) {
+			if (!requestedDefs.add(defID)) {
+				return;
+			}
+		}
+		send(Packet12EntityDefRequest.create(defID));
+		test.getStats().defRequested();
+	}
+
+	/**
+	 * Requests the given entity's data if this bot hasn't already.
+	 * 
+	 * @param id the entity ID
+	 */
+	final void requestEntity(final int id) {
+		synchronized (this) {
+			if (!requestedEntities.add(id)) {
+				return;
+			}
+		}
+		send(Packet10EntityDataRequest.create(id));
+	}
+
+	/**
+	 * Called when the server sends an alert. The first alert answers the
+	 * registration, and any alert after it and before the bot is in game
+	 * means the login failed.
+	 * 
+	 * @param message the alert message
+	 */
+	final void onAlert(final String message) {
+		synchronized (this) {
+			if (!registered) {
+				registered = true;
+				return;
+			}
+		}
+		if (!loggedIn && !failed) {
+			failed = true;
+			test.getStats().loginFailed();
+			test.getLog().warning(username + " failed to log in: " + message);
+		}
+	}
+
+	/**
+	 * Called when the server puts this bot in game.
+	 */
+	final void onLogin() {
+		if (!loggedIn) {
+			long now = System.currentTimeMillis();
+			synchronized (this) {
+				nextMove = now + random.nextInt((int) test.getMoveTime() + 1);
+				nextAttack =
+						now + random.nextInt((int) test.getAttackTime() + 1);
+				nextClock =
+						now + random.nextInt((int) test.getClockTime() + 1);
+			}
+			loggedIn = true;
+			test.getStats().loggedIn();
+		}
+	}
+
+	/**
+	 * Called when the server tells this bot which entity it controls.
+	 * 
+	 * @param id the entity ID
+	 */
+	final void onLocalEntity(final int id) {
+		synchronized (this) {
+			entityID = id;
+		}
+		requestEntity(id);
+	}
+
+	/**
+	 * Called when the server sends the location of an entity, which is this
+	 * bot's new location if it's this bot's entity.
+	 * 
+	 * @param id the entity ID
+	 * @param l the entity's location
+	 * @param correction if this is the server moving the entity back
+	 */
+	final void onEntityLocation(final int id, final Location l,
+			final boolean correction) {
+		synchronized (this) {
+			if (id != entityID) {
+				return;
+			}
+			if (origin == null) {
+				origin = l;
+			} else if (correction && !l.equals(location)) {
+				test.getStats().corrected();
+			}
+			location = l;
+		}
+		requestSectors(l);
+	}
+
+	/**
+	 * Called when the server sends an entity movement, which for this bot's
+	 * entity moves it back to where the server has it.
+	 * 
+	 * @param p the entity movement packet
+	 */
+	final void onEntityMove(final Packet16EntityMove p) {
+		Location l;
+		synchronized (this) {
+			if (p.entity != entityID || location == null) {
+				return;
+			}
+			l = p.apply(location);
+		}
+		onEntityLocation(p.entity, l, true);
+	}
+
+	/**
+	 * Switches the wire format this bot's packets are sent in.
+	 * 
+	 * @param format the new wire format
+	 */
+	final void switchWireFormat(final WireFormat format) {
+		BotClient c = netClient;
+		if (c != null) {
+			c.switchWireFormat(format);
+		}
+	}
+
+	/**
+	 * Called when the server disconnects this bot.
+	 */
+	final void onDisconnect() {
+		if (!failed) {
+			failed = true;
+			test.getStats().disconnected();
+		}
+	}
+
+	/**
+	 * Sends a packet to the server, if connected.
+	 * 
+	 * @param p the packet
+	 */
+	final void send(final Packet p) {
+		BotClient c = netClient;
+		if (c != null && !failed) {
+			c.send(p);
+		}
+	}
+
+	/**
+	 * Checks if this bot is logged in and still connected.
+	 * 
+	 * @return if this bot is online
+	 */
+	public final boolean isOnline() {
+		return loggedIn && !failed;
+	}
+
+	/**
+	 * Checks if this bot has failed to log in or been disconnected.
+	 * 
+	 * @return if this bot has failed
+	 */
+	public final boolean hasFailed() {
+		return failed;
+	}
+
+	/**
+	 * Gets this bot's account name.
+	 * 
+	 * @return the account name
+	 */
+	public final String getUsername() {
+		return username;
+	}
+
+	/**
+	 * Gets the packet handler for this bot.
+	 * 
+	 * @return the packet handler
+	 */
+	public final BotHandler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * Gets the load test this bot belongs to.
+	 * 
+	 * @return the load test
+	 */
+	public final LoadTest getTest() {
+		return test;
+	}
+}
@@ -0,0 +1,96 @@
+package com.pi.bot;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import com.pi.common.debug.PILogger;
+import com.pi.common.net.NetChangeRequest;
+import com.pi.common.net.NetClient;
+import com.pi.common.net.NetHandler;
+
+/**
+ * The subclass of the {@link NetClient} class that links a bot to the
+ * {@link BotNetwork} it's connected on.
+ * 
+ * @see NetClient
+ * @see BotNetwork
+ * @author Westin
+ * 
+ */
+public class BotClient extends NetClient {
+	/**
+	 * The network this client is connected on.
+	 */
+	private final BotNetwork network;
+	/**
+	 * The bot this client belongs to.
+	 */
+	private final Bot bot;
+
+	/**
+	 * Creates a net client for the given bot, on the given network and
+	 * socket channel.
+	 * 
+	 * @param sNetwork the network
+	 * @param sBot the bot
+	 * @param socket the socket channel
+	 */
+	public BotClient(final BotNetwork sNetwork, final Bot sBot,
+			final SocketChannel socket) {
+		super(socket);
+		this.network = sNetwork;
+		this.bot = sBot;
+	}
+
+	@Override
+	public final PILogger getLog() {
+		return network.getLog();
+	}
+
+	@Override
+	protected final void processData(final byte[] data, final int off,
+			final int len) {
+		try {
+			network.getWorker().processData(this, data, off, len);
+		} catch (IOException e) {
+			getLog().printStackTrace(e);
+		}
+	}
+
+	@Override
+	protected final void addWriteRequest() {
+		network.addChangeRequest(new NetChangeRequest(getChannel(),
+				NetChangeRequest.CHANGEOPS, SelectionKey.OP_READ
+						| SelectionKey.OP_WRITE));
+	}
+
+	@Override
+	public final String getSuffix() {
+		return " for " + bot.getUsername();
+	}
+
+	@Override
+	protected final void wakeSelector() {
+		network.wakeSelector();
+	}
+
+	@Override
+	public final NetHandler getHandler() {
+		return bot.getHandler();
+	}
+
+	/**
+	 * Gets the bot this client belongs to.
+	 * 
+	 * @return the bot
+	 */
+	public final Bot getBot() {
+		return bot;
+	}
+
+	@Override
+	public final String toString() {
+		return "BotClient[" + bot.getUsername() + "]";
+	}
+}
@@ -0,0 +1,39 @@
+package com.pi.bot;
+
+import com.pi.common.debug.PILogger;
+import com.pi.common.net.DataWorker;
+
+/**
+ * The data worker sub class for a bot network, handling the packets of every
+ * bot connected on it.
+ * 
+ * @author Westin
+ * 
+ */
+public class BotDataWorker extends DataWorker {
+	/**
+	 * The bot network instance.
+	 */
+	private final BotNetwork net;
+
+	/**
+	 * Creates and binds this data worker to the provided bot network.
+	 * 
+	 * @param sNet the bot network
+	 */
+	public BotDataWorker(final BotNetwork sNet) {
+		super(sNet.getThreadGroup(), sNet.getName() + "Worker");
+		this.net = sNet;
+		start();
+	}
+
+	@Override
+	public final boolean isRunning() {
+		return net.isRunning();
+	}
+
+	@Override
+	public final PILogger getLog() {
+		return net.getLog();
+	}
+}
@@ -0,0 +1,83 @@
+package com.pi.bot;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.pi.bot.constants.BotConstants;
+
+/**
+ * The thread that ticks every bot in a load test, every
+ * {@link BotConstants#DRIVER_TICK} milliseconds.
+ * 
+ * @author Westin
+ * 
+ */
+public class BotDriver extends Thread {
+	/**
+	 * The load test this driver belongs to.
+	 */
+	private final LoadTest test;
+	/**
+	 * The bots being driven.
+	 */
+	private final List<Bot> bots = new CopyOnWriteArrayList<Bot>();
+	/**
+	 * Running flag for the thread.
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Creates and starts a bot driver.
+	 * 
+	 * @param sTest the load test
+	 */
+	public BotDriver(final LoadTest sTest) {
+		super(sTest.getThreadGroup(), "BotDriver");
+		this.test = sTest;
+		start();
+	}
+
+	/**
+	 * Adds a bot to be ticked.
+	 * 
+	 * @param bot the bot
+	 */
+	public final void add(final Bot bot) {
+		bots.add(bot);
+	}
+
+	@Override
+	public final void run() {
+		long next = System.currentTimeMillis();
+		while (running) {
+			try {
+				long now = System.currentTimeMillis();
+				for (Bot bot : bots) {
+					bot.tick(now);
+				}
+				next += BotConstants.DRIVER_TICK;
+				long wait = next - System.currentTimeMillis();
+				if (wait > 0) {
+					Thread.sleep(wait);
+				} else {
+					next = System.currentTimeMillis();
+				}
+			} catch (InterruptedException e) {
+				continue;
+			} catch (Exception e) {
+				test.getLog().printStackTrace(e);
+			}
+		}
+	}
+
+	/**
+	 * Stops this driver.
+	 * 
+	 * @throws InterruptedException if interrupted while joining
+	 */
+	public final void dispose() throws InterruptedException {
+		running = false;
+		interrupt();
+		join();
+	}
+}
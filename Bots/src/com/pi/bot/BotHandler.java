@@ -0,0 +1,265 @@
+package com.pi.bot;
+
+import com.pi.common.constants.GameState;
+import com.pi.common.debug.PILogger;
+import com.pi.common.net.NetHandler;
+import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.Packet0Handshake;
+import com.pi.common.net.packet.Packet11LocalEntityID;
+import com.pi.common.net.packet.Packet13EntityDef;
+import com.pi.common.net.packet.Packet15GameState;
+import com.pi.common.net.packet.Packet16EntityMove;
+import com.pi.common.net.packet.Packet17Clock;
+import com.pi.common.net.packet.Packet18EntityComponent;
+import com.pi.common.net.packet.Packet21EntityFace;
+import com.pi.common.net.packet.Packet23ItemDef;
+import com.pi.common.net.packet.Packet24InventoryData;
+import com.pi.common.net.packet.Packet25InventoryUpdate;
+import com.pi.common.net.packet.Packet27EntityDelta;
+import com.pi.common.net.packet.Packet28CompressedSector;
+import com.pi.common.net.packet.Packet29WireFormat;
+import com.pi.common.net.packet.Packet2Alert;
+import com.pi.common.net.packet.Packet30SectorPatch;
+import com.pi.common.net.packet.Packet32KeepAlive;
+import com.pi.common.net.packet.Packet4Sector;
+import com.pi.common.net.packet.Packet6BlankSector;
+import com.pi.common.net.packet.Packet7EntityTeleport;
+import com.pi.common.net.packet.Packet8EntityDispose;
+import com.pi.common.net.packet.Packet9EntityData;
+
+/**
+ * A packet handler for a single bot. Only the packets that drive the bot, or
+ * that a real client would answer with a request, do any work; the rest are
+ * just counted in the packet metrics.
+ * 
+ * @author Westin
+ * 
+ */
+public class BotHandler extends NetHandler {
+	/**
+	 * The bot this handler belongs to.
+	 */
+	private final Bot bot;
+
+	/**
+	 * Creates a packet handler for the given bot.
+	 * 
+	 * @param sBot the bot
+	 */
+	public BotHandler(final Bot sBot) {
+		this.bot = sBot;
+	}
+
+	@Override
+	protected final PILogger getLog() {
+		return bot.getTest().getLog();
+	}
+
+	@Override
+	public void process(final Packet p) {
+	}
+
+	@Override
+	protected final void sendHandshake(final int packetID,
+			final int sequence) {
+		bot.send(Packet0Handshake.create(packetID, sequence));
+	}
+
+	/**
+	 * Processes the clock packet, id 17, recording its round trip time.
+	 * 
+	 * @param p the clock packet
+	 */
+	public final void process(final Packet17Clock p) {
+		bot.getTest().getStats()
+				.roundTrip(System.nanoTime() - p.clientSendTime);
+	}
+
+	/**
+	 * Processes the alert packet, id 2.
+	 * 
+	 * @param p the alert packet
+	 */
+	public final void process(final Packet2Alert p) {
+		bot.onAlert(p.message);
+	}
+
+	/**
+	 * Processes the sector data packet, id 4.
+	 * 
+	 * @param p the sector data packet
+	 */
+	public final void process(final Packet4Sector p) {
+		bot.getTest().getStats().sectorReceived();
+	}
+
+	/**
+	 * Processes the blank sector packet, id 6.
+	 * 
+	 * @param p the blank sector packet
+	 */
+	public final void process(final Packet6BlankSector p) {
+		bot.getTest().getStats().sectorReceived();
+	}
+
+	/**
+	 * Processes the entity teleport packet, id 7.
+	 * 
+	 * @param p the entity teleport packet
+	 */
+	public final void process(final Packet7EntityTeleport p) {
+		bot.requestEntity(p.entityID);
+		bot.onEntityLocation(p.entityID, p.moved, false);
+	}
+
+	/**
+	 * Processes the entity disposal packet, id 8.
+	 * 
+	 * @param p the entity disposal packet
+	 */
+	public final void process(final Packet8EntityDispose p) {
+	}
+
+	/**
+	 * Processes the entity data packet, id 9.
+	 * 
+	 * @param p the entity data packet
+	 */
+	public final void process(final Packet9EntityData p) {
+		bot.requestDef(p.defID);
+		bot.onEntityLocation(p.entID, p.loc, false);
+	}
+
+	/**
+	 * Processes the local entity id packet, id 11.
+	 * 
+	 * @param p the local entity packet
+	 */
+	public final void process(final Packet11LocalEntityID p) {
+		bot.onLocalEntity(p.entityID);
+	}
+
+	/**
+	 * Processes the entity definition packet, id 13.
+	 * 
+	 * @param p the entity definition packet
+	 */
+	public final void process(final Packet13EntityDef p) {
+		bot.getTest().getStats().defReceived();
+	}
+
+	/**
+	 * Processes the game state packet, id 15.
+	 * 
+	 * @param p the game state packet
+	 */
+	public final void process(final Packet15GameState p) {
+		if (p.state == GameState.MAIN_GAME) {
+			bot.onLogin();
+		}
+	}
+
+	/**
+	 * Processes the entity movement packet, id 16. The server only sends a
+	 * bot the movement of its own entity to correct it.
+	 * 
+	 * @param p the entity movement packet
+	 */
+	public final void process(final Packet16EntityMove p) {
+		bot.requestEntity(p.entity);
+		bot.onEntityMove(p);
+	}
+
+	/**
+	 * Processes an entity component packet, id 18.
+	 * 
+	 * @param p the entity component packet
+	 */
+	public final void process(final Packet18EntityComponent p) {
+		bot.requestEntity(p.entityID);
+	}
+
+	/**
+	 * Processes an entity face packet, id 21.
+	 * 
+	 * @param p the entity face packet
+	 */
+	public final void process(final Packet21EntityFace p) {
+		bot.requestEntity(p.entityID);
+	}
+
+	/**
+	 * Processes an item definition packet, id 23.
+	 * 
+	 * @param p the item definition packet
+	 */
+	public final void process(final Packet23ItemDef p) {
+		bot.getTest().getStats().defReceived();
+	}
+
+	/**
+	 * Processes an inventory data packet, id 24.
+	 * 
+	 * @param p the inventory data packet
+	 */
+	public final void process(final Packet24InventoryData p) {
+	}
+
+	/**
+	 * Processes an inventory update packet, id 25.
+	 * 
+	 * @param p the inventory update packet
+	 */
+	public final void process(final Packet25InventoryUpdate p) {
+	}
+
+	/**
+	 * Processes an entity delta packet, id 27.
+	 * 
+	 * @param p the entity delta packet
+	 */
+	public final void process(final Packet27EntityDelta p) {
+		bot.requestEntity(p.entityID);
+		if ((p.fields & Packet27EntityDelta.DEF) != 0) {
+			bot.requestDef(p.defID);
+		}
+	}
+
+	/**
+	 * Processes a compressed sector packet, id 28. The sector isn't inflated,
+	 * as the bot has no use for it.
+	 * 
+	 * @param p the compressed sector packet
+	 */
+	public final void process(final Packet28CompressedSector p) {
+		bot.getTest().getStats().sectorReceived();
+	}
+
+	/**
+	 * Processes a wire format packet, id 29, switching the packets the bot
+	 * sends to match.
+	 * 
+	 * @param p the wire format packet
+	 */
+	public final void process(final Packet29WireFormat p) {
+		bot.switchWireFormat(p.format);
+	}
+
+	/**
+	 * Processes a sector patch packet, id 30.
+	 * 
+	 * @param p the sector patch packet
+	 */
+	public final void process(final Packet30SectorPatch p) {
+		bot.getTest().getStats().sectorReceived();
+	}
+
+	/**
+	 * Processes a keep alive packet, id 32, by sending it back to the server.
+	 * 
+	 * @param p the keep alive packet
+	 */
+	public final void process(final Packet32KeepAlive p) {
+		bot.send(p);
+	}
+}
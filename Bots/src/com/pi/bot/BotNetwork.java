@@ -0,0 +1,241 @@
+package com.pi.bot;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.pi.common.debug.PILogger;
+import com.pi.common.net.NetChangeRequest;
+
+/**
+ * A selector thread and data worker shared by many bots, so a load test
+ * doesn't need a pair of threads for every player it simulates.
+ * 
+ * @author Westin
+ * 
+ */
+public class BotNetwork extends Thread {
+	/**
+	 * The load test this network belongs to.
+	 */
+	private final LoadTest test;
+	/**
+	 * The address of the server.
+	 */
+	private final InetSocketAddress address;
+	/**
+	 * The selector instance.
+	 */
+	private final Selector selector;
+	/**
+	 * The queue that manages changes to the channels' interested operations and
+	 * selector registration.
+	 */
+	private final Queue<NetChangeRequest> pendingChanges =
+			new LinkedBlockingQueue<NetChangeRequest>();
+	/**
+	 * The data worker that handles the packets of every bot on this network.
+	 */
+	private final BotDataWorker worker;
+
+	/**
+	 * Running flag for the thread.
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Creates and starts a bot network connecting to the given address.
+	 * 
+	 * @param sTest the load test
+	 * @param sAddress the address of the server
+	 * @param index the index of this network, used to name its threads
+	 * @throws IOException if the selector couldn't be opened
+	 */
+	public BotNetwork(final LoadTest sTest,
+			final InetSocketAddress sAddress, final int index)
+			throws IOException {
+		super(sTest.getThreadGroup(), "BotNetwork" + index);
+		this.test = sTest;
+		this.address = sAddress;
+		this.selector = SelectorProvider.provider().openSelector();
+		this.worker = new BotDataWorker(this);
+		start();
+	}
+
+	/**
+	 * Starts connecting the given bot to the server. Packets can be sent on the
+	 * returned client straight away, and are written once it connects.
+	 * 
+	 * @param bot the bot
+	 * @return the bot's net client
+	 * @throws IOException if the connection couldn't be started
+	 */
+	public final BotClient connect(final Bot bot) throws IOException {
+		SocketChannel socketChannel = SocketChannel.open();
+		socketChannel.configureBlocking(false);
+		socketChannel.socket().setTcpNoDelay(true);
+		socketChannel.connect(address);
+		BotClient client = new BotClient(this, bot, socketChannel);
+		addChangeRequest(new NetChangeRequest(socketChannel,
+				NetChangeRequest.REGISTER, SelectionKey.OP_CONNECT, client));
+		selector.wakeup();
+		return client;
+	}
+
+	@Override
+	public final void run() {
+		while (selector.isOpen() && running) {
+			try {
+				NetChangeRequest change;
+				while ((change = pendingChanges.poll()) != null) {
+					switch (change.getType()) {
+					case NetChangeRequest.CHANGEOPS:
+						SelectionKey key =
+								change.getChannel().keyFor(selector);
+						if (key != null && key.isValid()
+								&& (key.interestOps()
+										& SelectionKey.OP_CONNECT) == 0) {
+							key.interestOps(change.getOperations());
+						}
+						break;
+					case NetChangeRequest.REGISTER:
+						change.getChannel().register(selector,
+								change.getOperations(),
+								change.getAttachment());
+						break;
+					default:
+						break;
+					}
+				}
+				if (selector.select() > 0) {
+					Iterator<SelectionKey> selectedKeys =
+							selector.selectedKeys().iterator();
+					while (selectedKeys.hasNext()) {
+						SelectionKey key = selectedKeys.next();
+						selectedKeys.remove();
+						if (key.isValid()) {
+							handle(key);
+						}
+					}
+				}
+			} catch (ClosedSelectorException e) {
+				break;
+			} catch (Exception e) {
+				getLog().printStackTrace(e);
+			}
+		}
+	}
+
+	/**
+	 * Handles a selected key, closing its bot's connection if it fails.
+	 * 
+	 * @param key the selection key
+	 */
+	private void handle(final SelectionKey key) {
+		BotClient client = (BotClient) key.attachment();
+		try {
+			if (key.isConnectable()) {
+				((SocketChannel) key.channel()).finishConnect();
+				key.interestOps(SelectionKey.OP_READ
+						| SelectionKey.OP_WRITE);
+			} else {
+				if (key.isReadable() && client.read(key) == -1) {
+					close(key, client);
+					return;
+				}
+				if (key.isValid() && key.isWritable()) {
+					client.write(key);
+				}
+			}
+		} catch (IOException e) {
+			close(key, client);
+		}
+	}
+
+	/**
+	 * Closes a bot's connection.
+	 * 
+	 * @param key the bot's selection key
+	 * @param client the bot's net client
+	 */
+	private void close(final SelectionKey key, final BotClient client) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			getLog().printStackTrace(e);
+		}
+		client.getBot().onDisconnect();
+	}
+
+	/**
+	 * Closes every connection, and stops the selector thread and the worker
+	 * thread.
+	 */
+	public final void dispose() {
+		try {
+			running = false;
+			selector.wakeup();
+			join();
+			worker.wakeup();
+			worker.join();
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+			selector.close();
+		} catch (Exception e) {
+			getLog().printStackTrace(e);
+		}
+	}
+
+	/**
+	 * Checks if this network is running.
+	 * 
+	 * @return <code>true</code> until the network is disposed
+	 */
+	public final boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Gets the logger instance for logging events.
+	 * 
+	 * @return the logger
+	 */
+	public final PILogger getLog() {
+		return test.getLog();
+	}
+
+	/**
+	 * Gets the data worker for this network.
+	 * 
+	 * @return the data worker
+	 */
+	public final BotDataWorker getWorker() {
+		return worker;
+	}
+
+	/**
+	 * Utility method to access {@link Selector#wakeup()}.
+	 */
+	public final void wakeSelector() {
+		selector.wakeup();
+	}
+
+	/**
+	 * Adds the given change request to the pending changes queue.
+	 * 
+	 * @param netChangeRequest the request to add
+	 */
+	public final void addChangeRequest(
+			final NetChangeRequest netChangeRequest) {
+		pendingChanges.add(netChangeRequest);
+	}
+}
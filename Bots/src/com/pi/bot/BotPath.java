@@ -0,0 +1,21 @@
+package com.pi.bot;
+
+import com.pi.common.constants.Direction;
+import com.pi.common.database.Location;
+
+/**
+ * The path a bot walks, which picks the direction of each step.
+ * 
+ * @author Westin
+ * 
+ */
+public interface BotPath {
+	/**
+	 * Picks the direction of the bot's next step.
+	 * 
+	 * @param origin the location the bot started walking from
+	 * @param current the bot's current location
+	 * @return the direction to step in, or <code>null</code> to stand still
+	 */
+	Direction next(Location origin, Location current);
+}
@@ -0,0 +1,240 @@
+package com.pi.bot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi.bot.constants.BotConstants;
+import com.pi.common.util.Histogram;
+
+/**
+ * The counters shared by every bot in a load test. Each counter is an atomic,
+ * as they're updated from the bot driver and every network worker.
+ * 
+ * @author Westin
+ * 
+ */
+public class BotStats {
+	/**
+	 * The number of bots that have logged in.
+	 */
+	private final AtomicLong loginCount = new AtomicLong();
+	/**
+	 * The number of bots that failed to log in.
+	 */
+	private final AtomicLong loginFailureCount = new AtomicLong();
+	/**
+	 * The number of bots that have been disconnected by the server.
+	 */
+	private final AtomicLong disconnectCount = new AtomicLong();
+	/**
+	 * The number of moves sent.
+	 */
+	private final AtomicLong moveCount = new AtomicLong();
+	/**
+	 * The number of moves the server has rejected, by sending the bot back to
+	 * where it was.
+	 */
+	private final AtomicLong correctionCount = new AtomicLong();
+	/**
+	 * The number of attacks sent.
+	 */
+	private final AtomicLong attackCount = new AtomicLong();
+	/**
+	 * The number of sectors requested.
+	 */
+	private final AtomicLong sectorRequestCount = new AtomicLong();
+	/**
+	 * The number of sectors received, including blank sectors and patches.
+	 */
+	private final AtomicLong sectorCount = new AtomicLong();
+	/**
+	 * The number of definitions requested.
+	 */
+	private final AtomicLong defRequestCount = new AtomicLong();
+	/**
+	 * The number of definitions received.
+	 */
+	private final AtomicLong defCount = new AtomicLong();
+	/**
+	 * The round trip times of the clock packets, in microseconds.
+	 */
+	private final Histogram roundTrips = new Histogram(
+			BotConstants.ROUND_TRIP_BUCKETS);
+
+	/**
+	 * Records a bot logging in.
+	 */
+	public final void loggedIn() {
+		loginCount.incrementAndGet();
+	}
+
+	/**
+	 * Records a bot failing to log in.
+	 */
+	public final void loginFailed() {
+		loginFailureCount.incrementAndGet();
+	}
+
+	/**
+	 * Records a bot being disconnected.
+	 */
+	public final void disconnected() {
+		disconnectCount.incrementAndGet();
+	}
+
+	/**
+	 * Records a move being sent.
+	 */
+	public final void moved() {
+		moveCount.incrementAndGet();
+	}
+
+	/**
+	 * Records the server correcting a bot's location.
+	 */
+	public final void corrected() {
+		correctionCount.incrementAndGet();
+	}
+
+	/**
+	 * Records an attack being sent.
+	 */
+	public final void attacked() {
+		attackCount.incrementAndGet();
+	}
+
+	/**
+	 * Records a sector being requested.
+	 */
+	public final void sectorRequested() {
+		sectorRequestCount.incrementAndGet();
+	}
+
+	/**
+	 * Records a sector being received.
+	 */
+	public final void sectorReceived() {
+		sectorCount.incrementAndGet();
+	}
+
+	/**
+	 * Records a definition being requested.
+	 */
+	public final void defRequested() {
+		defRequestCount.incrementAndGet();
+	}
+
+	/**
+	 * Records a definition being received.
+	 */
+	public final void defReceived() {
+		defCount.incrementAndGet();
+	}
+
+	/**
+	 * Records the round trip time of a clock packet.
+	 * 
+	 * @param nanos the round trip time in nanoseconds
+	 */
+	public final void roundTrip(final long nanos) {
+		roundTrips.record(nanos / 1000L);
+	}
+
+	/**
+	 * Gets the number of bots that have logged in.
+	 * 
+	 * @return the login count
+	 */
+	public final long getLoginCount() {
+		return loginCount.get();
+	}
+
+	/**
+	 * Gets the number of bots that failed to log in.
+	 * 
+	 * @return the login failure count
+	 */
+	public final long getLoginFailureCount() {
+		return loginFailureCount.get();
+	}
+
+	/**
+	 * Gets the number of bots that have been disconnected.
+	 * 
+	 * @return the disconnect count
+	 */
+	public final long getDisconnectCount() {
+		return disconnectCount.get();
+	}
+
+	/**
+	 * Gets the number of moves sent.
+	 * 
+	 * @return the move count
+	 */
+	public final long getMoveCount() {
+		return moveCount.get();
+	}
+
+	/**
+	 * Gets the number of moves the server has corrected.
+	 * 
+	 * @return the correction count
+	 */
+	public final long getCorrectionCount() {
+		return correctionCount.get();
+	}
+
+	/**
+	 * Gets the number of attacks sent.
+	 * 
+	 * @return the attack count
+	 */
+	public final long getAttackCount() {
+		return attackCount.get();
+	}
+
+	/**
+	 * Gets the number of sectors requested.
+	 * 
+	 * @return the sector request count
+	 */
+	public final long getSectorRequestCount() {
+		return sectorRequestCount.get();
+	}
+
+	/**
+	 * Gets the number of sectors received.
+	 * 
+	 * @return the sector count
+	 */
+	public final long getSectorCount() {
+		return sectorCount.get();
+	}
+
+	/**
+	 * Gets the number of definitions requested.
+	 * 
+	 * @return the definition request count
+	 */
+	public final long getDefRequestCount() {
+		return defRequestCount.get();
+	}
+
+	/**
+	 * Gets the number of definitions received.
+	 * 
+	 * @return the definition count
+	 */
+	public final long getDefCount() {
+		return defCount.get();
+	}
+
+	/**
+	 * Gets the histogram of clock packet round trip times, in microseconds.
+	 * 
+	 * @return the round trip histogram
+	 */
+	public final Histogram getRoundTrips() {
+		return roundTrips;
+	}
+}
@@ -0,0 +1,485 @@
+package com.pi.bot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.management.JMException;
+
+import com.pi.bot.constants.BotConstants;
+import com.pi.common.debug.PILogger;
+import com.pi.common.net.PacketMetrics;
+import com.pi.common.util.Histogram;
+
+/**
+ * Puts a repeatable load on a running server with headless bots, to find the
+ * number of players it can handle.
+ * <p>
+ * The load test logs in a growing number of bots, and for each player count
+ * measures the packets and bytes the bots send and receive per second, the
+ * round trip time of their clock packets, and, if the server's JMX agent is
+ * given, the CPU the server uses. Bots stay online between player counts.
+ * The options are:
+ * <ul>
+ * <li><code>-host</code> and <code>-port</code>: the server to connect to</li>
+ * <li><code>-players</code>: the player counts, separated by commas</li>
+ * <li><code>-warmup</code> and <code>-duration</code>: the seconds to wait
+ * and then measure for at each player count</li>
+ * <li><code>-path</code>: <code>random</code>, a script of <code>UDLR</code>
+ * steps, or <code>@file</code> to read a script from a file</li>
+ * <li><code>-move</code>, <code>-attack</code> and <code>-clock</code>: the
+ * milliseconds between each bot's steps, attacks and clock packets</li>
+ * <li><code>-radius</code>: the tiles a random path wanders from its spawn</li>
+ * <li><code>-prefix</code>: the prefix of the bots' account names</li>
+ * <li><code>-rate</code>: the bots connected per second</li>
+ * <li><code>-networks</code>: the selector threads the bots share</li>
+ * <li><code>-seed</code>: the seed of the bots' random paths</li>
+ * <li><code>-jmx</code>: the <code>host:port</code> of the server's JMX
+ * agent, see {@link ServerProbe}</li>
+ * </ul>
+ * 
+ * @author Westin
+ * 
+ */
+public class LoadTest {
+	/**
+	 * The format of the header of the results table.
+	 */
+	private static final String HEADER_FORMAT =
+			"%8s %8s %9s %9s %9s %10s %9s %9s %9s %9s %8s%n";
+	/**
+	 * The format of each row of the results table.
+	 */
+	private static final String ROW_FORMAT =
+			"%8d %8d %9.1f %9.1f %9.1f %10.1f %9.2f %9.2f %9.2f %9d %8s%n";
+
+	/**
+	 * The thread group for the load test's threads.
+	 */
+	private final ThreadGroup threads = new ThreadGroup("LoadTest");
+	/**
+	 * The logger, which writes to the standard error stream so the results
+	 * on the standard output stream stay readable.
+	 */
+	private final PILogger log = new PILogger(System.err);
+	/**
+	 * The counters shared by every bot.
+	 */
+	private final BotStats stats = new BotStats();
+
+	/**
+	 * The address of the server.
+	 */
+	private InetSocketAddress address;
+	/**
+	 * The player counts to measure at.
+	 */
+	private int[] playerCounts = BotConstants.DEFAULT_PLAYER_COUNTS;
+	/**
+	 * The time in milliseconds to wait before measuring each player count.
+	 */
+	private long warmupTime = BotConstants.DEFAULT_WARMUP_TIME;
+	/**
+	 * The time in milliseconds to measure each player count for.
+	 */
+	private long stepTime = BotConstants.DEFAULT_STEP_TIME;
+	/**
+	 * The path script, or <code>null</code> to walk random paths.
+	 */
+	private String script = null;
+	/**
+	 * The time in milliseconds between each bot's steps.
+	 */
+	private long moveTime = BotConstants.DEFAULT_MOVE_TIME;
+	/**
+	 * The time in milliseconds between each bot's attacks.
+	 */
+	private long attackTime = BotConstants.DEFAULT_ATTACK_TIME;
+	/**
+	 * The time in milliseconds between each bot's clock packets.
+	 */
+	private long clockTime = BotConstants.DEFAULT_CLOCK_TIME;
+	/**
+	 * The distance in tiles random paths wander.
+	 */
+	private int radius = BotConstants.DEFAULT_WANDER_RADIUS;
+	/**
+	 * The prefix of the bots' account names.
+	 */
+	private String prefix = BotConstants.DEFAULT_ACCOUNT_PREFIX;
+	/**
+	 * The number of bots connected per second.
+	 */
+	private int connectRate = BotConstants.DEFAULT_CONNECT_RATE;
+	/**
+	 * The number of networks the bots are spread across.
+	 */
+	private int networkCount = Math.max(1, Runtime.getRuntime()
+			.availableProcessors() / 2);
+	/**
+	 * The seed of the bots' random number generators.
+	 */
+	private long seed = 0;
+	/**
+	 * The host and port of the server's JMX agent, or <code>null</code> if
+	 * the server's CPU isn't measured.
+	 */
+	private String jmx = null;
+
+	/**
+	 * Creates a load test from the given command line options.
+	 * 
+	 * @param args the options
+	 * @throws IOException if the path script can't be read
+	 */
+	public LoadTest(final String[] args) throws IOException {
+		String host = BotConstants.DEFAULT_HOST;
+		int port = BotConstants.DEFAULT_PORT;
+		String path = "random";
+		for (int i = 0; i < args.length; i++) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for "
+						+ args[i]);
+			}
+			String opt = args[i];
+			String val = args[++i];
+			if (opt.equals("-host")) {
+				host = val;
+			} else if (opt.equals("-port")) {
+				port = Integer.parseInt(val);
+			} else if (opt.equals("-players")) {
+				String[] parts = val.split(",");
+				playerCounts = new int[parts.length];
+				for (int j = 0; j < parts.length; j++) {
+					playerCounts[j] = Integer.parseInt(parts[j].trim());
+				}
+			} else if (opt.equals("-warmup")) {
+				warmupTime = Long.parseLong(val) * 1000L;
+			} else if (opt.equals("-duration")) {
+				stepTime = Long.parseLong(val) * 1000L;
+			} else if (opt.equals("-path")) {
+				path = val;
+			} else if (opt.equals("-move")) {
+				moveTime = Long.parseLong(val);
+			} else if (opt.equals("-attack")) {
+				attackTime = Long.parseLong(val);
+			} else if (opt.equals("-clock")) {
+				clockTime = Long.parseLong(val);
+			} else if (opt.equals("-radius")) {
+				radius = Integer.parseInt(val);
+			} else if (opt.equals("-prefix")) {
+				prefix = val;
+			} else if (opt.equals("-rate")) {
+				connectRate = Math.max(1, Integer.parseInt(val));
+			} else if (opt.equals("-networks")) {
+				networkCount = Math.max(1, Integer.parseInt(val));
+			} else if (opt.equals("-seed")) {
+				seed = Long.parseLong(val);
+			} else if (opt.equals("-jmx")) {
+				jmx = val;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + opt);
+			}
+		}
+		this.address = new InetSocketAddress(host, port);
+		if (path.startsWith("@")) {
+			script = readScript(new File(path.substring(1)));
+		} else if (!path.equals("random")) {
+			script = path;
+		}
+	}
+
+	/**
+	 * Reads a path script from a file, ignoring whitespace.
+	 * 
+	 * @param f the file
+	 * @return the script
+	 * @throws IOException if the file can't be read
+	 */
+	private static String readScript(final File f) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(f));
+		try {
+			StringBuilder s = new StringBuilder();
+			String line;
+			while ((line = in.readLine()) != null) {
+				s.append(line.replaceAll("\\s", ""));
+			}
+			return s.toString();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Runs the load test, printing a row of results for each player count.
+	 * 
+	 * @param out the stream to print the results to
+	 * @throws IOException if a bot can't connect
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public final void run(final PrintStream out) throws IOException,
+			InterruptedException {
+		ServerProbe probe = null;
+		if (jmx != null) {
+			try {
+				probe = new ServerProbe(jmx);
+				out.println("Server has " + probe.getAvailableProcessors()
+						+ " processors, CPU is a percentage of one");
+			} catch (JMException e) {
+				log.printStackTrace(e);
+			}
+		}
+		BotNetwork[] networks = new BotNetwork[networkCount];
+		for (int i = 0; i < networks.length; i++) {
+			networks[i] = new BotNetwork(this, address, i);
+		}
+		BotDriver driver = new BotDriver(this);
+		List<Bot> bots = new ArrayList<Bot>();
+		out.printf(HEADER_FORMAT, "players", "online", "moves/s", "sent/s",
+				"recv/s", "recv KB/s", "rtt p50", "rtt p99", "rtt max",
+				"corrected", "cpu");
+		try {
+			for (int players : playerCounts) {
+				while (bots.size() < players) {
+					Bot bot = createBot(bots.size());
+					bot.connect(networks[bots.size() % networks.length]);
+					driver.add(bot);
+					bots.add(bot);
+					Thread.sleep(1000L / connectRate);
+				}
+				awaitLogins(bots);
+				Thread.sleep(warmupTime);
+				Snapshot before = new Snapshot(probe);
+				stats.getRoundTrips().reset();
+				Thread.sleep(stepTime);
+				Snapshot after = new Snapshot(probe);
+				printRow(out, bots, before, after);
+			}
+		} finally {
+			driver.dispose();
+			for (BotNetwork network : networks) {
+				network.dispose();
+			}
+			if (probe != null) {
+				probe.close();
+			}
+		}
+		out.println("Logins: " + stats.getLoginCount() + ", failed: "
+				+ stats.getLoginFailureCount() + ", disconnected: "
+				+ stats.getDisconnectCount() + ", sectors: "
+				+ stats.getSectorCount() + "/" + stats.getSectorRequestCount()
+				+ ", defs: " + stats.getDefCount() + "/"
+				+ stats.getDefRequestCount());
+	}
+
+	/**
+	 * Creates the bot with the given index.
+	 * 
+	 * @param index the bot's index
+	 * @return the bot
+	 */
+	private Bot createBot(final int index) {
+		Random random = new Random(seed + index);
+		BotPath path;
+		if (script != null) {
+			path = new ScriptedPath(script, random.nextInt(script.length()));
+		} else {
+			path = new RandomPath(random, radius);
+		}
+		return new Bot(this, prefix + index, path, random);
+	}
+
+	/**
+	 * Waits until every bot has logged in or failed, or
+	 * {@link BotConstants#LOGIN_TIMEOUT} passes.
+	 * 
+	 * @param bots the bots
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void awaitLogins(final List<Bot> bots)
+			throws InterruptedException {
+		long timeout = System.currentTimeMillis() + BotConstants.LOGIN_TIMEOUT;
+		while (System.currentTimeMillis() < timeout) {
+			boolean waiting = false;
+			for (Bot bot : bots) {
+				if (!bot.isOnline() && !bot.hasFailed()) {
+					waiting = true;
+					break;
+				}
+			}
+			if (!waiting) {
+				return;
+			}
+			Thread.sleep(BotConstants.DRIVER_TICK);
+		}
+		log.warning("Timed out waiting for bots to log in");
+	}
+
+	/**
+	 * Prints the results measured between two snapshots.
+	 * 
+	 * @param out the stream to print to
+	 * @param bots the bots
+	 * @param before the snapshot at the start of the measurement
+	 * @param after the snapshot at the end of the measurement
+	 */
+	private void printRow(final PrintStream out, final List<Bot> bots,
+			final Snapshot before, final Snapshot after) {
+		int online = 0;
+		for (Bot bot : bots) {
+			if (bot.isOnline()) {
+				online++;
+			}
+		}
+		double seconds = (after.time - before.time) / 1e9;
+		Histogram rtt = stats.getRoundTrips();
+		String cpu = "n/a";
+		if (before.cpuTime >= 0 && after.cpuTime >= 0) {
+			cpu =
+					String.format("%.1f%%", (after.cpuTime - before.cpuTime)
+							* 100D / (after.time - before.time));
+		}
+		out.printf(ROW_FORMAT, bots.size(), online,
+				(after.moves - before.moves) / seconds,
+				(after.sent - before.sent) / seconds,
+				(after.received - before.received) / seconds,
+				(after.receivedBytes - before.receivedBytes) / 1024D
+						/ seconds, rtt.getPercentile(50) / 1000D,
+				rtt.getPercentile(99) / 1000D, rtt.getMax() / 1000D,
+				after.corrections - before.corrections, cpu);
+	}
+
+	/**
+	 * The counters at a point in time.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private final class Snapshot {
+		/**
+		 * The system time in nanoseconds.
+		 */
+		private final long time;
+		/**
+		 * The packets sent and received, and the bytes received.
+		 */
+		private final long sent, received, receivedBytes;
+		/**
+		 * The moves sent and corrected.
+		 */
+		private final long moves, corrections;
+		/**
+		 * The server's CPU time in nanoseconds, or <code>-1</code> if unknown.
+		 */
+		private final long cpuTime;
+
+		/**
+		 * Takes a snapshot of the counters.
+		 * 
+		 * @param probe the server probe, or <code>null</code> if there isn't
+		 *            one
+		 */
+		private Snapshot(final ServerProbe probe) {
+			PacketMetrics metrics = PacketMetrics.getInstance();
+			this.sent = metrics.getSentCount();
+			this.received = metrics.getReceivedCount();
+			this.receivedBytes = metrics.getReceivedBytes();
+			this.moves = stats.getMoveCount();
+			this.corrections = stats.getCorrectionCount();
+			long cpu = -1;
+			if (probe != null) {
+				try {
+					cpu = probe.getProcessCpuTime();
+				} catch (Exception e) {
+					log.printStackTrace(e);
+				}
+			}
+			this.cpuTime = cpu;
+			this.time = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Gets the thread group for the load test's threads.
+	 * 
+	 * @return the thread group
+	 */
+	public final ThreadGroup getThreadGroup() {
+		return threads;
+	}
+
+	/**
+	 * Gets the logger.
+	 * 
+	 * @return the logger
+	 */
+	public final PILogger getLog() {
+		return log;
+	}
+
+	/**
+	 * Gets the counters shared by every bot.
+	 * 
+	 * @return the counters
+	 */
+	public final BotStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Gets the time in milliseconds between each bot's steps.
+	 * 
+	 * @return the move time
+	 */
+	public final long getMoveTime() {
+		return moveTime;
+	}
+
+	/**
+	 * Gets the time in milliseconds between each bot's attacks.
+	 * 
+	 * @return the attack time, or <code>0</code> if bots don't attack
+	 */
+	public final long getAttackTime() {
+		return attackTime;
+	}
+
+	/**
+	 * Gets the time in milliseconds between each bot's clock packets.
+	 * 
+	 * @return the clock time
+	 */
+	public final long getClockTime() {
+		return clockTime;
+	}
+
+	/**
+	 * Runs a load test with the given options.
+	 * 
+	 * @param args the options, see {@link LoadTest}
+	 */
+	public static void main(final String[] args) {
+		try {
+			new LoadTest(args).run(System.out);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: LoadTest [-host host] [-port port] "
+					+ "[-players 10,50,100] [-warmup s] [-duration s] "
+					+ "[-path random|UDLR...|@file] [-move ms] [-attack ms] "
+					+ "[-clock ms] [-radius tiles] [-prefix name] "
+					+ "[-rate bots/s] [-networks n] [-seed n] "
+					+ "[-jmx host:port]");
+			System.exit(1);
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+}
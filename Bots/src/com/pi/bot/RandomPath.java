@@ -0,0 +1,55 @@
+package com.pi.bot;
+
+import java.util.Random;
+
+import com.pi.bot.constants.BotConstants;
+import com.pi.common.constants.Direction;
+import com.pi.common.database.Location;
+
+/**
+ * A path that wanders randomly, usually carrying on in the same direction,
+ * and turning back towards where it started once it strays too far.
+ * 
+ * @author Westin
+ * 
+ */
+public class RandomPath implements BotPath {
+	/**
+	 * The random number generator.
+	 */
+	private final Random random;
+	/**
+	 * The distance in tiles this path can stray from its origin.
+	 */
+	private final int radius;
+	/**
+	 * The direction of the last step.
+	 */
+	private Direction last = null;
+
+	/**
+	 * Creates a random path.
+	 * 
+	 * @param sRandom the random number generator
+	 * @param sRadius the distance in tiles the path can stray from its origin
+	 */
+	public RandomPath(final Random sRandom, final int sRadius) {
+		this.random = sRandom;
+		this.radius = sRadius;
+	}
+
+	@Override
+	public final Direction next(final Location origin,
+			final Location current) {
+		if (Location.dist(origin, current) >= radius) {
+			last =
+					Direction.getBestDirection(origin.x - current.x,
+							origin.z - current.z);
+		} else if (last == null
+				|| random.nextDouble() >= BotConstants.STRAIGHT_CHANCE) {
+			Direction[] dirs = Direction.values();
+			last = dirs[random.nextInt(dirs.length)];
+		}
+		return last;
+	}
+}
@@ -0,0 +1,65 @@
+package com.pi.bot;
+
+import com.pi.common.constants.Direction;
+import com.pi.common.database.Location;
+
+/**
+ * A path that repeats a fixed script of steps. The script is a string of
+ * direction letters, <code>U</code>, <code>D</code>, <code>L</code> and
+ * <code>R</code>, with any other character standing still for a step.
+ * 
+ * @author Westin
+ * 
+ */
+public class ScriptedPath implements BotPath {
+	/**
+	 * The steps of the script.
+	 */
+	private final Direction[] steps;
+	/**
+	 * The index of the next step.
+	 */
+	private int index;
+
+	/**
+	 * Creates a scripted path, starting at the given step so bots sharing a
+	 * script don't walk in lockstep.
+	 * 
+	 * @param script the script
+	 * @param start the index of the first step
+	 */
+	public ScriptedPath(final String script, final int start) {
+		if (script.length() == 0) {
+			throw new IllegalArgumentException("Empty path script");
+		}
+		this.steps = new Direction[script.length()];
+		for (int i = 0; i < steps.length; i++) {
+			switch (Character.toUpperCase(script.charAt(i))) {
+			case 'U':
+				steps[i] = Direction.UP;
+				break;
+			case 'D':
+				steps[i] = Direction.DOWN;
+				break;
+			case 'L':
+				steps[i] = Direction.LEFT;
+				break;
+			case 'R':
+				steps[i] = Direction.RIGHT;
+				break;
+			default:
+				steps[i] = null;
+				break;
+			}
+		}
+		this.index = start % steps.length;
+	}
+
+	@Override
+	public final Direction next(final Location origin,
+			final Location current) {
+		Direction d = steps[index];
+		index = (index + 1) % steps.length;
+		return d;
+	}
+}
@@ -0,0 +1,95 @@
+package com.pi.bot;
+
+import java.io.IOException;
+
+import javax.management.JMException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * Reads the CPU time used by the server process over a remote JMX
+ * connection. The server has to be started with remote JMX enabled, for
+ * example with
+ * <code>-Dcom.sun.management.jmxremote.port=9010
+ * -Dcom.sun.management.jmxremote.authenticate=false
+ * -Dcom.sun.management.jmxremote.ssl=false</code>.
+ * 
+ * @author Westin
+ * 
+ */
+public class ServerProbe {
+	/**
+	 * The name of the operating system MBean.
+	 */
+	private static final String OPERATING_SYSTEM =
+			"java.lang:type=OperatingSystem";
+
+	/**
+	 * The JMX connector.
+	 */
+	private final JMXConnector connector;
+	/**
+	 * The connection to the server's MBean server.
+	 */
+	private final MBeanServerConnection connection;
+	/**
+	 * The name of the server's operating system MBean.
+	 */
+	private final ObjectName operatingSystem;
+
+	/**
+	 * Connects to the JMX agent of the server at the given host and port.
+	 * 
+	 * @param hostPort the host and port, separated by a colon
+	 * @throws IOException if the connection fails
+	 * @throws JMException if the operating system MBean's name is invalid
+	 */
+	public ServerProbe(final String hostPort) throws IOException,
+			JMException {
+		this.connector =
+				JMXConnectorFactory.connect(new JMXServiceURL(
+						"service:jmx:rmi:///jndi/rmi://" + hostPort
+								+ "/jmxrmi"));
+		this.connection = connector.getMBeanServerConnection();
+		this.operatingSystem = new ObjectName(OPERATING_SYSTEM);
+	}
+
+	/**
+	 * Gets the CPU time used by the server process.
+	 * 
+	 * @return the CPU time in nanoseconds
+	 * @throws IOException if the connection fails
+	 * @throws JMException if the server's JVM doesn't report its CPU time
+	 */
+	public final long getProcessCpuTime() throws IOException, JMException {
+		return ((Number) connection.getAttribute(operatingSystem,
+				"ProcessCpuTime")).longValue();
+	}
+
+	/**
+	 * Gets the number of processors available to the server.
+	 * 
+	 * @return the processor count
+	 * @throws IOException if the connection fails
+	 * @throws JMException if the attribute can't be read
+	 */
+	public final int getAvailableProcessors() throws IOException,
+			JMException {
+		return ((Number) connection.getAttribute(operatingSystem,
+				"AvailableProcessors")).intValue();
+	}
+
+	/**
+	 * Closes the connection.
+	 */
+	public final void close() {
+		try {
+			connector.close();
+		} catch (IOException e) {
+			// The server has probably already gone away.
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package com.pi.bot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.pi.bot.constants.BotConstants;
+import com.pi.common.constants.NetworkConstants;
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.debug.PILogger;
+import com.pi.common.net.CaptureReader;
+import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.PacketManager;
+
+/**
+ * Replays the client side of captured connections against a server, so the
+ * server can be profiled under a recorded, repeatable load.
+ * <p>
+ * Each capture, recorded on either side of a connection by a
+ * {@link com.pi.common.net.TrafficCapture}, is replayed on its own connection.
+ * The frames the client sent are written to the server as they were recorded,
+ * with the same length prefixes, and the frames the server sends back are
+ * counted by packet ID and thrown away. The options are:
+ * <ul>
+ * <li><code>-host</code> and <code>-port</code>: the server to connect to</li>
+ * <li><code>-speed</code>: the multiple of the recorded speed to replay at,
+ * or <code>0</code> to send every frame as fast as possible</li>
+ * </ul>
+ * followed by the capture files, or directories of <code>.cap</code> files.
+ * Captures that were started at different times keep their offsets from the
+ * earliest capture.
+ * 
+ * @author Westin
+ * 
+ */
+public class TrafficReplay {
+	/**
+	 * The logger, which writes to the standard error stream so the results
+	 * on the standard output stream stay readable.
+	 */
+	private final PILogger log = new PILogger(System.err);
+	/**
+	 * The thread group for the replay's threads.
+	 */
+	private final ThreadGroup threads = new ThreadGroup("TrafficReplay");
+
+	/**
+	 * The address of the server.
+	 */
+	private InetSocketAddress address;
+	/**
+	 * The replay speed, or <code>0</code> to replay as fast as possible.
+	 */
+	private double speed = BotConstants.DEFAULT_REPLAY_SPEED;
+	/**
+	 * The capture files to replay.
+	 */
+	private final List<File> captures = new ArrayList<File>();
+
+	/**
+	 * The number of frames sent to the server.
+	 */
+	private final AtomicLong sentFrames = new AtomicLong();
+	/**
+	 * The number of bytes sent to the server, including length prefixes.
+	 */
+	private final AtomicLong sentBytes = new AtomicLong();
+	/**
+	 * The number of frames received from the server.
+	 */
+	private final AtomicLong receivedFrames = new AtomicLong();
+	/**
+	 * The number of bytes received from the server, including length
+	 * prefixes.
+	 */
+	private final AtomicLong receivedBytes = new AtomicLong();
+	/**
+	 * The number of frames received from the server by their first byte.
+	 */
+	private final AtomicLongArray receivedById = new AtomicLongArray(256);
+	/**
+	 * The largest time in microseconds a frame was sent after it was due.
+	 */
+	private final AtomicLong maxLag = new AtomicLong();
+	/**
+	 * The number of connections that ended with an error.
+	 */
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Creates a replay from the given command line options.
+	 * 
+	 * @param args the options
+	 */
+	public TrafficReplay(final String[] args) {
+		String host = BotConstants.DEFAULT_HOST;
+		int port = BotConstants.DEFAULT_PORT;
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for "
+						+ args[i]);
+			}
+			String opt = args[i];
+			String val = args[++i];
+			if (opt.equals("-host")) {
+				host = val;
+			} else if (opt.equals("-port")) {
+				port = Integer.parseInt(val);
+			} else if (opt.equals("-speed")) {
+				speed = Math.max(0, Double.parseDouble(val));
+			} else {
+				throw new IllegalArgumentException("Unknown option " + opt);
+			}
+		}
+		for (; i < args.length; i++) {
+			File f = new File(args[i]);
+			if (f.isDirectory()) {
+				File[] files = f.listFiles();
+				if (files != null) {
+					for (File c : files) {
+						if (c.getName().endsWith(".cap")) {
+							captures.add(c);
+						}
+					}
+				}
+			} else {
+				captures.add(f);
+			}
+		}
+		if (captures.isEmpty()) {
+			throw new IllegalArgumentException("No captures given");
+		}
+		this.address = new InetSocketAddress(host, port);
+	}
+
+	/**
+	 * Replays every capture and prints the results.
+	 * 
+	 * @param out the stream to print the results to
+	 * @throws IOException if a capture can't be opened
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public final void run(final PrintStream out) throws IOException,
+			InterruptedException {
+		List<CaptureReader> readers = new ArrayList<CaptureReader>();
+		long earliest = Long.MAX_VALUE;
+		for (File f : captures) {
+			CaptureReader reader = new CaptureReader(f);
+			readers.add(reader);
+			earliest = Math.min(earliest, reader.getStartTime());
+		}
+		long start = System.nanoTime();
+		List<Replayer> replayers = new ArrayList<Replayer>();
+		for (int i = 0; i < readers.size(); i++) {
+			CaptureReader reader = readers.get(i);
+			long offset = 0;
+			if (speed > 0) {
+				offset =
+						(long) ((reader.getStartTime() - earliest) * 1000L
+								/ speed);
+			}
+			Replayer r =
+					new Replayer(captures.get(i).getName(), reader, start,
+							offset);
+			r.start();
+			replayers.add(r);
+		}
+		for (Replayer r : replayers) {
+			r.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		out.printf("Replayed %d captures in %.2f s at %s%n", replayers.size(),
+				seconds, speed > 0 ? speed + "x" : "full speed");
+		out.printf("Sent %d frames, %d bytes (%.1f frames/s, %.1f KB/s)%n",
+				sentFrames.get(), sentBytes.get(), sentFrames.get()
+						/ seconds, sentBytes.get() / 1024D / seconds);
+		out.printf("Received %d frames, %d bytes (%.1f frames/s, %.1f KB/s)%n",
+				receivedFrames.get(), receivedBytes.get(),
+				receivedFrames.get() / seconds, receivedBytes.get() / 1024D
+						/ seconds);
+		out.printf("Largest send lag %.2f ms, failed connections %d%n",
+				maxLag.get() / 1000D, failures.get());
+		for (int id = 0; id < receivedById.length(); id++) {
+			long count = receivedById.get(id);
+			if (count > 0) {
+				out.printf("%4d %-28s %10d%n", id, getPacketName(id), count);
+			}
+		}
+	}
+
+	/**
+	 * Gets the name of the packet with the given ID.
+	 * 
+	 * @param id the packet ID
+	 * @return the packet's class name, or <code>"?"</code> if unknown
+	 */
+	private static String getPacketName(final int id) {
+		Class<? extends Packet> clazz =
+				PacketManager.getInstance().getPairClass(id);
+		if (clazz == null) {
+			return "?";
+		}
+		return clazz.getSimpleName();
+	}
+
+	/**
+	 * Replays a single capture on its own connection.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private final class Replayer extends Thread {
+		/**
+		 * The capture being replayed.
+		 */
+		private final CaptureReader reader;
+		/**
+		 * The system time in nanoseconds the replay started.
+		 */
+		private final long start;
+		/**
+		 * The time in microseconds from the start of the replay this capture
+		 * starts at.
+		 */
+		private final long offset;
+
+		/**
+		 * Creates a replayer for the given capture.
+		 * 
+		 * @param name the capture's name
+		 * @param sReader the capture
+		 * @param sStart the system time in nanoseconds the replay started
+		 * @param sOffset the time in microseconds from the start of the
+		 *            replay this capture starts at
+		 */
+		private Replayer(final String name, final CaptureReader sReader,
+				final long sStart, final long sOffset) {
+			super(threads, "Replay-" + name);
+			this.reader = sReader;
+			this.start = sStart;
+			this.offset = sOffset;
+		}
+
+		@Override
+		public void run() {
+			Socket socket = null;
+			try {
+				socket = new Socket();
+				socket.setTcpNoDelay(true);
+				socket.connect(address);
+				Thread drain = new Drain(getName() + "-Drain", socket);
+				drain.start();
+				DataOutputStream out =
+						new DataOutputStream(new BufferedOutputStream(
+								socket.getOutputStream()));
+				while (reader.next()) {
+					if (!reader.isFromClient()) {
+						continue;
+					}
+					if (speed > 0) {
+						waitUntil(offset + (long) (reader.getTime() / speed),
+								out);
+					}
+					byte[] frame = reader.getFrame();
+					out.writeInt(frame.length);
+					out.write(frame);
+					sentFrames.incrementAndGet();
+					sentBytes.addAndGet(frame.length + SizeOf.INT);
+				}
+				out.flush();
+				Thread.sleep(BotConstants.REPLAY_LINGER_TIME);
+				socket.close();
+				drain.join();
+			} catch (Exception e) {
+				failures.incrementAndGet();
+				log.printStackTrace(e);
+			} finally {
+				try {
+					reader.close();
+					if (socket != null) {
+						socket.close();
+					}
+				} catch (IOException e) {
+					log.printStackTrace(e);
+				}
+			}
+		}
+
+		/**
+		 * Waits until the given time from the start of the replay, flushing
+		 * the frames written so far first if there's time to wait.
+		 * 
+		 * @param due the time in microseconds from the start of the replay
+		 * @param out the connection's output stream
+		 * @throws IOException if the stream can't be flushed
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		private void waitUntil(final long due, final DataOutputStream out)
+				throws IOException, InterruptedException {
+			long now = (System.nanoTime() - start) / 1000L;
+			if (due > now) {
+				out.flush();
+				now = (System.nanoTime() - start) / 1000L;
+				if (due > now) {
+					long wait = due - now;
+					Thread.sleep(wait / 1000L, (int) (wait % 1000L) * 1000);
+				}
+			} else {
+				long lag = now - due;
+				long max;
+				while (lag > (max = maxLag.get())
+						&& !maxLag.compareAndSet(max, lag)) {
+					continue;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads and counts the frames the server sends on a replayed connection.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private final class Drain extends Thread {
+		/**
+		 * The replayed connection.
+		 */
+		private final Socket socket;
+
+		/**
+		 * Creates a drain for the given connection.
+		 * 
+		 * @param name the thread's name
+		 * @param sSocket the connection
+		 */
+		private Drain(final String name, final Socket sSocket) {
+			super(threads, name);
+			this.socket = sSocket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				DataInputStream in =
+						new DataInputStream(new BufferedInputStream(
+								socket.getInputStream()));
+				byte[] data = new byte[NetworkConstants.MAX_BUFFER];
+				while (true) {
+					int len = in.readInt();
+					if (len < 1 || len > data.length) {
+						throw new IOException("Invalid frame length: " + len);
+					}
+					in.readFully(data, 0, len);
+					receivedFrames.incrementAndGet();
+					receivedBytes.addAndGet(len + SizeOf.INT);
+					receivedById.incrementAndGet(data[0] & 0xFF);
+				}
+			} catch (IOException e) {
+				// The connection was closed by the replayer or the server.
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Replays captures with the given options.
+	 * 
+	 * @param args the options and captures, see {@link TrafficReplay}
+	 */
+	public static void main(final String[] args) {
+		try {
+			new TrafficReplay(args).run(System.out);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: TrafficReplay [-host host] [-port port] "
+					+ "[-speed multiple|0] capture|directory...");
+			System.exit(1);
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+}
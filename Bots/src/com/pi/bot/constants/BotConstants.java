@@ -0,0 +1,102 @@
+package com.pi.bot.constants;
+
+/**
+ * The default settings for the load test bots, which can be overridden on the
+ * command line.
+ * 
+ * @author Westin
+ * 
+ */
+public final class BotConstants {
+	/**
+	 * Overridden constructor to prevent instances of this class from being
+	 * produced.
+	 */
+	private BotConstants() {
+	}
+
+	/**
+	 * The host the bots connect to.
+	 */
+	public static final String DEFAULT_HOST = "127.0.0.1";
+	/**
+	 * The port the bots connect to.
+	 */
+	public static final int DEFAULT_PORT = 9999;
+	/**
+	 * The player counts to measure at, in order.
+	 */
+	public static final int[] DEFAULT_PLAYER_COUNTS = { 10, 50, 100, 250,
+			500 };
+	/**
+	 * The time in milliseconds given to the bots to settle after each step's
+	 * players have logged in, before measuring.
+	 */
+	public static final long DEFAULT_WARMUP_TIME = 5000;
+	/**
+	 * The time in milliseconds each player count is measured for.
+	 */
+	public static final long DEFAULT_STEP_TIME = 30000;
+	/**
+	 * The time in milliseconds to wait for a step's players to log in.
+	 */
+	public static final long LOGIN_TIMEOUT = 30000;
+	/**
+	 * The number of bots connected per second while ramping up.
+	 */
+	public static final int DEFAULT_CONNECT_RATE = 100;
+
+	/**
+	 * The time in milliseconds between each step a bot takes.
+	 */
+	public static final long DEFAULT_MOVE_TIME = 250;
+	/**
+	 * The time in milliseconds between each attack a bot makes, or
+	 * <code>0</code> to never attack.
+	 */
+	public static final long DEFAULT_ATTACK_TIME = 1000;
+	/**
+	 * The time in milliseconds between each clock packet a bot sends to
+	 * measure the round trip time.
+	 */
+	public static final long DEFAULT_CLOCK_TIME = 1000;
+	/**
+	 * The distance in tiles a bot walking a random path wanders from where it
+	 * spawned.
+	 */
+	public static final int DEFAULT_WANDER_RADIUS = 16;
+	/**
+	 * The chance a bot walking a random path keeps walking in the same
+	 * direction.
+	 */
+	public static final double STRAIGHT_CHANCE = 0.75;
+
+	/**
+	 * The prefix of each bot's account name, followed by the bot's index.
+	 */
+	public static final String DEFAULT_ACCOUNT_PREFIX = "bot";
+	/**
+	 * The number of sectors around a bot's sector it requests in each
+	 * direction.
+	 */
+	public static final int SECTOR_VIEW_RADIUS = 1;
+	/**
+	 * The time in milliseconds between each tick of the bot driver.
+	 */
+	public static final long DRIVER_TICK = 10;
+	/**
+	 * The number of bits used by the round trip time histogram, which records
+	 * microseconds.
+	 */
+	public static final int ROUND_TRIP_BUCKETS = 32;
+	/**
+	 * The speed captures are replayed at, as a multiple of the speed they were
+	 * recorded at, or <code>0</code> to replay them as fast as possible.
+	 */
+	public static final double DEFAULT_REPLAY_SPEED = 1;
+	/**
+	 * The time in milliseconds a replayed connection stays open after its
+	 * last frame is sent, to receive the server's responses.
+	 */
+	public static final long REPLAY_LINGER_TIME = 2000;
+}
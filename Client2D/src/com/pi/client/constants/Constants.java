@@ -15,6 +15,16 @@ public abstract class Constants {
 	 * The port to establish a network connection on.
 	 */
 	public static final int NETWORK_PORT = 9999;
+	/**
+	 * If the frames sent and received on the network connection are recorded
+	 * to a capture in the captures directory.
+	 */
+	public static final boolean NETWORK_CAPTURE = false;
+	/**
+	 * If the cached sectors are stored in region files, rather than a file for
+	 * each sector.
+	 */
+	public static final boolean SECTOR_REGION_FILES = true;
 	
 	/**
 	 * The default width of the client viewing container.
@@ -100,6 +100,29 @@ public final class Paths {
 		return f;
 	}
 
+	/**
+	 * Get's the local directory the traffic captures are created in.
+	 * 
+	 * @return the capture directory
+	 */
+	public static File getCaptureDirectory() {
+		File f = new File(getHomeDirectory(), "captures");
+		if (!f.exists()) {
+			f.mkdir();
+		}
+		return f;
+	}
+
+	/**
+	 * Gets a new file to capture the client's traffic to.
+	 * 
+	 * @return the capture file
+	 */
+	public static File getCaptureFile() {
+		return new File(getCaptureDirectory(), System.currentTimeMillis()
+				+ ".cap");
+	}
+
 	/**
 	 * Get's the local directory for caching the libraries.
 	 * 
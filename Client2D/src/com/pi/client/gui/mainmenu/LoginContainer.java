@@ -3,6 +3,7 @@ package com.pi.client.gui.mainmenu;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
+import com.pi.common.constants.NetworkConstants;
 import com.pi.common.constants.UserConstants;
 import com.pi.common.net.packet.Packet1Login;
 import com.pi.common.util.PICryptUtils;
@@ -98,6 +99,8 @@ public class LoginContainer extends PIContainer {
 						pack.password =
 								PICryptUtils.crypt(passwordField
 										.getContent());
+						pack.features =
+								NetworkConstants.SUPPORTED_FEATURES;
 						menu.getClient().getNetwork().send(pack);
 						menu.getClient()
 								.getRenderLoop()
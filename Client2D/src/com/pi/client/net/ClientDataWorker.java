@@ -24,6 +24,7 @@ public class ClientDataWorker extends DataWorker {
 	public ClientDataWorker(final ClientNetwork sNet) {
 		super(sNet.getThreadGroup());
 		this.net = sNet;
+		start();
 	}
 
 	@Override
@@ -3,7 +3,6 @@ package com.pi.client.net;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -14,10 +13,15 @@ import java.util.Queue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import com.pi.client.Client;
+import com.pi.client.constants.Constants;
+import com.pi.client.database.Paths;
 import com.pi.common.debug.PILogger;
 import com.pi.common.net.DataWorker;
 import com.pi.common.net.NetChangeRequest;
+import com.pi.common.net.NetDatagramClient;
 import com.pi.common.net.NetHandler;
+import com.pi.common.net.TrafficCapture;
+import com.pi.common.net.WireFormat;
 import com.pi.common.net.packet.Packet;
 import com.pi.common.net.packet.Packet17Clock;
 
@@ -74,6 +78,11 @@ public class ClientNetwork extends Thread {
 	 * The NetClientClient instance.
 	 */
 	private NetClientClient netClient;
+	/**
+	 * The datagram channel offered by the server, or <code>null</code> if none
+	 * has been offered.
+	 */
+	private NetDatagramClient datagrams = null;
 
 	/**
 	 * Server time and ping information.
@@ -109,6 +118,14 @@ public class ClientNetwork extends Thread {
 			this.netClient =
 					new NetClientClient(this,
 							initiateConnection());
+			if (Constants.NETWORK_CAPTURE) {
+				try {
+					netClient.startCapture(Paths.getCaptureFile(),
+							TrafficCapture.SIDE_CLIENT);
+				} catch (IOException e) {
+					client.getLog().printStackTrace(e);
+				}
+			}
 			start();
 		} catch (IOException e) {
 			client.getLog().printStackTrace(e);
@@ -174,6 +191,35 @@ public class ClientNetwork extends Thread {
 		netClient.send(pack);
 	}
 
+	/**
+	 * Opens the datagram channel the server offered, replacing any channel
+	 * that was already open.
+	 * 
+	 * @param token the token the server offered
+	 * @param datagramPort the server's datagram port
+	 */
+	public final synchronized void openDatagrams(final long token,
+			final int datagramPort) {
+		if (datagrams != null) {
+			datagrams.dispose();
+		}
+		datagrams =
+				new NetDatagramClient(client.getThreadGroup(), netClient,
+						worker, new InetSocketAddress(hostAddress,
+								datagramPort), token);
+		datagrams.start();
+	}
+
+	/**
+	 * Utility method to switch the wire format packets are sent in.
+	 * 
+	 * @see NetClientClient#switchWireFormat(WireFormat)
+	 * @param format the new wire format
+	 */
+	public final void switchWireFormat(final WireFormat format) {
+		netClient.switchWireFormat(format);
+	}
+
 	@Override
 	public final void run() {
 		while (selector.isOpen() && isRunning) {
@@ -215,7 +261,7 @@ public class ClientNetwork extends Thread {
 						} else if (key.isReadable()) {
 							netClient.read(key);
 						} else if (key.isWritable()) {
-							this.write(key);
+							netClient.write(key);
 						}
 					}
 				}
@@ -228,34 +274,6 @@ public class ClientNetwork extends Thread {
 		}
 	}
 
-	/**
-	 * Writes any queued packets to the socket channel attached to this key.
-	 * 
-	 * @param key the key to write on
-	 * @throws IOException if an error is thrown
-	 */
-	private void write(final SelectionKey key)
-			throws IOException {
-		SocketChannel socketChannel =
-				(SocketChannel) key.channel();
-		synchronized (netClient.getSendQueue()) {
-			while (!netClient.getSendQueue().isEmpty()) {
-				ByteBuffer buf =
-						(ByteBuffer) netClient.getSendQueue()
-								.peek();
-				socketChannel.write(buf);
-				if (buf.remaining() > 0) {
-					break;
-				}
-				netClient.getSendQueue().poll();
-			}
-
-			if (netClient.getSendQueue().isEmpty()) {
-				key.interestOps(SelectionKey.OP_READ);
-			}
-		}
-	}
-
 	/**
 	 * Finish the connection requested by this selection key.
 	 * 
@@ -305,6 +323,11 @@ public class ClientNetwork extends Thread {
 	public final void dispose() {
 		try {
 			isRunning = false;
+			synchronized (this) {
+				if (datagrams != null) {
+					datagrams.dispose();
+				}
+			}
 			selector.wakeup();
 			join();
 			worker.wakeup();
@@ -317,6 +340,7 @@ public class ClientNetwork extends Thread {
 			}
 
 			netClient.getChannel().close();
+			netClient.stopCapture();
 			selector.close();
 		} catch (Exception e) {
 			client.getLog().printStackTrace(e);
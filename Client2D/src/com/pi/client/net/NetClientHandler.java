@@ -1,5 +1,7 @@
 package com.pi.client.net;
 
+import java.io.IOException;
+
 import com.pi.client.Client;
 import com.pi.client.entity.ClientEntity;
 import com.pi.common.database.Location;
@@ -22,7 +24,13 @@ import com.pi.common.net.packet.Packet21EntityFace;
 import com.pi.common.net.packet.Packet23ItemDef;
 import com.pi.common.net.packet.Packet24InventoryData;
 import com.pi.common.net.packet.Packet25InventoryUpdate;
+import com.pi.common.net.packet.Packet27EntityDelta;
+import com.pi.common.net.packet.Packet28CompressedSector;
+import com.pi.common.net.packet.Packet29WireFormat;
 import com.pi.common.net.packet.Packet2Alert;
+import com.pi.common.net.packet.Packet30SectorPatch;
+import com.pi.common.net.packet.Packet32KeepAlive;
+import com.pi.common.net.packet.Packet33DatagramOffer;
 import com.pi.common.net.packet.Packet4Sector;
 import com.pi.common.net.packet.Packet6BlankSector;
 import com.pi.common.net.packet.Packet7EntityTeleport;
@@ -68,8 +76,9 @@ public class NetClientHandler extends NetHandler {
 	}
 
 	@Override
-	public final void sendHandshake(final int packetID) {
-		this.netClient.send(Packet0Handshake.create(packetID));
+	public final void sendHandshake(final int packetID,
+			final int sequence) {
+		this.netClient.send(Packet0Handshake.create(packetID, sequence));
 	}
 
 	/**
@@ -311,4 +320,75 @@ public class NetClientHandler extends NetHandler {
 							+ "' for packet 25 inventory update");
 		}
 	}
+
+	/**
+	 * Processes an entity delta packet, id 27. If the entity isn't known the
+	 * delta can't be applied, so the full entity data is requested instead.
+	 * 
+	 * @param p the entity delta packet
+	 */
+	public final void process(final Packet27EntityDelta p) {
+		ClientEntity cEnt =
+				client.getEntityManager().getEntityContainer(
+						p.entityID);
+		if (cEnt == null) {
+			client.getNetwork()
+					.send(Packet10EntityDataRequest
+							.create(p.entityID));
+			return;
+		}
+		p.apply(cEnt.getWrappedEntity());
+	}
+
+	/**
+	 * Processes a compressed sector packet, id 28. The sector is inflated here,
+	 * on the network worker, and then handled like a sector data packet.
+	 * 
+	 * @param p the compressed sector packet
+	 */
+	public final void process(final Packet28CompressedSector p) {
+		try {
+			process(p.inflate());
+		} catch (IOException e) {
+			client.getLog().printStackTrace(e);
+		}
+	}
+
+	/**
+	 * Processes a wire format packet, id 29. The server's packets are already
+	 * being read in the new format, so the client switches the packets it
+	 * sends to match.
+	 * 
+	 * @param p the wire format packet
+	 */
+	public final void process(final Packet29WireFormat p) {
+		netClient.switchWireFormat(p.format);
+	}
+
+	/**
+	 * Processes a sector patch packet, id 30.
+	 * 
+	 * @param p the sector patch packet
+	 */
+	public final void process(final Packet30SectorPatch p) {
+		client.getWorld().applyPatch(p);
+	}
+
+	/**
+	 * Processes a keep alive packet, id 32, by sending it back to the server.
+	 * 
+	 * @param p the keep alive packet
+	 */
+	public final void process(final Packet32KeepAlive p) {
+		netClient.send(p);
+	}
+
+	/**
+	 * Processes a datagram channel offer, id 33, by opening the channel.
+	 * 
+	 * @param p the datagram offer packet
+	 */
+	public final void process(final Packet33DatagramOffer p) {
+		netClient.openDatagrams(p.token, p.port);
+	}
 }
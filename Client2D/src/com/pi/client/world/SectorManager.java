@@ -1,6 +1,5 @@
 package com.pi.client.world;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Hashtable;
@@ -10,10 +9,14 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 import com.pi.client.Client;
 import com.pi.client.ClientThread;
+import com.pi.client.constants.Constants;
 import com.pi.client.database.Paths;
-import com.pi.common.database.io.DatabaseIO;
+import com.pi.common.database.io.FileSectorStore;
+import com.pi.common.database.io.SectorStore;
+import com.pi.common.database.io.SectorStores;
 import com.pi.common.database.world.Sector;
 import com.pi.common.database.world.SectorLocation;
+import com.pi.common.net.packet.Packet30SectorPatch;
 import com.pi.common.net.packet.Packet5SectorRequest;
 
 /**
@@ -50,15 +53,39 @@ public class SectorManager extends ClientThread implements
 	 */
 	private volatile Hashtable<SectorLocation, Long> sentRequests =
 			new Hashtable<SectorLocation, Long>();
+	/**
+	 * The store the sector cache is kept in.
+	 */
+	private final SectorStore store;
+	/**
+	 * Guards writes to the store against it being closed.
+	 */
+	private final Object storeLock = new Object();
+	/**
+	 * If the store has been closed. Sectors received from the network after
+	 * this aren't saved.
+	 */
+	private boolean storeClosed = false;
 
 	/**
-	 * Create a sector manager for the provided client.
+	 * Create a sector manager for the provided client. If the sector cache's
+	 * region files can't be opened, a file is used for each sector instead.
 	 * 
 	 * @param client the client to bind this manager to
 	 */
 	public SectorManager(final Client client) {
 		super(client);
 		createMutex();
+		SectorStore s;
+		try {
+			s =
+					SectorStores.open(Paths.getSectorDirectory(),
+							Constants.SECTOR_REGION_FILES);
+		} catch (IOException e) {
+			client.getLog().printStackTrace(e);
+			s = new FileSectorStore(Paths.getSectorDirectory());
+		}
+		this.store = s;
 		start();
 	}
 
@@ -96,24 +123,69 @@ public class SectorManager extends ClientThread implements
 			sec.setSector(sector);
 			map.put(sector.getSectorLocation(), sec);
 		}
-		// Write Sector:
-		try {
-			File fin =
-					Paths.getSectorFile(sector.getSectorX(),
-							sector.getPlane(),
-							sector.getSectorZ());
-			File dest = new File(fin.getAbsolutePath() + ".tmp");
-			DatabaseIO.write(dest, sector);
-			dest.renameTo(fin);
-		} catch (IOException e) {
-			getClient().getLog().printStackTrace(e);
-		}
+		saveSector(sector);
 
 		getClient().getLog().info(
 				"Loaded client sector: "
 						+ sector.getSectorLocation().toString());
 	}
 
+	/**
+	 * Applies a sector patch to the loaded sector it's for, and saves the
+	 * patched sector to the cache. If that sector isn't loaded at the revision
+	 * the patch was made against, the whole sector is requested instead.
+	 * 
+	 * @param patch the sector patch
+	 */
+	public final void applyPatch(final Packet30SectorPatch patch) {
+		SectorLocation loc =
+				new SectorLocation(patch.baseX, patch.plane,
+						patch.baseZ);
+		Sector sector = null;
+		synchronized (getMutex()) {
+			SectorStorage sec = map.get(loc);
+			if (sec != null && sec.getSectorRaw() != null
+					&& sec.getSectorRaw().getRevision() == patch.fromRevision) {
+				sector = sec.getSectorRaw();
+				patch.apply(sector);
+			}
+		}
+		if (sector == null) {
+			sentRequests.put(loc, System.currentTimeMillis());
+			Packet5SectorRequest pack = new Packet5SectorRequest();
+			pack.baseX = loc.getSectorX();
+			pack.plane = loc.getPlane();
+			pack.baseZ = loc.getSectorZ();
+			pack.revision = -1;
+			getClient().getNetwork().send(pack);
+			return;
+		}
+		saveSector(sector);
+
+		getClient().getLog().fine(
+				"Patched client sector: " + loc.toString() + " to revision "
+						+ patch.revision);
+	}
+
+	/**
+	 * Writes a sector to the cache, unless this manager has stopped and closed
+	 * the cache.
+	 * 
+	 * @param sector the sector to write
+	 */
+	private void saveSector(final Sector sector) {
+		synchronized (storeLock) {
+			if (storeClosed) {
+				return;
+			}
+			try {
+				store.write(sector);
+			} catch (IOException e) {
+				getClient().getLog().printStackTrace(e);
+			}
+		}
+	}
+
 	@Override
 	public final void loop() {
 		synchronized (getMutex()) {
@@ -128,6 +200,17 @@ public class SectorManager extends ClientThread implements
 				removeExpired();
 			}
 		}
+		if (!isRunning()) {
+			synchronized (storeLock) {
+				storeClosed = true;
+				try {
+					store.compact();
+					store.close();
+				} catch (IOException e) {
+					getClient().getLog().printStackTrace(e);
+				}
+			}
+		}
 	}
 
 	/**
@@ -149,21 +232,27 @@ public class SectorManager extends ClientThread implements
 		SectorLocation oldestSector = loadQueue.poll();
 		if (oldestSector != null) {
 			SectorStorage sX = new SectorStorage();
-			File f = Paths.getSectorFile(oldestSector);
+			int x = oldestSector.getSectorX();
+			int plane = oldestSector.getPlane();
+			int z = oldestSector.getSectorZ();
 			int revision = -1;
-			if (f.exists()) {
+			try {
+				Sector sector = store.read(x, plane, z);
+				if (sector != null) {
+					sX.setSector(sector);
+					revision = sector.getRevision();
+				} else {
+					sX.setEmpty(true);
+				}
+			} catch (IOException e) {
+				getClient().getLog().severe(
+						"Corrupted sector cache: "
+								+ oldestSector.toString());
 				try {
-					sX.setSector((Sector) DatabaseIO.read(f,
-							new Sector()));
-					revision = sX.getSectorRaw().getRevision();
-				} catch (IOException e) {
-					getClient().getLog().severe(
-							"Corrupted sector cache: "
-									+ oldestSector.toString());
-					f.delete();
+					store.remove(x, plane, z);
+				} catch (IOException ex) {
+					getClient().getLog().printStackTrace(ex);
 				}
-			} else {
-				sX.setEmpty(true);
 			}
 			map.put(oldestSector, sX);
 			if (getClient().isNetworkConnected()) {
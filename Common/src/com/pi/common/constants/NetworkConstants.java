@@ -17,6 +17,13 @@ public final class NetworkConstants {
 	 */
 	public static final int MAX_BUFFER = 1024 * 64;
 
+	/**
+	 * The size in bytes of each slab that network clients read into. This must
+	 * be able to hold a {@link #MAX_BUFFER} sized packet and it's length
+	 * header.
+	 */
+	public static final int READ_SLAB_SIZE = MAX_BUFFER * 2;
+
 	/**
 	 * The time in milliseconds to recalculate the current network speeds.
 	 */
@@ -28,6 +35,163 @@ public final class NetworkConstants {
 	 */
 	public static final long HANDSHAKE_EXPIRY_TIME = 1000L;
 
+	/**
+	 * If send buffers are taken from the pooled direct buffers by default.
+	 */
+	public static final boolean BUFFER_POOL_ENABLED = true;
+
+	/**
+	 * The base two logarithm of the smallest pooled buffer size, 64 bytes.
+	 */
+	public static final int BUFFER_POOL_MIN_SHIFT = 6;
+
+	/**
+	 * The base two logarithm of the largest pooled buffer size, 128 kilobytes.
+	 * This is large enough to hold a {@link #MAX_BUFFER} sized packet and it's
+	 * length header.
+	 */
+	public static final int BUFFER_POOL_MAX_SHIFT = 17;
+
+	/**
+	 * The number of free bytes the buffer pool keeps for each size class.
+	 */
+	public static final int BUFFER_POOL_CLASS_BYTES = 1024 * 1024;
+
+	/**
+	 * The maximum number of queued buffers written by one gathering write.
+	 */
+	public static final int WRITE_GATHER_MAX_BUFFERS = 64;
+
+	/**
+	 * The maximum number of bytes written by one gathering write, unless the
+	 * first buffer alone is larger.
+	 */
+	public static final int WRITE_GATHER_MAX_BYTES = 256 * 1024;
+
+	/**
+	 * If small frames are copied into one contiguous buffer before writing.
+	 */
+	public static final boolean WRITE_COALESCE = true;
+
+	/**
+	 * The largest frame size in bytes, including the length header, that is
+	 * copied into the coalesce buffer.
+	 */
+	public static final int WRITE_COALESCE_THRESHOLD = 512;
+
+	/**
+	 * The size in bytes of each connection's coalesce buffer.
+	 */
+	public static final int WRITE_COALESCE_BUFFER = 16 * 1024;
+
+	/**
+	 * The largest frame size in bytes, including the length header, that is
+	 * added to a batch frame instead of being queued on its own.
+	 */
+	public static final int BATCH_MAX_FRAME = 512;
+
+	/**
+	 * The size in bytes of the buffer each batch frame is built in. A batch is
+	 * closed early if the next frame doesn't fit.
+	 */
+	public static final int BATCH_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * The largest number of payload bytes in each chunk a bulk packet is split
+	 * into.
+	 */
+	public static final int BULK_CHUNK_SIZE = 4 * 1024;
+
+	/**
+	 * The number of bulk chunks written after the real-time frames by each
+	 * gathering write.
+	 */
+	public static final int BULK_CHUNKS_PER_WRITE = 2;
+
+	/**
+	 * The size in bytes of the largest bulk packet that can be reassembled
+	 * from chunks.
+	 */
+	public static final int MAX_BULK_PAYLOAD = 16 * 1024 * 1024;
+
+	/**
+	 * The largest datagram sent on a datagram channel, small enough to avoid
+	 * IP fragmentation on common links.
+	 */
+	public static final int DATAGRAM_MAX_SIZE = 1200;
+
+	/**
+	 * The time in milliseconds between the hellos a client sends while
+	 * opening a datagram channel.
+	 */
+	public static final long DATAGRAM_HELLO_TIME = 250L;
+
+	/**
+	 * The number of hellos a client sends before giving up on a datagram
+	 * channel, and staying on TCP.
+	 */
+	public static final int DATAGRAM_HELLO_ATTEMPTS = 20;
+
+	/**
+	 * The longest time in milliseconds a client goes without sending on an
+	 * open datagram channel. If it has nothing to acknowledge it sends an
+	 * empty acknowledgement, so the server knows the channel still works.
+	 */
+	public static final long DATAGRAM_HEARTBEAT_TIME = 250L;
+	/**
+	 * If the counts, sizes and timings of each packet type sent and received
+	 * are recorded.
+	 * 
+	 * @see com.pi.common.net.PacketMetrics
+	 */
+	public static final boolean PACKET_METRICS = true;
+	/**
+	 * The number of buckets in each packet timing histogram. The timings are
+	 * recorded in microseconds, so the last bucket starts at about four
+	 * seconds.
+	 */
+	public static final int PACKET_METRICS_BUCKETS = 24;
+
+	/**
+	 * The login feature flag for clients that can inflate
+	 * {@link com.pi.common.net.packet.Packet28CompressedSector} packets.
+	 */
+	public static final int FEATURE_COMPRESSED_SECTORS = 1;
+
+	/**
+	 * The login feature flag for clients that can switch to the
+	 * {@link com.pi.common.net.WireFormat#V2} wire format.
+	 */
+	public static final int FEATURE_WIRE_V2 = 1 << 1;
+
+	/**
+	 * The login feature flag for clients that can reassemble bulk packets sent
+	 * as {@link com.pi.common.net.packet.Packet31Chunk} frames.
+	 */
+	public static final int FEATURE_CHUNKED_BULK = 1 << 2;
+
+	/**
+	 * The login feature flag for clients that answer
+	 * {@link com.pi.common.net.packet.Packet32KeepAlive} probes.
+	 */
+	public static final int FEATURE_KEEPALIVE = 1 << 3;
+
+	/**
+	 * The login feature flag for clients that can receive unreliable packets
+	 * over a datagram channel, offered with
+	 * {@link com.pi.common.net.packet.Packet33DatagramOffer}.
+	 */
+	public static final int FEATURE_DATAGRAMS = 1 << 4;
+
+	/**
+	 * The optional protocol features this build supports. Clients advertise
+	 * these when logging in, and the server only uses the features both sides
+	 * support.
+	 */
+	public static final int SUPPORTED_FEATURES = FEATURE_COMPRESSED_SECTORS
+			| FEATURE_WIRE_V2 | FEATURE_CHUNKED_BULK | FEATURE_KEEPALIVE
+			| FEATURE_DATAGRAMS;
+
 	/**
 	 * A class to get the size of primitives.
 	 * 
@@ -172,17 +172,17 @@ public class Location implements PacketObject {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(x);
-		pOut.writeInt(z);
-		pOut.writeInt(plane);
+		pOut.writeVarInt(x);
+		pOut.writeVarInt(z);
+		pOut.writeVarInt(plane);
 	}
 
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		x = pIn.readInt();
-		z = pIn.readInt();
-		plane = pIn.readInt();
+		x = pIn.readVarInt();
+		z = pIn.readVarInt();
+		plane = pIn.readVarInt();
 	}
 
 	@Override
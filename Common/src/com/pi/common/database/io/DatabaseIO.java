@@ -7,20 +7,50 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
+import com.pi.common.net.BufferPool;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 import com.pi.common.net.packet.PacketObject;
 
 /**
  * Utility class to read and write packet objects.
+ * <p>
+ * Files are read through their channel into a buffer from the
+ * {@link BufferPool}, or mapped if they're at least {@value #MAP_THRESHOLD}
+ * bytes. Objects are written through a pooled buffer of {@value #WRITE_CHUNK}
+ * bytes that is written to the channel each time it fills, so the object's
+ * length isn't needed up front. A file is written by writing a temporary file
+ * and then renaming it over the old one, so a failed write leaves the old file
+ * in place.
  * 
  * @author Westin
  * 
  */
 public final class DatabaseIO {
 	/**
-	 * Writes a packet object provided to the given output stream.
+	 * The size in bytes at which files are mapped instead of read into a
+	 * buffer.
+	 */
+	private static final int MAP_THRESHOLD = 1 << 20;
+	/**
+	 * The size in bytes of the buffer objects are written through.
+	 */
+	private static final int WRITE_CHUNK = 1 << 16;
+	/**
+	 * The number of bytes read at a time from an input stream of unknown
+	 * length.
+	 */
+	private static final int READ_CHUNK = 1 << 13;
+
+	/**
+	 * Writes a packet object provided to the given output stream, and closes
+	 * the stream.
 	 * 
 	 * @param out the stream to write to
 	 * @param obj the object to write
@@ -28,28 +58,132 @@ public final class DatabaseIO {
 	 */
 	public static void write(final OutputStream out,
 			final PacketObject obj) throws IOException {
+		try {
+			write(Channels.newChannel(out), obj);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a packet object provided to the given file, replacing it once the
+	 * object is completely written and flushed to the disk.
+	 * 
+	 * @param f the file to write to
+	 * @param obj the object to write
+	 * @throws IOException if there was a write issue
+	 */
+	public static void write(final File f, final PacketObject obj)
+			throws IOException {
+		File tmp = getTempFile(f);
+		FileOutputStream fO = new FileOutputStream(tmp);
+		boolean written = false;
+		try {
+			write(fO.getChannel(), obj);
+			fO.getChannel().force(false);
+			written = true;
+		} finally {
+			fO.close();
+			if (!written) {
+				tmp.delete();
+			}
+		}
+		replace(tmp, f);
+	}
+
+	/**
+	 * Writes a packet object to the given channel through a pooled buffer.
+	 * 
+	 * @param channel the channel to write to
+	 * @param obj the object to write
+	 * @throws IOException if there was a write issue
+	 */
+	private static void write(final WritableByteChannel channel,
+			final PacketObject obj) throws IOException {
+		ByteBuffer bb = BufferPool.getInstance().acquire(WRITE_CHUNK);
+		try {
+			PacketOutputStream pO = new PacketOutputStream(bb, channel);
+			obj.writeData(pO);
+			pO.flush();
+		} finally {
+			BufferPool.getInstance().release(bb);
+		}
+	}
+
+	/**
+	 * Encodes a packet object, so it can be written once the object is free to
+	 * change again.
+	 * 
+	 * @param obj the object to encode
+	 * @return the encoded object
+	 * @throws IOException if the object couldn't be encoded
+	 */
+	public static byte[] toByteArray(final PacketObject obj)
+			throws IOException {
 		PacketOutputStream pO =
 				new PacketOutputStream(ByteBuffer.allocate(obj
 						.getLength()));
 		obj.writeData(pO);
-		out.write(pO.getByteBuffer().array());
-		out.close();
+		return pO.getByteBuffer().array();
 	}
 
 	/**
-	 * Writes a packet object provided to the given file.
+	 * Writes a packet object encoded by {@link #toByteArray(PacketObject)} to
+	 * the given file, replacing it once the object is completely written and
+	 * flushed to the disk.
 	 * 
 	 * @param f the file to write to
-	 * @param obj the object to write
+	 * @param data the encoded object
 	 * @throws IOException if there was a write issue
 	 */
-	public static void write(final File f, final PacketObject obj)
+	public static void write(final File f, final byte[] data)
+			throws IOException {
+		File tmp = getTempFile(f);
+		FileOutputStream fO = new FileOutputStream(tmp);
+		boolean written = false;
+		try {
+			FileChannel channel = fO.getChannel();
+			ByteBuffer bb = ByteBuffer.wrap(data);
+			while (bb.hasRemaining()) {
+				channel.write(bb);
+			}
+			channel.force(false);
+			written = true;
+		} finally {
+			fO.close();
+			if (!written) {
+				tmp.delete();
+			}
+		}
+		replace(tmp, f);
+	}
+
+	/**
+	 * Gets the temporary file a file is written to before it replaces the
+	 * file.
+	 * 
+	 * @param f the file
+	 * @return the temporary file
+	 */
+	private static File getTempFile(final File f) {
+		return new File(f.getPath() + ".tmp");
+	}
+
+	/**
+	 * Renames a completely written temporary file over the file it replaces.
+	 * If the file can't be renamed over, as on Windows, it's deleted first.
+	 * 
+	 * @param tmp the temporary file
+	 * @param f the file to replace
+	 * @throws IOException if the file can't be replaced, in which case the
+	 *             temporary file is left in place
+	 */
+	private static void replace(final File tmp, final File f)
 			throws IOException {
-		if (!f.exists()) {
-			f.createNewFile();
+		if (!tmp.renameTo(f) && (!f.delete() || !tmp.renameTo(f))) {
+			throw new IOException("Unable to replace " + f + " with "
+					+ tmp);
 		}
-		FileOutputStream fO = new FileOutputStream(f);
-		write(fO, obj);
 	}
 
 	/**
@@ -65,10 +199,22 @@ public final class DatabaseIO {
 	public static PacketObject read(final InputStream in,
 			final PacketObject readTo)
 			throws IOException {
-		try {
+		return read(readByteBuffer(in), readTo);
+	}
 
-			PacketInputStream pIn =
-					new PacketInputStream(readByteBuffer(in));
+	/**
+	 * Reads a packet object by the type defined by the provided class, from the
+	 * remaining contents of the provided buffer.
+	 * 
+	 * @param bb the buffer to read from
+	 * @param readTo the object to read into
+	 * @return the read object
+	 * @throws IOException if the contents of the buffer are invalid
+	 */
+	public static PacketObject read(final ByteBuffer bb,
+			final PacketObject readTo) throws IOException {
+		try {
+			PacketInputStream pIn = new PacketInputStream(bb);
 			readTo.readData(pIn);
 			return readTo;
 		} catch (IOException e) {
@@ -83,21 +229,41 @@ public final class DatabaseIO {
 	 * Reads a packet object by the type defined by the provided class, from the
 	 * provided file.
 	 * 
-	 * @see DatabaseIO#read(InputStream, PacketObject)
+	 * @see DatabaseIO#read(ByteBuffer, PacketObject)
 	 * @param f the file to read from
 	 * @param readTo the object to read into
 	 * @return the read object
-	 * @throws IOException if there is a problem reading the stream, or with the
-	 *             contents of the stream
+	 * @throws IOException if there is a problem reading the file, or with the
+	 *             contents of the file
 	 */
 	public static PacketObject read(final File f,
 			final PacketObject readTo)
 			throws IOException {
-		return read(new FileInputStream(f), readTo);
+		FileInputStream in = new FileInputStream(f);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size >= MAP_THRESHOLD) {
+				return read(channel.map(MapMode.READ_ONLY, 0, size), readTo);
+			}
+			ByteBuffer bb = BufferPool.getInstance().acquire((int) size);
+			try {
+				while (bb.hasRemaining() && channel.read(bb) >= 0) {
+					continue;
+				}
+				bb.flip();
+				return read(bb, readTo);
+			} finally {
+				BufferPool.getInstance().release(bb);
+			}
+		} finally {
+			in.close();
+		}
 	}
 
 	/**
-	 * Read the contents of an input stream into a byte buffer.
+	 * Read the contents of an input stream into a byte buffer, and closes the
+	 * stream.
 	 * 
 	 * @param in the stream to read from
 	 * @return the byte buffer read into
@@ -105,23 +271,23 @@ public final class DatabaseIO {
 	 */
 	public static ByteBuffer readByteBuffer(final InputStream in)
 			throws IOException {
-		ByteBuffer bb = ByteBuffer.allocate(in.available());
-		while (true) {
-			int read = in.read();
-			if (read == -1) {
-				break;
-			}
-			if (!bb.hasRemaining()) {
-				ByteBuffer n =
-						ByteBuffer.allocate(bb.capacity()
-								+ in.available());
-				n.put(bb.array());
-				bb = n;
+		try {
+			byte[] data = new byte[Math.max(in.available(), READ_CHUNK)];
+			int length = 0;
+			while (true) {
+				if (length == data.length) {
+					data = Arrays.copyOf(data, data.length * 2);
+				}
+				int read = in.read(data, length, data.length - length);
+				if (read < 0) {
+					break;
+				}
+				length += read;
 			}
-			bb.put((byte) read);
+			return ByteBuffer.wrap(data, 0, length);
+		} finally {
+			in.close();
 		}
-		in.close();
-		return (ByteBuffer) bb.flip();
 	}
 
 	/**
@@ -0,0 +1,116 @@
+package com.pi.common.database.io;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.pi.common.database.world.Sector;
+import com.pi.common.database.world.SectorLocation;
+
+/**
+ * A sector store that keeps every sector in its own
+ * <code>x-plane-z.sector</code> file.
+ * 
+ * @author Westin
+ * 
+ */
+public class FileSectorStore implements SectorStore {
+	/**
+	 * The name of a sector file.
+	 */
+	private static final Pattern FILE_NAME = Pattern
+			.compile("(-?\\d+)-(-?\\d+)-(-?\\d+)\\.sector");
+
+	/**
+	 * The directory the sector files are in.
+	 */
+	private final File directory;
+
+	/**
+	 * Creates a store for the sector files in the given directory.
+	 * 
+	 * @param sDirectory the directory
+	 */
+	public FileSectorStore(final File sDirectory) {
+		this.directory = sDirectory;
+	}
+
+	/**
+	 * Gets the file for the sector at the given location.
+	 * 
+	 * @param x the sector's x position
+	 * @param plane the sector's plane
+	 * @param z the sector's z position
+	 * @return the sector file
+	 */
+	public final File getFile(final int x, final int plane, final int z) {
+		return new File(directory, x + "-" + plane + "-" + z + ".sector");
+	}
+
+	@Override
+	public final Sector read(final int x, final int plane, final int z)
+			throws IOException {
+		try {
+			return (Sector) DatabaseIO.read(getFile(x, plane, z),
+					new Sector());
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public final void write(final Sector sector) throws IOException {
+		write(sector.getSectorX(), sector.getPlane(), sector.getSectorZ(),
+				DatabaseIO.toByteArray(sector));
+	}
+
+	@Override
+	public final void write(final int x, final int plane, final int z,
+			final byte[] data) throws IOException {
+		DatabaseIO.write(getFile(x, plane, z), data);
+	}
+
+	@Override
+	public final boolean contains(final int x, final int plane, final int z) {
+		return getFile(x, plane, z).isFile();
+	}
+
+	@Override
+	public final void remove(final int x, final int plane, final int z)
+			throws IOException {
+		File f = getFile(x, plane, z);
+		if (f.exists() && !f.delete()) {
+			throw new IOException("Unable to delete " + f);
+		}
+	}
+
+	@Override
+	public final List<SectorLocation> getLocations() throws IOException {
+		String[] names = directory.list();
+		if (names == null) {
+			throw new IOException("Unable to list " + directory);
+		}
+		List<SectorLocation> locations = new ArrayList<SectorLocation>();
+		for (String name : names) {
+			Matcher m = FILE_NAME.matcher(name);
+			if (m.matches()) {
+				locations.add(new SectorLocation(Integer.parseInt(m.group(1)),
+						Integer.parseInt(m.group(2)), Integer.parseInt(m
+								.group(3))));
+			}
+		}
+		return locations;
+	}
+
+	@Override
+	public final void compact() {
+	}
+
+	@Override
+	public final void close() {
+	}
+}
@@ -0,0 +1,628 @@
+package com.pi.common.database.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.database.world.Sector;
+import com.pi.common.database.world.SectorLocation;
+
+/**
+ * A sector store that packs each {@value #REGION_SIZE} by
+ * {@value #REGION_SIZE} block of sectors on a plane into a single
+ * <code>x.plane.z.region</code> file.
+ * <p>
+ * A region file starts with a header holding a magic number, then the offset
+ * and length of every sector in the region, with a length of zero for
+ * sectors that aren't stored. Sectors are copied out of a read only mapping
+ * of the file that stays open, rather than opening a file for each read. A
+ * sector is rewritten in place if it still fits, otherwise it's appended to
+ * the end of the file and its old space is left unused. Once at least half of
+ * a region's sector data is unused, {@link #compact()} slides the sectors
+ * after each gap down into it, so later appends reuse the space. Files are
+ * grown in steps of {@value #REGION_GROWTH} bytes, and never shrunk, so the
+ * file doesn't have to be remapped for every append.
+ * 
+ * @author Westin
+ * 
+ */
+public class RegionSectorStore implements SectorStore {
+	/**
+	 * The number of bits of a sector coordinate that are within its region.
+	 */
+	public static final int REGION_SHIFT = 5;
+	/**
+	 * The width and depth of a region in sectors.
+	 */
+	public static final int REGION_SIZE = 1 << REGION_SHIFT;
+	/**
+	 * The mask of the bits of a sector coordinate that are within its region.
+	 */
+	private static final int REGION_MASK = REGION_SIZE - 1;
+	/**
+	 * The number of bytes a region file grows by at a time.
+	 */
+	public static final int REGION_GROWTH = 1 << 20;
+	/**
+	 * The number of unused bytes a region needs before it's compacted.
+	 */
+	private static final long COMPACT_MINIMUM = 1 << 20;
+	/**
+	 * The number that starts every region file.
+	 */
+	private static final int MAGIC = 0x50495247;
+	/**
+	 * The length in bytes of the header of a region file.
+	 */
+	private static final int HEADER_LENGTH = SizeOf.INT + REGION_SIZE
+			* REGION_SIZE * 2 * SizeOf.INT;
+	/**
+	 * The name of a region file.
+	 */
+	private static final Pattern FILE_NAME = Pattern
+			.compile("(-?\\d+)\\.(-?\\d+)\\.(-?\\d+)\\.region");
+
+	/**
+	 * The directory the region files are in.
+	 */
+	private final File directory;
+	/**
+	 * The open regions, by their region coordinates.
+	 */
+	private final Map<SectorLocation, Region> regions =
+			new HashMap<SectorLocation, Region>();
+	/**
+	 * If this store has been closed.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Creates a store for the region files in the given directory.
+	 * 
+	 * @param sDirectory the directory
+	 */
+	public RegionSectorStore(final File sDirectory) {
+		this.directory = sDirectory;
+	}
+
+	/**
+	 * Gets the region file for the given region coordinates.
+	 * 
+	 * @param regionX the region's x coordinate
+	 * @param plane the region's plane
+	 * @param regionZ the region's z coordinate
+	 * @return the region file
+	 */
+	public final File getFile(final int regionX, final int plane,
+			final int regionZ) {
+		return new File(directory, regionX + "." + plane + "." + regionZ
+				+ ".region");
+	}
+
+	/**
+	 * Gets the index of a sector's entry in its region's header.
+	 * 
+	 * @param x the sector's x position
+	 * @param z the sector's z position
+	 * @return the index
+	 */
+	private static int getIndex(final int x, final int z) {
+		return ((x & REGION_MASK) << REGION_SHIFT) | (z & REGION_MASK);
+	}
+
+	/**
+	 * Gets the open region for the given region coordinates, opening it if it
+	 * isn't already open.
+	 * 
+	 * @param regionX the region's x coordinate
+	 * @param plane the region's plane
+	 * @param regionZ the region's z coordinate
+	 * @param create if the region file should be created if it doesn't
+	 *            exist
+	 * @return the region, or <code>null</code> if its file doesn't exist and
+	 *         wasn't created
+	 * @throws IOException if the region file can't be opened
+	 */
+	private Region getRegion(final int regionX, final int plane,
+			final int regionZ, final boolean create) throws IOException {
+		SectorLocation key = new SectorLocation(regionX, plane, regionZ);
+		synchronized (regions) {
+			if (closed) {
+				throw new IOException("The sector store is closed");
+			}
+			Region r = regions.get(key);
+			if (r == null) {
+				File f = getFile(regionX, plane, regionZ);
+				if (!create && !f.exists()) {
+					return null;
+				}
+				r = new Region(f);
+				regions.put(key, r);
+			}
+			return r;
+		}
+	}
+
+	/**
+	 * Gets the open region holding the given sector.
+	 * 
+	 * @param x the sector's x position
+	 * @param plane the sector's plane
+	 * @param z the sector's z position
+	 * @param create if the region file should be created if it doesn't
+	 *            exist
+	 * @return the region, or <code>null</code> if its file doesn't exist and
+	 *         wasn't created
+	 * @throws IOException if the region file can't be opened
+	 */
+	private Region getSectorRegion(final int x, final int plane,
+			final int z, final boolean create) throws IOException {
+		return getRegion(x >> REGION_SHIFT, plane, z >> REGION_SHIFT,
+				create);
+	}
+
+	/**
+	 * Gets a snapshot of the open regions.
+	 * 
+	 * @return the open regions
+	 */
+	private List<Region> getOpenRegions() {
+		synchronized (regions) {
+			return new ArrayList<Region>(regions.values());
+		}
+	}
+
+	@Override
+	public final Sector read(final int x, final int plane, final int z)
+			throws IOException {
+		Region r = getSectorRegion(x, plane, z, false);
+		if (r == null) {
+			return null;
+		}
+		return r.read(getIndex(x, z));
+	}
+
+	@Override
+	public final void write(final Sector sector) throws IOException {
+		write(sector.getSectorX(), sector.getPlane(), sector.getSectorZ(),
+				DatabaseIO.toByteArray(sector));
+	}
+
+	@Override
+	public final void write(final int x, final int plane, final int z,
+			final byte[] data) throws IOException {
+		getSectorRegion(x, plane, z, true).write(getIndex(x, z), data);
+	}
+
+	@Override
+	public final boolean contains(final int x, final int plane, final int z) {
+		try {
+			Region r = getSectorRegion(x, plane, z, false);
+			return r != null && r.contains(getIndex(x, z));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public final void remove(final int x, final int plane, final int z)
+			throws IOException {
+		Region r = getSectorRegion(x, plane, z, false);
+		if (r != null) {
+			r.remove(getIndex(x, z));
+		}
+	}
+
+	@Override
+	public final List<SectorLocation> getLocations() throws IOException {
+		String[] names = directory.list();
+		if (names == null) {
+			throw new IOException("Unable to list " + directory);
+		}
+		List<SectorLocation> locations = new ArrayList<SectorLocation>();
+		for (String name : names) {
+			Matcher m = FILE_NAME.matcher(name);
+			if (m.matches()) {
+				int regionX = Integer.parseInt(m.group(1));
+				int plane = Integer.parseInt(m.group(2));
+				int regionZ = Integer.parseInt(m.group(3));
+				Region r = getRegion(regionX, plane, regionZ, false);
+				if (r != null) {
+					r.getLocations(regionX, plane, regionZ, locations);
+				}
+			}
+		}
+		return locations;
+	}
+
+	/**
+	 * Compacts every open region that has enough unused space.
+	 */
+	@Override
+	public final void compact() throws IOException {
+		for (Region r : getOpenRegions()) {
+			r.compact();
+		}
+	}
+
+	@Override
+	public final void close() throws IOException {
+		List<Region> open;
+		synchronized (regions) {
+			closed = true;
+			open = new ArrayList<Region>(regions.values());
+			regions.clear();
+		}
+		IOException failure = null;
+		for (Region r : open) {
+			try {
+				r.close();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * An open region file. Any number of sectors can be read at once, but
+	 * writing locks out everything else.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private static final class Region {
+		/**
+		 * The region file.
+		 */
+		private final File file;
+		/**
+		 * The region file, opened for reading and writing.
+		 */
+		private final RandomAccessFile access;
+		/**
+		 * The region file's channel.
+		 */
+		private final FileChannel channel;
+		/**
+		 * The read only mapping of the whole region file.
+		 */
+		private MappedByteBuffer mapped;
+		/**
+		 * The offset of each sector in the file.
+		 */
+		private final int[] offsets = new int[REGION_SIZE * REGION_SIZE];
+		/**
+		 * The length of each sector, or <code>0</code> if it isn't stored.
+		 */
+		private final int[] lengths = new int[REGION_SIZE * REGION_SIZE];
+		/**
+		 * The offset just past the last sector's data.
+		 */
+		private long end;
+		/**
+		 * The number of bytes before {@link #end} that aren't used by a
+		 * sector or the header.
+		 */
+		private long unused;
+		/**
+		 * The lock guarding the offsets, lengths and mapping.
+		 */
+		private final ReentrantReadWriteLock lock =
+				new ReentrantReadWriteLock();
+
+		/**
+		 * Opens the given region file, creating it if it doesn't exist.
+		 * 
+		 * @param sFile the region file
+		 * @throws IOException if the file can't be opened, or isn't a valid
+		 *             region file
+		 */
+		private Region(final File sFile) throws IOException {
+			this.file = sFile;
+			this.access = new RandomAccessFile(file, "rw");
+			this.channel = access.getChannel();
+			try {
+				readHeader();
+				mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			} catch (IOException e) {
+				access.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Reads the offsets and lengths from the header, writing an empty
+		 * header if the file is new.
+		 * 
+		 * @throws IOException if the header can't be read, or is invalid
+		 */
+		private void readHeader() throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			long size = channel.size();
+			if (size == 0) {
+				header.putInt(0, MAGIC);
+				writeFully(header, 0);
+				size = HEADER_LENGTH;
+			} else {
+				while (header.hasRemaining()
+						&& channel.read(header, header.position()) >= 0) {
+					continue;
+				}
+				header.flip();
+				if (header.remaining() < HEADER_LENGTH
+						|| header.getInt() != MAGIC) {
+					throw new IOException("Not a region file: " + file);
+				}
+			}
+			header.position(SizeOf.INT);
+			end = HEADER_LENGTH;
+			long used = 0;
+			for (int i = 0; i < offsets.length; i++) {
+				offsets[i] = header.getInt();
+				lengths[i] = header.getInt();
+				if (lengths[i] != 0) {
+					long sectorEnd = offsets[i] + (long) lengths[i];
+					if (offsets[i] < HEADER_LENGTH || lengths[i] < 0
+							|| sectorEnd > size) {
+						throw new IOException("The region file is corrupted: "
+								+ file);
+					}
+					end = Math.max(end, sectorEnd);
+					used += lengths[i];
+				}
+			}
+			unused = end - HEADER_LENGTH - used;
+		}
+
+		/**
+		 * Writes the whole of a buffer to the file at the given position.
+		 * 
+		 * @param b the buffer
+		 * @param position the position
+		 * @throws IOException if the buffer can't be written
+		 */
+		private void writeFully(final ByteBuffer b, final long position)
+				throws IOException {
+			long pos = position;
+			while (b.hasRemaining()) {
+				pos += channel.write(b, pos);
+			}
+		}
+
+		/**
+		 * Writes the offset and length of a sector to the header.
+		 * 
+		 * @param index the sector's index
+		 * @throws IOException if the header can't be written
+		 */
+		private void writeEntry(final int index) throws IOException {
+			ByteBuffer entry = ByteBuffer.allocate(2 * SizeOf.INT);
+			entry.putInt(offsets[index]).putInt(lengths[index]).flip();
+			writeFully(entry, SizeOf.INT + index * 2 * SizeOf.INT);
+		}
+
+		/**
+		 * Gets a view of a sector's data in the mapping.
+		 * 
+		 * @param index the sector's index
+		 * @return the sector's data
+		 */
+		private ByteBuffer view(final int index) {
+			ByteBuffer view = mapped.duplicate();
+			view.limit(offsets[index] + lengths[index]);
+			view.position(offsets[index]);
+			return view;
+		}
+
+		/**
+		 * Reads a sector from the mapping.
+		 * 
+		 * @param index the sector's index
+		 * @return the sector, or <code>null</code> if it isn't stored
+		 * @throws IOException if the sector can't be decoded
+		 */
+		private Sector read(final int index) throws IOException {
+			lock.readLock().lock();
+			try {
+				if (lengths[index] == 0) {
+					return null;
+				}
+				byte[] data = new byte[lengths[index]];
+				view(index).get(data);
+				return (Sector) DatabaseIO.read(ByteBuffer.wrap(data),
+						new Sector());
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Checks if a sector is stored.
+		 * 
+		 * @param index the sector's index
+		 * @return if the sector is stored
+		 */
+		private boolean contains(final int index) {
+			lock.readLock().lock();
+			try {
+				return lengths[index] != 0;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Writes a sector, in place if it fits in its current space,
+		 * otherwise at the end of the file.
+		 * 
+		 * @param index the sector's index
+		 * @param data the encoded sector
+		 * @throws IOException if the sector can't be written
+		 */
+		private void write(final int index, final byte[] data)
+				throws IOException {
+			lock.writeLock().lock();
+			try {
+				int offset = offsets[index];
+				if (data.length > lengths[index]) {
+					if (end + data.length > Integer.MAX_VALUE) {
+						throw new IOException("The region file is full: "
+								+ file);
+					}
+					unused += lengths[index];
+					offset = (int) end;
+					end += data.length;
+					if (end > mapped.capacity()) {
+						grow();
+					}
+				} else {
+					unused += lengths[index] - data.length;
+				}
+				writeFully(ByteBuffer.wrap(data), offset);
+				offsets[index] = offset;
+				lengths[index] = data.length;
+				writeEntry(index);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		/**
+		 * Grows the file to the next multiple of
+		 * {@value RegionSectorStore#REGION_GROWTH}
+		 * bytes past the end of the sector data, and remaps it.
+		 * 
+		 * @throws IOException if the file can't be grown
+		 */
+		private void grow() throws IOException {
+			long size = (end + REGION_GROWTH - 1) / REGION_GROWTH
+					* REGION_GROWTH;
+			size = Math.min(size, Integer.MAX_VALUE);
+			if (channel.size() < size) {
+				writeFully(ByteBuffer.allocate(1), size - 1);
+			}
+			mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		/**
+		 * Removes a sector.
+		 * 
+		 * @param index the sector's index
+		 * @throws IOException if the header can't be written
+		 */
+		private void remove(final int index) throws IOException {
+			lock.writeLock().lock();
+			try {
+				if (lengths[index] != 0) {
+					unused += lengths[index];
+					offsets[index] = 0;
+					lengths[index] = 0;
+					writeEntry(index);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		/**
+		 * Adds the locations of the stored sectors to the given list.
+		 * 
+		 * @param regionX the region's x coordinate
+		 * @param plane the region's plane
+		 * @param regionZ the region's z coordinate
+		 * @param locations the list to add to
+		 */
+		private void getLocations(final int regionX, final int plane,
+				final int regionZ, final List<SectorLocation> locations) {
+			lock.readLock().lock();
+			try {
+				for (int i = 0; i < lengths.length; i++) {
+					if (lengths[i] != 0) {
+						locations.add(new SectorLocation(
+								(regionX << REGION_SHIFT) | (i >> REGION_SHIFT),
+								plane, (regionZ << REGION_SHIFT)
+										| (i & REGION_MASK)));
+					}
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Slides each sector down into the unused space before it, in the
+		 * order they're stored, if at least half of the sector data is
+		 * unused. A sector is only moved if its new space doesn't overlap its
+		 * old space, so the header always points at a complete copy of every
+		 * sector.
+		 * 
+		 * @throws IOException if a sector can't be moved
+		 */
+		private void compact() throws IOException {
+			lock.writeLock().lock();
+			try {
+				if (unused < COMPACT_MINIMUM
+						|| unused * 2 < end - HEADER_LENGTH) {
+					return;
+				}
+				long[] order = new long[lengths.length];
+				int count = 0;
+				for (int i = 0; i < lengths.length; i++) {
+					if (lengths[i] != 0) {
+						order[count++] = ((long) offsets[i] << 32) | i;
+					}
+				}
+				Arrays.sort(order, 0, count);
+				long pos = HEADER_LENGTH;
+				for (int j = 0; j < count; j++) {
+					int i = (int) order[j];
+					if (offsets[i] - pos >= lengths[i]) {
+						writeFully(view(i), pos);
+						offsets[i] = (int) pos;
+						writeEntry(i);
+					}
+					pos = offsets[i] + (long) lengths[i];
+				}
+				long used = 0;
+				for (int j = 0; j < count; j++) {
+					used += lengths[(int) order[j]];
+				}
+				end = pos;
+				unused = end - HEADER_LENGTH - used;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		/**
+		 * Flushes the file to the disk and closes it.
+		 * 
+		 * @throws IOException if the file can't be closed
+		 */
+		private void close() throws IOException {
+			lock.writeLock().lock();
+			try {
+				channel.force(true);
+				access.close();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+}
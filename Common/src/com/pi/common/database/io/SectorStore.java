@@ -0,0 +1,93 @@
+package com.pi.common.database.io;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.pi.common.database.world.Sector;
+import com.pi.common.database.world.SectorLocation;
+
+/**
+ * An interface specifying how a world's sectors are stored on the disk.
+ * <p>
+ * Stores can be used from any number of threads.
+ * 
+ * @author Westin
+ * 
+ * @see FileSectorStore
+ * @see RegionSectorStore
+ */
+public interface SectorStore {
+	/**
+	 * Reads the sector at the given location.
+	 * 
+	 * @param x the sector's x position
+	 * @param plane the sector's plane
+	 * @param z the sector's z position
+	 * @return the sector, or <code>null</code> if it isn't stored
+	 * @throws IOException if the sector is stored but can't be read
+	 */
+	Sector read(int x, int plane, int z) throws IOException;
+
+	/**
+	 * Writes the given sector at its location, replacing the stored sector.
+	 * 
+	 * @param sector the sector
+	 * @throws IOException if the sector can't be written
+	 */
+	void write(Sector sector) throws IOException;
+
+	/**
+	 * Writes a sector encoded by {@link DatabaseIO#toByteArray} at the given
+	 * location, replacing the stored sector.
+	 * 
+	 * @param x the sector's x position
+	 * @param plane the sector's plane
+	 * @param z the sector's z position
+	 * @param data the encoded sector
+	 * @throws IOException if the sector can't be written
+	 */
+	void write(int x, int plane, int z, byte[] data) throws IOException;
+
+	/**
+	 * Checks if a sector is stored at the given location.
+	 * 
+	 * @param x the sector's x position
+	 * @param plane the sector's plane
+	 * @param z the sector's z position
+	 * @return if the sector is stored
+	 */
+	boolean contains(int x, int plane, int z);
+
+	/**
+	 * Removes the sector at the given location, if it's stored.
+	 * 
+	 * @param x the sector's x position
+	 * @param plane the sector's plane
+	 * @param z the sector's z position
+	 * @throws IOException if the sector can't be removed
+	 */
+	void remove(int x, int plane, int z) throws IOException;
+
+	/**
+	 * Lists the locations of every stored sector.
+	 * 
+	 * @return the sector locations
+	 * @throws IOException if the store can't be listed
+	 */
+	List<SectorLocation> getLocations() throws IOException;
+
+	/**
+	 * Reclaims the space left by sectors that were replaced or removed, if
+	 * enough of it has built up. This is safe to call often.
+	 * 
+	 * @throws IOException if the store can't be compacted
+	 */
+	void compact() throws IOException;
+
+	/**
+	 * Writes any buffered changes and closes the store.
+	 * 
+	 * @throws IOException if the store can't be closed
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,110 @@
+package com.pi.common.database.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.pi.common.database.world.Sector;
+import com.pi.common.database.world.SectorLocation;
+
+/**
+ * Utility class to open sector stores, and convert sectors between them.
+ * <p>
+ * Run as a program this converts a directory of sector files to region files,
+ * or back with the <code>-files</code> option:
+ * <code>SectorStores [-files] directory</code>. The sectors being converted
+ * from are left in place.
+ * 
+ * @author Westin
+ * 
+ */
+public final class SectorStores {
+	/**
+	 * Opens the sector store for the given directory. If region files are
+	 * used and there aren't any yet, the sector files in the directory are
+	 * converted to region files first.
+	 * 
+	 * @param directory the directory
+	 * @param regions if the sectors are stored in region files, rather than a
+	 *            file for each sector
+	 * @return the sector store
+	 * @throws IOException if the sector files couldn't be converted
+	 */
+	public static SectorStore open(final File directory,
+			final boolean regions) throws IOException {
+		FileSectorStore files = new FileSectorStore(directory);
+		if (!regions) {
+			return files;
+		}
+		RegionSectorStore store = new RegionSectorStore(directory);
+		if (store.getLocations().isEmpty()) {
+			try {
+				convert(files, store);
+			} catch (IOException e) {
+				store.close();
+				throw e;
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Copies every sector in one store to another.
+	 * 
+	 * @param from the store to copy from
+	 * @param to the store to copy to
+	 * @return the number of sectors copied
+	 * @throws IOException if a sector can't be copied
+	 */
+	public static int convert(final SectorStore from, final SectorStore to)
+			throws IOException {
+		List<SectorLocation> locations = from.getLocations();
+		for (SectorLocation l : locations) {
+			Sector sector =
+					from.read(l.getSectorX(), l.getPlane(), l.getSectorZ());
+			if (sector != null) {
+				to.write(l.getSectorX(), l.getPlane(), l.getSectorZ(),
+						DatabaseIO.toByteArray(sector));
+			}
+		}
+		return locations.size();
+	}
+
+	/**
+	 * Converts a directory of sectors between the two layouts.
+	 * 
+	 * @param args the options and directory, see {@link SectorStores}
+	 */
+	public static void main(final String[] args) {
+		boolean toFiles = args.length == 2 && args[0].equals("-files");
+		if (args.length != (toFiles ? 2 : 1)) {
+			System.err.println("Usage: SectorStores [-files] directory");
+			System.exit(1);
+		}
+		File directory = new File(args[args.length - 1]);
+		SectorStore files = new FileSectorStore(directory);
+		SectorStore regions = new RegionSectorStore(directory);
+		try {
+			long start = System.nanoTime();
+			int count;
+			if (toFiles) {
+				count = convert(regions, files);
+			} else {
+				count = convert(files, regions);
+			}
+			regions.close();
+			System.out.printf("Converted %d sectors in %.2f s%n", count,
+					(System.nanoTime() - start) / 1e9);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Overridden constructor to disallow the creation of instances.
+	 */
+	private SectorStores() {
+	}
+}
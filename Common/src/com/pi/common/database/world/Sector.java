@@ -205,10 +205,10 @@ public class Sector implements PacketObject {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(baseX);
-		pOut.writeInt(plane);
-		pOut.writeInt(baseZ);
-		pOut.writeInt(revision);
+		pOut.writeVarInt(baseX);
+		pOut.writeVarInt(plane);
+		pOut.writeVarInt(baseZ);
+		pOut.writeVarInt(revision);
 		for (int x = 0; x < tiles.length; x++) {
 			for (int y = 0; y < tiles[x].length; y++) {
 				if (tiles[x][y] == null) {
@@ -222,10 +222,10 @@ public class Sector implements PacketObject {
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		baseX = pIn.readInt();
-		plane = pIn.readInt();
-		baseZ = pIn.readInt();
-		revision = pIn.readInt();
+		baseX = pIn.readVarInt();
+		plane = pIn.readVarInt();
+		baseZ = pIn.readVarInt();
+		revision = pIn.readVarInt();
 		for (int x = 0; x < tiles.length; x++) {
 			for (int y = 0; y < tiles[x].length; y++) {
 				if (tiles[x][y] == null) {
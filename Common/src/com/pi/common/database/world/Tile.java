@@ -130,8 +130,8 @@ public class Tile implements PacketObject {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(flags);
-		pOut.writeInt(attribute.ordinal());
+		pOut.writeVarInt(flags);
+		pOut.writeEnum(attribute.ordinal());
 		int layerFlags = 0;
 		int stuff = 1;
 		for (int i = 0; i < layers.length; i++) {
@@ -140,7 +140,7 @@ public class Tile implements PacketObject {
 			}
 			stuff = stuff << 1;
 		}
-		pOut.writeInt(layerFlags);
+		pOut.writeVarInt(layerFlags);
 		for (int i = 0; i < layers.length; i++) {
 			if (layers[i] != null) {
 				layers[i].writeData(pOut);
@@ -151,15 +151,15 @@ public class Tile implements PacketObject {
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		flags = pIn.readInt();
-		int attribID = pIn.readInt();
+		flags = pIn.readVarInt();
+		int attribID = pIn.readEnum();
 		if (attribID >= 0
 				&& attribID < TileAttribute.values().length) {
 			attribute = TileAttribute.values()[attribID];
 		} else {
 			attribute = TileAttribute.NONE;
 		}
-		int layerFlags = pIn.readInt();
+		int layerFlags = pIn.readVarInt();
 		int stuff = 1;
 		for (int i = 0; i < layers.length; i++) {
 			if ((layerFlags & stuff) == stuff) {
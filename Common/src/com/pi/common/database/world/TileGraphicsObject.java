@@ -27,14 +27,14 @@ public class TileGraphicsObject extends GraphicsObject {
 
 	@Override
 	public final void writeData(final PacketOutputStream pOut) {
-		pOut.writeInt(getGraphic());
+		pOut.writeVarInt(getGraphic());
 		pOut.writeFloat(getPositionX());
 		pOut.writeFloat(getPositionY());
 	}
 
 	@Override
 	public final void readData(final PacketInputStream pIn) {
-		setGraphic(pIn.readInt());
+		setGraphic(pIn.readVarInt());
 		setPosition(pIn.readFloat(), pIn.readFloat(), 1, 1);
 	}
 
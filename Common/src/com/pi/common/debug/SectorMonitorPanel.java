@@ -5,6 +5,7 @@ import javax.swing.JTable;
 import javax.swing.table.AbstractTableModel;
 
 import com.pi.common.database.world.SectorLocation;
+import com.pi.common.world.SectorCacheMetrics;
 import com.pi.common.world.SectorManager;
 import com.pi.common.world.SectorManager.SectorStorage;
 
@@ -16,6 +17,7 @@ import com.pi.common.world.SectorManager.SectorStorage;
  */
 public class SectorMonitorPanel extends JPanel {
 	private static final long serialVersionUID = 1L;
+
 	/**
 	 * Creates a sector manager panel with the specified Sector Manager
 	 * providing the contents.
@@ -24,20 +26,129 @@ public class SectorMonitorPanel extends JPanel {
 	 * @param sm the information provider
 	 */
 	public SectorMonitorPanel(final SectorManager sm) {
+		this(sm, null);
+	}
+
+	/**
+	 * Creates a sector manager panel with the specified Sector Manager
+	 * providing the contents, and the cache metrics shown above them.
+	 * 
+	 * @see com.pi.common.world.SectorManager
+	 * @param sm the information provider
+	 * @param metrics the sector manager's cache metrics, or <code>null</code>
+	 *            if it doesn't have any
+	 */
+	public SectorMonitorPanel(final SectorManager sm,
+			final SectorCacheMetrics metrics) {
 		setLocation(0, 0);
 		setSize(PIResourceViewer.DEFAULT_WIDTH,
 				PIResourceViewer.DEFAULT_HEIGHT);
 		setLayout(null);
+		int top = 0;
+		if (metrics != null) {
+			JTable cache = new JTable(new CacheTableModel(metrics));
+			top = cache.getRowHeight() * cache.getRowCount();
+			cache.setLocation(0, 0);
+			cache.setSize(PIResourceViewer.DEFAULT_WIDTH, top);
+			cache.setVisible(true);
+			add(cache);
+		}
 		JTable tbl = new JTable(new SectorTableModel(sm));
-		tbl.setLocation(0, 0);
+		tbl.setLocation(0, top);
 		tbl.setSize(PIResourceViewer.DEFAULT_WIDTH,
-				PIResourceViewer.DEFAULT_HEIGHT);
+				PIResourceViewer.DEFAULT_HEIGHT - top);
 		tbl.setVisible(true);
 		tbl.setFillsViewportHeight(true);
 		add(tbl);
 		setVisible(true);
 	}
 
+	/**
+	 * Represents a table model with a row for each of the sector cache
+	 * metrics.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private static final class CacheTableModel extends
+			AbstractTableModel {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The name of each row.
+		 */
+		private static final String[] ROW_NAMES = { "Hit rate",
+				"Requests", "Loads", "Evictions", "Write backs",
+				"Dirty sectors", "Resident KB", "Budget KB" };
+
+		/**
+		 * The information provider.
+		 */
+		private final SectorCacheMetrics metrics;
+
+		/**
+		 * Creates a cache table model with the specified metrics as the
+		 * information provider.
+		 * 
+		 * @param sMetrics the information provider
+		 */
+		private CacheTableModel(final SectorCacheMetrics sMetrics) {
+			this.metrics = sMetrics;
+		}
+
+		@Override
+		public int getRowCount() {
+			return ROW_NAMES.length;
+		}
+
+		@Override
+		public int getColumnCount() {
+			return 2;
+		}
+
+		@Override
+		public Object getValueAt(final int row, final int col) {
+			if (col == 0) {
+				return ROW_NAMES[row];
+			}
+			switch (row) {
+			case 0:
+				long requests = metrics.getRequestCount();
+				if (requests == 0) {
+					return "-";
+				}
+				return String.format("%.1f%%", metrics.getHitCount()
+						* 100D / requests);
+			case 1:
+				return metrics.getRequestCount() + "";
+			case 2:
+				return metrics.getLoadCount() + "";
+			case 3:
+				return metrics.getEvictionCount() + "";
+			case 4:
+				return metrics.getWriteBackCount() + "";
+			case 5:
+				return metrics.getDirtyCount() + "";
+			case 6:
+				return (metrics.getResidentBytes() >> 10) + "";
+			case 7:
+				return (metrics.getBudget() >> 10) + "";
+			default:
+				return "";
+			}
+		}
+
+		@Override
+		public Class<?> getColumnClass(final int col) {
+			return String.class;
+		}
+
+		@Override
+		public boolean isCellEditable(final int row,
+				final int col) {
+			return false;
+		}
+	}
+
 	/**
 	 * Represents a table model based on information provided by the
 	 * SectorManager.
@@ -170,6 +170,27 @@ public abstract class EntityManager<E extends EntityContainer> {
 		return deRegisterEntity(e.getEntityID());
 	}
 
+	/**
+	 * Removes the given entity container from the data map if it is still
+	 * registered with the given ID, checks the ID into the
+	 * {@link #idAllocator}, and also changes the entity's ID to <code>-1</code>
+	 * to signify it is no longer registered. If several threads deregister
+	 * the same container at once, only one of them succeeds.
+	 * 
+	 * @param id the entity ID the container was read with
+	 * @param container the container to dispose
+	 * @return <code>true</code> if this call disposed the entity,
+	 *         <code>false</code> if it was already disposed
+	 */
+	public final boolean deRegisterEntity(final int id, final E container) {
+		if (!entityMap.remove(id, container)) {
+			return false;
+		}
+		container.getWrappedEntity().checkIn();
+		idAllocator.checkIn(id);
+		return true;
+	}
+
 	/**
 	 * Checks if there is an entity by the provided ID registered with this
 	 * entity manager.
@@ -54,7 +54,7 @@ public class HealthComponent extends EntityComponent {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(health);
+		pOut.writeVarInt(health);
 	}
 
 	@Override
@@ -65,7 +65,7 @@ public class HealthComponent extends EntityComponent {
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		health = pIn.readInt();
+		health = pIn.readVarInt();
 	}
 
 	@Override
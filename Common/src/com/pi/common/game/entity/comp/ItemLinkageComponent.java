@@ -37,7 +37,7 @@ public class ItemLinkageComponent extends EntityComponent {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(itemDefID);
+		pOut.writeVarInt(itemDefID);
 	}
 
 	@Override
@@ -48,7 +48,7 @@ public class ItemLinkageComponent extends EntityComponent {
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		itemDefID = pIn.readInt();
+		itemDefID = pIn.readVarInt();
 	}
 
 	/**
@@ -0,0 +1,250 @@
+package com.pi.common.net;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi.common.constants.NetworkConstants;
+
+/**
+ * A size-classed pool of direct byte buffers used for the send queues of
+ * network clients, and for reading and writing database files.
+ * <p>
+ * Buffers are handed out by {@link #acquire(int)} with their capacity rounded
+ * up to the next power of two, and should be given back with
+ * {@link #release(ByteBuffer)} once the selector thread has fully written
+ * them. When the pool is disabled, {@link #acquire(int)} falls back to
+ * allocating exactly sized heap buffers and {@link #release(ByteBuffer)} does
+ * nothing, allowing the two to be compared.
+ * 
+ * @author Westin
+ * 
+ */
+public final class BufferPool {
+	/**
+	 * The shared pool instance.
+	 */
+	private static final BufferPool INSTANCE = new BufferPool(
+			NetworkConstants.BUFFER_POOL_MIN_SHIFT,
+			NetworkConstants.BUFFER_POOL_MAX_SHIFT,
+			NetworkConstants.BUFFER_POOL_CLASS_BYTES);
+
+	/**
+	 * Gets the shared buffer pool instance.
+	 * 
+	 * @return the buffer pool
+	 */
+	public static BufferPool getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * The base two logarithm of the smallest size class.
+	 */
+	private final int minShift;
+	/**
+	 * The free buffers of each size class, indexed by shift minus
+	 * {@link #minShift}.
+	 */
+	private final Queue<ByteBuffer>[] free;
+	/**
+	 * The number of free buffers in each size class.
+	 */
+	private final AtomicInteger[] freeCount;
+	/**
+	 * The maximum number of free buffers retained for each size class.
+	 */
+	private final int[] maxFree;
+
+	/**
+	 * If pooling is currently enabled.
+	 */
+	private volatile boolean enabled =
+			NetworkConstants.BUFFER_POOL_ENABLED;
+
+	/**
+	 * The number of acquisitions served from a free list.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+	/**
+	 * The number of acquisitions that had to allocate a new buffer.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+	/**
+	 * The capacity in bytes of the pooled buffers acquired but not yet
+	 * released.
+	 */
+	private final AtomicLong bytesOutstanding = new AtomicLong();
+
+	/**
+	 * Creates a buffer pool with size classes from <code>2^min</code> to
+	 * <code>2^max</code> bytes, retaining roughly the given number of free
+	 * bytes in each class.
+	 * 
+	 * @param min the base two logarithm of the smallest size class
+	 * @param max the base two logarithm of the largest size class
+	 * @param classBytes the number of free bytes retained per size class
+	 */
+	@SuppressWarnings("unchecked")
+	private BufferPool(final int min, final int max,
+			final int classBytes) {
+		this.minShift = min;
+		int classes = max - min + 1;
+		this.free = (Queue<ByteBuffer>[]) new Queue<?>[classes];
+		this.freeCount = new AtomicInteger[classes];
+		this.maxFree = new int[classes];
+		for (int i = 0; i < classes; i++) {
+			free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			freeCount[i] = new AtomicInteger();
+			maxFree[i] = Math.max(2, classBytes >> (min + i));
+		}
+	}
+
+	/**
+	 * Gets the size class index that can hold the given number of bytes, or
+	 * <code>-1</code> if it is too large to be pooled.
+	 * 
+	 * @param size the number of bytes
+	 * @return the size class index
+	 */
+	private int sizeClass(final int size) {
+		int shift = minShift;
+		while ((1 << shift) < size) {
+			shift++;
+		}
+		int idx = shift - minShift;
+		if (idx >= free.length) {
+			return -1;
+		}
+		return idx;
+	}
+
+	/**
+	 * Gets a cleared buffer with room for at least the given number of bytes,
+	 * and its limit set to exactly that number.
+	 * 
+	 * @param size the number of bytes needed
+	 * @return the buffer
+	 */
+	public ByteBuffer acquire(final int size) {
+		if (!enabled) {
+			return ByteBuffer.allocate(size);
+		}
+		int idx = sizeClass(size);
+		if (idx < 0) {
+			misses.incrementAndGet();
+			return ByteBuffer.allocate(size);
+		}
+		ByteBuffer bb = free[idx].poll();
+		if (bb != null) {
+			freeCount[idx].decrementAndGet();
+			hits.incrementAndGet();
+			bb.clear();
+		} else {
+			misses.incrementAndGet();
+			bb = ByteBuffer.allocateDirect(1 << (minShift + idx));
+		}
+		bytesOutstanding.addAndGet(bb.capacity());
+		bb.limit(size);
+		return bb;
+	}
+
+	/**
+	 * Returns a buffer obtained from {@link #acquire(int)} to the pool. Buffers
+	 * that weren't allocated by the pool, including read-only views of pooled
+	 * buffers, are ignored.
+	 * 
+	 * @param bb the buffer to release
+	 */
+	public void release(final ByteBuffer bb) {
+		if (!bb.isDirect() || bb.isReadOnly()) {
+			return;
+		}
+		int idx = sizeClass(bb.capacity());
+		if (idx < 0 || bb.capacity() != 1 << (minShift + idx)) {
+			return;
+		}
+		bytesOutstanding.addAndGet(-bb.capacity());
+		if (enabled && freeCount[idx].get() < maxFree[idx]) {
+			freeCount[idx].incrementAndGet();
+			free[idx].add(bb);
+		}
+	}
+
+	/**
+	 * Enables or disables pooling. Buffers acquired while the pool was enabled
+	 * may still be released after it is disabled.
+	 * 
+	 * @param sEnabled if buffers should be pooled
+	 */
+	public void setEnabled(final boolean sEnabled) {
+		this.enabled = sEnabled;
+		if (!sEnabled) {
+			for (int i = 0; i < free.length; i++) {
+				while (free[i].poll() != null) {
+					freeCount[i].decrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if pooling is currently enabled.
+	 * 
+	 * @return if buffers are pooled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Gets the number of acquisitions served from a free list.
+	 * 
+	 * @return the hit count
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of acquisitions that had to allocate a new buffer.
+	 * 
+	 * @return the miss count
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the capacity in bytes of the pooled buffers that have been acquired
+	 * but not yet released.
+	 * 
+	 * @return the outstanding bytes
+	 */
+	public long getBytesOutstanding() {
+		return bytesOutstanding.get();
+	}
+
+	/**
+	 * Gets the capacity in bytes of the free buffers held by this pool.
+	 * 
+	 * @return the free bytes
+	 */
+	public long getBytesFree() {
+		long total = 0;
+		for (int i = 0; i < free.length; i++) {
+			total += ((long) freeCount[i].get()) << (minShift + i);
+		}
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return "BufferPool[enabled=" + enabled + ",hits=" + hits.get()
+				+ ",misses=" + misses.get() + ",outstanding="
+				+ bytesOutstanding.get() + ",free=" + getBytesFree()
+				+ "]";
+	}
+}
@@ -0,0 +1,168 @@
+package com.pi.common.net;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import com.pi.common.constants.NetworkConstants;
+
+/**
+ * Reads the frames back from a capture written by a {@link TrafficCapture}.
+ * 
+ * @author Westin
+ * 
+ */
+public class CaptureReader {
+	/**
+	 * The capture file's input stream.
+	 */
+	private final DataInputStream in;
+	/**
+	 * The side of the connection that recorded the capture.
+	 */
+	private final int side;
+	/**
+	 * The system time in milliseconds the capture was started.
+	 */
+	private final long startTime;
+
+	/**
+	 * The direction of the current frame.
+	 */
+	private int direction;
+	/**
+	 * The time in microseconds from the start of the capture to the current
+	 * frame.
+	 */
+	private long time = 0;
+	/**
+	 * The current frame's packet data, without its length.
+	 */
+	private byte[] frame;
+
+	/**
+	 * Opens the given capture and reads its header.
+	 * 
+	 * @param f the capture file
+	 * @throws IOException if the file can't be read or isn't a capture
+	 */
+	public CaptureReader(final File f) throws IOException {
+		this.in =
+				new DataInputStream(new BufferedInputStream(
+						new FileInputStream(f)));
+		if (in.readInt() != TrafficCapture.MAGIC) {
+			in.close();
+			throw new IOException(f + " isn't a traffic capture");
+		}
+		int version = in.readUnsignedByte();
+		if (version != TrafficCapture.VERSION) {
+			in.close();
+			throw new IOException("Unsupported capture version " + version);
+		}
+		this.side = in.readUnsignedByte();
+		this.startTime = in.readLong();
+	}
+
+	/**
+	 * Reads the next frame.
+	 * 
+	 * @return <code>true</code> if a frame was read, <code>false</code> at the
+	 *         end of the capture
+	 * @throws IOException if the capture can't be read or is corrupt
+	 */
+	public final boolean next() throws IOException {
+		int dir = in.read();
+		if (dir < 0) {
+			return false;
+		}
+		try {
+			long delta = in.readInt() & 0xFFFFFFFFL;
+			int len = in.readInt();
+			if (len < 0 || len > NetworkConstants.MAX_BUFFER) {
+				throw new IOException("Invalid captured frame length: "
+						+ len);
+			}
+			byte[] data = new byte[len];
+			in.readFully(data);
+			this.direction = dir;
+			this.time += delta;
+			this.frame = data;
+			return true;
+		} catch (EOFException e) {
+			// The capture was cut off part way through a frame.
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the side of the connection that recorded the capture.
+	 * 
+	 * @return {@link TrafficCapture#SIDE_SERVER} or
+	 *         {@link TrafficCapture#SIDE_CLIENT}
+	 */
+	public final int getSide() {
+		return side;
+	}
+
+	/**
+	 * Gets the system time in milliseconds the capture was started.
+	 * 
+	 * @return the start time
+	 */
+	public final long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Checks if the current frame was sent by the client, so it's a frame a
+	 * replay should send to the server.
+	 * 
+	 * @return if the current frame came from the client
+	 */
+	public final boolean isFromClient() {
+		if (side == TrafficCapture.SIDE_SERVER) {
+			return direction == TrafficCapture.INBOUND;
+		}
+		return direction == TrafficCapture.OUTBOUND;
+	}
+
+	/**
+	 * Gets the direction of the current frame.
+	 * 
+	 * @return {@link TrafficCapture#INBOUND} or {@link TrafficCapture#OUTBOUND}
+	 */
+	public final int getDirection() {
+		return direction;
+	}
+
+	/**
+	 * Gets the time from the start of the capture to the current frame.
+	 * 
+	 * @return the time in microseconds
+	 */
+	public final long getTime() {
+		return time;
+	}
+
+	/**
+	 * Gets the current frame's packet data, without its length. The first
+	 * byte is the packet ID.
+	 * 
+	 * @return the frame
+	 */
+	public final byte[] getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Closes the capture file.
+	 * 
+	 * @throws IOException if an error occurs
+	 */
+	public final void close() throws IOException {
+		in.close();
+	}
+}
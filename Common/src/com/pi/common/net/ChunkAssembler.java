@@ -0,0 +1,69 @@
+package com.pi.common.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.pi.common.constants.NetworkConstants;
+
+/**
+ * Reassembles the bulk packet carried by a run of
+ * {@link com.pi.common.net.packet.Packet31Chunk} frames. Each net client has
+ * one, which is only used by the data worker handling its packets.
+ * 
+ * @author Westin
+ * 
+ */
+final class ChunkAssembler {
+	/**
+	 * The bulk packet being reassembled, or <code>null</code> if no chunks
+	 * have been received since the last one was completed.
+	 */
+	private byte[] payload = null;
+	/**
+	 * The number of bytes of the payload received so far.
+	 */
+	private int filled = 0;
+	/**
+	 * The wire format the payload was encoded in.
+	 */
+	private WireFormat format = WireFormat.V1;
+
+	/**
+	 * Adds the data of a chunk to the payload being reassembled.
+	 * 
+	 * @param sFormat the wire format the chunk says the payload is encoded in
+	 * @param total the total payload length the chunk gives
+	 * @param data the chunk's data, which is consumed
+	 * @return the completed payload, or <code>null</code> if more chunks are
+	 *         needed
+	 * @throws IOException if the chunk doesn't belong to the payload being
+	 *             reassembled, or would overflow it
+	 */
+	byte[] append(final WireFormat sFormat, final int total,
+			final ByteBuffer data) throws IOException {
+		if (payload == null) {
+			if (total <= 0 || total > NetworkConstants.MAX_BULK_PAYLOAD) {
+				throw new IOException("Invalid bulk packet length: " + total);
+			}
+			payload = new byte[total];
+			filled = 0;
+			format = sFormat;
+		} else if (total != payload.length || sFormat != format) {
+			payload = null;
+			throw new IOException("Chunk doesn't match the bulk packet");
+		}
+		int count = data.remaining();
+		if (count > payload.length - filled) {
+			payload = null;
+			throw new IOException("Chunk overflows the bulk packet");
+		}
+		data.get(payload, filled, count);
+		filled += count;
+		if (filled < payload.length) {
+			return null;
+		}
+		byte[] complete = payload;
+		payload = null;
+		return complete;
+	}
+}
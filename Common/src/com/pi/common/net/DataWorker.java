@@ -2,39 +2,99 @@ package com.pi.common.net;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Queue;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.pi.common.constants.NetworkConstants.SizeOf;
 import com.pi.common.debug.PILogger;
 import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.Packet26Batch;
+import com.pi.common.net.packet.Packet29WireFormat;
+import com.pi.common.net.packet.Packet31Chunk;
 import com.pi.common.net.packet.PacketManager;
 
 /**
  * An abstract class providing the central methods for processing packets using
  * a net client's net handler and a separate processing thread.
+ * <p>
+ * Events are handled in the order they were received, and the handler runs
+ * without holding the queue's lock, so data can keep being queued while a slow
+ * packet is processed. Several workers can be striped by a
+ * {@link DataWorkerPool}, which keeps each net client's packets on one worker.
+ * <p>
+ * A {@link Packet26Batch} frame is unpacked here, and each packet in it is
+ * handled in order as if it had been received on its own. The
+ * {@link Packet31Chunk} frames of a bulk packet are reassembled here, and the
+ * bulk packet is handled once its last chunk arrives.
+ * <p>
+ * Packets are decoded in the net client's read format when they are handled,
+ * so a {@link Packet29WireFormat} packet changes the format of every packet
+ * received after it. Bulk packets are decoded in the format their chunks
+ * name instead, as they may have been queued before the format changed.
+ * <p>
+ * Packets received on a datagram channel are ordered against the reliable
+ * packets with the same state key by the net client's {@link StateEpochs}, so
+ * they're skipped or held here if they don't belong after the reliable
+ * packets handled so far.
  * 
  * @author Westin
  * 
  */
 public abstract class DataWorker extends Thread {
+	/**
+	 * The event queued by {@link #wakeup()}, which has no packet and is
+	 * skipped.
+	 */
+	private static final DataEvent WAKEUP = new DataEvent();
+
 	/**
 	 * The queue used for processing packets.
 	 */
-	private volatile Queue<DataEvent> queue =
-			new PriorityBlockingQueue<DataEvent>();
+	private final BlockingQueue<DataEvent> queue =
+			new LinkedBlockingQueue<DataEvent>();
 
+	// Handler Monitoring
+	/**
+	 * The number of packets this worker has handled.
+	 */
+	private final AtomicLong handledCount = new AtomicLong();
+	/**
+	 * The total time in nanoseconds spent in packet handlers.
+	 */
+	private final AtomicLong handlerTime = new AtomicLong();
 	/**
-	 * Creates a data worker in the provided thread group.
+	 * The longest time in nanoseconds spent in a single packet handler.
+	 */
+	private volatile long maxHandlerTime = 0;
+
+	/**
+	 * Creates a data worker in the provided thread group. Sub classes should
+	 * call {@link #start()} once they are fully constructed.
 	 * 
 	 * @param t the thread group to register this thread with
 	 */
 	public DataWorker(final ThreadGroup t) {
-		super(t, "NetDataWorker");
-		start();
+		this(t, "NetDataWorker");
 	}
 
 	/**
-	 * Processes data for the given net client.
+	 * Creates a data worker in the provided thread group with the given thread
+	 * name. Sub classes should call {@link #start()} once they are fully
+	 * constructed.
+	 * 
+	 * @param t the thread group to register this thread with
+	 * @param name the thread name
+	 */
+	public DataWorker(final ThreadGroup t, final String name) {
+		super(t, name);
+	}
+
+	/**
+	 * Processes data for the given net client. If the data is in the net
+	 * client's read slab it is decoded in place, and the slab is held until
+	 * the packet has been handled, otherwise the data is copied.
 	 * 
 	 * @param socket the socket this data was received on
 	 * @param data the data received
@@ -45,14 +105,38 @@ public abstract class DataWorker extends Thread {
 	public final void processData(final NetClient socket,
 			final byte[] data, final int off, final int count)
 			throws IOException {
-		byte[] dataCopy = new byte[count];
-		System.arraycopy(data, off, dataCopy, 0, count);
-		synchronized (queue) {
+		ReadSlab slab = socket.retainReadSlab(data);
+		if (slab == null) {
+			byte[] dataCopy = new byte[count];
+			System.arraycopy(data, off, dataCopy, 0, count);
 			queue.add(new DataEvent(socket, dataCopy, this));
-			queue.notify();
+			return;
+		}
+		try {
+			queue.add(new DataEvent(socket, ByteBuffer.wrap(data, off,
+					count), slab, this));
+		} catch (IOException e) {
+			slab.release();
+			throw e;
 		}
 	}
 
+	/**
+	 * Queues a packet that has already been decoded, such as one received on
+	 * a datagram channel, to be handled in order with the data received on
+	 * the net client.
+	 * 
+	 * @param socket the net client the packet belongs to
+	 * @param packet the decoded packet
+	 * @param length the size of the encoded packet in bytes
+	 * @param epoch the number of reliable packets with the packet's state key
+	 *            that were sent before it
+	 */
+	public final void processPacket(final NetClient socket,
+			final Packet packet, final int length, final int epoch) {
+		queue.add(new DataEvent(socket, packet, length, epoch));
+	}
+
 	/**
 	 * Checks if this thread should continue running. Make sure to call the
 	 * {@link #wakeup()} method after setting this to <code>false</code>.
@@ -73,9 +157,7 @@ public abstract class DataWorker extends Thread {
 	 * thread.
 	 */
 	public final void wakeup() {
-		synchronized (queue) {
-			queue.notify();
-		}
+		queue.add(WAKEUP);
 	}
 
 	@Override
@@ -83,41 +165,218 @@ public abstract class DataWorker extends Thread {
 		DataEvent dataEvent;
 
 		while (isRunning()) {
-			synchronized (queue) {
-				if (queue.isEmpty()) {
-					try {
-						queue.wait();
-					} catch (InterruptedException e) {
-						getLog().printStackTrace(e);
-					}
+			try {
+				dataEvent = queue.take();
+			} catch (InterruptedException e) {
+				getLog().printStackTrace(e);
+				continue;
+			}
+			if (dataEvent == WAKEUP) {
+				continue;
+			}
+			try {
+				if (dataEvent.packet instanceof Packet26Batch) {
+					handleBatch(dataEvent.socket, dataEvent.data,
+							dataEvent.readTime);
+				} else if (dataEvent.packet instanceof Packet31Chunk) {
+					handleChunk(dataEvent.socket, dataEvent.data,
+							dataEvent.readTime);
+				} else if (dataEvent.epoch >= 0) {
+					handleDatagram(dataEvent);
 				} else {
-					try {
-						dataEvent = queue.poll();
-						dataEvent.packet.readData(dataEvent.pIn);
-						getLog().finest(
-								"Received "
-										+ dataEvent.packet
-												.getName()
-										+ dataEvent.socket
-												.getSuffix());
-						dataEvent.socket.getHandler()
-								.processPacket(dataEvent.packet);
-					} catch (Exception e) {
-						getLog().printStackTrace(e);
-					}
+					handle(dataEvent.socket, dataEvent.packet,
+							dataEvent.pIn, dataEvent.socket.getReadFormat(),
+							dataEvent.readTime, dataEvent.length);
+				}
+			} catch (Exception e) {
+				getLog().printStackTrace(e);
+			} finally {
+				if (dataEvent.slab != null) {
+					dataEvent.slab.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the data for a packet and passes it to the net client's handler,
+	 * recording it in the {@link PacketMetrics}.
+	 * 
+	 * @param socket the net client the packet was received on
+	 * @param packet the packet instance
+	 * @param pIn the stream positioned at the packet's data, or
+	 *            <code>null</code> if the packet has already been decoded
+	 * @param format the wire format the packet is decoded in
+	 * @param readTime the system time in nanoseconds the packet was read
+	 * @param length the size of the packet in bytes
+	 */
+	private void handle(final NetClient socket, final Packet packet,
+			final PacketInputStream pIn, final WireFormat format,
+			final long readTime, final int length) {
+		long start = System.nanoTime();
+		try {
+			if (pIn != null) {
+				packet.readData(new PacketInputStream(pIn.getByteBuffer(),
+						format));
+			}
+			if (packet instanceof Packet29WireFormat) {
+				socket.setReadFormat(((Packet29WireFormat) packet).format);
+			}
+			getLog().finest(
+					"Received " + packet.getName() + socket.getSuffix());
+			socket.getHandler().processPacket(packet);
+		} catch (Exception e) {
+			getLog().printStackTrace(e);
+		}
+		long time = System.nanoTime() - start;
+		PacketMetrics.getInstance().recordReceived(packet.getID(), length,
+				start - readTime, time);
+		handledCount.incrementAndGet();
+		handlerTime.addAndGet(time);
+		if (time > maxHandlerTime) {
+			maxHandlerTime = time;
+		}
+		if (StateEpochs.isCounted(packet)) {
+			StateEpochs epochs = socket.getReceivedEpochs();
+			epochs.increment(packet.getStateKey());
+			List<DataEvent> ready = epochs.release(packet.getStateKey());
+			if (ready != null) {
+				for (DataEvent e : ready) {
+					handle(e.socket, e.packet, null, format, e.readTime,
+							e.length);
 				}
 			}
 		}
 	}
 
+	/**
+	 * Handles a packet received on a datagram channel if the reliable packets
+	 * sent before it have all been handled. It's skipped if a later reliable
+	 * packet has been handled, and held until the reliable packets have been
+	 * handled if they haven't arrived yet.
+	 * 
+	 * @param event the event holding the packet
+	 */
+	private void handleDatagram(final DataEvent event) {
+		StateEpochs epochs = event.socket.getReceivedEpochs();
+		int current = epochs.get(event.packet.getStateKey());
+		if (event.epoch < current) {
+			getLog().finest(
+					"Skipped overtaken " + event.packet.getName()
+							+ event.socket.getSuffix());
+		} else if (event.epoch > current) {
+			epochs.hold(event);
+		} else {
+			handle(event.socket, event.packet, null,
+					event.socket.getReadFormat(), event.readTime,
+					event.length);
+		}
+	}
+
+	/**
+	 * Handles each length prefixed packet in the body of a batch frame, in
+	 * place.
+	 * 
+	 * @param socket the net client the batch was received on
+	 * @param data the batch frame, positioned after the batch packet's ID
+	 * @param readTime the system time in nanoseconds the batch was read
+	 * @throws IOException if a batched packet has an invalid length or ID
+	 */
+	private void handleBatch(final NetClient socket, final ByteBuffer data,
+			final long readTime) throws IOException {
+		while (data.remaining() >= SizeOf.INT) {
+			int len = data.getInt();
+			if (len <= 0 || len > data.remaining()) {
+				throw new IOException("Invalid batched packet length: "
+						+ len);
+			}
+			ByteBuffer view = data.duplicate();
+			view.limit(data.position() + len);
+			data.position(data.position() + len);
+			PacketInputStream pIn = new PacketInputStream(view);
+			handle(socket, PacketManager.getPacket(getLog(), pIn), pIn,
+					socket.getReadFormat(), readTime, len);
+		}
+	}
+
+	/**
+	 * Adds a chunk frame to the bulk packet being reassembled for the net
+	 * client, and handles the bulk packet if this was its last chunk.
+	 * 
+	 * @param socket the net client the chunk was received on
+	 * @param data the chunk frame, positioned after the chunk packet's ID
+	 * @param readTime the system time in nanoseconds the chunk was read
+	 * @throws IOException if the chunk is invalid
+	 */
+	private void handleChunk(final NetClient socket, final ByteBuffer data,
+			final long readTime) throws IOException {
+		if (data.remaining() < SizeOf.BYTE + SizeOf.INT) {
+			throw new IOException("Truncated chunk");
+		}
+		int formatID = data.get() & 0xFF;
+		if (formatID >= WireFormat.values().length) {
+			throw new IOException("Unknown chunk wire format: " + formatID);
+		}
+		WireFormat format = WireFormat.values()[formatID];
+		byte[] payload =
+				socket.getChunkAssembler().append(format, data.getInt(),
+						data);
+		if (payload != null) {
+			PacketInputStream pIn =
+					new PacketInputStream(ByteBuffer.wrap(payload), format);
+			handle(socket, PacketManager.getPacket(getLog(), pIn), pIn,
+					format, readTime, payload.length);
+		}
+	}
+
+	/**
+	 * Gets the number of events waiting to be handled by this worker.
+	 * 
+	 * @return the queue depth
+	 */
+	public final int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Gets the number of packets this worker has handled.
+	 * 
+	 * @return the handled count
+	 */
+	public final long getHandledCount() {
+		return handledCount.get();
+	}
+
+	/**
+	 * Gets the average time in nanoseconds spent handling a packet, or
+	 * <code>0</code> if none have been handled.
+	 * 
+	 * @return the average handler time
+	 */
+	public final long getAverageHandlerTime() {
+		long count = handledCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		return handlerTime.get() / count;
+	}
+
+	/**
+	 * Gets the longest time in nanoseconds spent handling a single packet.
+	 * 
+	 * @return the maximum handler time
+	 */
+	public final long getMaxHandlerTime() {
+		return maxHandlerTime;
+	}
+
 	/**
 	 * Class describing received data.
 	 * 
 	 * @author Westin
 	 * 
 	 */
-	public static class DataEvent implements
-			Comparable<DataEvent> {
+	public static class DataEvent {
 		/**
 		 * The net client this data was received on.
 		 */
@@ -134,6 +393,24 @@ public abstract class DataWorker extends Thread {
 		 * The packet input stream currently in use.
 		 */
 		private PacketInputStream pIn;
+		/**
+		 * The read slab backing the received data, or <code>null</code> if the
+		 * data was copied.
+		 */
+		private ReadSlab slab;
+		/**
+		 * The system time in nanoseconds this data was read.
+		 */
+		private long readTime;
+		/**
+		 * The size of the received data in bytes.
+		 */
+		private int length;
+		/**
+		 * The epoch a packet received on a datagram channel was sent in, or
+		 * <code>-1</code> if it was received over TCP.
+		 */
+		private int epoch = -1;
 
 		/**
 		 * Create a data event for the given socket and data event.
@@ -146,15 +423,71 @@ public abstract class DataWorker extends Thread {
 		public DataEvent(final NetClient sSocket,
 				final byte[] sData, final DataWorker worker)
 				throws IOException {
+			this(sSocket, ByteBuffer.wrap(sData), null, worker);
+		}
+
+		/**
+		 * Create a data event for the given socket reading from a view of the
+		 * received data.
+		 * 
+		 * @param sSocket the net client
+		 * @param sData the view of the received data
+		 * @param sSlab the read slab backing the view, or <code>null</code>
+		 * @param worker the data worker instance
+		 * @throws IOException if there is a problem identifying the packet
+		 */
+		DataEvent(final NetClient sSocket, final ByteBuffer sData,
+				final ReadSlab sSlab, final DataWorker worker)
+				throws IOException {
 			this.socket = sSocket;
-			this.data = ByteBuffer.wrap(sData);
+			this.data = sData;
+			this.slab = sSlab;
+			this.readTime = System.nanoTime();
+			this.length = sData.remaining();
 			this.pIn = new PacketInputStream(this.data);
 			this.packet = PacketManager.getPacket(worker.getLog(), pIn);
 		}
 
-		@Override
-		public final int compareTo(final DataEvent o) {
-			return packet.compareTo(o.packet);
+		/**
+		 * Create a data event for a packet that has already been decoded.
+		 * 
+		 * @param sSocket the net client
+		 * @param sPacket the decoded packet
+		 * @param sLength the size of the encoded packet in bytes
+		 * @param sEpoch the epoch the packet was sent in
+		 */
+		private DataEvent(final NetClient sSocket, final Packet sPacket,
+				final int sLength, final int sEpoch) {
+			this.socket = sSocket;
+			this.packet = sPacket;
+			this.readTime = System.nanoTime();
+			this.length = sLength;
+			this.epoch = sEpoch;
+		}
+
+		/**
+		 * Gets the packet instance describing the received data.
+		 * 
+		 * @return the packet
+		 */
+		final Packet getPacket() {
+			return packet;
+		}
+
+		/**
+		 * Gets the epoch a packet received on a datagram channel was sent in.
+		 * 
+		 * @return the epoch, or <code>-1</code> if the packet was received
+		 *         over TCP
+		 */
+		final int getEpoch() {
+			return epoch;
+		}
+
+		/**
+		 * Creates an empty data event, used to wake up a data worker.
+		 */
+		private DataEvent() {
 		}
 	}
 }
@@ -0,0 +1,93 @@
+package com.pi.common.net;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A striped set of data workers, pinning each net client to a single worker
+ * so that a client's packets are handled in the order they were received,
+ * while different clients' packets are handled in parallel.
+ * <p>
+ * A pool of one worker behaves like a single global data worker.
+ * 
+ * @author Westin
+ * 
+ */
+public class DataWorkerPool {
+	/**
+	 * The workers that net clients are striped across.
+	 */
+	private final DataWorker[] workers;
+	/**
+	 * The stripe given to the next net client that sends data.
+	 */
+	private final AtomicInteger nextStripe = new AtomicInteger();
+
+	/**
+	 * Creates a pool striped across the given data workers.
+	 * 
+	 * @param sWorkers the data workers, which must contain at least one worker
+	 */
+	public DataWorkerPool(final DataWorker[] sWorkers) {
+		if (sWorkers.length == 0) {
+			throw new IllegalArgumentException(
+					"A data worker pool needs at least one worker!");
+		}
+		this.workers = sWorkers;
+	}
+
+	/**
+	 * Queues data for the given net client on the worker it is pinned to,
+	 * pinning it to the next worker if it hasn't been yet.
+	 * 
+	 * @see DataWorker#processData(NetClient, byte[], int, int)
+	 * @param socket the socket this data was received on
+	 * @param data the data received
+	 * @param off the array offset of the data
+	 * @param count the received bytes count
+	 * @throws IOException if there is a problem reading identifying the packet
+	 */
+	public final void processData(final NetClient socket,
+			final byte[] data, final int off, final int count)
+			throws IOException {
+		int stripe = socket.getWorkerStripe();
+		if (stripe < 0) {
+			stripe =
+					(nextStripe.getAndIncrement() & Integer.MAX_VALUE)
+							% workers.length;
+			socket.setWorkerStripe(stripe);
+		}
+		workers[stripe].processData(socket, data, off, count);
+	}
+
+	/**
+	 * Wakes up every worker in this pool.
+	 * 
+	 * @see DataWorker#wakeup()
+	 */
+	public final void wakeup() {
+		for (DataWorker w : workers) {
+			w.wakeup();
+		}
+	}
+
+	/**
+	 * Waits for every worker in this pool to die.
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public final void join() throws InterruptedException {
+		for (DataWorker w : workers) {
+			w.join();
+		}
+	}
+
+	/**
+	 * Gets the workers in this pool.
+	 * 
+	 * @return the workers
+	 */
+	public final DataWorker[] getWorkers() {
+		return workers;
+	}
+}
@@ -0,0 +1,162 @@
+package com.pi.common.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.pi.common.constants.NetworkConstants;
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.debug.PILogger;
+import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.PacketManager;
+
+/**
+ * The layout of the datagrams sent on a datagram channel. Every datagram
+ * starts with its type, the session token, and a sequence number.
+ * <p>
+ * The client sends {@link #HELLO} datagrams until the server answers with a
+ * {@link #HELLO_ACK}, which opens the channel. The server then sends
+ * {@link #STATE} datagrams holding the latest unreliable packet for each type
+ * and state key that the client hasn't acknowledged, each prefixed with its
+ * {@link StateEpochs epoch} and length and encoded in the
+ * {@link WireFormat#V1} format. The client
+ * acknowledges each state datagram by its sequence number with an
+ * {@link #ACK}, and sends empty acknowledgements as heartbeats. A packet is
+ * resent in every state datagram until the datagram it was last sent in is
+ * acknowledged, and the client only applies a packet if it came in a later
+ * datagram than the last packet it applied with the same key, so lost or
+ * reordered datagrams never leave stale state behind. The epoch also keeps a
+ * packet from being applied out of order with the reliable packets sent over
+ * TCP with the same state key.
+ * 
+ * @author Westin
+ * 
+ */
+public final class DatagramFrame {
+	/**
+	 * The type of the datagrams a client sends to open a datagram channel.
+	 */
+	public static final byte HELLO = 0;
+	/**
+	 * The type of the datagram the server answers a hello with.
+	 */
+	public static final byte HELLO_ACK = 1;
+	/**
+	 * The type of the datagrams holding unreliable packets.
+	 */
+	public static final byte STATE = 2;
+	/**
+	 * The type of the datagrams acknowledging a state datagram, or of
+	 * heartbeats if the sequence number is <code>0</code>.
+	 */
+	public static final byte ACK = 3;
+	/**
+	 * The size of the header every datagram starts with.
+	 */
+	public static final int HEADER_SIZE = SizeOf.BYTE + SizeOf.LONG
+			+ SizeOf.INT;
+
+	/**
+	 * Overridden constructor to prevent instances of this class from being
+	 * created.
+	 */
+	private DatagramFrame() {
+	}
+
+	/**
+	 * Creates a datagram buffer with the given header, positioned after the
+	 * header.
+	 * 
+	 * @param type the datagram type
+	 * @param token the session token
+	 * @param sequence the sequence number
+	 * @return the datagram buffer
+	 */
+	public static ByteBuffer create(final byte type, final long token,
+			final int sequence) {
+		ByteBuffer datagram =
+				ByteBuffer.allocate(NetworkConstants.DATAGRAM_MAX_SIZE);
+		datagram.put(type);
+		datagram.putLong(token);
+		datagram.putInt(sequence);
+		return datagram;
+	}
+
+	/**
+	 * Appends a packet prefixed with its epoch and length to a state datagram,
+	 * if there is room for it, and records it as sent in the
+	 * {@link PacketMetrics}.
+	 * 
+	 * @param datagram the datagram buffer
+	 * @param p the packet
+	 * @param epoch the number of reliable packets with the packet's state key
+	 *            sent before it
+	 * @return <code>true</code> if the packet was appended,
+	 *         <code>false</code> if the datagram is full
+	 * @throws IOException if the packet couldn't be encoded
+	 */
+	public static boolean append(final ByteBuffer datagram, final Packet p,
+			final int epoch) throws IOException {
+		if (datagram.remaining() < SizeOf.INT + SizeOf.SHORT
+				+ p.getPacketLength()) {
+			return false;
+		}
+		datagram.putInt(epoch);
+		int head = datagram.position();
+		datagram.position(head + SizeOf.SHORT);
+		p.writePacket(new PacketOutputStream(datagram));
+		int length = datagram.position() - head - SizeOf.SHORT;
+		datagram.putShort(head, (short) length);
+		PacketMetrics.getInstance().recordSent(p.getID(), length);
+		return true;
+	}
+
+	/**
+	 * Reads the epoch of the next packet in a state datagram.
+	 * 
+	 * @param datagram the datagram, positioned at the packet's epoch
+	 * @return the epoch
+	 * @throws IOException if the datagram is truncated
+	 */
+	public static int readEpoch(final ByteBuffer datagram)
+			throws IOException {
+		if (datagram.remaining() < SizeOf.INT + SizeOf.SHORT) {
+			throw new IOException("Truncated datagram packet");
+		}
+		return datagram.getInt();
+	}
+
+	/**
+	 * Reads the next length prefixed packet from a state datagram.
+	 * 
+	 * @param log the logger to report unknown packets to
+	 * @param datagram the datagram, positioned at the packet's length
+	 * @return the packet
+	 * @throws IOException if the packet is truncated or invalid
+	 */
+	public static Packet read(final PILogger log, final ByteBuffer datagram)
+			throws IOException {
+		int len = datagram.getShort() & 0xFFFF;
+		if (len == 0 || len > datagram.remaining()) {
+			throw new IOException("Invalid datagram packet length: " + len);
+		}
+		ByteBuffer view = datagram.duplicate();
+		view.limit(datagram.position() + len);
+		datagram.position(datagram.position() + len);
+		PacketInputStream pIn = new PacketInputStream(view);
+		Packet p = PacketManager.getPacket(log, pIn);
+		p.readData(pIn);
+		return p;
+	}
+
+	/**
+	 * Gets the key that identifies the state an unreliable packet updates,
+	 * combining its ID and state key.
+	 * 
+	 * @param p the packet
+	 * @return the datagram state key
+	 */
+	public static long getStateKey(final Packet p) {
+		return ((long) p.getID() << SizeOf.INT_BITS)
+				| (p.getStateKey() & 0xFFFFFFFFL);
+	}
+}
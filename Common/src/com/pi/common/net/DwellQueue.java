@@ -0,0 +1,120 @@
+package com.pi.common.net;
+
+/**
+ * Records when each packet in a network client's send queue was queued, so
+ * the time it spent there can be recorded in the {@link PacketMetrics} once
+ * its frame is taken off the queue.
+ * <p>
+ * Entries are kept in the same order as the frames in the send queue, and
+ * the last entry of each frame is marked as its end, so a batch frame has an
+ * entry for every packet in it. Entries with a negative ID, such as the chunks
+ * before the last chunk of a bulk packet, aren't recorded. The entries are
+ * held in a growing ring of parallel arrays, and this class isn't thread
+ * safe; it's guarded by the send queue's lock.
+ * 
+ * @author Westin
+ * 
+ */
+final class DwellQueue {
+	/**
+	 * The initial number of entries the ring has room for.
+	 */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The system time in nanoseconds each packet was queued.
+	 */
+	private long[] times = new long[INITIAL_CAPACITY];
+	/**
+	 * The ID of each packet, or <code>-1</code> if it isn't recorded.
+	 */
+	private int[] ids = new int[INITIAL_CAPACITY];
+	/**
+	 * If each entry is the last of its frame.
+	 */
+	private boolean[] ends = new boolean[INITIAL_CAPACITY];
+	/**
+	 * The index of the oldest entry.
+	 */
+	private int head = 0;
+	/**
+	 * The number of entries.
+	 */
+	private int size = 0;
+
+	/**
+	 * Adds an entry for a packet in the frame at the end of the queue.
+	 * 
+	 * @param id the packet ID, or <code>-1</code> to not record it
+	 * @param time the system time in nanoseconds the packet was queued
+	 * @param end if this is the last packet in the frame
+	 */
+	void add(final int id, final long time, final boolean end) {
+		if (size == ids.length) {
+			grow();
+		}
+		int i = (head + size) & (ids.length - 1);
+		times[i] = time;
+		ids[i] = id;
+		ends[i] = end;
+		size++;
+	}
+
+	/**
+	 * Marks the newest entry as the end of its frame.
+	 */
+	void endFrame() {
+		if (size > 0) {
+			ends[(head + size - 1) & (ids.length - 1)] = true;
+		}
+	}
+
+	/**
+	 * Removes the entries of the frame at the head of the queue, recording
+	 * how long each of its packets spent queued.
+	 * 
+	 * @param now the system time in nanoseconds
+	 */
+	void removeFrame(final long now) {
+		PacketMetrics metrics = PacketMetrics.getInstance();
+		while (size > 0) {
+			int i = head;
+			head = (head + 1) & (ids.length - 1);
+			size--;
+			if (ids[i] >= 0) {
+				metrics.recordSendDwell(ids[i], now - times[i]);
+			}
+			if (ends[i]) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes every entry without recording it.
+	 */
+	void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Doubles the size of the ring, moving the entries to the start.
+	 */
+	private void grow() {
+		int capacity = ids.length;
+		long[] nTimes = new long[capacity * 2];
+		int[] nIds = new int[capacity * 2];
+		boolean[] nEnds = new boolean[capacity * 2];
+		for (int n = 0; n < size; n++) {
+			int i = (head + n) & (capacity - 1);
+			nTimes[n] = times[i];
+			nIds[n] = ids[i];
+			nEnds[n] = ends[i];
+		}
+		times = nTimes;
+		ids = nIds;
+		ends = nEnds;
+		head = 0;
+	}
+}
@@ -33,6 +33,10 @@ public class NetChangeRequest {
 	 * The operations to perform.
 	 */
 	private final int ops;
+	/**
+	 * The object to attach to the selection key on registration.
+	 */
+	private final Object attachment;
 
 	/**
 	 * Creates a net change request with the given socket, type, and operations.
@@ -45,9 +49,28 @@ public class NetChangeRequest {
 	 */
 	public NetChangeRequest(final SocketChannel sSocket,
 			final int sType, final int sOps) {
+		this(sSocket, sType, sOps, null);
+	}
+
+	/**
+	 * Creates a net change request with the given socket, type, operations and
+	 * selection key attachment.
+	 * 
+	 * @param sSocket the socket channel to do the modifications on
+	 * @param sType the type of the net change request, either
+	 *            {@link NetChangeRequest#REGISTER}, or
+	 *            {@link NetChangeRequest#CHANGEOPS}
+	 * @param sOps the operations to perfom
+	 * @param sAttachment the object to attach to the key when registering, or
+	 *            <code>null</code>
+	 */
+	public NetChangeRequest(final SocketChannel sSocket,
+			final int sType, final int sOps,
+			final Object sAttachment) {
 		this.socket = sSocket;
 		this.type = sType;
 		this.ops = sOps;
+		this.attachment = sAttachment;
 	}
 
 	/**
@@ -78,4 +101,13 @@ public class NetChangeRequest {
 	public final int getType() {
 		return type;
 	}
+
+	/**
+	 * The object to attach to the selection key when registering.
+	 * 
+	 * @return the attachment, or <code>null</code> if none
+	 */
+	public final Object getAttachment() {
+		return attachment;
+	}
 }
@@ -1,16 +1,28 @@
 package com.pi.common.net;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.pi.common.constants.NetworkConstants;
 import com.pi.common.constants.NetworkConstants.SizeOf;
 import com.pi.common.debug.PILogger;
 import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.Packet26Batch;
+import com.pi.common.net.packet.Packet29WireFormat;
+import com.pi.common.net.packet.Packet31Chunk;
+import com.pi.common.net.packet.PacketManager;
+import com.pi.common.util.Histogram;
 
 /**
  * A class representing the skeleton of a Java New I/O network client.
@@ -19,6 +31,34 @@ import com.pi.common.net.packet.Packet;
  * 
  */
 public abstract class NetClient {
+	/**
+	 * The packet ID that marks a batch frame.
+	 */
+	private static final int BATCH_ID = PacketManager.getInstance()
+			.getPairID(Packet26Batch.class);
+	/**
+	 * The size in bytes of a batch frame's length and packet ID header.
+	 */
+	private static final int BATCH_HEADER = SizeOf.INT + SizeOf.BYTE;
+	/**
+	 * The packet ID that marks a bulk chunk frame.
+	 */
+	private static final int CHUNK_ID = PacketManager.getInstance()
+			.getPairID(Packet31Chunk.class);
+	/**
+	 * The size in bytes of a chunk frame's length, packet ID, wire format and
+	 * total length header.
+	 */
+	private static final int CHUNK_HEADER = SizeOf.INT + 2 * SizeOf.BYTE
+			+ SizeOf.INT;
+	/**
+	 * The number of packets in each batch frame closed by any client.
+	 */
+	private static final Histogram BATCH_PACKETS = new Histogram(12);
+	/**
+	 * The size in bytes of each batch frame closed by any client.
+	 */
+	private static final Histogram BATCH_BYTES = new Histogram(16);
 
 	// Speed Monitoring
 	/**
@@ -43,21 +83,198 @@ public abstract class NetClient {
 	 * The number of bytes received since the last update.
 	 */
 	private int receiveSinceUpdate = 0;
+	/**
+	 * The system time that data was last read from the channel.
+	 */
+	private volatile long lastReadTime = System.currentTimeMillis();
 
 	/**
 	 * The queue that manages packets that are to be sent.
 	 */
 	private final Queue<ByteBuffer> sendQueue = new LinkedBlockingQueue<ByteBuffer>();
+	/**
+	 * The bulk lane, holding the chunk frames of bulk packets. These are only
+	 * written once the send queue has been written, a few at a time, so
+	 * real-time frames never wait behind a whole bulk packet. This is guarded
+	 * by the send queue's lock.
+	 */
+	private final Queue<ByteBuffer> bulkQueue = new LinkedList<ByteBuffer>();
+	/**
+	 * When each packet in the send queue was queued.
+	 */
+	private final DwellQueue sendDwell = new DwellQueue();
+	/**
+	 * When each chunk in the bulk lane was queued.
+	 */
+	private final DwellQueue bulkDwell = new DwellQueue();
+	/**
+	 * If bulk packets are split into chunks and sent in the bulk lane, instead
+	 * of being queued in order with every other packet.
+	 */
+	private volatile boolean chunking = false;
+	/**
+	 * Reassembles the bulk packets received in chunks. This is only used by
+	 * the data worker handling this client's packets.
+	 */
+	private final ChunkAssembler chunkAssembler = new ChunkAssembler();
+	/**
+	 * The number of reliable packets with each state key this client has
+	 * sent, which orders the unreliable packets sent on a datagram channel.
+	 * This is also the lock held while such a packet is queued or offered.
+	 */
+	private final StateEpochs sentEpochs = new StateEpochs();
+	/**
+	 * The number of reliable packets with each state key this client has
+	 * handled, and the datagram packets waiting for them. This is only used
+	 * by the data worker handling this client's packets.
+	 */
+	private final StateEpochs receivedEpochs = new StateEpochs();
+	/**
+	 * The shared frames whose read-only views are in the send queue, in the
+	 * same order as their views. This is guarded by the send queue's lock.
+	 */
+	private final Queue<PacketFrame> sharedFrames =
+			new LinkedList<PacketFrame>();
 	/**
 	 * The socket channel that this network client wraps.
 	 */
 	private final SocketChannel socket;
 	/**
-	 * The temporary read buffer that this client reads into until a packet is
-	 * found.
+	 * The slab this client is currently reading into.
+	 */
+	private ReadSlab readSlab;
+	/**
+	 * The position in the read slab of the first byte that isn't part of a
+	 * packet handed to the data worker yet.
+	 */
+	private int readHead = 0;
+	/**
+	 * A released slab kept for the next time the read slab has to be
+	 * replaced.
+	 */
+	private final AtomicReference<ReadSlab> spareSlab =
+			new AtomicReference<ReadSlab>();
+
+	/**
+	 * The buffers handed to a single gathering write, reused between flushes.
+	 */
+	private final ByteBuffer[] gatherBuffers =
+			new ByteBuffer[NetworkConstants.WRITE_GATHER_MAX_BUFFERS + 1];
+	/**
+	 * The contiguous buffer that small frames are copied into before being
+	 * written, or <code>null</code> if it hasn't been needed yet.
+	 */
+	private ByteBuffer coalesceBuffer = null;
+	/**
+	 * If the coalesce buffer holds data that hasn't been written yet.
+	 */
+	private boolean coalescePending = false;
+	/**
+	 * The index of the data worker this client's packets are handled on, or
+	 * <code>-1</code> if it hasn't been pinned yet.
+	 */
+	private volatile int workerStripe = -1;
+	/**
+	 * The format packets are encoded in when sent. This only changes while
+	 * holding the send queue's lock.
+	 */
+	private volatile WireFormat writeFormat = WireFormat.V1;
+	/**
+	 * The format received packets are decoded in. This is only changed by the
+	 * data worker handling this client's packets.
+	 */
+	private volatile WireFormat readFormat = WireFormat.V1;
+	/**
+	 * The capture recording the frames sent and received by this client, or
+	 * <code>null</code> if it isn't being captured.
+	 */
+	private volatile TrafficCapture capture = null;
+
+	// Outbound Batching
+	/**
+	 * If small packets are collected into a batch frame until this client is
+	 * flushed, instead of each being queued on its own.
+	 */
+	private volatile boolean batching = false;
+	/**
+	 * The batch frame currently being built, or <code>null</code> if none is
+	 * open. This is guarded by the send queue's lock.
+	 */
+	private ByteBuffer batchBuffer = null;
+	/**
+	 * The number of packets in the open batch frame.
+	 */
+	private int batchCount = 0;
+	/**
+	 * If a flush has been scheduled for the open batch frame.
+	 */
+	private boolean flushScheduled = false;
+
+	// Send Limits
+	/**
+	 * The number of queued bytes above which this client is congested, and
+	 * packets are coalesced or dropped according to their
+	 * {@link SendPolicy}, or <code>0</code> for no limit.
+	 */
+	private volatile int softSendLimit = 0;
+	/**
+	 * The number of queued bytes above which this client is overflowing, or
+	 * <code>0</code> for no limit.
+	 */
+	private volatile int hardSendLimit = 0;
+	/**
+	 * The time in milliseconds this client can overflow for before
+	 * {@link #onSendOverflow()} is called.
+	 */
+	private volatile long sendOverflowTime = 0;
+	/**
+	 * The number of bytes queued to be written, including the coalesce buffer
+	 * but not the open batch frame. This is only changed while holding the
+	 * send queue's lock.
+	 */
+	private volatile int queuedBytes = 0;
+	/**
+	 * The largest number of bytes that have been queued at once.
+	 */
+	private volatile int peakQueuedBytes = 0;
+	/**
+	 * The time this client started overflowing, or <code>0</code> if it isn't
+	 * overflowing. This is guarded by the send queue's lock.
+	 */
+	private long overflowSince = 0;
+	/**
+	 * If {@link #onSendOverflow()} has been called for the current overflow.
+	 */
+	private boolean overflowReported = false;
+	/**
+	 * The packets held by {@link SendPolicy#COALESCE} until this client is no
+	 * longer congested, by packet ID and state key. This is guarded by the
+	 * send queue's lock.
+	 */
+	private final Map<Long, Packet> heldPackets =
+			new LinkedHashMap<Long, Packet>();
+	/**
+	 * The number of held packets that were replaced by a later packet.
+	 */
+	private final AtomicLong coalescedCount = new AtomicLong();
+	/**
+	 * The number of packets dropped while congested.
+	 */
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	// Write Monitoring
+	/**
+	 * The number of times the send queue has been flushed.
+	 */
+	private final AtomicLong flushCount = new AtomicLong();
+	/**
+	 * The number of write calls made on the socket channel.
 	 */
-	private final ByteBuffer readBuffer = ByteBuffer
-			.allocate(NetworkConstants.MAX_BUFFER);
+	private final AtomicLong writeSyscallCount = new AtomicLong();
+	/**
+	 * The number of bytes written to the socket channel.
+	 */
+	private final AtomicLong bytesFlushed = new AtomicLong();
 
 	/**
 	 * Creates a network client instance using the specified channel as a
@@ -68,6 +285,9 @@ public abstract class NetClient {
 	 */
 	public NetClient(final SocketChannel sSocket) {
 		this.socket = sSocket;
+		this.readSlab = new ReadSlab(this,
+				NetworkConstants.READ_SLAB_SIZE);
+		this.readSlab.retain();
 	}
 
 	/**
@@ -82,8 +302,9 @@ public abstract class NetClient {
 
 	/**
 	 * Called by the net client to processes received data. Modifying this array
-	 * will cause trouble, so it should be cloned using
-	 * {@link System#arraycopy(Object, int, Object, int, int)}.
+	 * will cause trouble. The data is only valid during this call, unless it is
+	 * passed straight to a {@link DataWorker}, which holds onto it until the
+	 * packet has been handled.
 	 * 
 	 * @param data
 	 *            the main array
@@ -120,192 +341,1387 @@ public abstract class NetClient {
 	public abstract NetHandler getHandler();
 
 	/**
-	 * Reads a readable selection key into the read buffer, and calls the
-	 * {@link NetClient#processData(byte[], int, int)} with the data read.
+	 * Reads a readable selection key into the read slab, and calls the
+	 * {@link NetClient#processData(byte[], int, int)} with each complete
+	 * packet read.
 	 * 
 	 * @param key
 	 *            the key to read on
+	 * @return the number of bytes read, or <code>-1</code> if the channel has
+	 *         reached end-of-stream
 	 * @throws IOException
 	 *             if an error occurs
 	 */
-	public final void read(final SelectionKey key) throws IOException {
-		int numRead = ((SocketChannel) key.channel()).read(readBuffer);
+	public final int read(final SelectionKey key) throws IOException {
+		int numRead = ((SocketChannel) key.channel()).read(readSlab
+				.buffer());
+		if (numRead > 0) {
+			lastReadTime = System.currentTimeMillis();
+		}
 		readThroughBuffer();
 
 		if (numRead == -1) {
 			key.channel().close();
 			key.cancel();
-			return;
 		}
+		return numRead;
 	}
 
 	/**
-	 * Reads all the packets out of the read buffer.
+	 * Hands all the complete packets in the read slab to
+	 * {@link #processData(byte[], int, int)} in place, then makes room for the
+	 * rest of the next packet if it won't fit in the slab.
+	 * 
+	 * @throws IOException
+	 *             if a packet has an invalid length
 	 */
-	private void readThroughBuffer() {
-		while (readBuffer.position() > SizeOf.INT) {
-			int len = readBuffer.getInt(0);
-			if (readBuffer.position() >= len + SizeOf.INT) {
+	private void readThroughBuffer() throws IOException {
+		ByteBuffer buf = readSlab.buffer();
+		while (buf.position() - readHead >= SizeOf.INT) {
+			int len = buf.getInt(readHead);
+			if (len < 0 || len > NetworkConstants.MAX_BUFFER) {
+				throw new IOException("Invalid packet length: " + len);
+			}
+			if (buf.position() - readHead >= len + SizeOf.INT) {
 				receiveSinceUpdate += len + SizeOf.INT;
-				processData(readBuffer.array(), readBuffer.arrayOffset()
-						+ SizeOf.INT, len);
-				if (readBuffer.position() > len + SizeOf.INT) {
-					int rewindSize = readBuffer.position() - len - SizeOf.INT;
-					System.arraycopy(readBuffer.array(),
-							readBuffer.arrayOffset() + len + SizeOf.INT,
-							readBuffer.array(), readBuffer.arrayOffset(),
-							rewindSize);
-					readBuffer.position(rewindSize);
-				} else {
-					readBuffer.clear();
+				if (capture != null) {
+					capture(TrafficCapture.INBOUND, readSlab.array(),
+							readHead + SizeOf.INT, len);
 				}
+				processData(readSlab.array(), readHead + SizeOf.INT, len);
+				readHead += len + SizeOf.INT;
 			} else {
 				break;
 			}
 		}
+
+		int pending = buf.position() - readHead;
+		if (pending == 0 && readSlab.isOnlyHeldBy(1)) {
+			buf.clear();
+			readHead = 0;
+			return;
+		}
+		int needed = SizeOf.INT;
+		if (pending >= SizeOf.INT) {
+			needed += buf.getInt(readHead);
+		}
+		if (buf.capacity() - readHead < needed) {
+			rotateReadSlab(pending);
+		}
 	}
 
 	/**
-	 * Adds the specified packet to the send queue, for sending at a later date.
+	 * Moves the partial packet at the end of the read slab to the start of a
+	 * slab. The current slab is compacted in place if no packets still
+	 * reference it, otherwise a spare slab is used.
 	 * 
-	 * @see NetClient#getSendQueue()
-	 * @param pack
-	 *            the packet queue
+	 * @param pending
+	 *            the number of bytes of the partial packet
 	 */
-	public final void send(final Packet pack) {
-		getLog().finest(
-				"Send " + pack.getName() + " size: " + pack.getLength()
-						+ getSuffix());
-		try {
-			addWriteRequest();
-			synchronized (this.sendQueue) {
-				int size = pack.getPacketLength();
-				PacketOutputStream pO = new PacketOutputStream(
-						ByteBuffer.allocate(size + SizeOf.INT));
-				pO.writeInt(size);
-				pack.writePacket(pO);
-				sendSinceUpdate += size;
-				sendQueue.add((ByteBuffer) pO.getByteBuffer().flip());
+	private void rotateReadSlab(final int pending) {
+		ReadSlab old = readSlab;
+		if (old.isOnlyHeldBy(1)) {
+			System.arraycopy(old.array(), readHead, old.array(), 0, pending);
+		} else {
+			ReadSlab next = spareSlab.getAndSet(null);
+			if (next == null) {
+				next = new ReadSlab(this, NetworkConstants.READ_SLAB_SIZE);
 			}
-			wakeSelector();
-			onSend(pack);
-		} catch (Exception e) {
-			getLog().printStackTrace(e);
+			next.retain();
+			next.buffer().clear();
+			System.arraycopy(old.array(), readHead, next.array(), 0, pending);
+			readSlab = next;
+			old.release();
 		}
+		readSlab.buffer().clear();
+		readSlab.buffer().position(pending);
+		readHead = 0;
 	}
 
 	/**
-	 * Called when this client sends a packet.
+	 * Retains the current read slab if it backs the given array, so the data
+	 * worker can read a packet in place.
 	 * 
-	 * @param p
-	 *            the packet sent
+	 * @param data
+	 *            the array passed to {@link #processData(byte[], int, int)}
+	 * @return the retained slab, or <code>null</code> if the array isn't the
+	 *         current read slab
 	 */
-	protected void onSend(final Packet p) {
+	final ReadSlab retainReadSlab(final byte[] data) {
+		ReadSlab slab = readSlab;
+		if (slab.array() != data) {
+			return null;
+		}
+		slab.retain();
+		return slab;
 	}
 
 	/**
-	 * Adds the specified packet data to the send queue, for sending at a later
-	 * date. This data should have the packet ID in the array.
+	 * Keeps a fully released slab as the spare for the next rotation.
 	 * 
-	 * @see NetClient#getSendQueue()
-	 * @param packetData
-	 *            the raw data to send
+	 * @param slab
+	 *            the released slab
 	 */
-	public final void sendRaw(final byte[] packetData) {
-		getLog().finest(
-				"Sending raw data size: " + packetData.length + getSuffix());
-		try {
-			addWriteRequest();
-			synchronized (this.sendQueue) {
-				ByteBuffer bb = ByteBuffer.allocateDirect(packetData.length
-						+ SizeOf.INT);
-				bb.putInt(packetData.length);
+	final void recycleReadSlab(final ReadSlab slab) {
+		spareSlab.compareAndSet(null, slab);
+	}
+
+	/**
+	 * Writes as much of the send queue and bulk lane as possible to a writable
+	 * selection key, returning each fully written buffer to the
+	 * {@link BufferPool}. Once both are empty the key is switched back to
+	 * reading.
+	 * <p>
+	 * Each gathering write takes the real-time frames first, followed by up to
+	 * {@link NetworkConstants#BULK_CHUNKS_PER_WRITE} bulk chunks. A chunk that
+	 * was only partly written is finished before any more real-time frames.
+	 * <p>
+	 * Queued buffers are written with a single gathering write of up to
+	 * {@link NetworkConstants#WRITE_GATHER_MAX_BUFFERS} buffers and
+	 * {@link NetworkConstants#WRITE_GATHER_MAX_BYTES} bytes. If
+	 * {@link NetworkConstants#WRITE_COALESCE} is enabled, small frames at the
+	 * head of the queue are first copied into one contiguous buffer.
+	 * 
+	 * @param key
+	 *            the key to write on
+	 * @return the number of bytes written
+	 * @throws IOException
+	 *             if an error occurs
+	 */
+	public final int write(final SelectionKey key) throws IOException {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+		long written = 0;
+		flushCount.incrementAndGet();
+		long now = System.nanoTime();
+		synchronized (sendQueue) {
+			while (coalescePending || !sendQueue.isEmpty()
+					|| !bulkQueue.isEmpty()) {
+				int count = 0;
+				long bytes = 0;
+				ByteBuffer bulk = bulkQueue.peek();
+				if (bulk != null && bulk.position() > 0) {
+					gatherBuffers[count++] = bulk;
+					bytes += bulk.remaining();
+				} else {
+					if (!coalescePending && NetworkConstants.WRITE_COALESCE) {
+						coalesceHead();
+					}
+					if (coalescePending) {
+						gatherBuffers[count++] = coalesceBuffer;
+						bytes += coalesceBuffer.remaining();
+					}
+					for (ByteBuffer buf : sendQueue) {
+						if (count >= gatherBuffers.length
+								|| (count > 0 && bytes + buf.remaining()
+										> NetworkConstants.WRITE_GATHER_MAX_BYTES)) {
+							break;
+						}
+						gatherBuffers[count++] = buf;
+						bytes += buf.remaining();
+					}
+					int chunks = 0;
+					for (ByteBuffer buf : bulkQueue) {
+						if (chunks >= NetworkConstants.BULK_CHUNKS_PER_WRITE
+								|| count >= gatherBuffers.length
+								|| (count > 0 && bytes + buf.remaining()
+										> NetworkConstants.WRITE_GATHER_MAX_BYTES)) {
+							break;
+						}
+						gatherBuffers[count++] = buf;
+						bytes += buf.remaining();
+						chunks++;
+					}
+				}
+				long wrote = socketChannel.write(gatherBuffers, 0, count);
+				writeSyscallCount.incrementAndGet();
+				written += wrote;
+				for (int i = 0; i < count; i++) {
+					gatherBuffers[i] = null;
+				}
+
+				if (coalescePending && !coalesceBuffer.hasRemaining()) {
+					coalescePending = false;
+				}
+				if (!coalescePending) {
+					ByteBuffer buf;
+					while ((buf = sendQueue.peek()) != null
+							&& !buf.hasRemaining()) {
+						sendQueue.poll();
+						sendDwell.removeFrame(now);
+						releaseQueued(buf);
+					}
+				}
+				while ((bulk = bulkQueue.peek()) != null
+						&& !bulk.hasRemaining()) {
+					bulkQueue.poll();
+					bulkDwell.removeFrame(now);
+					BufferPool.getInstance().release(bulk);
+				}
+				if (wrote < bytes) {
+					break;
+				}
+			}
 
-				bb.put(packetData);
-				sendSinceUpdate += bb.capacity();
-				sendQueue.add((ByteBuffer) bb.flip());
+			queuedBytes -= (int) written;
+			if (hardSendLimit <= 0 || queuedBytes <= hardSendLimit) {
+				overflowSince = 0;
+				overflowReported = false;
+			}
+			if (!heldPackets.isEmpty()
+					&& (softSendLimit <= 0 || queuedBytes < softSendLimit / 2)) {
+				releaseHeld(-1);
+			}
+
+			if (!coalescePending && sendQueue.isEmpty()
+					&& bulkQueue.isEmpty()) {
+				key.interestOps(SelectionKey.OP_READ);
 			}
-			wakeSelector();
-		} catch (Exception e) {
-			getLog().printStackTrace(e);
 		}
+		bytesFlushed.addAndGet(written);
+		return (int) written;
 	}
 
 	/**
-	 * Checks if this network client is connected.
-	 * 
-	 * @return <code>true</code> if this socket is open and connected,
-	 *         <code>false</code> if otherwise.
+	 * Copies the small frames at the head of the send queue into the coalesce
+	 * buffer, releasing them, until a large frame is found or the buffer is
+	 * full. This must be called while holding the send queue's lock.
 	 */
-	public final boolean isConnected() {
-		return socket.isOpen() && socket.isConnected();
+	private void coalesceHead() {
+		ByteBuffer buf = sendQueue.peek();
+		if (buf == null
+				|| buf.remaining() > NetworkConstants.WRITE_COALESCE_THRESHOLD) {
+			return;
+		}
+		if (coalesceBuffer == null) {
+			coalesceBuffer = ByteBuffer
+					.allocateDirect(NetworkConstants.WRITE_COALESCE_BUFFER);
+		}
+		coalesceBuffer.clear();
+		long now = System.nanoTime();
+		while ((buf = sendQueue.peek()) != null
+				&& buf.remaining() <= NetworkConstants.WRITE_COALESCE_THRESHOLD
+				&& buf.remaining() <= coalesceBuffer.remaining()) {
+			coalesceBuffer.put(buf);
+			sendQueue.poll();
+			sendDwell.removeFrame(now);
+			releaseQueued(buf);
+		}
+		coalesceBuffer.flip();
+		coalescePending = coalesceBuffer.hasRemaining();
 	}
 
 	/**
-	 * Gets the queued packet data to send.
+	 * Releases a buffer that has been removed from the send queue. Read-only
+	 * buffers are views of the next shared frame, which loses a reference,
+	 * while any other buffer is returned to the {@link BufferPool}. This must
+	 * be called while holding the send queue's lock.
 	 * 
-	 * @return the send queue
+	 * @param buf
+	 *            the buffer removed from the send queue
 	 */
-	public final Queue<ByteBuffer> getSendQueue() {
-		return sendQueue;
+	private void releaseQueued(final ByteBuffer buf) {
+		if (buf.isReadOnly()) {
+			sharedFrames.poll().release();
+		} else {
+			BufferPool.getInstance().release(buf);
+		}
 	}
 
 	/**
-	 * Gets the host address this socket is connected to.
-	 * 
-	 * @see java.net.Socket#getInetAddress()
-	 * @see java.net.InetAddress#getHostAddress()
-	 * @return the host address
+	 * Discards any data remaining in the send queue, returning the buffers to
+	 * the {@link BufferPool}. This should be called once the channel will no
+	 * longer be written to.
 	 */
-	public final String getHostAddress() {
-		return socket.socket().getInetAddress().getHostAddress();
+	protected final void releaseSendQueue() {
+		synchronized (sendQueue) {
+			coalescePending = false;
+			queuedBytes = 0;
+			heldPackets.clear();
+			sendDwell.clear();
+			bulkDwell.clear();
+			ByteBuffer buf;
+			while ((buf = sendQueue.poll()) != null) {
+				releaseQueued(buf);
+			}
+			while ((buf = bulkQueue.poll()) != null) {
+				BufferPool.getInstance().release(buf);
+			}
+			if (batchBuffer != null) {
+				BufferPool.getInstance().release(batchBuffer);
+				batchBuffer = null;
+				batchCount = 0;
+			}
+		}
 	}
 
 	/**
-	 * Gets the remote port this socket is connected to.
+	 * Makes sure the open batch frame has room for a frame of the given size,
+	 * closing the current batch if it is full and opening a new one if needed.
+	 * This must be called while holding the send queue's lock.
 	 * 
-	 * @see java.net.Socket#getPort()
-	 * @return the remote port
+	 * @param frameSize
+	 *            the size in bytes of the frame, including its length header
 	 */
-	public final int getPort() {
-		return socket.socket().getPort();
+	private void reserveBatch(final int frameSize) {
+		if (batchBuffer != null && batchBuffer.remaining() < frameSize) {
+			closeBatch();
+		}
+		if (batchBuffer == null) {
+			batchBuffer = BufferPool.getInstance().acquire(
+					NetworkConstants.BATCH_BUFFER_SIZE);
+			batchBuffer.position(BATCH_HEADER);
+		}
 	}
 
 	/**
-	 * Gets the socket channel this network client is bound to.
+	 * Moves the open batch frame, if any, to the send queue. A batch holding a
+	 * single packet is queued as that packet's own frame. This must be called
+	 * while holding the send queue's lock.
+	 */
+	private void closeBatch() {
+		ByteBuffer batch = batchBuffer;
+		if (batch == null) {
+			return;
+		}
+		if (batchCount == 1) {
+			batch.limit(batch.position());
+			batch.position(BATCH_HEADER);
+		} else {
+			batch.putInt(0, batch.position() - SizeOf.INT);
+			batch.put(SizeOf.INT, (byte) BATCH_ID);
+			batch.flip();
+		}
+		BATCH_PACKETS.record(batchCount);
+		BATCH_BYTES.record(batch.remaining());
+		sendDwell.endFrame();
+		enqueue(batch);
+		batchBuffer = null;
+		batchCount = 0;
+	}
+
+	/**
+	 * Marks the open batch frame as needing a flush, returning if this is the
+	 * first packet since the last flush. This must be called while holding the
+	 * send queue's lock.
 	 * 
-	 * @return the channel
+	 * @return if a flush should be scheduled
 	 */
-	public final SocketChannel getChannel() {
-		return socket;
+	private boolean markBatched() {
+		batchCount++;
+		if (flushScheduled) {
+			return false;
+		}
+		flushScheduled = true;
+		return true;
 	}
 
 	/**
-	 * Updates the cached network speed if the time passes is greater than the
-	 * {@link NetworkConstants#NETWORK_SPEED_RECALCULATION_TIME}.
+	 * Closes the open batch frame and asks the selector thread to write the
+	 * send queue. The selector is only woken once, however many packets were
+	 * batched.
 	 */
-	private void updateBandwidth() {
-		long delta = System.currentTimeMillis() - lastUpdateTime;
-		if (lastUpdateTime == -1) {
-			delta = 1000;
+	public final void flush() {
+		boolean pending;
+		synchronized (sendQueue) {
+			flushScheduled = false;
+			closeBatch();
+			pending = coalescePending || !sendQueue.isEmpty()
+					|| !bulkQueue.isEmpty();
 		}
-		if (delta >= NetworkConstants.NETWORK_SPEED_RECALCULATION_TIME) {
-			cacheUploadRate = (int) ((sendSinceUpdate * 1000) / delta);
-			cacheDownloadRate = (int) ((receiveSinceUpdate * 1000) / delta);
-			lastUpdateTime = System.currentTimeMillis();
-			sendSinceUpdate = 0;
-			receiveSinceUpdate = 0;
+		if (pending) {
+			addWriteRequest();
+			wakeSelector();
 		}
+		checkOverflow();
+		onFlush();
 	}
 
 	/**
-	 * Gets the currently cached upload speed in bytes per second.
+	 * Called at the end of each {@link #flush()}, so subclasses with other
+	 * pending output can send it in the same flush window. By default nothing
+	 * is done.
+	 */
+	protected void onFlush() {
+	}
+
+	/**
+	 * Called when the first packet is added to a batch frame, and should
+	 * arrange for {@link #flush()} to be called at the end of the current
+	 * flush window. By default the client is flushed immediately.
+	 */
+	protected void scheduleFlush() {
+		flush();
+	}
+
+	/**
+	 * Enables or disables outbound batching for this client. When it is
+	 * disabled any open batch frame is flushed.
 	 * 
-	 * @return the upload speed
+	 * @param sBatching
+	 *            if small packets should be batched
 	 */
-	public final int getUploadSpeed() {
-		updateBandwidth();
-		return cacheUploadRate;
+	public final void setBatching(final boolean sBatching) {
+		this.batching = sBatching;
+		if (!sBatching) {
+			flush();
+		}
+	}
+
+	/**
+	 * Checks if outbound batching is enabled for this client.
+	 * 
+	 * @return if small packets are batched
+	 */
+	public final boolean isBatching() {
+		return batching;
+	}
+
+	/**
+	 * Enables or disables the bulk lane for this client. This should only be
+	 * enabled if the other side can reassemble chunked bulk packets.
+	 * 
+	 * @see NetworkConstants#FEATURE_CHUNKED_BULK
+	 * @param sChunking
+	 *            if bulk packets are sent in chunks in the bulk lane
+	 */
+	public final void setChunking(final boolean sChunking) {
+		this.chunking = sChunking;
+	}
+
+	/**
+	 * Checks if bulk packets are sent in chunks in the bulk lane.
+	 * 
+	 * @return if the bulk lane is enabled
+	 */
+	public final boolean isChunking() {
+		return chunking;
+	}
+
+	/**
+	 * Adds the specified packet to the send queue, for sending at a later date.
+	 * 
+	 * @see NetClient#getSendQueue()
+	 * @param pack
+	 *            the packet queue
+	 */
+	public final void send(final Packet pack) {
+		getLog().finest(
+				"Send " + pack.getName() + " size: " + pack.getLength()
+						+ getSuffix());
+		if (pack.isUnreliable()) {
+			synchronized (sentEpochs) {
+				if (sendUnreliable(pack,
+						sentEpochs.get(pack.getStateKey()))) {
+					return;
+				}
+			}
+		}
+		if (StateEpochs.isCounted(pack)) {
+			synchronized (sentEpochs) {
+				beforeCounted(pack.getStateKey());
+				if (queue(pack)) {
+					sentEpochs.increment(pack.getStateKey());
+				}
+			}
+		} else {
+			queue(pack);
+		}
+	}
+
+	/**
+	 * Adds the specified packet to the send queue even if it's unreliable,
+	 * without offering it to a datagram channel. This is for the unreliable
+	 * packets a datagram channel passes back to be sent over TCP.
+	 * 
+	 * @param pack
+	 *            the unreliable packet
+	 */
+	public final void sendOnStream(final Packet pack) {
+		queue(pack);
+	}
+
+	/**
+	 * Adds the specified packet to the send queue, unless its
+	 * {@link SendPolicy} holds or drops it.
+	 * 
+	 * @param pack
+	 *            the packet
+	 * @return <code>true</code> if the packet was queued
+	 */
+	private boolean queue(final Packet pack) {
+		try {
+			synchronized (this.sendQueue) {
+				if (holdOrDrop(pack)) {
+					return false;
+				}
+			}
+			if (chunking && pack.isBulk()) {
+				addWriteRequest();
+				synchronized (this.sendQueue) {
+					queueBulk(pack);
+				}
+				wakeSelector();
+				onSend(pack);
+				checkOverflow();
+				return true;
+			}
+			int size = pack.getPacketLength();
+			if (batching
+					&& size + SizeOf.INT <= NetworkConstants.BATCH_MAX_FRAME) {
+				boolean schedule;
+				synchronized (this.sendQueue) {
+					WireFormat format = writeFormat;
+					reserveBatch(format.getMaxLength(size) + SizeOf.INT);
+					int length =
+							PacketFrame.writeFrame(batchBuffer, pack, format);
+					sendSinceUpdate += length;
+					recordBatched(pack.getID(), length);
+					schedule = markBatched();
+				}
+				if (schedule) {
+					scheduleFlush();
+				}
+				onSend(pack);
+				return true;
+			}
+			addWriteRequest();
+			synchronized (this.sendQueue) {
+				queueFrame(pack);
+			}
+			wakeSelector();
+			onSend(pack);
+			checkOverflow();
+			return true;
+		} catch (Exception e) {
+			getLog().printStackTrace(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Adds a view of the specified shared frame to the send queue, for sending
+	 * at a later date. The frame isn't serialized again, and holds a reference
+	 * for this client until the view has been written.
+	 * 
+	 * @param frame
+	 *            the shared frame
+	 */
+	public final void send(final PacketFrame frame) {
+		Packet pack = frame.getPacket();
+		getLog().finest(
+				"Send shared " + pack.getName() + " size: "
+						+ frame.getLength() + getSuffix());
+		if (pack.isUnreliable()) {
+			synchronized (sentEpochs) {
+				if (sendUnreliable(pack,
+						sentEpochs.get(pack.getStateKey()))) {
+					return;
+				}
+			}
+		}
+		if (chunking && pack.isBulk()) {
+			send(pack);
+			return;
+		}
+		if (StateEpochs.isCounted(pack)) {
+			synchronized (sentEpochs) {
+				beforeCounted(pack.getStateKey());
+				if (queue(frame)) {
+					sentEpochs.increment(pack.getStateKey());
+				}
+			}
+		} else {
+			queue(frame);
+		}
+	}
+
+	/**
+	 * Adds a view of the specified shared frame to the send queue, unless its
+	 * packet's {@link SendPolicy} holds or drops it.
+	 * 
+	 * @param frame
+	 *            the shared frame
+	 * @return <code>true</code> if the frame was queued
+	 */
+	private boolean queue(final PacketFrame frame) {
+		try {
+			synchronized (this.sendQueue) {
+				if (holdOrDrop(frame.getPacket())) {
+					return false;
+				}
+			}
+			if (batching
+					&& frame.getLength() <= NetworkConstants.BATCH_MAX_FRAME) {
+				boolean schedule;
+				synchronized (this.sendQueue) {
+					WireFormat format = writeFormat;
+					int length = frame.getLength(format);
+					reserveBatch(length);
+					frame.copyTo(batchBuffer, format);
+					sendSinceUpdate += length;
+					recordBatched(frame.getPacket().getID(), length);
+					schedule = markBatched();
+				}
+				if (schedule) {
+					scheduleFlush();
+				}
+				onSend(frame.getPacket());
+				return true;
+			}
+			addWriteRequest();
+			synchronized (this.sendQueue) {
+				closeBatch();
+				ByteBuffer view = frame.retainView(writeFormat);
+				sharedFrames.add(frame);
+				enqueue(view, frame.getPacket().getID());
+				sendSinceUpdate += view.limit();
+			}
+			wakeSelector();
+			onSend(frame.getPacket());
+			checkOverflow();
+			return true;
+		} catch (Exception e) {
+			getLog().printStackTrace(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Encodes a packet into its own frame at the end of the send queue,
+	 * closing the open batch frame first. This must be called while holding
+	 * the send queue's lock.
+	 * 
+	 * @param pack
+	 *            the packet to queue
+	 * @throws IOException
+	 *             if the packet can't be written
+	 */
+	private void queueFrame(final Packet pack) throws IOException {
+		closeBatch();
+		WireFormat format = writeFormat;
+		ByteBuffer bb = BufferPool.getInstance().acquire(
+				format.getMaxLength(pack.getPacketLength()) + SizeOf.INT);
+		sendSinceUpdate += PacketFrame.writeFrame(bb, pack, format);
+		enqueue((ByteBuffer) bb.flip(), pack.getID());
+	}
+
+	/**
+	 * Records a packet added to the open batch frame in the
+	 * {@link PacketMetrics}, without its length prefix, and notes when it was
+	 * queued. This must be called while holding the send queue's lock.
+	 * 
+	 * @param id
+	 *            the packet ID
+	 * @param length
+	 *            the length of the packet's frame in the batch
+	 */
+	private void recordBatched(final int id, final int length) {
+		PacketMetrics.getInstance().recordSent(id, length - SizeOf.INT);
+		sendDwell.add(id, System.nanoTime(), false);
+	}
+
+	/**
+	 * Adds a frame holding a single packet to the end of the send queue,
+	 * recording the packet in the {@link PacketMetrics}. This must be called
+	 * while holding the send queue's lock.
+	 * 
+	 * @param buf
+	 *            the frame, positioned for writing to the channel
+	 * @param id
+	 *            the ID of the packet in the frame
+	 */
+	private void enqueue(final ByteBuffer buf, final int id) {
+		PacketMetrics.getInstance().recordSent(id,
+				buf.remaining() - SizeOf.INT);
+		sendDwell.add(id, System.nanoTime(), true);
+		enqueue(buf);
+	}
+
+	/**
+	 * Adds a frame to the end of the send queue, counting its bytes. This
+	 * must be called while holding the send queue's lock.
+	 * 
+	 * @param buf
+	 *            the frame, positioned for writing to the channel
+	 */
+	private void enqueue(final ByteBuffer buf) {
+		if (capture != null) {
+			capture(TrafficCapture.OUTBOUND, buf);
+		}
+		sendQueue.add(buf);
+		queuedBytes += buf.remaining();
+		if (queuedBytes > peakQueuedBytes) {
+			peakQueuedBytes = queuedBytes;
+		}
+	}
+
+	/**
+	 * Applies a packet's {@link SendPolicy} if this client is congested, and
+	 * sends any held packets with the same state key first if it isn't held
+	 * itself. This must be called while holding the send queue's lock.
+	 * 
+	 * @param pack
+	 *            the packet being sent
+	 * @return <code>true</code> if the packet was held or dropped, and
+	 *         shouldn't be queued
+	 */
+	private boolean holdOrDrop(final Packet pack) {
+		boolean congested =
+				softSendLimit > 0 && queuedBytes >= softSendLimit;
+		SendPolicy policy = pack.getSendPolicy();
+		if (policy == SendPolicy.COALESCE) {
+			Long key =
+					Long.valueOf(((long) pack.getID() << SizeOf.INT_BITS)
+							| (pack.getStateKey() & 0xFFFFFFFFL));
+			if (congested || heldPackets.containsKey(key)) {
+				if (heldPackets.put(key, pack) != null) {
+					coalescedCount.incrementAndGet();
+				}
+				return true;
+			}
+		} else if (policy == SendPolicy.DROP && congested) {
+			droppedCount.incrementAndGet();
+			return true;
+		}
+		if (pack.getStateKey() != -1 && !heldPackets.isEmpty()) {
+			releaseHeld(pack.getStateKey());
+		}
+		return false;
+	}
+
+	/**
+	 * Queues the held packets with the given state key, in the order they were
+	 * first held. This must be called while holding the send queue's lock.
+	 * 
+	 * @param stateKey
+	 *            the state key, or <code>-1</code> to queue every held packet
+	 */
+	private void releaseHeld(final int stateKey) {
+		Iterator<Packet> it = heldPackets.values().iterator();
+		while (it.hasNext()) {
+			Packet pack = it.next();
+			if (stateKey == -1 || pack.getStateKey() == stateKey) {
+				it.remove();
+				try {
+					queueFrame(pack);
+					onSend(pack);
+				} catch (Exception e) {
+					getLog().printStackTrace(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks if this client has been overflowing for longer than the overflow
+	 * time, and calls {@link #onSendOverflow()} once if so.
+	 */
+	private void checkOverflow() {
+		if (hardSendLimit <= 0) {
+			return;
+		}
+		boolean report = false;
+		int queued;
+		synchronized (this.sendQueue) {
+			queued = queuedBytes;
+			if (queued <= hardSendLimit) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+			if (overflowSince == 0) {
+				overflowSince = now;
+			}
+			if (!overflowReported && now - overflowSince >= sendOverflowTime) {
+				overflowReported = true;
+				report = true;
+			}
+		}
+		if (report) {
+			getLog().warning(
+					"Send queue overflowed with " + queued + " bytes"
+							+ getSuffix());
+			onSendOverflow();
+		}
+	}
+
+	/**
+	 * Called once when this client has had more bytes queued than its hard
+	 * send limit for longer than the overflow time. By default nothing is
+	 * done.
+	 * 
+	 * @see #setSendLimits(int, int, long)
+	 */
+	protected void onSendOverflow() {
+	}
+
+	/**
+	 * Sets the send queue limits for this client. While more than the soft
+	 * limit is queued, packets are coalesced or dropped according to their
+	 * {@link SendPolicy}. If more than the hard limit stays queued for longer
+	 * than the overflow time, {@link #onSendOverflow()} is called.
+	 * 
+	 * @param softLimit
+	 *            the soft limit in bytes, or <code>0</code> for none
+	 * @param hardLimit
+	 *            the hard limit in bytes, or <code>0</code> for none
+	 * @param overflowTime
+	 *            the overflow time in milliseconds
+	 */
+	public final void setSendLimits(final int softLimit,
+			final int hardLimit, final long overflowTime) {
+		this.softSendLimit = softLimit;
+		this.hardSendLimit = hardLimit;
+		this.sendOverflowTime = overflowTime;
+	}
+
+	/**
+	 * Called when this client sends a packet.
+	 * 
+	 * @param p
+	 *            the packet sent
+	 */
+	protected void onSend(final Packet p) {
+	}
+
+	/**
+	 * Offers an unreliable packet to a datagram channel instead of the send
+	 * queue. By default there is no datagram channel, so nothing is taken.
+	 * This is called while holding the lock on the sent packet counts, so the
+	 * epoch can't change until the packet is taken.
+	 * 
+	 * @see Packet#isUnreliable()
+	 * @see StateEpochs
+	 * @param p
+	 *            the packet to send
+	 * @param epoch
+	 *            the number of reliable packets with the packet's state key
+	 *            sent so far
+	 * @return <code>true</code> if the packet was taken, <code>false</code>
+	 *         if it should be queued as normal
+	 */
+	protected boolean sendUnreliable(final Packet p, final int epoch) {
+		return false;
+	}
+
+	/**
+	 * Called before a reliable packet with a state key is queued, while
+	 * holding the lock on the sent packet counts. A datagram channel sends its
+	 * pending packets with the same state key over TCP here, so they arrive
+	 * ahead of the reliable packet. By default nothing is done.
+	 * 
+	 * @see StateEpochs
+	 * @param stateKey
+	 *            the reliable packet's state key
+	 */
+	protected void beforeCounted(final int stateKey) {
+	}
+
+	/**
+	 * Adds the specified packet data to the send queue, for sending at a later
+	 * date. This data should have the packet ID in the array, and be encoded
+	 * in this client's write format. Raw data is treated as a bulk packet, so
+	 * it's sent in the bulk lane if that's enabled.
+	 * 
+	 * @see NetClient#getSendQueue()
+	 * @param packetData
+	 *            the raw data to send
+	 */
+	public final void sendRaw(final byte[] packetData) {
+		getLog().finest(
+				"Sending raw data size: " + packetData.length + getSuffix());
+		try {
+			addWriteRequest();
+			synchronized (this.sendQueue) {
+				if (chunking) {
+					queueChunks(ByteBuffer.wrap(packetData), writeFormat);
+					sendSinceUpdate += packetData.length;
+				} else {
+					queueRaw(packetData);
+				}
+			}
+			wakeSelector();
+			checkOverflow();
+		} catch (Exception e) {
+			getLog().printStackTrace(e);
+		}
+	}
+
+	/**
+	 * Queues raw packet data in its own frame at the end of the send queue,
+	 * closing the open batch frame first. This must be called while holding
+	 * the send queue's lock.
+	 * 
+	 * @param packetData
+	 *            the raw data to queue
+	 */
+	private void queueRaw(final byte[] packetData) {
+		closeBatch();
+		ByteBuffer bb = BufferPool.getInstance().acquire(
+				packetData.length + SizeOf.INT);
+		bb.putInt(packetData.length);
+
+		bb.put(packetData);
+		sendSinceUpdate += bb.limit();
+		enqueue((ByteBuffer) bb.flip(), packetData[0] & 0xFF);
+	}
+
+	/**
+	 * Encodes a bulk packet and queues it in chunks in the bulk lane. This must
+	 * be called while holding the send queue's lock.
+	 * 
+	 * @param pack
+	 *            the bulk packet
+	 * @throws IOException
+	 *             if the packet can't be written
+	 */
+	private void queueBulk(final Packet pack) throws IOException {
+		WireFormat format = writeFormat;
+		ByteBuffer bb = BufferPool.getInstance().acquire(
+				format.getMaxLength(pack.getPacketLength()));
+		try {
+			pack.writePacket(new PacketOutputStream(bb, format));
+			bb.flip();
+			sendSinceUpdate += bb.remaining();
+			queueChunks(bb, format);
+		} finally {
+			BufferPool.getInstance().release(bb);
+		}
+	}
+
+	/**
+	 * Splits packet data into chunk frames of at most
+	 * {@link NetworkConstants#BULK_CHUNK_SIZE} bytes, and adds them to the end
+	 * of the bulk lane. The packet is recorded in the {@link PacketMetrics},
+	 * and its time in the bulk lane is recorded once its last chunk is taken
+	 * off. This must be called while holding the send queue's lock.
+	 * 
+	 * @param data
+	 *            the packet data, which is consumed
+	 * @param format
+	 *            the wire format the packet data is encoded in
+	 */
+	private void queueChunks(final ByteBuffer data, final WireFormat format) {
+		int total = data.remaining();
+		int id = data.get(data.position()) & 0xFF;
+		PacketMetrics.getInstance().recordSent(id, total);
+		long now = System.nanoTime();
+		while (data.hasRemaining()) {
+			int count = Math.min(data.remaining(),
+					NetworkConstants.BULK_CHUNK_SIZE);
+			ByteBuffer chunk = BufferPool.getInstance().acquire(
+					CHUNK_HEADER + count);
+			chunk.putInt(CHUNK_HEADER - SizeOf.INT + count);
+			chunk.put((byte) CHUNK_ID);
+			chunk.put((byte) format.ordinal());
+			chunk.putInt(total);
+			ByteBuffer piece = data.duplicate();
+			piece.limit(piece.position() + count);
+			chunk.put(piece);
+			data.position(data.position() + count);
+			chunk.flip();
+			if (capture != null) {
+				capture(TrafficCapture.OUTBOUND, chunk);
+			}
+			bulkQueue.add(chunk);
+			bulkDwell.add(data.hasRemaining() ? -1 : id, now, true);
+			queuedBytes += chunk.remaining();
+		}
+		if (queuedBytes > peakQueuedBytes) {
+			peakQueuedBytes = queuedBytes;
+		}
+	}
+
+	/**
+	 * Adds the specified packet data to the send queue, for sending at a later
+	 * date. The packet has been encoded in every wire format, and the encoding
+	 * for the format this client is sending in is used.
+	 * 
+	 * @param encodings
+	 *            the raw data to send, indexed by wire format ordinal
+	 */
+	public final void sendRaw(final byte[][] encodings) {
+		synchronized (this.sendQueue) {
+			sendRaw(encodings[writeFormat.ordinal()]);
+		}
+	}
+
+	/**
+	 * Sends a {@link Packet29WireFormat} packet in the current wire format,
+	 * and encodes every packet sent after it in the given format. Nothing is
+	 * sent if this client already uses the format.
+	 * 
+	 * @param format
+	 *            the new wire format
+	 */
+	public final void switchWireFormat(final WireFormat format) {
+		synchronized (this.sendQueue) {
+			if (format == writeFormat) {
+				return;
+			}
+			send(Packet29WireFormat.create(format));
+			writeFormat = format;
+		}
+		getLog().fine("Switched to wire format " + format + getSuffix());
+	}
+
+	/**
+	 * Gets the format packets sent by this client are encoded in.
+	 * 
+	 * @return the write format
+	 */
+	public final WireFormat getWriteFormat() {
+		return writeFormat;
+	}
+
+	/**
+	 * Gets the format packets received by this client are decoded in.
+	 * 
+	 * @return the read format
+	 */
+	public final WireFormat getReadFormat() {
+		return readFormat;
+	}
+
+	/**
+	 * Gets the assembler for the bulk packets this client receives in chunks.
+	 * 
+	 * @return the chunk assembler
+	 */
+	final ChunkAssembler getChunkAssembler() {
+		return chunkAssembler;
+	}
+
+	/**
+	 * Gets the counts of the reliable packets with each state key this client
+	 * has handled.
+	 * 
+	 * @return the received packet counts
+	 */
+	final StateEpochs getReceivedEpochs() {
+		return receivedEpochs;
+	}
+
+	/**
+	 * Sets the format packets received by this client are decoded in. This is
+	 * called by the data worker once it has read a {@link Packet29WireFormat}
+	 * packet, before the next packet is decoded.
+	 * 
+	 * @param format
+	 *            the read format
+	 */
+	final void setReadFormat(final WireFormat format) {
+		this.readFormat = format;
+	}
+
+	/**
+	 * Starts recording the frames this client sends and receives to the given
+	 * file, replacing any capture already running. Outbound frames are
+	 * recorded as they are queued, in the order they will be written.
+	 * 
+	 * @param f
+	 *            the capture file
+	 * @param side
+	 *            the side of the connection this client is, either
+	 *            {@link TrafficCapture#SIDE_SERVER} or
+	 *            {@link TrafficCapture#SIDE_CLIENT}
+	 * @throws IOException
+	 *             if the capture file can't be created
+	 */
+	public final void startCapture(final File f, final int side)
+			throws IOException {
+		TrafficCapture old = capture;
+		capture = new TrafficCapture(f, side);
+		if (old != null) {
+			old.close();
+		}
+	}
+
+	/**
+	 * Stops recording this client's frames, closing the capture file.
+	 */
+	public final void stopCapture() {
+		TrafficCapture old = capture;
+		capture = null;
+		if (old != null) {
+			try {
+				old.close();
+			} catch (IOException e) {
+				getLog().printStackTrace(e);
+			}
+		}
+	}
+
+	/**
+	 * Checks if this client's frames are being captured.
+	 * 
+	 * @return if a capture is running
+	 */
+	public final boolean isCapturing() {
+		return capture != null;
+	}
+
+	/**
+	 * Records a queued frame, held with its length between the buffer's
+	 * position and limit, to this client's capture. If the capture can't be
+	 * written it is stopped.
+	 * 
+	 * @param direction
+	 *            the frame's direction
+	 * @param frame
+	 *            the frame
+	 */
+	private void capture(final int direction, final ByteBuffer frame) {
+		TrafficCapture c = capture;
+		if (c != null) {
+			try {
+				c.record(direction, frame);
+			} catch (IOException e) {
+				getLog().printStackTrace(e);
+				stopCapture();
+			}
+		}
+	}
+
+	/**
+	 * Records a frame's packet data to this client's capture. If the capture
+	 * can't be written it is stopped.
+	 * 
+	 * @param direction
+	 *            the frame's direction
+	 * @param data
+	 *            the array holding the packet data
+	 * @param off
+	 *            the offset of the packet data
+	 * @param len
+	 *            the length of the packet data
+	 */
+	private void capture(final int direction, final byte[] data,
+			final int off, final int len) {
+		TrafficCapture c = capture;
+		if (c != null) {
+			try {
+				c.record(direction, data, off, len);
+			} catch (IOException e) {
+				getLog().printStackTrace(e);
+				stopCapture();
+			}
+		}
+	}
+
+	/**
+	 * Checks if this network client is connected.
+	 * 
+	 * @return <code>true</code> if this socket is open and connected,
+	 *         <code>false</code> if otherwise.
+	 */
+	public final boolean isConnected() {
+		return socket.isOpen() && socket.isConnected();
+	}
+
+	/**
+	 * Gets the queued packet data to send.
+	 * 
+	 * @return the send queue
+	 */
+	public final Queue<ByteBuffer> getSendQueue() {
+		return sendQueue;
+	}
+
+	/**
+	 * Gets the host address this socket is connected to.
+	 * 
+	 * @see java.net.Socket#getInetAddress()
+	 * @see java.net.InetAddress#getHostAddress()
+	 * @return the host address
+	 */
+	public final String getHostAddress() {
+		return socket.socket().getInetAddress().getHostAddress();
+	}
+
+	/**
+	 * Gets the remote port this socket is connected to.
+	 * 
+	 * @see java.net.Socket#getPort()
+	 * @return the remote port
+	 */
+	public final int getPort() {
+		return socket.socket().getPort();
+	}
+
+	/**
+	 * Gets the socket channel this network client is bound to.
+	 * 
+	 * @return the channel
+	 */
+	public final SocketChannel getChannel() {
+		return socket;
+	}
+
+	/**
+	 * Updates the cached network speed if the time passes is greater than the
+	 * {@link NetworkConstants#NETWORK_SPEED_RECALCULATION_TIME}.
+	 */
+	private void updateBandwidth() {
+		long delta = System.currentTimeMillis() - lastUpdateTime;
+		if (lastUpdateTime == -1) {
+			delta = 1000;
+		}
+		if (delta >= NetworkConstants.NETWORK_SPEED_RECALCULATION_TIME) {
+			cacheUploadRate = (int) ((sendSinceUpdate * 1000) / delta);
+			cacheDownloadRate = (int) ((receiveSinceUpdate * 1000) / delta);
+			lastUpdateTime = System.currentTimeMillis();
+			sendSinceUpdate = 0;
+			receiveSinceUpdate = 0;
+		}
+	}
+
+	/**
+	 * Gets the index of the data worker this client is pinned to.
+	 * 
+	 * @see DataWorkerPool
+	 * @return the worker index, or <code>-1</code> if not pinned
+	 */
+	final int getWorkerStripe() {
+		return workerStripe;
+	}
+
+	/**
+	 * Pins this client to the data worker with the given index.
+	 * 
+	 * @see DataWorkerPool
+	 * @param stripe the worker index
+	 */
+	final void setWorkerStripe(final int stripe) {
+		this.workerStripe = stripe;
+	}
+
+	/**
+	 * Gets the currently cached upload speed in bytes per second.
+	 * 
+	 * @return the upload speed
+	 */
+	public final int getUploadSpeed() {
+		updateBandwidth();
+		return cacheUploadRate;
+	}
+
+	/**
+	 * Gets the system time that data was last read from this client's
+	 * channel, or the time this client was created if nothing has been read.
+	 * 
+	 * @return the last read time
+	 */
+	public final long getLastReadTime() {
+		return lastReadTime;
+	}
+
+	/**
+	 * Gets the number of times the send queue has been flushed by the selector
+	 * thread.
+	 * 
+	 * @return the flush count
+	 */
+	public final long getFlushCount() {
+		return flushCount.get();
+	}
+
+	/**
+	 * Gets the number of write calls made on the socket channel.
+	 * 
+	 * @return the write call count
+	 */
+	public final long getWriteSyscallCount() {
+		return writeSyscallCount.get();
+	}
+
+	/**
+	 * Gets the number of bytes written to the socket channel.
+	 * 
+	 * @return the bytes written
+	 */
+	public final long getBytesFlushed() {
+		return bytesFlushed.get();
+	}
+
+	/**
+	 * Gets the number of bytes queued to be written to the socket channel.
+	 * 
+	 * @return the queued bytes
+	 */
+	public final int getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	/**
+	 * Gets the largest number of bytes that have been queued to be written at
+	 * once.
+	 * 
+	 * @return the peak queued bytes
+	 */
+	public final int getPeakQueuedBytes() {
+		return peakQueuedBytes;
+	}
+
+	/**
+	 * Gets the number of chunk frames waiting in the bulk lane.
+	 * 
+	 * @return the bulk lane depth
+	 */
+	public final int getBulkQueueDepth() {
+		synchronized (this.sendQueue) {
+			return bulkQueue.size();
+		}
+	}
+
+	/**
+	 * Gets the number of packets currently held until this client is no longer
+	 * congested.
+	 * 
+	 * @return the held packet count
+	 */
+	public final int getHeldPacketCount() {
+		synchronized (this.sendQueue) {
+			return heldPackets.size();
+		}
+	}
+
+	/**
+	 * Gets the number of held packets that have been replaced by a later
+	 * packet for the same state.
+	 * 
+	 * @return the coalesced packet count
+	 */
+	public final long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Gets the number of packets that have been dropped while congested.
+	 * 
+	 * @return the dropped packet count
+	 */
+	public final long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Gets the histogram of the number of packets in each batch frame sent by
+	 * any network client.
+	 * 
+	 * @return the batch packet count histogram
+	 */
+	public static Histogram getBatchPacketHistogram() {
+		return BATCH_PACKETS;
+	}
+
+	/**
+	 * Gets the histogram of the size in bytes of each batch frame sent by any
+	 * network client.
+	 * 
+	 * @return the batch size histogram
+	 */
+	public static Histogram getBatchByteHistogram() {
+		return BATCH_BYTES;
 	}
 
 	/**
@@ -0,0 +1,307 @@
+package com.pi.common.net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi.common.constants.NetworkConstants;
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.packet.Packet;
+
+/**
+ * The client end of a datagram channel offered by the server, which receives
+ * unreliable packets and queues the ones that aren't stale on the TCP
+ * connection's data worker, so they're handled on the same thread as every
+ * other packet.
+ * <p>
+ * The channel is opened by sending hellos until the server answers. If it
+ * never does, for example because datagrams are blocked, this thread gives up
+ * and the server keeps sending everything over TCP.
+ * 
+ * @see DatagramFrame
+ * @author Westin
+ * 
+ */
+public class NetDatagramClient extends Thread {
+	/**
+	 * The TCP connection this channel belongs to.
+	 */
+	private final NetClient netClient;
+	/**
+	 * The data worker handling the TCP connection's packets.
+	 */
+	private final DataWorker worker;
+	/**
+	 * The server's datagram address.
+	 */
+	private final InetSocketAddress server;
+	/**
+	 * The token binding this channel to the TCP connection.
+	 */
+	private final long token;
+	/**
+	 * The socket datagrams are sent and received on.
+	 */
+	private DatagramSocket socket;
+	/**
+	 * If this channel is still running.
+	 */
+	private volatile boolean running = true;
+	/**
+	 * If the server has answered, opening the channel.
+	 */
+	private volatile boolean open = false;
+	/**
+	 * The sequence number of the datagram that the last packet applied for
+	 * each datagram state key came in.
+	 */
+	private final Map<Long, Integer> applied = new HashMap<Long, Integer>();
+	/**
+	 * The number of state datagrams received.
+	 */
+	private final AtomicLong receivedCount = new AtomicLong();
+	/**
+	 * The number of packets skipped as older than the state already applied.
+	 */
+	private final AtomicLong staleCount = new AtomicLong();
+	/**
+	 * The number of state datagrams dropped because a packet in them was
+	 * invalid.
+	 */
+	private final AtomicLong invalidCount = new AtomicLong();
+
+	/**
+	 * Creates a datagram channel for the given TCP connection.
+	 * 
+	 * @param group the thread group
+	 * @param sNetClient the TCP connection
+	 * @param sWorker the data worker handling the connection's packets
+	 * @param sServer the server's datagram address
+	 * @param sToken the token the server offered
+	 */
+	public NetDatagramClient(final ThreadGroup group,
+			final NetClient sNetClient, final DataWorker sWorker,
+			final InetSocketAddress sServer, final long sToken) {
+		super(group, "NetDatagramClient");
+		this.netClient = sNetClient;
+		this.worker = sWorker;
+		this.server = sServer;
+		this.token = sToken;
+		setDaemon(true);
+	}
+
+	@Override
+	public final void run() {
+		try {
+			socket = new DatagramSocket();
+			socket.connect(server);
+			socket.setSoTimeout((int) NetworkConstants.DATAGRAM_HELLO_TIME);
+			byte[] buffer = new byte[NetworkConstants.DATAGRAM_MAX_SIZE];
+			DatagramPacket dp = new DatagramPacket(buffer, buffer.length);
+			int hellos = 0;
+			long lastSend = 0;
+			while (running) {
+				long now = System.currentTimeMillis();
+				if (!open
+						&& now - lastSend >= NetworkConstants.DATAGRAM_HELLO_TIME) {
+					if (hellos++ >= NetworkConstants.DATAGRAM_HELLO_ATTEMPTS) {
+						netClient.getLog().info(
+								"No reply on the datagram channel, staying on TCP");
+						break;
+					}
+					send(DatagramFrame.HELLO, 0);
+					lastSend = now;
+				} else if (open
+						&& now - lastSend >= NetworkConstants.DATAGRAM_HEARTBEAT_TIME) {
+					send(DatagramFrame.ACK, 0);
+					lastSend = now;
+				}
+				dp.setLength(buffer.length);
+				try {
+					socket.receive(dp);
+				} catch (SocketTimeoutException e) {
+					continue;
+				}
+				ByteBuffer datagram =
+						ByteBuffer.wrap(buffer, 0, dp.getLength());
+				if (datagram.remaining() < DatagramFrame.HEADER_SIZE) {
+					continue;
+				}
+				byte type = datagram.get();
+				if (datagram.getLong() != token) {
+					continue;
+				}
+				int sequence = datagram.getInt();
+				if (!open) {
+					open = true;
+					netClient.getLog().info("Datagram channel open");
+				}
+				if (type == DatagramFrame.STATE) {
+					// The packets are queued before they're acknowledged, so
+					// none of the reliable packets the server sends once it
+					// knows they arrived can be handled ahead of them.
+					receivedCount.incrementAndGet();
+					try {
+						handle(datagram, sequence);
+					} catch (Exception e) {
+						// Only this datagram is dropped. It isn't acknowledged,
+						// so the server treats its updates as lost.
+						invalidCount.incrementAndGet();
+						netClient.getLog().warning(
+								"Dropped an invalid datagram: " + e);
+						continue;
+					}
+					send(DatagramFrame.ACK, sequence);
+					lastSend = now;
+				} else if (type == DatagramFrame.HELLO_ACK) {
+					send(DatagramFrame.ACK, 0);
+					lastSend = now;
+				}
+			}
+		} catch (IOException e) {
+			if (running) {
+				netClient.getLog().printStackTrace(e);
+			}
+		} finally {
+			if (socket != null) {
+				socket.close();
+			}
+		}
+	}
+
+	/**
+	 * Handles each packet in a state datagram that is newer than the state
+	 * already applied for its key. Every packet is decoded before any is
+	 * handled, so a datagram with an invalid packet is dropped whole.
+	 * 
+	 * @param datagram the datagram, positioned after the header
+	 * @param sequence the datagram's sequence number
+	 * @throws IOException if a packet is invalid
+	 */
+	private void handle(final ByteBuffer datagram, final int sequence)
+			throws IOException {
+		List<DecodedPacket> packets = new ArrayList<DecodedPacket>(1);
+		while (datagram.remaining() > 0) {
+			int epoch = DatagramFrame.readEpoch(datagram);
+			int start = datagram.position();
+			Packet p = DatagramFrame.read(netClient.getLog(), datagram);
+			packets.add(new DecodedPacket(p, datagram.position() - start
+					- SizeOf.SHORT, epoch));
+		}
+		for (DecodedPacket d : packets) {
+			Long key = DatagramFrame.getStateKey(d.packet);
+			Integer last = applied.get(key);
+			if (last != null && sequence - last.intValue() <= 0) {
+				staleCount.incrementAndGet();
+				continue;
+			}
+			applied.put(key, sequence);
+			worker.processPacket(netClient, d.packet, d.length, d.epoch);
+		}
+	}
+
+	/**
+	 * Sends a datagram with no body.
+	 * 
+	 * @param type the datagram type
+	 * @param sequence the sequence number
+	 * @throws IOException if the datagram couldn't be sent
+	 */
+	private void send(final byte type, final int sequence)
+			throws IOException {
+		ByteBuffer datagram = DatagramFrame.create(type, token, sequence);
+		socket.send(new DatagramPacket(datagram.array(), datagram
+				.position()));
+	}
+
+	/**
+	 * Checks if the server has answered, opening the channel.
+	 * 
+	 * @return if the channel is open
+	 */
+	public final boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Gets the number of state datagrams received.
+	 * 
+	 * @return the received datagram count
+	 */
+	public final long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	/**
+	 * Gets the number of packets skipped as older than the state already
+	 * applied.
+	 * 
+	 * @return the stale packet count
+	 */
+	public final long getStaleCount() {
+		return staleCount.get();
+	}
+
+	/**
+	 * Gets the number of state datagrams dropped because a packet in them was
+	 * invalid.
+	 * 
+	 * @return the invalid datagram count
+	 */
+	public final long getInvalidCount() {
+		return invalidCount.get();
+	}
+
+	/**
+	 * Closes this channel, stopping the thread.
+	 */
+	public final void dispose() {
+		running = false;
+		if (socket != null) {
+			socket.close();
+		}
+	}
+
+	/**
+	 * A packet decoded from a state datagram, waiting to be handled.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private static final class DecodedPacket {
+		/**
+		 * The packet.
+		 */
+		private final Packet packet;
+		/**
+		 * The size of the encoded packet in bytes.
+		 */
+		private final int length;
+		/**
+		 * The packet's epoch.
+		 */
+		private final int epoch;
+
+		/**
+		 * Creates a decoded packet.
+		 * 
+		 * @param sPacket the packet
+		 * @param sLength the size of the encoded packet
+		 * @param sEpoch the packet's epoch
+		 */
+		private DecodedPacket(final Packet sPacket, final int sLength,
+				final int sEpoch) {
+			this.packet = sPacket;
+			this.length = sLength;
+			this.epoch = sEpoch;
+		}
+	}
+}
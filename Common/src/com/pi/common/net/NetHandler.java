@@ -1,50 +1,62 @@
 package com.pi.common.net;
 
-import java.lang.reflect.Method;
-
 import com.pi.common.debug.PILogger;
 import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.Packet0Handshake;
+import com.pi.common.net.packet.Packet10EntityDataRequest;
+import com.pi.common.net.packet.Packet11LocalEntityID;
+import com.pi.common.net.packet.Packet12EntityDefRequest;
+import com.pi.common.net.packet.Packet13EntityDef;
+import com.pi.common.net.packet.Packet14ClientMove;
+import com.pi.common.net.packet.Packet15GameState;
+import com.pi.common.net.packet.Packet16EntityMove;
+import com.pi.common.net.packet.Packet17Clock;
+import com.pi.common.net.packet.Packet18EntityComponent;
+import com.pi.common.net.packet.Packet19Interact;
+import com.pi.common.net.packet.Packet1Login;
+import com.pi.common.net.packet.Packet20EntityAttack;
+import com.pi.common.net.packet.Packet21EntityFace;
+import com.pi.common.net.packet.Packet22ItemDefRequest;
+import com.pi.common.net.packet.Packet23ItemDef;
+import com.pi.common.net.packet.Packet24InventoryData;
+import com.pi.common.net.packet.Packet25InventoryUpdate;
+import com.pi.common.net.packet.Packet26Batch;
+import com.pi.common.net.packet.Packet27EntityDelta;
+import com.pi.common.net.packet.Packet28CompressedSector;
+import com.pi.common.net.packet.Packet29WireFormat;
+import com.pi.common.net.packet.Packet2Alert;
+import com.pi.common.net.packet.Packet30SectorPatch;
+import com.pi.common.net.packet.Packet31Chunk;
+import com.pi.common.net.packet.Packet32KeepAlive;
+import com.pi.common.net.packet.Packet33DatagramOffer;
+import com.pi.common.net.packet.Packet3Register;
+import com.pi.common.net.packet.Packet4Sector;
+import com.pi.common.net.packet.Packet5SectorRequest;
+import com.pi.common.net.packet.Packet6BlankSector;
+import com.pi.common.net.packet.Packet7EntityTeleport;
+import com.pi.common.net.packet.Packet8EntityDispose;
+import com.pi.common.net.packet.Packet9EntityData;
 import com.pi.common.net.packet.PacketManager;
-import com.pi.common.util.ObjectHeap;
 
 /**
  * A class for processing abstract packets.
+ * <p>
+ * Each packet passes itself to the <code>process</code> method for its own
+ * class through {@link Packet#dispatch(NetHandler)}, so a packet reaches its
+ * handler through two ordinary virtual calls. Handlers override the
+ * <code>process</code> methods for the packets they receive, and the rest
+ * fall back on {@link NetHandler#process(Packet)}.
  * 
  * @author Westin
  * 
  */
 public abstract class NetHandler {
 	/**
-	 * Method lookup map to speed up packet processing times.
-	 */
-	private final ObjectHeap<Method> methodLookupMap =
-			new ObjectHeap<Method>(PacketManager.getInstance()
-					.getPairCount());
-
-	/**
-	 * Generates the method lookup map.
-	 */
-	public NetHandler() {
-		Class<? extends NetHandler> clazz = getClass();
-		for (int id = 0; id < PacketManager.getInstance()
-				.getPairCount(); id++) {
-			Class<? extends Packet> packetClass =
-					PacketManager.getInstance().getPairClass(id);
-			if (packetClass != null) {
-				try {
-					Method m =
-							clazz.getMethod("process",
-									packetClass);
-					if (m != null) {
-						methodLookupMap.set(id, m);
-					}
-				} catch (NoSuchMethodException e) {
-					// This packet handler has no custom method for a packet. It
-					// probably never gets it.
-				}
-			}
-		}
-	}
+	 * The number of packets requiring a handshake this handler has processed,
+	 * indexed by packet ID.
+	 */
+	private final int[] handshakeSequences =
+			new int[PacketManager.getInstance().getPairCount()];
 
 	/**
 	 * Generic method to process packets without a custom method. This should
@@ -66,35 +78,350 @@ public abstract class NetHandler {
 	 * Sends a handshake confirming that the given packet was received.
 	 * 
 	 * @param packetID the packet id
+	 * @param sequence the number of packets with the ID that have been
+	 *            received, including this one
 	 */
-	protected void sendHandshake(final int packetID) {
+	protected void sendHandshake(final int packetID, final int sequence) {
 	}
 
 	/**
-	 * Processes the provided packet, first looking for a method by the name of
-	 * 'process' and an argument type of the same sub-packet class as the
-	 * provided packet, and invoking it. If this fails, it falls back on the
-	 * generic {@link NetHandler#process(Packet)} method.
+	 * Processes the provided packet by passing it to the <code>process</code>
+	 * method for its class. If this handler has no custom method for the
+	 * packet, it falls back on the generic {@link NetHandler#process(Packet)}
+	 * method.
 	 * 
 	 * @param p the packet to process
 	 */
 	public final void processPacket(final Packet p) {
-		Method m = methodLookupMap.get(p.getID());
-		if (m != null) {
-			try {
-				m.invoke(this, p);
-			} catch (Exception e) {
-				getLog().printStackTrace(e);
-			}
-		} else {
-			getLog().severe(
-					getClass().getSimpleName()
-							+ ": No custom method for packet: "
-							+ p.getName());
-			process(p);
+		try {
+			p.dispatch(this);
+		} catch (Exception e) {
+			getLog().printStackTrace(e);
 		}
-		if (p.requiresHandshake()) {
-			sendHandshake(p.getID());
+		int id = p.getID();
+		if (p.requiresHandshake() && id >= 0
+				&& id < handshakeSequences.length) {
+			sendHandshake(id, ++handshakeSequences[id]);
 		}
 	}
+
+	/**
+	 * Processes a packet this handler has no custom method for, logging an
+	 * error and passing it to the generic {@link NetHandler#process(Packet)}
+	 * method.
+	 * 
+	 * @param p the packet to process
+	 */
+	private void processUnhandled(final Packet p) {
+		getLog().severe(
+				getClass().getSimpleName()
+						+ ": No custom method for packet: " + p.getName());
+		process(p);
+	}
+
+	/**
+	 * Processes a {@link Packet0Handshake}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet0Handshake p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet1Login}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet1Login p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet2Alert}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet2Alert p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet3Register}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet3Register p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet4Sector}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet4Sector p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet5SectorRequest}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet5SectorRequest p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet6BlankSector}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet6BlankSector p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet7EntityTeleport}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet7EntityTeleport p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet8EntityDispose}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet8EntityDispose p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet9EntityData}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet9EntityData p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet10EntityDataRequest}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet10EntityDataRequest p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet11LocalEntityID}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet11LocalEntityID p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet12EntityDefRequest}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet12EntityDefRequest p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet13EntityDef}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet13EntityDef p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet14ClientMove}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet14ClientMove p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet15GameState}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet15GameState p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet16EntityMove}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet16EntityMove p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet17Clock}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet17Clock p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet18EntityComponent}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet18EntityComponent p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet19Interact}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet19Interact p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet20EntityAttack}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet20EntityAttack p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet21EntityFace}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet21EntityFace p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet22ItemDefRequest}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet22ItemDefRequest p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet23ItemDef}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet23ItemDef p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet24InventoryData}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet24InventoryData p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet25InventoryUpdate}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet25InventoryUpdate p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet26Batch}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet26Batch p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet27EntityDelta}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet27EntityDelta p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet28CompressedSector}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet28CompressedSector p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet29WireFormat}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet29WireFormat p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet30SectorPatch}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet30SectorPatch p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet31Chunk}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet31Chunk p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet32KeepAlive}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet32KeepAlive p) {
+		processUnhandled(p);
+	}
+
+	/**
+	 * Processes a {@link Packet33DatagramOffer}.
+	 * 
+	 * @param p the packet to process
+	 */
+	public void process(final Packet33DatagramOffer p) {
+		processUnhandled(p);
+	}
 }
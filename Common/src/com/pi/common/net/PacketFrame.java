@@ -0,0 +1,176 @@
+package com.pi.common.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.packet.Packet;
+
+/**
+ * A packet that is serialized once, along with its length prefix, so it can
+ * be broadcast to many network clients without being encoded again for each
+ * one. The packet is encoded when the frame is first sent, so a frame that no
+ * client ends up receiving is never serialized.
+ * <p>
+ * Each recipient queues its own read-only view of the frame and holds a
+ * reference until that view has been written. The creator holds the first
+ * reference, and must call {@link #release()} once it has finished handing
+ * the frame out. When every reference is released the backing buffers are
+ * returned to the {@link BufferPool}.
+ * <p>
+ * The packet is encoded separately for each {@link WireFormat} its recipients
+ * use.
+ * 
+ * @author Westin
+ * 
+ */
+public final class PacketFrame {
+	/**
+	 * The encoded frame for each wire format, positioned at the start of the
+	 * length prefix, or <code>null</code> if the packet hasn't been encoded in
+	 * that format yet.
+	 */
+	private final ByteBuffer[] frames =
+			new ByteBuffer[WireFormat.values().length];
+	/**
+	 * The packet this frame was encoded from.
+	 */
+	private final Packet packet;
+	/**
+	 * The number of outstanding references to this frame.
+	 */
+	private final AtomicInteger refs = new AtomicInteger(1);
+
+	/**
+	 * Creates a frame for the given packet. The caller holds the frame's first
+	 * reference.
+	 * 
+	 * @param sPacket the packet to broadcast
+	 */
+	public PacketFrame(final Packet sPacket) {
+		this.packet = sPacket;
+	}
+
+	/**
+	 * Gets the packet this frame was encoded from.
+	 * 
+	 * @return the packet
+	 */
+	public Packet getPacket() {
+		return packet;
+	}
+
+	/**
+	 * Gets the length in bytes of this frame in the {@link WireFormat#V1}
+	 * format, including the length prefix.
+	 * 
+	 * @return the frame length
+	 */
+	public int getLength() {
+		return packet.getPacketLength() + SizeOf.INT;
+	}
+
+	/**
+	 * Gets the length in bytes of this frame in the given format, including
+	 * the length prefix. The packet is encoded in that format if it hasn't
+	 * been already.
+	 * 
+	 * @param format the wire format
+	 * @return the frame length
+	 * @throws IOException if the packet couldn't be encoded
+	 */
+	synchronized int getLength(final WireFormat format) throws IOException {
+		return encode(format).remaining();
+	}
+
+	/**
+	 * Adds a reference to this frame and creates a read-only view of it in the
+	 * given format, with its own position, for a single recipient. The packet
+	 * is encoded by the first call for each format.
+	 * 
+	 * @param format the wire format
+	 * @return the view
+	 * @throws IOException if the packet couldn't be encoded
+	 */
+	synchronized ByteBuffer retainView(final WireFormat format)
+			throws IOException {
+		ByteBuffer frame = encode(format);
+		refs.incrementAndGet();
+		return frame.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Copies this frame in the given format into the given buffer, for a
+	 * recipient that batches it with other packets rather than holding a
+	 * reference. The packet is encoded by the first call for each format.
+	 * 
+	 * @param dst the buffer to copy into
+	 * @param format the wire format
+	 * @throws IOException if the packet couldn't be encoded
+	 */
+	synchronized void copyTo(final ByteBuffer dst, final WireFormat format)
+			throws IOException {
+		dst.put(encode(format).duplicate());
+	}
+
+	/**
+	 * Encodes the packet into this frame's buffer for the given format if it
+	 * hasn't been already. This must be called while holding this frame's
+	 * lock.
+	 * 
+	 * @param format the wire format
+	 * @return the encoded frame
+	 * @throws IOException if the packet couldn't be written
+	 */
+	private ByteBuffer encode(final WireFormat format) throws IOException {
+		ByteBuffer frame = frames[format.ordinal()];
+		if (frame == null) {
+			frame = BufferPool.getInstance().acquire(
+					format.getMaxLength(packet.getPacketLength())
+							+ SizeOf.INT);
+			writeFrame(frame, packet, format);
+			frame.flip();
+			frames[format.ordinal()] = frame;
+		}
+		return frame;
+	}
+
+	/**
+	 * Writes the given packet into a buffer as a length prefixed frame in the
+	 * given format, starting at the buffer's position. The buffer must have
+	 * room for {@link WireFormat#getMaxLength(int)} bytes of packet data and
+	 * the length prefix.
+	 * 
+	 * @param dst the buffer to write into
+	 * @param packet the packet to write
+	 * @param format the wire format
+	 * @return the length of the frame written, including the length prefix
+	 * @throws IOException if the packet couldn't be written
+	 */
+	static int writeFrame(final ByteBuffer dst, final Packet packet,
+			final WireFormat format) throws IOException {
+		int start = dst.position();
+		dst.position(start + SizeOf.INT);
+		packet.writePacket(new PacketOutputStream(dst, format));
+		dst.putInt(start, dst.position() - start - SizeOf.INT);
+		return dst.position() - start;
+	}
+
+	/**
+	 * Releases a reference to this frame, returning the backing buffer to the
+	 * pool once no references remain.
+	 */
+	public void release() {
+		if (refs.decrementAndGet() == 0) {
+			synchronized (this) {
+				for (int i = 0; i < frames.length; i++) {
+					if (frames[i] != null) {
+						BufferPool.getInstance().release(frames[i]);
+						frames[i] = null;
+					}
+				}
+			}
+		}
+	}
+}
@@ -4,29 +4,69 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 
 import com.pi.common.constants.NetworkConstants.SizeOf;
 
 /**
  * A wrapper around a byte buffer for reading from it in a way comparable to a
  * stream.
+ * <p>
+ * Integers, enums and strings read with {@link #readVarInt()},
+ * {@link #readEnum()} and {@link #readString()} are decoded using this
+ * stream's {@link WireFormat}.
  * 
  * @author Westin
  * 
  */
 public class PacketInputStream {
+	/**
+	 * The UTF-8 decoder for each thread, reused for every string read.
+	 */
+	private static final ThreadLocal<CharsetDecoder> UTF8_DECODER =
+			new ThreadLocal<CharsetDecoder>() {
+				@Override
+				protected CharsetDecoder initialValue() {
+					return Charset.forName("UTF-8").newDecoder()
+							.onMalformedInput(CodingErrorAction.REPLACE)
+							.onUnmappableCharacter(
+									CodingErrorAction.REPLACE);
+				}
+			};
+
 	/**
 	 * The byte buffer backing this input stream.
 	 */
 	private final ByteBuffer bb;
+	/**
+	 * The format integers, enums and strings are read in.
+	 */
+	private final WireFormat format;
 
 	/**
-	 * Creates a packet input stream with the specified buffer backing it.
+	 * Creates a packet input stream with the specified buffer backing it,
+	 * reading in the {@link WireFormat#V1} format.
 	 * 
 	 * @param sBb the backing buffer
 	 */
 	public PacketInputStream(final ByteBuffer sBb) {
+		this(sBb, WireFormat.V1);
+	}
+
+	/**
+	 * Creates a packet input stream with the specified buffer backing it,
+	 * reading in the given format.
+	 * 
+	 * @param sBb the backing buffer
+	 * @param sFormat the wire format
+	 */
+	public PacketInputStream(final ByteBuffer sBb,
+			final WireFormat sFormat) {
 		this.bb = sBb;
+		this.format = sFormat;
 	}
 
 	/**
@@ -124,6 +164,62 @@ public class PacketInputStream {
 		}
 	}
 
+	/**
+	 * Reads an integer written by
+	 * {@link PacketOutputStream#writeVarInt(int)}.
+	 * 
+	 * More specifically this method reads a 4 byte integer, or a zig-zag
+	 * variable length integer in the {@link WireFormat#V2} format. If the
+	 * buffer runs out this method returns 0.
+	 * 
+	 * @return the integer read
+	 */
+	public final int readVarInt() {
+		if (format == WireFormat.V1) {
+			return readInt();
+		}
+		int raw = readUnsignedVarInt();
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+
+	/**
+	 * Reads an enum ordinal written by
+	 * {@link PacketOutputStream#writeEnum(int)}.
+	 * 
+	 * More specifically this method reads a 4 byte integer, or a variable
+	 * length integer in the {@link WireFormat#V2} format. If the buffer runs
+	 * out this method returns 0.
+	 * 
+	 * @return the ordinal read
+	 */
+	public final int readEnum() {
+		if (format == WireFormat.V1) {
+			return readInt();
+		}
+		return readUnsignedVarInt();
+	}
+
+	/**
+	 * Reads an unsigned variable length integer of at most 5 bytes.
+	 * 
+	 * @return the integer read, or 0 if the buffer ran out
+	 */
+	private int readUnsignedVarInt() {
+		int value = 0;
+		for (int shift = 0; shift < SizeOf.INT_BITS; shift += 7) {
+			if (!bb.hasRemaining()) {
+				close();
+				return 0;
+			}
+			byte b = bb.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		return value;
+	}
+
 	/**
 	 * Reads a 4 byte float from the buffer.
 	 * 
@@ -185,10 +281,16 @@ public class PacketInputStream {
 	 * This method will also pad the string with characters with the code of 0
 	 * if the buffer doesn't have enough remaining elements in the buffer.
 	 * 
+	 * In the {@link WireFormat#V2} format the string is read as a variable
+	 * length byte count and its UTF-8 bytes instead.
+	 * 
 	 * @return the string read
 	 * @throws IOException if the string length was invalid
 	 */
 	public final String readString() throws IOException {
+		if (format == WireFormat.V2) {
+			return readUTF8();
+		}
 		int strlen = readInt();
 		if (strlen < 0) {
 			throw new IOException("Invalid String length: "
@@ -204,6 +306,33 @@ public class PacketInputStream {
 		return new String(chars);
 	}
 
+	/**
+	 * Reads a string as a variable length byte count and its UTF-8 bytes,
+	 * decoding it in one pass with this thread's decoder.
+	 * 
+	 * @return the string read
+	 * @throws IOException if the byte count was invalid
+	 */
+	private String readUTF8() throws IOException {
+		int len = readUnsignedVarInt();
+		if (len < 0 || len > bb.remaining()) {
+			throw new IOException("Invalid String length: " + len);
+		}
+		if (len == 0) {
+			return "";
+		}
+		ByteBuffer utf = bb.duplicate();
+		utf.limit(bb.position() + len);
+		bb.position(bb.position() + len);
+		CharBuffer chars = CharBuffer.allocate(len);
+		CharsetDecoder decoder = UTF8_DECODER.get();
+		decoder.reset();
+		decoder.decode(utf, chars, true);
+		decoder.flush(chars);
+		chars.flip();
+		return chars.toString();
+	}
+
 	/**
 	 * Reads a byte array from the buffer as an integer length and an array of
 	 * bytes.
@@ -257,6 +386,15 @@ public class PacketInputStream {
 		return bb;
 	}
 
+	/**
+	 * Gets the format integers, enums and strings are read in.
+	 * 
+	 * @return the wire format
+	 */
+	public final WireFormat getWireFormat() {
+		return format;
+	}
+
 	/**
 	 * Gets the number of remaining bytes in this byte buffer stream.
 	 * 
@@ -271,6 +409,6 @@ public class PacketInputStream {
 	 * 0.
 	 */
 	public final void close() {
-		bb.position(bb.capacity());
+		bb.position(bb.limit());
 	}
 }
\ No newline at end of file
@@ -0,0 +1,327 @@
+package com.pi.common.net;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.pi.common.constants.NetworkConstants;
+import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.PacketManager;
+import com.pi.common.util.Histogram;
+
+/**
+ * Records the traffic of each packet type, for every network client in this
+ * process.
+ * <p>
+ * For packets sent, the number of packets and bytes encoded and the time
+ * each frame spends in a send queue before it's written are recorded. For
+ * packets received, the number of packets and bytes, the time between the
+ * packet being read and its handler starting, and the time spent decoding and
+ * handling it are recorded. Timings are recorded in microseconds in
+ * {@link Histogram}s. Every counter is an atomic, so recording never takes a
+ * lock, and nothing is recorded if {@link NetworkConstants#PACKET_METRICS} is
+ * disabled.
+ * <p>
+ * The metrics can be read through JMX once {@link #registerMBean()} has been
+ * called.
+ * 
+ * @author Westin
+ * 
+ */
+public final class PacketMetrics implements PacketMetricsMXBean {
+	/**
+	 * The shared metrics instance.
+	 */
+	private static final PacketMetrics INSTANCE = new PacketMetrics();
+
+	/**
+	 * Gets the shared metrics instance.
+	 * 
+	 * @return the packet metrics
+	 */
+	public static PacketMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * The JMX name the metrics are registered under.
+	 */
+	public static final String MBEAN_NAME =
+			"com.pi.common.net:type=PacketMetrics";
+
+	/**
+	 * The number of packets sent, indexed by packet ID.
+	 */
+	private final AtomicLongArray sentCount;
+	/**
+	 * The number of bytes sent, indexed by packet ID.
+	 */
+	private final AtomicLongArray sentBytes;
+	/**
+	 * The number of packets received, indexed by packet ID.
+	 */
+	private final AtomicLongArray receivedCount;
+	/**
+	 * The number of bytes received, indexed by packet ID.
+	 */
+	private final AtomicLongArray receivedBytes;
+	/**
+	 * The time frames spent in a send queue, indexed by packet ID.
+	 */
+	private final Histogram[] sendDwells;
+	/**
+	 * The time between packets being read and handled, indexed by packet ID.
+	 */
+	private final Histogram[] dispatchWaits;
+	/**
+	 * The time spent decoding and handling packets, indexed by packet ID.
+	 */
+	private final Histogram[] handlerTimes;
+
+	/**
+	 * Creates the metrics for every registered packet type.
+	 */
+	private PacketMetrics() {
+		int count = PacketManager.getInstance().getPairCount();
+		sentCount = new AtomicLongArray(count);
+		sentBytes = new AtomicLongArray(count);
+		receivedCount = new AtomicLongArray(count);
+		receivedBytes = new AtomicLongArray(count);
+		sendDwells = new Histogram[count];
+		dispatchWaits = new Histogram[count];
+		handlerTimes = new Histogram[count];
+		for (int i = 0; i < count; i++) {
+			sendDwells[i] =
+					new Histogram(NetworkConstants.PACKET_METRICS_BUCKETS);
+			dispatchWaits[i] =
+					new Histogram(NetworkConstants.PACKET_METRICS_BUCKETS);
+			handlerTimes[i] =
+					new Histogram(NetworkConstants.PACKET_METRICS_BUCKETS);
+		}
+	}
+
+	/**
+	 * Checks if the given packet ID is one that metrics are kept for.
+	 * 
+	 * @param id the packet ID
+	 * @return if the packet ID is recorded
+	 */
+	private boolean isRecorded(final int id) {
+		return NetworkConstants.PACKET_METRICS && id >= 0
+				&& id < handlerTimes.length;
+	}
+
+	/**
+	 * Records a packet being encoded to be sent.
+	 * 
+	 * @param id the packet ID
+	 * @param bytes the size of the encoded packet, without any framing
+	 */
+	public void recordSent(final int id, final int bytes) {
+		if (isRecorded(id)) {
+			sentCount.incrementAndGet(id);
+			sentBytes.addAndGet(id, bytes);
+		}
+	}
+
+	/**
+	 * Records a queued frame being taken off a send queue to be written.
+	 * 
+	 * @param id the ID of the packet the frame holds
+	 * @param dwell the time in nanoseconds the frame was queued for
+	 */
+	public void recordSendDwell(final int id, final long dwell) {
+		if (isRecorded(id)) {
+			sendDwells[id].record(dwell / 1000L);
+		}
+	}
+
+	/**
+	 * Records a packet being received and handled.
+	 * 
+	 * @param id the packet ID
+	 * @param bytes the size of the encoded packet, without any framing
+	 * @param wait the time in nanoseconds between the packet being read and
+	 *            the worker starting to handle it
+	 * @param handler the time in nanoseconds spent decoding and handling the
+	 *            packet
+	 */
+	public void recordReceived(final int id, final int bytes,
+			final long wait, final long handler) {
+		if (isRecorded(id)) {
+			receivedCount.incrementAndGet(id);
+			receivedBytes.addAndGet(id, bytes);
+			dispatchWaits[id].record(wait / 1000L);
+			handlerTimes[id].record(handler / 1000L);
+		}
+	}
+
+	/**
+	 * Gets the number of packet IDs that metrics are kept for.
+	 * 
+	 * @return the packet type count
+	 */
+	public int getTypeCount() {
+		return handlerTimes.length;
+	}
+
+	/**
+	 * Gets the number of packets sent with the given ID.
+	 * 
+	 * @param id the packet ID
+	 * @return the sent packet count
+	 */
+	public long getSentCount(final int id) {
+		return sentCount.get(id);
+	}
+
+	/**
+	 * Gets the number of bytes sent in packets with the given ID.
+	 * 
+	 * @param id the packet ID
+	 * @return the sent byte count
+	 */
+	public long getSentBytes(final int id) {
+		return sentBytes.get(id);
+	}
+
+	/**
+	 * Gets the number of packets received with the given ID.
+	 * 
+	 * @param id the packet ID
+	 * @return the received packet count
+	 */
+	public long getReceivedCount(final int id) {
+		return receivedCount.get(id);
+	}
+
+	/**
+	 * Gets the number of bytes received in packets with the given ID.
+	 * 
+	 * @param id the packet ID
+	 * @return the received byte count
+	 */
+	public long getReceivedBytes(final int id) {
+		return receivedBytes.get(id);
+	}
+
+	/**
+	 * Gets the histogram of the time in microseconds frames holding packets
+	 * with the given ID spent in a send queue.
+	 * 
+	 * @param id the packet ID
+	 * @return the send dwell histogram
+	 */
+	public Histogram getSendDwells(final int id) {
+		return sendDwells[id];
+	}
+
+	/**
+	 * Gets the histogram of the time in microseconds between packets with the
+	 * given ID being read and their handler starting.
+	 * 
+	 * @param id the packet ID
+	 * @return the dispatch wait histogram
+	 */
+	public Histogram getDispatchWaits(final int id) {
+		return dispatchWaits[id];
+	}
+
+	/**
+	 * Gets the histogram of the time in microseconds spent decoding and
+	 * handling packets with the given ID.
+	 * 
+	 * @param id the packet ID
+	 * @return the handler time histogram
+	 */
+	public Histogram getHandlerTimes(final int id) {
+		return handlerTimes[id];
+	}
+
+	/**
+	 * Gets the name of the packet type with the given ID.
+	 * 
+	 * @param id the packet ID
+	 * @return the packet name, or <code>null</code> if no packet has the ID
+	 */
+	public String getTypeName(final int id) {
+		Class<? extends Packet> clazz =
+				PacketManager.getInstance().getPairClass(id);
+		if (clazz == null) {
+			return null;
+		}
+		return clazz.getSimpleName();
+	}
+
+	@Override
+	public PacketTypeMetrics[] getPacketTypes() {
+		PacketTypeMetrics[] types = new PacketTypeMetrics[getTypeCount()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = PacketTypeMetrics.snapshot(this, i);
+		}
+		return types;
+	}
+
+	@Override
+	public long getSentCount() {
+		return sum(sentCount);
+	}
+
+	@Override
+	public long getSentBytes() {
+		return sum(sentBytes);
+	}
+
+	@Override
+	public long getReceivedCount() {
+		return sum(receivedCount);
+	}
+
+	@Override
+	public long getReceivedBytes() {
+		return sum(receivedBytes);
+	}
+
+	/**
+	 * Adds up every element of a counter array.
+	 * 
+	 * @param counters the counters
+	 * @return the total
+	 */
+	private static long sum(final AtomicLongArray counters) {
+		long total = 0;
+		for (int i = 0; i < counters.length(); i++) {
+			total += counters.get(i);
+		}
+		return total;
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < handlerTimes.length; i++) {
+			sentCount.set(i, 0);
+			sentBytes.set(i, 0);
+			receivedCount.set(i, 0);
+			receivedBytes.set(i, 0);
+			sendDwells[i].reset();
+			dispatchWaits[i].reset();
+			handlerTimes[i].reset();
+		}
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server under
+	 * {@link #MBEAN_NAME}, unless they're already registered.
+	 * 
+	 * @throws JMException if the metrics couldn't be registered
+	 */
+	public synchronized void registerMBean() throws JMException {
+		ObjectName name = new ObjectName(MBEAN_NAME);
+		if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					name);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.pi.common.net;
+
+/**
+ * The management interface the {@link PacketMetrics} are exposed through
+ * over JMX.
+ * 
+ * @author Westin
+ * 
+ */
+public interface PacketMetricsMXBean {
+	/**
+	 * Gets a snapshot of the metrics of every packet type.
+	 * 
+	 * @return the packet type metrics, indexed by packet ID
+	 */
+	PacketTypeMetrics[] getPacketTypes();
+
+	/**
+	 * Gets the number of packets sent.
+	 * 
+	 * @return the sent packet count
+	 */
+	long getSentCount();
+
+	/**
+	 * Gets the number of bytes sent.
+	 * 
+	 * @return the sent byte count
+	 */
+	long getSentBytes();
+
+	/**
+	 * Gets the number of packets received.
+	 * 
+	 * @return the received packet count
+	 */
+	long getReceivedCount();
+
+	/**
+	 * Gets the number of bytes received.
+	 * 
+	 * @return the received byte count
+	 */
+	long getReceivedBytes();
+
+	/**
+	 * Clears every counter and histogram.
+	 */
+	void reset();
+}
@@ -4,29 +4,182 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 
 import com.pi.common.constants.NetworkConstants.SizeOf;
 
 /**
  * A wrapper around a byte buffer for writing to it in a way comparable to a
  * stream.
+ * <p>
+ * Integers, enums and strings written with {@link #writeVarInt(int)},
+ * {@link #writeEnum(int)} and {@link #writeString(String)} are encoded using
+ * this stream's {@link WireFormat}.
+ * <p>
+ * A stream created with a channel writes its buffer out to the channel
+ * whenever the buffer fills up, so it can write any amount of data through a
+ * small buffer. Writing to the channel can fail part way through an object,
+ * so the first failure is held until {@link #flush()} is called, and nothing
+ * more is written after it.
  * 
  * @author Westin
  * 
  */
 public class PacketOutputStream {
+	/**
+	 * The UTF-8 encoder for each thread, reused for every string written.
+	 */
+	private static final ThreadLocal<CharsetEncoder> UTF8_ENCODER =
+			new ThreadLocal<CharsetEncoder>() {
+				@Override
+				protected CharsetEncoder initialValue() {
+					return Charset.forName("UTF-8").newEncoder()
+							.onMalformedInput(CodingErrorAction.REPLACE)
+							.onUnmappableCharacter(
+									CodingErrorAction.REPLACE);
+				}
+			};
+	/**
+	 * The buffer each thread encodes strings into before they are written.
+	 */
+	private static final ThreadLocal<ByteBuffer> UTF8_BUFFER =
+			new ThreadLocal<ByteBuffer>();
+
 	/**
 	 * The byte buffer backing this output stream.
 	 */
 	private final ByteBuffer bb;
+	/**
+	 * The format integers, enums and strings are written in.
+	 */
+	private final WireFormat format;
+	/**
+	 * The channel the buffer is written to when it fills up, or
+	 * <code>null</code> if the data is kept in the buffer.
+	 */
+	private final WritableByteChannel channel;
+	/**
+	 * The first error writing to the channel, or <code>null</code> if there
+	 * hasn't been one.
+	 */
+	private IOException failure = null;
 
 	/**
-	 * Create a packet output stream with the specified backing byte buffer.
+	 * Create a packet output stream with the specified backing byte buffer,
+	 * writing in the {@link WireFormat#V1} format.
 	 * 
 	 * @param sBb the backing buffer
 	 */
 	public PacketOutputStream(final ByteBuffer sBb) {
+		this(sBb, WireFormat.V1);
+	}
+
+	/**
+	 * Create a packet output stream with the specified backing byte buffer,
+	 * writing in the given format.
+	 * 
+	 * @param sBb the backing buffer
+	 * @param sFormat the wire format
+	 */
+	public PacketOutputStream(final ByteBuffer sBb,
+			final WireFormat sFormat) {
+		this(sBb, sFormat, null);
+	}
+
+	/**
+	 * Create a packet output stream that writes to the given channel through
+	 * the given buffer, in the {@link WireFormat#V1} format.
+	 * 
+	 * @param sBb the buffer, which should be cleared
+	 * @param sChannel the channel
+	 */
+	public PacketOutputStream(final ByteBuffer sBb,
+			final WritableByteChannel sChannel) {
+		this(sBb, WireFormat.V1, sChannel);
+	}
+
+	/**
+	 * Create a packet output stream with the specified backing byte buffer,
+	 * writing in the given format, and to the given channel if there is one.
+	 * 
+	 * @param sBb the backing buffer
+	 * @param sFormat the wire format
+	 * @param sChannel the channel, or <code>null</code> to keep the data in
+	 *            the buffer
+	 */
+	private PacketOutputStream(final ByteBuffer sBb,
+			final WireFormat sFormat, final WritableByteChannel sChannel) {
 		this.bb = sBb;
+		this.format = sFormat;
+		this.channel = sChannel;
+	}
+
+	/**
+	 * Makes room in the buffer for the given number of bytes by writing it to
+	 * the channel, if there's a channel and it's needed.
+	 * 
+	 * @param n the number of bytes
+	 */
+	private void reserve(final int n) {
+		if (channel != null && bb.remaining() < n) {
+			drain();
+		}
+	}
+
+	/**
+	 * Writes the buffer to the channel and clears it. If the channel has
+	 * failed the buffer is just cleared.
+	 */
+	private void drain() {
+		bb.flip();
+		try {
+			while (failure == null && bb.hasRemaining()) {
+				channel.write(bb);
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+		bb.clear();
+	}
+
+	/**
+	 * Copies the remaining bytes of the given buffer into this stream's
+	 * buffer, writing it to the channel as it fills.
+	 * 
+	 * @param src the bytes to write
+	 */
+	private void put(final ByteBuffer src) {
+		if (channel == null) {
+			bb.put(src);
+			return;
+		}
+		int end = src.limit();
+		while (src.hasRemaining()) {
+			if (!bb.hasRemaining()) {
+				drain();
+			}
+			src.limit(Math.min(end, src.position() + bb.remaining()));
+			bb.put(src);
+			src.limit(end);
+		}
+	}
+
+	/**
+	 * Writes anything left in the buffer to the channel, if there is one.
+	 * 
+	 * @throws IOException if writing to the channel failed, now or earlier
+	 */
+	public final void flush() throws IOException {
+		if (channel != null) {
+			drain();
+		}
+		if (failure != null) {
+			throw failure;
+		}
 	}
 
 	/**
@@ -36,6 +189,7 @@ public class PacketOutputStream {
 	 * @param b the byte to write
 	 */
 	public final void write(final int b) {
+		reserve(SizeOf.BYTE);
 		bb.put((byte) b);
 	}
 
@@ -46,7 +200,11 @@ public class PacketOutputStream {
 	 * @param d the bytes to write
 	 */
 	public final void write(final byte[] d) {
-		bb.put(d);
+		if (channel == null) {
+			bb.put(d);
+		} else {
+			put(ByteBuffer.wrap(d));
+		}
 	}
 
 	/**
@@ -56,6 +214,7 @@ public class PacketOutputStream {
 	 * @param i the byte to write
 	 */
 	public final void writeByte(final int i) {
+		reserve(SizeOf.BYTE);
 		bb.put((byte) i);
 	}
 
@@ -66,6 +225,7 @@ public class PacketOutputStream {
 	 * @param i the byte to write
 	 */
 	public final void writeByte(final byte i) {
+		reserve(SizeOf.BYTE);
 		bb.put(i);
 	}
 
@@ -76,6 +236,7 @@ public class PacketOutputStream {
 	 * @param s the short to write
 	 */
 	public final void writeShort(final short s) {
+		reserve(SizeOf.SHORT);
 		bb.putShort(s);
 	}
 
@@ -86,6 +247,7 @@ public class PacketOutputStream {
 	 * @param dat the short to write
 	 */
 	public final void writeShort(final int dat) {
+		reserve(SizeOf.SHORT);
 		bb.putShort((short) dat);
 	}
 
@@ -96,9 +258,58 @@ public class PacketOutputStream {
 	 * @param i the integer to write
 	 */
 	public final void writeInt(final int i) {
+		reserve(SizeOf.INT);
 		bb.putInt(i);
 	}
 
+	/**
+	 * Writes the specified integer to the buffer as 4 bytes, or as a zig-zag
+	 * variable length integer of 1 to 5 bytes in the {@link WireFormat#V2}
+	 * format, where small positive and negative values are shortest.
+	 * 
+	 * @param i the integer to write
+	 */
+	public final void writeVarInt(final int i) {
+		if (format == WireFormat.V1) {
+			reserve(SizeOf.INT);
+			bb.putInt(i);
+		} else {
+			writeUnsignedVarInt((i << 1) ^ (i >> (SizeOf.INT_BITS - 1)));
+		}
+	}
+
+	/**
+	 * Writes the specified enum ordinal to the buffer as 4 bytes, or as a
+	 * variable length integer in the {@link WireFormat#V2} format, which is a
+	 * single byte for the first 128 values.
+	 * 
+	 * @param ordinal the ordinal to write
+	 */
+	public final void writeEnum(final int ordinal) {
+		if (format == WireFormat.V1) {
+			reserve(SizeOf.INT);
+			bb.putInt(ordinal);
+		} else {
+			writeUnsignedVarInt(ordinal);
+		}
+	}
+
+	/**
+	 * Writes the specified integer as an unsigned variable length integer,
+	 * seven bits at a time with the high bit set on every byte but the last.
+	 * 
+	 * @param i the integer to write
+	 */
+	private void writeUnsignedVarInt(final int i) {
+		reserve(SizeOf.INT + SizeOf.BYTE);
+		int value = i;
+		while ((value & ~0x7F) != 0) {
+			bb.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		bb.put((byte) value);
+	}
+
 	/**
 	 * Writes the specified long to the buffer as 8 bytes.
 	 * 
@@ -106,6 +317,7 @@ public class PacketOutputStream {
 	 * @param l the long to write
 	 */
 	public final void writeLong(final long l) {
+		reserve(SizeOf.LONG);
 		bb.putLong(l);
 	}
 
@@ -116,6 +328,7 @@ public class PacketOutputStream {
 	 * @param c the character to write
 	 */
 	public final void writeChar(final char c) {
+		reserve(SizeOf.CHAR);
 		bb.putChar(c);
 	}
 
@@ -126,6 +339,7 @@ public class PacketOutputStream {
 	 * @param f the float to write
 	 */
 	public final void writeFloat(final float f) {
+		reserve(SizeOf.FLOAT);
 		bb.putFloat(f);
 	}
 
@@ -136,17 +350,21 @@ public class PacketOutputStream {
 	 * @param d the double to write
 	 */
 	public final void writeDouble(final double d) {
+		reserve(SizeOf.DOUBLE);
 		bb.putDouble(d);
 	}
 
 	/**
 	 * Writes a string as an integer length and an array of characters to the
-	 * buffer.
+	 * buffer. In the {@link WireFormat#V2} format the string is written as a
+	 * variable length byte count and its UTF-8 bytes instead.
 	 * 
 	 * @param s the string to write.
 	 */
 	public final void writeString(final String s) {
-		if (s == null) {
+		if (format == WireFormat.V2) {
+			writeUTF8(s);
+		} else if (s == null) {
 			writeInt(0);
 		} else {
 			writeInt(s.length());
@@ -156,6 +374,33 @@ public class PacketOutputStream {
 		}
 	}
 
+	/**
+	 * Writes a string as a variable length byte count and its UTF-8 bytes,
+	 * encoding it in one pass with this thread's encoder.
+	 * 
+	 * @param s the string to write
+	 */
+	private void writeUTF8(final String s) {
+		if (s == null || s.length() == 0) {
+			writeUnsignedVarInt(0);
+			return;
+		}
+		ByteBuffer utf = UTF8_BUFFER.get();
+		int max = s.length() * 3;
+		if (utf == null || utf.capacity() < max) {
+			utf = ByteBuffer.allocate(Math.max(max, 64));
+			UTF8_BUFFER.set(utf);
+		}
+		utf.clear();
+		CharsetEncoder encoder = UTF8_ENCODER.get();
+		encoder.reset();
+		encoder.encode(CharBuffer.wrap(s), utf, true);
+		encoder.flush(utf);
+		utf.flip();
+		writeUnsignedVarInt(utf.remaining());
+		put(utf);
+	}
+
 	/**
 	 * Writes a byte array to the buffer as an integer length and an array of
 	 * bytes.
@@ -190,7 +435,8 @@ public class PacketOutputStream {
 	}
 
 	/**
-	 * Gets the byte length of a given string.
+	 * Gets the byte length of a given string in the {@link WireFormat#V1}
+	 * format.
 	 * 
 	 * @param str the string check
 	 * @return the byte length of the string
@@ -203,6 +449,15 @@ public class PacketOutputStream {
 		}
 	}
 
+	/**
+	 * Gets the format integers, enums and strings are written in.
+	 * 
+	 * @return the wire format
+	 */
+	public final WireFormat getWireFormat() {
+		return format;
+	}
+
 	/**
 	 * Gets the buffer backing this packet output stream.
 	 * 
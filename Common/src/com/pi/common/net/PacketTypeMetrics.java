@@ -0,0 +1,240 @@
+package com.pi.common.net;
+
+import java.beans.ConstructorProperties;
+
+import com.pi.common.util.Histogram;
+
+/**
+ * A snapshot of the metrics of one packet type, as exposed over JMX. Timings
+ * are in microseconds, and percentiles are estimated from the power of two
+ * buckets of the {@link Histogram}s they were recorded in.
+ * 
+ * @see PacketMetrics
+ * @author Westin
+ * 
+ */
+public final class PacketTypeMetrics {
+	private final int id;
+	private final String name;
+	private final long sentCount;
+	private final long sentBytes;
+	private final long receivedCount;
+	private final long receivedBytes;
+	private final long sendDwellP50;
+	private final long sendDwellP99;
+	private final long sendDwellMax;
+	private final long dispatchWaitP50;
+	private final long dispatchWaitP99;
+	private final long dispatchWaitMax;
+	private final long handlerMean;
+	private final long handlerP99;
+	private final long handlerMax;
+
+	/**
+	 * Creates a snapshot of the metrics of the packet type with the given ID.
+	 * 
+	 * @param metrics the packet metrics
+	 * @param id the packet ID
+	 * @return the snapshot
+	 */
+	static PacketTypeMetrics snapshot(final PacketMetrics metrics,
+			final int id) {
+		Histogram dwell = metrics.getSendDwells(id);
+		Histogram wait = metrics.getDispatchWaits(id);
+		Histogram handler = metrics.getHandlerTimes(id);
+		return new PacketTypeMetrics(id, metrics.getTypeName(id),
+				metrics.getSentCount(id), metrics.getSentBytes(id),
+				metrics.getReceivedCount(id), metrics.getReceivedBytes(id),
+				dwell.getPercentile(50), dwell.getPercentile(99),
+				dwell.getMax(), wait.getPercentile(50),
+				wait.getPercentile(99), wait.getMax(),
+				(long) handler.getMean(), handler.getPercentile(99),
+				handler.getMax());
+	}
+
+	/**
+	 * Creates a snapshot with the given values, used when a snapshot is
+	 * rebuilt from its JMX form.
+	 * 
+	 * @param sId the packet ID
+	 * @param sName the packet name
+	 * @param sSentCount the sent packet count
+	 * @param sSentBytes the sent byte count
+	 * @param sReceivedCount the received packet count
+	 * @param sReceivedBytes the received byte count
+	 * @param sSendDwellP50 the median send dwell
+	 * @param sSendDwellP99 the 99th percentile send dwell
+	 * @param sSendDwellMax the longest send dwell
+	 * @param sDispatchWaitP50 the median dispatch wait
+	 * @param sDispatchWaitP99 the 99th percentile dispatch wait
+	 * @param sDispatchWaitMax the longest dispatch wait
+	 * @param sHandlerMean the mean handler time
+	 * @param sHandlerP99 the 99th percentile handler time
+	 * @param sHandlerMax the longest handler time
+	 */
+	@ConstructorProperties({ "id", "name", "sentCount", "sentBytes",
+			"receivedCount", "receivedBytes", "sendDwellP50", "sendDwellP99",
+			"sendDwellMax", "dispatchWaitP50", "dispatchWaitP99",
+			"dispatchWaitMax", "handlerMean", "handlerP99", "handlerMax" })
+	public PacketTypeMetrics(final int sId, final String sName,
+			final long sSentCount, final long sSentBytes,
+			final long sReceivedCount, final long sReceivedBytes,
+			final long sSendDwellP50, final long sSendDwellP99,
+			final long sSendDwellMax, final long sDispatchWaitP50,
+			final long sDispatchWaitP99, final long sDispatchWaitMax,
+			final long sHandlerMean, final long sHandlerP99,
+			final long sHandlerMax) {
+		this.id = sId;
+		this.name = sName;
+		this.sentCount = sSentCount;
+		this.sentBytes = sSentBytes;
+		this.receivedCount = sReceivedCount;
+		this.receivedBytes = sReceivedBytes;
+		this.sendDwellP50 = sSendDwellP50;
+		this.sendDwellP99 = sSendDwellP99;
+		this.sendDwellMax = sSendDwellMax;
+		this.dispatchWaitP50 = sDispatchWaitP50;
+		this.dispatchWaitP99 = sDispatchWaitP99;
+		this.dispatchWaitMax = sDispatchWaitMax;
+		this.handlerMean = sHandlerMean;
+		this.handlerP99 = sHandlerP99;
+		this.handlerMax = sHandlerMax;
+	}
+
+	/**
+	 * Gets the packet ID.
+	 * 
+	 * @return the packet ID
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the packet's class name.
+	 * 
+	 * @return the packet name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of packets sent.
+	 * 
+	 * @return the sent packet count
+	 */
+	public long getSentCount() {
+		return sentCount;
+	}
+
+	/**
+	 * Gets the number of bytes sent.
+	 * 
+	 * @return the sent byte count
+	 */
+	public long getSentBytes() {
+		return sentBytes;
+	}
+
+	/**
+	 * Gets the number of packets received.
+	 * 
+	 * @return the received packet count
+	 */
+	public long getReceivedCount() {
+		return receivedCount;
+	}
+
+	/**
+	 * Gets the number of bytes received.
+	 * 
+	 * @return the received byte count
+	 */
+	public long getReceivedBytes() {
+		return receivedBytes;
+	}
+
+	/**
+	 * Gets the median time frames spent in a send queue.
+	 * 
+	 * @return the median send dwell
+	 */
+	public long getSendDwellP50() {
+		return sendDwellP50;
+	}
+
+	/**
+	 * Gets the 99th percentile of the time frames spent in a send queue.
+	 * 
+	 * @return the 99th percentile send dwell
+	 */
+	public long getSendDwellP99() {
+		return sendDwellP99;
+	}
+
+	/**
+	 * Gets the longest time a frame spent in a send queue.
+	 * 
+	 * @return the longest send dwell
+	 */
+	public long getSendDwellMax() {
+		return sendDwellMax;
+	}
+
+	/**
+	 * Gets the median time between packets being read and handled.
+	 * 
+	 * @return the median dispatch wait
+	 */
+	public long getDispatchWaitP50() {
+		return dispatchWaitP50;
+	}
+
+	/**
+	 * Gets the 99th percentile of the time between packets being read and
+	 * handled.
+	 * 
+	 * @return the 99th percentile dispatch wait
+	 */
+	public long getDispatchWaitP99() {
+		return dispatchWaitP99;
+	}
+
+	/**
+	 * Gets the longest time between a packet being read and handled.
+	 * 
+	 * @return the longest dispatch wait
+	 */
+	public long getDispatchWaitMax() {
+		return dispatchWaitMax;
+	}
+
+	/**
+	 * Gets the mean time spent decoding and handling a packet.
+	 * 
+	 * @return the mean handler time
+	 */
+	public long getHandlerMean() {
+		return handlerMean;
+	}
+
+	/**
+	 * Gets the 99th percentile of the time spent decoding and handling a
+	 * packet.
+	 * 
+	 * @return the 99th percentile handler time
+	 */
+	public long getHandlerP99() {
+		return handlerP99;
+	}
+
+	/**
+	 * Gets the longest time spent decoding and handling a packet.
+	 * 
+	 * @return the longest handler time
+	 */
+	public long getHandlerMax() {
+		return handlerMax;
+	}
+}
@@ -0,0 +1,98 @@
+package com.pi.common.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted block of memory that a network client reads into.
+ * Complete packets are handed to the data worker as views of this slab rather
+ * than copies, and each one holds a reference until it has been handled.
+ * <p>
+ * The network client holds one reference while the slab is being read into,
+ * and once every reference is released the slab is returned to the client to
+ * be reused.
+ * <p>
+ * This saves the copies of each packet's bytes, not the work done for each
+ * packet, so it helps large packets most. Very small packets are bound by
+ * decoding and handing off to the data worker, and gain little.
+ * 
+ * @author Westin
+ * 
+ */
+final class ReadSlab {
+	/**
+	 * The backing array of this slab.
+	 */
+	private final byte[] data;
+	/**
+	 * The buffer wrapping the backing array, positioned at the end of the data
+	 * read so far.
+	 */
+	private final ByteBuffer buffer;
+	/**
+	 * The number of outstanding references to this slab.
+	 */
+	private final AtomicInteger refs = new AtomicInteger();
+	/**
+	 * The network client that this slab is returned to once released.
+	 */
+	private final NetClient owner;
+
+	/**
+	 * Creates a slab of the given size for the given network client.
+	 * 
+	 * @param sOwner the network client that reads into this slab
+	 * @param size the size in bytes of the slab
+	 */
+	ReadSlab(final NetClient sOwner, final int size) {
+		this.owner = sOwner;
+		this.data = new byte[size];
+		this.buffer = ByteBuffer.wrap(data);
+	}
+
+	/**
+	 * Gets the backing array of this slab.
+	 * 
+	 * @return the backing array
+	 */
+	byte[] array() {
+		return data;
+	}
+
+	/**
+	 * Gets the buffer that socket data is read into.
+	 * 
+	 * @return the read buffer
+	 */
+	ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/**
+	 * Adds a reference to this slab.
+	 */
+	void retain() {
+		refs.incrementAndGet();
+	}
+
+	/**
+	 * Removes a reference from this slab, returning it to it's owner if no
+	 * references remain.
+	 */
+	void release() {
+		if (refs.decrementAndGet() == 0) {
+			owner.recycleReadSlab(this);
+		}
+	}
+
+	/**
+	 * Checks if the given number of references are the only references to
+	 * this slab.
+	 * 
+	 * @param count the number of references
+	 * @return if no other references are held
+	 */
+	boolean isOnlyHeldBy(final int count) {
+		return refs.get() == count;
+	}
+}
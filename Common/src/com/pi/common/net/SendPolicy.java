@@ -0,0 +1,27 @@
+package com.pi.common.net;
+
+/**
+ * How a packet is queued when the network client sending it is congested,
+ * meaning it has more bytes queued than its soft limit.
+ *
+ * @see NetClient#setSendLimits(int, int, long)
+ * @see com.pi.common.net.packet.Packet#getSendPolicy()
+ * @author Westin
+ *
+ */
+public enum SendPolicy {
+	/**
+	 * The packet is always queued.
+	 */
+	QUEUE,
+	/**
+	 * The packet replaces any held packet of the same type and state key, and
+	 * is held until the client is no longer congested. Only the latest packet
+	 * for each state key is sent.
+	 */
+	COALESCE,
+	/**
+	 * The packet is discarded.
+	 */
+	DROP;
+}
@@ -0,0 +1,115 @@
+package com.pi.common.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.pi.common.net.packet.Packet;
+
+/**
+ * Orders the unreliable packets sent on a datagram channel against the
+ * reliable packets with the same state key sent over TCP. Both ends count the
+ * reliable packets with each state key, and each unreliable packet is sent
+ * with the sender's count for its state key, its epoch. The receiver applies
+ * an unreliable packet once it has handled that many reliable packets with
+ * the key: an earlier epoch was overtaken by a reliable packet and is
+ * skipped, and a later one is held until the reliable packet arrives.
+ * <p>
+ * Each net client has one for the packets it sends, guarded by itself, and
+ * one for the packets it receives, which is only used by the data worker
+ * handling its packets.
+ * 
+ * @see DatagramFrame
+ * @author Westin
+ * 
+ */
+final class StateEpochs {
+	/**
+	 * The number of reliable packets counted, by state key.
+	 */
+	private final Map<Integer, Integer> counts =
+			new HashMap<Integer, Integer>();
+	/**
+	 * The unreliable packets received ahead of the reliable packets they
+	 * follow, by datagram state key.
+	 */
+	private final Map<Long, DataWorker.DataEvent> held =
+			new LinkedHashMap<Long, DataWorker.DataEvent>();
+
+	/**
+	 * Checks if the given packet is counted, as a reliable packet with a state
+	 * key.
+	 * 
+	 * @param p the packet
+	 * @return if the packet is counted
+	 */
+	static boolean isCounted(final Packet p) {
+		return !p.isUnreliable() && p.getStateKey() != -1;
+	}
+
+	/**
+	 * Gets the number of reliable packets counted with the given state key.
+	 * 
+	 * @param stateKey the state key
+	 * @return the epoch for the state key
+	 */
+	int get(final int stateKey) {
+		Integer count = counts.get(stateKey);
+		if (count == null) {
+			return 0;
+		}
+		return count.intValue();
+	}
+
+	/**
+	 * Counts a reliable packet with the given state key.
+	 * 
+	 * @param stateKey the state key
+	 */
+	void increment(final int stateKey) {
+		counts.put(stateKey, get(stateKey) + 1);
+	}
+
+	/**
+	 * Holds an unreliable packet until the reliable packets it follows have
+	 * been handled, replacing any held packet with the same datagram state
+	 * key.
+	 * 
+	 * @param event the event holding the packet
+	 */
+	void hold(final DataWorker.DataEvent event) {
+		held.put(DatagramFrame.getStateKey(event.getPacket()), event);
+	}
+
+	/**
+	 * Removes the held packets with the given state key whose epoch has been
+	 * reached.
+	 * 
+	 * @param stateKey the state key
+	 * @return the events holding the packets, in the order they were held, or
+	 *         <code>null</code> if there aren't any
+	 */
+	List<DataWorker.DataEvent> release(final int stateKey) {
+		if (held.isEmpty()) {
+			return null;
+		}
+		int epoch = get(stateKey);
+		List<DataWorker.DataEvent> ready = null;
+		Iterator<DataWorker.DataEvent> it = held.values().iterator();
+		while (it.hasNext()) {
+			DataWorker.DataEvent event = it.next();
+			if (event.getPacket().getStateKey() == stateKey
+					&& event.getEpoch() <= epoch) {
+				it.remove();
+				if (ready == null) {
+					ready = new ArrayList<DataWorker.DataEvent>(1);
+				}
+				ready.add(event);
+			}
+		}
+		return ready;
+	}
+}
@@ -0,0 +1,151 @@
+package com.pi.common.net;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records the frames sent and received on a single connection to a compact
+ * binary log, so the traffic can be inspected or replayed later.
+ * <p>
+ * A capture starts with a header of {@link #MAGIC}, the format
+ * {@link #VERSION}, the side of the connection that recorded it, and the
+ * system time in milliseconds it was started. Each frame after it is written
+ * as its direction, the microseconds since the previous frame, and then the
+ * frame exactly as it is on the wire: a four byte length followed by the
+ * packet data, which starts with the {@link com.pi.common.net.packet.Packet}
+ * ID. Batch and chunk frames are recorded as they are, so a capture decodes
+ * with the same {@link DataWorker} logic as a live stream.
+ * 
+ * @see CaptureReader
+ * @author Westin
+ * 
+ */
+public class TrafficCapture {
+	/**
+	 * The first four bytes of every capture, <code>EQCP</code>.
+	 */
+	public static final int MAGIC = 0x45514350;
+	/**
+	 * The version of the capture format.
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * The side recorded by a capture made on the server.
+	 */
+	public static final int SIDE_SERVER = 0;
+	/**
+	 * The side recorded by a capture made on a client.
+	 */
+	public static final int SIDE_CLIENT = 1;
+	/**
+	 * The direction of a frame read from the connection.
+	 */
+	public static final int INBOUND = 0;
+	/**
+	 * The direction of a frame queued to be written to the connection.
+	 */
+	public static final int OUTBOUND = 1;
+
+	/**
+	 * The capture file's output stream.
+	 */
+	private final DataOutputStream out;
+	/**
+	 * The system time in nanoseconds the last frame was recorded.
+	 */
+	private long lastTime;
+	/**
+	 * The buffer used to copy frames that aren't backed by an accessible
+	 * array.
+	 */
+	private byte[] copyBuffer = new byte[0];
+
+	/**
+	 * Creates a capture writing to the given file, replacing it if it exists.
+	 * 
+	 * @param f the file
+	 * @param side the side of the connection being recorded, either
+	 *            {@link #SIDE_SERVER} or {@link #SIDE_CLIENT}
+	 * @throws IOException if the file can't be written
+	 */
+	public TrafficCapture(final File f, final int side) throws IOException {
+		this.out =
+				new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(f)));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeByte(side);
+		out.writeLong(System.currentTimeMillis());
+		this.lastTime = System.nanoTime();
+	}
+
+	/**
+	 * Writes the direction and time of the next frame.
+	 * 
+	 * @param direction the frame's direction
+	 * @throws IOException if the capture can't be written
+	 */
+	private void writeRecordHeader(final int direction) throws IOException {
+		long now = System.nanoTime();
+		long micros = (now - lastTime) / 1000L;
+		lastTime = now;
+		out.writeByte(direction);
+		out.writeInt((int) Math.min(Integer.MAX_VALUE, micros));
+	}
+
+	/**
+	 * Records a frame, given without its length.
+	 * 
+	 * @param direction the frame's direction, either {@link #INBOUND} or
+	 *            {@link #OUTBOUND}
+	 * @param data the array holding the frame
+	 * @param off the offset of the frame's packet data
+	 * @param len the length of the frame's packet data
+	 * @throws IOException if the capture can't be written
+	 */
+	public final synchronized void record(final int direction,
+			final byte[] data, final int off, final int len)
+			throws IOException {
+		writeRecordHeader(direction);
+		out.writeInt(len);
+		out.write(data, off, len);
+	}
+
+	/**
+	 * Records a frame, given with its length, between the buffer's position
+	 * and limit. The buffer's position isn't changed.
+	 * 
+	 * @param direction the frame's direction, either {@link #INBOUND} or
+	 *            {@link #OUTBOUND}
+	 * @param frame the frame
+	 * @throws IOException if the capture can't be written
+	 */
+	public final synchronized void record(final int direction,
+			final ByteBuffer frame) throws IOException {
+		writeRecordHeader(direction);
+		int len = frame.remaining();
+		if (frame.hasArray()) {
+			out.write(frame.array(), frame.arrayOffset() + frame.position(),
+					len);
+		} else {
+			if (copyBuffer.length < len) {
+				copyBuffer = new byte[len];
+			}
+			frame.duplicate().get(copyBuffer, 0, len);
+			out.write(copyBuffer, 0, len);
+		}
+	}
+
+	/**
+	 * Flushes and closes the capture file.
+	 * 
+	 * @throws IOException if the capture can't be written
+	 */
+	public final synchronized void close() throws IOException {
+		out.close();
+	}
+}
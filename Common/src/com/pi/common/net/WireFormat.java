@@ -0,0 +1,45 @@
+package com.pi.common.net;
+
+/**
+ * The encodings a connection can use for packet data. Every connection starts
+ * out using {@link #V1}, and each side switches the packets it sends to another
+ * format by sending a
+ * {@link com.pi.common.net.packet.Packet29WireFormat} packet.
+ * <p>
+ * Only the {@link PacketOutputStream} and {@link PacketInputStream} methods
+ * that say so are encoded differently. Packet objects opt in by using them,
+ * and write the same bytes as before when the stream uses {@link #V1}, so
+ * their length is always computed for {@link #V1}.
+ * 
+ * @author Westin
+ * 
+ */
+public enum WireFormat {
+	/**
+	 * Fixed width integers and enums, and strings written as UTF-16
+	 * characters.
+	 */
+	V1,
+	/**
+	 * Zig-zag variable length integers, single byte enums, and strings written
+	 * as UTF-8.
+	 */
+	V2;
+
+	/**
+	 * Gets the largest number of bytes data can be encoded in using this
+	 * format, given its {@link #V1} length. A variable length integer is at
+	 * most five bytes where {@link #V1} uses four, and a UTF-8 string is at
+	 * most half as long again as its UTF-16 form, so {@link #V2} never needs
+	 * more than one and a half times the {@link #V1} length.
+	 * 
+	 * @param length the length of the data in the {@link #V1} format
+	 * @return the maximum encoded length
+	 */
+	public int getMaxLength(final int length) {
+		if (this == V1) {
+			return length;
+		}
+		return length + (length >> 1) + 1;
+	}
+}
@@ -1,8 +1,11 @@
 package com.pi.common.net.packet;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketOutputStream;
+import com.pi.common.net.SendPolicy;
 
 /**
  * Get network packet class that represents any packet sent or received through
@@ -18,6 +21,21 @@ import com.pi.common.net.PacketOutputStream;
  */
 public abstract class Packet implements PacketObject,
 		Comparable<Packet> {
+	/**
+	 * The number of times any packet has been serialized.
+	 */
+	private static final AtomicLong SERIALIZATION_COUNT = new AtomicLong();
+
+	/**
+	 * Gets the number of times any packet has been written to a packet output
+	 * stream.
+	 * 
+	 * @return the serialization count
+	 */
+	public static long getSerializationCount() {
+		return SERIALIZATION_COUNT.get();
+	}
+
 	/**
 	 * The time that this packet was created.
 	 */
@@ -40,6 +58,7 @@ public abstract class Packet implements PacketObject,
 	 */
 	public final void writePacket(final PacketOutputStream pOut)
 			throws IOException {
+		SERIALIZATION_COUNT.incrementAndGet();
 		pOut.writeByte(getID());
 		// pOut.writeLong(timeStamp);
 		writeData(pOut);
@@ -103,4 +122,63 @@ public abstract class Packet implements PacketObject,
 	public boolean requiresHandshake() {
 		return false;
 	}
+
+	/**
+	 * Gets how this packet is queued when the network client sending it is
+	 * congested.
+	 * 
+	 * @see com.pi.common.net.NetClient#setSendLimits(int, int, long)
+	 * @return the send policy, {@link SendPolicy#QUEUE} if not overridden
+	 */
+	public SendPolicy getSendPolicy() {
+		return SendPolicy.QUEUE;
+	}
+
+	/**
+	 * Checks if this packet is bulk data that isn't needed in real time. Bulk
+	 * packets are sent in chunks in the bulk lane of network clients that have
+	 * it enabled, so they can be overtaken by real-time packets, but stay in
+	 * order with other bulk packets.
+	 * 
+	 * @see com.pi.common.net.NetClient#setChunking(boolean)
+	 * @return <code>true</code> if this is a bulk packet, <code>false</code>
+	 *         if not overridden
+	 */
+	public boolean isBulk() {
+		return false;
+	}
+
+	/**
+	 * Checks if this packet can be sent over an unreliable datagram channel,
+	 * where it may be lost or arrive out of order. Only the latest unreliable
+	 * packet of each type and state key matters, so these are sent as
+	 * sequenced, latest-wins state.
+	 * 
+	 * @see com.pi.common.net.DatagramFrame
+	 * @return <code>true</code> if this packet can be sent unreliably,
+	 *         <code>false</code> if not overridden
+	 */
+	public boolean isUnreliable() {
+		return false;
+	}
+
+	/**
+	 * Gets the key of the state this packet updates, such as the entity it's
+	 * about. Packets held by {@link SendPolicy#COALESCE} are replaced by later
+	 * packets of the same type and key, and are sent before any other packet
+	 * with the same key so the order of updates is kept.
+	 * 
+	 * @return the state key, or <code>-1</code> if this packet has none
+	 */
+	public int getStateKey() {
+		return -1;
+	}
+
+	/**
+	 * Passes this packet to the given handler's <code>process</code> method
+	 * for this packet's class.
+	 * 
+	 * @param handler the handler to process this packet
+	 */
+	public abstract void dispatch(NetHandler handler);
 }
@@ -3,6 +3,7 @@ package com.pi.common.net.packet;
 import java.io.IOException;
 
 import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -19,34 +20,55 @@ public class Packet0Handshake extends Packet {
 	 * The packet ID this packet confirms reception of.
 	 */
 	public int packetShake;
+	/**
+	 * The number of packets with the confirmed ID that the client has
+	 * received, confirming all of them. This is <code>-1</code> if the client
+	 * didn't send it, in which case only the oldest unconfirmed packet with
+	 * the ID is confirmed.
+	 */
+	public int sequence = -1;
 
 	/**
-	 * Creates an instance of the handshake packet for the given packet ID.
+	 * Creates an instance of the handshake packet for the given packet ID and
+	 * sequence number.
 	 * 
 	 * @param packetHandshake the packet id that this client is confirming
+	 * @param sSequence the number of packets with the ID received
 	 * @return the packet instance
 	 */
 	public static Packet0Handshake create(
-			final int packetHandshake) {
+			final int packetHandshake, final int sSequence) {
 		Packet0Handshake pack = new Packet0Handshake();
 		pack.packetShake = packetHandshake;
+		pack.sequence = sSequence;
 		return pack;
 	}
 
 	@Override
 	public final void writeData(final PacketOutputStream dOut)
 			throws IOException {
-		dOut.writeInt(packetShake);
+		dOut.writeVarInt(packetShake);
+		dOut.writeVarInt(sequence);
 	}
 
 	@Override
 	public final void readData(final PacketInputStream dIn)
 			throws IOException {
-		packetShake = dIn.readInt();
+		packetShake = dIn.readVarInt();
+		if (dIn.available() > 0) {
+			sequence = dIn.readVarInt();
+		} else {
+			sequence = -1;
+		}
 	}
 
 	@Override
 	public final int getLength() {
-		return SizeOf.INT;
+		return 2 * SizeOf.INT;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
 	}
 }
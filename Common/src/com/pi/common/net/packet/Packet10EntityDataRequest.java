@@ -3,6 +3,7 @@ package com.pi.common.net.packet;
 import java.io.IOException;
 
 import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -18,13 +19,13 @@ public class Packet10EntityDataRequest extends Packet {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(entityID);
+		pOut.writeVarInt(entityID);
 	}
 
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		entityID = pIn.readInt();
+		entityID = pIn.readVarInt();
 	}
 
 	/**
@@ -45,4 +46,9 @@ public class Packet10EntityDataRequest extends Packet {
 	public final int getLength() {
 		return SizeOf.INT;
 	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
@@ -3,6 +3,7 @@ package com.pi.common.net.packet;
 import java.io.IOException;
 
 import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -44,4 +45,9 @@ public class Packet11LocalEntityID extends Packet {
 	public final int getLength() {
 		return SizeOf.INT;
 	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import com.pi.common.constants.NetworkConstants.SizeOf;
 import com.pi.common.database.def.entity.EntityDef;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -45,4 +46,9 @@ public class Packet13EntityDef extends Packet {
 		}
 		return SizeOf.INT + def.getLength();
 	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
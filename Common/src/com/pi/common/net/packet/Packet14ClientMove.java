@@ -1,6 +1,7 @@
 package com.pi.common.net.packet;
 
 import com.pi.common.database.Location;
+import com.pi.common.net.NetHandler;
 
 /**
  * This packet is used by the client to transmit movement to the server. This
@@ -27,4 +28,9 @@ public class Packet14ClientMove extends EntityMovementPacket {
 	public final int getLength() {
 		return super.getLength();
 	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import com.pi.common.constants.GameState;
 import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -58,4 +59,9 @@ public class Packet15GameState extends Packet {
 	public final boolean requiresHandshake() {
 		return true;
 	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
@@ -5,8 +5,10 @@ import java.io.IOException;
 import com.pi.common.constants.NetworkConstants.SizeOf;
 import com.pi.common.database.Location;
 import com.pi.common.game.entity.Entity;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
+import com.pi.common.net.SendPolicy;
 
 /**
  * A packet sent from the server to the client to perform a short entity
@@ -21,14 +23,14 @@ public class Packet16EntityMove extends EntityMovementPacket {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(entity);
+		pOut.writeVarInt(entity);
 		super.writeData(pOut);
 	}
 
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		entity = pIn.readInt();
+		entity = pIn.readVarInt();
 		super.readData(pIn);
 	}
 
@@ -66,4 +68,24 @@ public class Packet16EntityMove extends EntityMovementPacket {
 	public final int getLength() {
 		return SizeOf.INT + super.getLength();
 	}
+
+	@Override
+	public final int getStateKey() {
+		return entity;
+	}
+
+	@Override
+	public final SendPolicy getSendPolicy() {
+		return SendPolicy.COALESCE;
+	}
+
+	@Override
+	public final boolean isUnreliable() {
+		return true;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
@@ -3,8 +3,10 @@ package com.pi.common.net.packet;
 import java.io.IOException;
 
 import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
+import com.pi.common.net.SendPolicy;
 
 /**
  * A class representing the clock packet used to synchronize the client time
@@ -36,4 +38,13 @@ public class Packet17Clock extends Packet {
 		serverSendTime = pIn.readLong();
 	}
 
+	@Override
+	public final SendPolicy getSendPolicy() {
+		return SendPolicy.DROP;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
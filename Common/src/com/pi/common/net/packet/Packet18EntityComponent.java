@@ -6,6 +6,7 @@ import com.pi.common.constants.NetworkConstants.SizeOf;
 import com.pi.common.game.entity.Entity;
 import com.pi.common.game.entity.comp.EntityComponent;
 import com.pi.common.game.entity.comp.EntityComponentManager;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -28,7 +29,7 @@ public class Packet18EntityComponent extends Packet {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(entityID);
+		pOut.writeVarInt(entityID);
 		if (eComp != null) {
 			pOut.writeByte((byte) EntityComponentManager
 					.getInstance().getPairID(eComp.getClass()));
@@ -50,7 +51,7 @@ public class Packet18EntityComponent extends Packet {
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		entityID = pIn.readInt();
+		entityID = pIn.readVarInt();
 		byte compID = pIn.readByte();
 		if (compID == -1) {
 			eComp = null;
@@ -102,4 +103,13 @@ public class Packet18EntityComponent extends Packet {
 		return p;
 	}
 
+	@Override
+	public final int getStateKey() {
+		return entityID;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import com.pi.common.constants.InteractionButton;
 import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -44,4 +45,9 @@ public class Packet19Interact extends Packet {
 		p.button = b;
 		return p;
 	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
@@ -2,6 +2,8 @@ package com.pi.common.net.packet;
 
 import java.io.IOException;
 
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -9,6 +11,10 @@ import com.pi.common.net.PacketOutputStream;
  * A packet sent by the server to the client to request that the login
  * credentials be verified and that the client should be put into the main game
  * state if verification is successful.
+ * <p>
+ * The login also carries the optional protocol features the client supports,
+ * as {@link com.pi.common.constants.NetworkConstants} feature flags. Older
+ * clients don't send them, and are treated as supporting none.
  * 
  * @author Westin
  * 
@@ -16,12 +22,14 @@ import com.pi.common.net.PacketOutputStream;
 public class Packet1Login extends Packet {
 	public String username;
 	public String password;
+	public int features;
 
 	@Override
 	public final void writeData(final PacketOutputStream dOut)
 			throws IOException {
 		dOut.writeString(username);
 		dOut.writeString(password);
+		dOut.writeInt(features);
 	}
 
 	@Override
@@ -29,16 +37,27 @@ public class Packet1Login extends Packet {
 			throws IOException {
 		username = dIn.readString();
 		password = dIn.readString();
+		if (dIn.available() >= SizeOf.INT) {
+			features = dIn.readInt();
+		} else {
+			features = 0;
+		}
 	}
 
 	@Override
 	public final int getLength() {
 		return PacketOutputStream.stringByteLength(username)
-				+ PacketOutputStream.stringByteLength(password);
+				+ PacketOutputStream.stringByteLength(password)
+				+ SizeOf.INT;
 	}
 
 	@Override
 	public final boolean requiresHandshake() {
 		return true;
 	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
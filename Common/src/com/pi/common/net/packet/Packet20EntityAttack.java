@@ -2,8 +2,11 @@ package com.pi.common.net.packet;
 
 import java.io.IOException;
 
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
+import com.pi.common.net.SendPolicy;
 
 /**
  * Packet representing an entity attacking something.
@@ -32,17 +35,32 @@ public class Packet20EntityAttack extends Packet {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(entityID);
+		pOut.writeVarInt(entityID);
 	}
 
 	@Override
 	public final int getLength() {
-		return 0;
+		return SizeOf.INT;
 	}
 
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		entityID = pIn.readInt();
+		entityID = pIn.readVarInt();
+	}
+
+	@Override
+	public final SendPolicy getSendPolicy() {
+		return SendPolicy.DROP;
+	}
+
+	@Override
+	public final int getStateKey() {
+		return entityID;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
 	}
 }
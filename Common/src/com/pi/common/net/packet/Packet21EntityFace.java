@@ -4,8 +4,10 @@ import java.io.IOException;
 
 import com.pi.common.constants.Direction;
 import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
+import com.pi.common.net.SendPolicy;
 
 /**
  * Packet representing an entity changing it's face direction.
@@ -41,7 +43,7 @@ public class Packet21EntityFace extends Packet {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(entityID);
+		pOut.writeVarInt(entityID);
 		if (face == null) {
 			pOut.writeByte(0);
 		} else {
@@ -57,7 +59,7 @@ public class Packet21EntityFace extends Packet {
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		entityID = pIn.readInt();
+		entityID = pIn.readVarInt();
 		byte iFace = pIn.readByte();
 		if (iFace >= 0 && iFace < Direction.values().length) {
 			face = Direction.values()[iFace];
@@ -65,4 +67,24 @@ public class Packet21EntityFace extends Packet {
 			face = Direction.UP;
 		}
 	}
+
+	@Override
+	public final int getStateKey() {
+		return entityID;
+	}
+
+	@Override
+	public final SendPolicy getSendPolicy() {
+		return SendPolicy.COALESCE;
+	}
+
+	@Override
+	public final boolean isUnreliable() {
+		return true;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
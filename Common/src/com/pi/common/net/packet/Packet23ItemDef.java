@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import com.pi.common.constants.NetworkConstants.SizeOf;
 import com.pi.common.database.def.ItemDef;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -47,4 +48,8 @@ public class Packet23ItemDef extends Packet {
 		def.readData(pIn);
 	}
 
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
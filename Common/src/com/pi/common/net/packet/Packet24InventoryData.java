@@ -3,6 +3,7 @@ package com.pi.common.net.packet;
 import java.io.IOException;
 
 import com.pi.common.database.Inventory;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -56,4 +57,13 @@ public class Packet24InventoryData extends Packet {
 		inventory.readData(pIn);
 	}
 
+	@Override
+	public final boolean isBulk() {
+		return true;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
@@ -5,6 +5,7 @@ import java.io.IOException;
 import com.pi.common.constants.ItemConstants;
 import com.pi.common.constants.NetworkConstants.SizeOf;
 import com.pi.common.database.Item;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -63,4 +64,13 @@ public class Packet25InventoryUpdate extends Packet {
 
 	}
 
+	@Override
+	public final boolean isBulk() {
+		return true;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
@@ -0,0 +1,41 @@
+package com.pi.common.net.packet;
+
+import java.io.IOException;
+
+import com.pi.common.net.NetHandler;
+import com.pi.common.net.PacketInputStream;
+import com.pi.common.net.PacketOutputStream;
+
+/**
+ * A packet that carries several other packets in one frame. Its body is a
+ * sequence of length prefixed packets, laid out exactly as they would be sent
+ * on their own.
+ * <p>
+ * Batches are built by the network client's send path rather than through
+ * this class, and are unpacked by the data worker, so this class only reserves
+ * the packet ID and never reaches a net handler.
+ * 
+ * @author Westin
+ * 
+ */
+public class Packet26Batch extends Packet {
+	@Override
+	public final void writeData(final PacketOutputStream pOut)
+			throws IOException {
+	}
+
+	@Override
+	public final int getLength() {
+		return 0;
+	}
+
+	@Override
+	public final void readData(final PacketInputStream pIn)
+			throws IOException {
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
+}
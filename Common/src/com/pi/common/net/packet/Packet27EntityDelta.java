@@ -0,0 +1,297 @@
+package com.pi.common.net.packet;
+
+import java.io.IOException;
+
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.database.Location;
+import com.pi.common.database.world.TileLayer;
+import com.pi.common.game.entity.Entity;
+import com.pi.common.game.entity.comp.EntityComponent;
+import com.pi.common.game.entity.comp.EntityComponentManager;
+import com.pi.common.net.NetHandler;
+import com.pi.common.net.PacketInputStream;
+import com.pi.common.net.PacketOutputStream;
+
+/**
+ * A packet sent by the server to update only the parts of an entity that have
+ * changed since the state the client was last sent.
+ * <p>
+ * The packet starts with a flags byte. The low bits mark which entity fields
+ * follow, and the high bits mark which of the first
+ * {@link #INLINE_COMPONENTS} components changed. If more components are
+ * registered than fit in the flags byte, a changed component mask always
+ * follows instead. Changed components are written with their own
+ * {@link com.pi.common.net.packet.PacketObject} data, in ID order.
+ * 
+ * @author Westin
+ * 
+ */
+public class Packet27EntityDelta extends Packet {
+	/**
+	 * Flag for an absolute location.
+	 */
+	public static final int LOCATION = 1;
+	/**
+	 * Flag for a location given as a byte offset on the same plane.
+	 */
+	public static final int LOCATION_OFFSET = 1 << 1;
+	/**
+	 * Flag for a changed tile layer.
+	 */
+	public static final int LAYER = 1 << 2;
+	/**
+	 * Flag for a changed entity definition.
+	 */
+	public static final int DEF = 1 << 3;
+	/**
+	 * Flag for a mask of the components that were removed.
+	 */
+	public static final int REMOVED = 1 << 4;
+	/**
+	 * The number of low bits in the flags byte used for fields.
+	 */
+	private static final int FIELD_BITS = 5;
+	/**
+	 * The number of components whose changed flags are stored in the high bits
+	 * of the flags byte.
+	 */
+	public static final int INLINE_COMPONENTS = SizeOf.BYTE_BITS
+			- FIELD_BITS;
+
+	public int entityID;
+	public int fields;
+	public Location loc;
+	public int offsetX;
+	public int offsetZ;
+	public TileLayer layer;
+	public int defID;
+	/**
+	 * The components that changed, indexed by component ID.
+	 */
+	public EntityComponent[] changed = new EntityComponent[EntityComponentManager
+			.getInstance().getPairCount()];
+	/**
+	 * The mask of component IDs that were removed.
+	 */
+	public int removed;
+
+	@Override
+	public final void writeData(final PacketOutputStream pOut)
+			throws IOException {
+		pOut.writeVarInt(entityID);
+		int mask = getChangedMask();
+		int flags = fields & ((1 << FIELD_BITS) - 1);
+		if (changed.length <= INLINE_COMPONENTS) {
+			flags |= mask << FIELD_BITS;
+		}
+		pOut.writeByte((byte) flags);
+		if (changed.length > INLINE_COMPONENTS) {
+			writeMask(pOut, mask);
+		}
+		if ((fields & LOCATION) != 0) {
+			loc.writeData(pOut);
+		} else if ((fields & LOCATION_OFFSET) != 0) {
+			pOut.writeByte((byte) offsetX);
+			pOut.writeByte((byte) offsetZ);
+		}
+		if ((fields & LAYER) != 0) {
+			pOut.writeByte((byte) layer.ordinal());
+		}
+		if ((fields & DEF) != 0) {
+			pOut.writeVarInt(defID);
+		}
+		if ((fields & REMOVED) != 0) {
+			writeMask(pOut, removed);
+		}
+		for (int i = 0; i < changed.length; i++) {
+			if (changed[i] != null) {
+				changed[i].writeData(pOut);
+			}
+		}
+	}
+
+	@Override
+	public final void readData(final PacketInputStream pIn)
+			throws IOException {
+		entityID = pIn.readVarInt();
+		int flags = pIn.readByte() & 0xFF;
+		fields = flags & ((1 << FIELD_BITS) - 1);
+		int mask;
+		if (changed.length > INLINE_COMPONENTS) {
+			mask = readMask(pIn);
+		} else {
+			mask = flags >>> FIELD_BITS;
+		}
+		if ((fields & LOCATION) != 0) {
+			loc = new Location();
+			loc.readData(pIn);
+		} else if ((fields & LOCATION_OFFSET) != 0) {
+			offsetX = pIn.readByte();
+			offsetZ = pIn.readByte();
+		}
+		if ((fields & LAYER) != 0) {
+			int lI = pIn.readByte();
+			if (lI >= 0 && lI < TileLayer.MAX_VALUE.ordinal()) {
+				layer = TileLayer.values()[lI];
+			} else {
+				layer = TileLayer.MASK1;
+			}
+		}
+		if ((fields & DEF) != 0) {
+			defID = pIn.readVarInt();
+		}
+		if ((fields & REMOVED) != 0) {
+			removed = readMask(pIn);
+		}
+		for (int i = 0; i < changed.length; i++) {
+			if ((mask & (1 << i)) != 0) {
+				try {
+					changed[i] =
+							EntityComponentManager.getInstance()
+									.getPairClass(i).newInstance();
+				} catch (Exception e) {
+					throw new IOException(
+							"Unable to create a component: "
+									+ e.toString());
+				}
+				changed[i].readData(pIn);
+			} else {
+				changed[i] = null;
+			}
+		}
+	}
+
+	@Override
+	public final int getLength() {
+		int size = SizeOf.INT + SizeOf.BYTE;
+		if (changed.length > INLINE_COMPONENTS) {
+			size += getMaskLength();
+		}
+		if ((fields & LOCATION) != 0) {
+			size += loc.getLength();
+		} else if ((fields & LOCATION_OFFSET) != 0) {
+			size += 2 * SizeOf.BYTE;
+		}
+		if ((fields & LAYER) != 0) {
+			size += SizeOf.BYTE;
+		}
+		if ((fields & DEF) != 0) {
+			size += SizeOf.INT;
+		}
+		if ((fields & REMOVED) != 0) {
+			size += getMaskLength();
+		}
+		for (int i = 0; i < changed.length; i++) {
+			if (changed[i] != null) {
+				size += changed[i].getLength();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Checks if this delta doesn't change anything.
+	 * 
+	 * @return <code>true</code> if there are no changes
+	 */
+	public final boolean isEmpty() {
+		return fields == 0 && getChangedMask() == 0;
+	}
+
+	/**
+	 * Applies this delta to the given entity.
+	 * 
+	 * @param ent the entity to update
+	 */
+	public final void apply(final Entity ent) {
+		if ((fields & LOCATION) != 0) {
+			ent.setLocation(loc);
+		} else if ((fields & LOCATION_OFFSET) != 0) {
+			ent.setLocation(new Location(ent.x + offsetX, ent.plane,
+					ent.z + offsetZ));
+		}
+		if ((fields & LAYER) != 0) {
+			ent.setLayer(layer);
+		}
+		if ((fields & DEF) != 0) {
+			ent.setEntityDef(defID);
+		}
+		if ((fields & REMOVED) != 0) {
+			for (int i = 0; i < changed.length; i++) {
+				if ((removed & (1 << i)) != 0) {
+					ent.getComponents().set(i, null);
+				}
+			}
+		}
+		for (int i = 0; i < changed.length; i++) {
+			if (changed[i] != null) {
+				ent.getComponents().set(i, changed[i]);
+			}
+		}
+	}
+
+	/**
+	 * Gets the mask of component IDs that changed.
+	 * 
+	 * @return the changed mask
+	 */
+	private int getChangedMask() {
+		int mask = 0;
+		for (int i = 0; i < changed.length; i++) {
+			if (changed[i] != null) {
+				mask |= 1 << i;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Gets the number of bytes used to write a component mask.
+	 * 
+	 * @return the mask length
+	 */
+	private int getMaskLength() {
+		return (changed.length + SizeOf.BYTE_BITS - 1) / SizeOf.BYTE_BITS;
+	}
+
+	/**
+	 * Writes a component mask using as few bytes as the registered component
+	 * count allows.
+	 * 
+	 * @param pOut the stream to write to
+	 * @param mask the mask to write
+	 * @throws IOException if a write error occurs
+	 */
+	private void writeMask(final PacketOutputStream pOut, final int mask)
+			throws IOException {
+		for (int i = 0; i < getMaskLength(); i++) {
+			pOut.writeByte((byte) (mask >>> (i * SizeOf.BYTE_BITS)));
+		}
+	}
+
+	/**
+	 * Reads a component mask written by
+	 * {@link #writeMask(PacketOutputStream, int)}.
+	 * 
+	 * @param pIn the stream to read from
+	 * @return the mask
+	 * @throws IOException if a read error occurs
+	 */
+	private int readMask(final PacketInputStream pIn) throws IOException {
+		int mask = 0;
+		for (int i = 0; i < getMaskLength(); i++) {
+			mask |= (pIn.readByte() & 0xFF) << (i * SizeOf.BYTE_BITS);
+		}
+		return mask;
+	}
+
+	@Override
+	public final int getStateKey() {
+		return entityID;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
+}
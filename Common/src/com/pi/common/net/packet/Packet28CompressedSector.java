@@ -0,0 +1,138 @@
+package com.pi.common.net.packet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
+import com.pi.common.net.PacketInputStream;
+import com.pi.common.net.PacketOutputStream;
+import com.pi.common.net.WireFormat;
+
+/**
+ * A packet sent by the server in place of a {@link Packet4Sector} to clients
+ * that negotiated
+ * {@link com.pi.common.constants.NetworkConstants#FEATURE_COMPRESSED_SECTORS}
+ * at login. It holds the sector packet's data compressed with
+ * {@link Deflater}, and the length of that data once inflated. The sector
+ * data is encoded in the same wire format as the packet itself.
+ * 
+ * @author Westin
+ * 
+ */
+public class Packet28CompressedSector extends Packet {
+	public int rawLength;
+	public byte[] data;
+	/**
+	 * The wire format this packet was read in, which the sector data is
+	 * decoded in once inflated.
+	 */
+	private WireFormat format = WireFormat.V1;
+
+	/**
+	 * Compresses the given sector packet data into a new compressed sector
+	 * packet.
+	 * 
+	 * @param raw the array holding the sector packet data
+	 * @param off the offset of the data in the array
+	 * @param len the length of the data
+	 * @param level the {@link Deflater} compression level
+	 * @return the compressed sector packet
+	 */
+	public static Packet28CompressedSector create(final byte[] raw,
+			final int off, final int len, final int level) {
+		Deflater deflater = new Deflater(level);
+		try {
+			deflater.setInput(raw, off, len);
+			deflater.finish();
+			byte[] buffer = new byte[len + (len >> 3) + 64];
+			int size = 0;
+			while (!deflater.finished()) {
+				if (size == buffer.length) {
+					byte[] grown = new byte[buffer.length * 2];
+					System.arraycopy(buffer, 0, grown, 0, size);
+					buffer = grown;
+				}
+				size += deflater.deflate(buffer, size, buffer.length - size);
+			}
+			Packet28CompressedSector p = new Packet28CompressedSector();
+			p.rawLength = len;
+			p.data = new byte[size];
+			System.arraycopy(buffer, 0, p.data, 0, size);
+			return p;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Inflates the compressed data and reads it as a sector packet.
+	 * 
+	 * @return the sector packet
+	 * @throws IOException if the data is corrupt, or doesn't inflate to the
+	 *             expected length
+	 */
+	public final Packet4Sector inflate() throws IOException {
+		Inflater inflater = new Inflater();
+		byte[] raw = new byte[rawLength];
+		try {
+			inflater.setInput(data);
+			int size = 0;
+			while (size < rawLength && !inflater.finished()) {
+				int count = inflater.inflate(raw, size, rawLength - size);
+				if (count == 0 && inflater.needsInput()) {
+					break;
+				}
+				size += count;
+			}
+			if (size != rawLength || !inflater.finished()) {
+				throw new IOException("Compressed sector inflated to "
+						+ size + " bytes, expected " + rawLength);
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt compressed sector: "
+					+ e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		Packet4Sector p = new Packet4Sector();
+		p.readData(new PacketInputStream(ByteBuffer.wrap(raw), format));
+		return p;
+	}
+
+	@Override
+	public final void writeData(final PacketOutputStream pOut)
+			throws IOException {
+		pOut.writeInt(rawLength);
+		pOut.writeByteArray(data);
+	}
+
+	@Override
+	public final void readData(final PacketInputStream pIn)
+			throws IOException {
+		format = pIn.getWireFormat();
+		rawLength = pIn.readInt();
+		if (rawLength < 0) {
+			throw new IOException("Invalid sector length: " + rawLength);
+		}
+		data = pIn.readByteArray();
+	}
+
+	@Override
+	public final int getLength() {
+		return 2 * SizeOf.INT + data.length;
+	}
+
+	@Override
+	public final boolean isBulk() {
+		return true;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
+}
@@ -0,0 +1,63 @@
+package com.pi.common.net.packet;
+
+import java.io.IOException;
+
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
+import com.pi.common.net.PacketInputStream;
+import com.pi.common.net.PacketOutputStream;
+import com.pi.common.net.WireFormat;
+
+/**
+ * A packet that marks the last packet a side of the connection sends in its
+ * current wire format. Every packet sent after it uses the given format, and
+ * the receiving data worker switches formats as soon as it has read it.
+ * <p>
+ * The server sends this after a login that advertised
+ * {@link com.pi.common.constants.NetworkConstants#FEATURE_WIRE_V2}, and the
+ * client answers with its own once it has switched.
+ * 
+ * @author Westin
+ * 
+ */
+public class Packet29WireFormat extends Packet {
+	public WireFormat format;
+
+	/**
+	 * Creates a wire format packet for the given format.
+	 * 
+	 * @param sFormat the format the following packets are sent in
+	 * @return the packet instance
+	 */
+	public static Packet29WireFormat create(final WireFormat sFormat) {
+		Packet29WireFormat pack = new Packet29WireFormat();
+		pack.format = sFormat;
+		return pack;
+	}
+
+	@Override
+	public final void writeData(final PacketOutputStream pOut)
+			throws IOException {
+		pOut.writeByte(format.ordinal());
+	}
+
+	@Override
+	public final void readData(final PacketInputStream pIn)
+			throws IOException {
+		int fI = pIn.readByte();
+		if (fI < 0 || fI >= WireFormat.values().length) {
+			throw new IOException("Unknown wire format: " + fI);
+		}
+		format = WireFormat.values()[fI];
+	}
+
+	@Override
+	public final int getLength() {
+		return SizeOf.BYTE;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
+}
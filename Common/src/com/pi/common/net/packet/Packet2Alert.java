@@ -2,6 +2,7 @@ package com.pi.common.net.packet;
 
 import java.io.IOException;
 
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -47,4 +48,9 @@ public class Packet2Alert extends Packet {
 	public final boolean requiresHandshake() {
 		return true;
 	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
@@ -0,0 +1,147 @@
+package com.pi.common.net.packet;
+
+import java.io.IOException;
+
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.constants.SectorConstants;
+import com.pi.common.database.world.Sector;
+import com.pi.common.database.world.Tile;
+import com.pi.common.net.NetHandler;
+import com.pi.common.net.PacketInputStream;
+import com.pi.common.net.PacketOutputStream;
+
+/**
+ * A packet sent by the server in place of a {@link Packet4Sector} to a client
+ * whose cached sector is only a few revisions old. It holds every tile that
+ * changed between the client's revision and the current revision, so the
+ * client can bring its cached copy up to date without the rest of the sector.
+ * 
+ * @author Westin
+ * 
+ */
+public class Packet30SectorPatch extends Packet {
+	public int baseX;
+	public int plane;
+	public int baseZ;
+	/**
+	 * The revision this patch is applied to.
+	 */
+	public int fromRevision;
+	/**
+	 * The revision the sector is at once patched.
+	 */
+	public int revision;
+	/**
+	 * The local index of each changed tile, as
+	 * <code>x * SECTOR_HEIGHT + z</code>.
+	 */
+	public int[] indices;
+	/**
+	 * The new tile at each index.
+	 */
+	public Tile[] tiles;
+
+	/**
+	 * Creates a patch that brings a sector from the given revision to the
+	 * sector's current revision, by replacing the tiles at the given indices.
+	 * 
+	 * @param sector the sector at its current revision
+	 * @param sFromRevision the revision the patch is applied to
+	 * @param sIndices the local indices of the changed tiles
+	 * @return the patch packet
+	 */
+	public static Packet30SectorPatch create(final Sector sector,
+			final int sFromRevision, final int[] sIndices) {
+		Packet30SectorPatch p = new Packet30SectorPatch();
+		p.baseX = sector.getSectorX();
+		p.plane = sector.getPlane();
+		p.baseZ = sector.getSectorZ();
+		p.fromRevision = sFromRevision;
+		p.revision = sector.getRevision();
+		p.indices = sIndices;
+		p.tiles = new Tile[sIndices.length];
+		for (int i = 0; i < sIndices.length; i++) {
+			p.tiles[i] =
+					sector.getLocalTile(sIndices[i]
+							/ SectorConstants.SECTOR_HEIGHT, sIndices[i]
+							% SectorConstants.SECTOR_HEIGHT);
+		}
+		return p;
+	}
+
+	/**
+	 * Replaces the changed tiles in the given sector and sets it to the
+	 * patched revision. The sector should be at {@link #fromRevision}.
+	 * 
+	 * @param sector the sector to patch
+	 */
+	public final void apply(final Sector sector) {
+		for (int i = 0; i < indices.length; i++) {
+			sector.setLocalTile(indices[i] / SectorConstants.SECTOR_HEIGHT,
+					indices[i] % SectorConstants.SECTOR_HEIGHT, tiles[i]);
+		}
+		sector.setRevision(revision);
+	}
+
+	@Override
+	public final void writeData(final PacketOutputStream pOut)
+			throws IOException {
+		pOut.writeVarInt(baseX);
+		pOut.writeVarInt(plane);
+		pOut.writeVarInt(baseZ);
+		pOut.writeVarInt(fromRevision);
+		pOut.writeVarInt(revision);
+		pOut.writeShort(indices.length);
+		for (int i = 0; i < indices.length; i++) {
+			pOut.writeShort(indices[i]);
+			tiles[i].writeData(pOut);
+		}
+	}
+
+	@Override
+	public final void readData(final PacketInputStream pIn)
+			throws IOException {
+		baseX = pIn.readVarInt();
+		plane = pIn.readVarInt();
+		baseZ = pIn.readVarInt();
+		fromRevision = pIn.readVarInt();
+		revision = pIn.readVarInt();
+		int tileCount =
+				SectorConstants.SECTOR_WIDTH
+						* SectorConstants.SECTOR_HEIGHT;
+		int count = pIn.readShort() & 0xFFFF;
+		if (count > tileCount) {
+			throw new IOException("Invalid sector patch size: " + count);
+		}
+		indices = new int[count];
+		tiles = new Tile[count];
+		for (int i = 0; i < count; i++) {
+			indices[i] = pIn.readShort() & 0xFFFF;
+			if (indices[i] >= tileCount) {
+				throw new IOException("Invalid sector patch tile: "
+						+ indices[i]);
+			}
+			tiles[i] = new Tile();
+			tiles[i].readData(pIn);
+		}
+	}
+
+	@Override
+	public final int getLength() {
+		int size = 5 * SizeOf.INT + SizeOf.SHORT;
+		for (int i = 0; i < indices.length; i++) {
+			size += SizeOf.SHORT + tiles[i].getLength();
+		}
+		return size;
+	}
+
+	@Override
+	public final boolean isBulk() {
+		return true;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
+}
@@ -0,0 +1,42 @@
+package com.pi.common.net.packet;
+
+import java.io.IOException;
+
+import com.pi.common.net.NetHandler;
+import com.pi.common.net.PacketInputStream;
+import com.pi.common.net.PacketOutputStream;
+
+/**
+ * A packet that carries one piece of a bulk packet sent in the bulk lane. Its
+ * body is the ordinal of the wire format the bulk packet was encoded in, the
+ * total length of the bulk packet, and the next piece of its data. The chunks
+ * of one bulk packet are always sent one after another.
+ * <p>
+ * Chunks are built by the network client's send path rather than through this
+ * class, and are reassembled by the data worker, so this class only reserves
+ * the packet ID and never reaches a net handler.
+ * 
+ * @author Westin
+ * 
+ */
+public class Packet31Chunk extends Packet {
+	@Override
+	public final void writeData(final PacketOutputStream pOut)
+			throws IOException {
+	}
+
+	@Override
+	public final int getLength() {
+		return 0;
+	}
+
+	@Override
+	public final void readData(final PacketInputStream pIn)
+			throws IOException {
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
+}
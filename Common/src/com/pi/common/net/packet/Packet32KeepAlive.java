@@ -0,0 +1,56 @@
+package com.pi.common.net.packet;
+
+import java.io.IOException;
+
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
+import com.pi.common.net.PacketInputStream;
+import com.pi.common.net.PacketOutputStream;
+
+/**
+ * A packet the server sends to a client it hasn't heard from in a while, which
+ * the client sends straight back so the server knows the connection is still
+ * alive.
+ * 
+ * @author Westin
+ * 
+ */
+public class Packet32KeepAlive extends Packet {
+	/**
+	 * The server time the probe was sent at.
+	 */
+	public long serverSendTime;
+
+	/**
+	 * Creates a keep alive probe sent at the current time.
+	 * 
+	 * @return the packet instance
+	 */
+	public static Packet32KeepAlive create() {
+		Packet32KeepAlive pack = new Packet32KeepAlive();
+		pack.serverSendTime = System.currentTimeMillis();
+		return pack;
+	}
+
+	@Override
+	public final void writeData(final PacketOutputStream pOut)
+			throws IOException {
+		pOut.writeLong(serverSendTime);
+	}
+
+	@Override
+	public final void readData(final PacketInputStream pIn)
+			throws IOException {
+		serverSendTime = pIn.readLong();
+	}
+
+	@Override
+	public final int getLength() {
+		return SizeOf.LONG;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
+}
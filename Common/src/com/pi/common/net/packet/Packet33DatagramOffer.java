@@ -0,0 +1,68 @@
+package com.pi.common.net.packet;
+
+import java.io.IOException;
+
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
+import com.pi.common.net.PacketInputStream;
+import com.pi.common.net.PacketOutputStream;
+
+/**
+ * A packet the server sends to a client that supports datagrams after it logs
+ * in, offering a datagram channel for unreliable packets. The client opens the
+ * channel by sending hellos carrying the token to the given port, and until it
+ * does every packet keeps being sent over TCP.
+ * 
+ * @see com.pi.common.net.DatagramFrame
+ * @author Westin
+ * 
+ */
+public class Packet33DatagramOffer extends Packet {
+	/**
+	 * The token binding the datagram channel to this connection.
+	 */
+	public long token;
+	/**
+	 * The server's datagram port.
+	 */
+	public int port;
+
+	/**
+	 * Creates a datagram offer with the given token and port.
+	 * 
+	 * @param sToken the session token
+	 * @param sPort the server's datagram port
+	 * @return the packet instance
+	 */
+	public static Packet33DatagramOffer create(final long sToken,
+			final int sPort) {
+		Packet33DatagramOffer pack = new Packet33DatagramOffer();
+		pack.token = sToken;
+		pack.port = sPort;
+		return pack;
+	}
+
+	@Override
+	public final void writeData(final PacketOutputStream pOut)
+			throws IOException {
+		pOut.writeLong(token);
+		pOut.writeVarInt(port);
+	}
+
+	@Override
+	public final void readData(final PacketInputStream pIn)
+			throws IOException {
+		token = pIn.readLong();
+		port = pIn.readVarInt();
+	}
+
+	@Override
+	public final int getLength() {
+		return SizeOf.LONG + SizeOf.INT;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
+}
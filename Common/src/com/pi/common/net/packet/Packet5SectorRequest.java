@@ -3,6 +3,7 @@ package com.pi.common.net.packet;
 import java.io.IOException;
 
 import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -22,23 +23,28 @@ public class Packet5SectorRequest extends Packet {
 	@Override
 	public final void writeData(final PacketOutputStream dOut)
 			throws IOException {
-		dOut.writeInt(baseX);
-		dOut.writeInt(plane);
-		dOut.writeInt(baseZ);
-		dOut.writeInt(revision);
+		dOut.writeVarInt(baseX);
+		dOut.writeVarInt(plane);
+		dOut.writeVarInt(baseZ);
+		dOut.writeVarInt(revision);
 	}
 
 	@Override
 	public final void readData(final PacketInputStream dIn)
 			throws IOException {
-		baseX = dIn.readInt();
-		plane = dIn.readInt();
-		baseZ = dIn.readInt();
-		revision = dIn.readInt();
+		baseX = dIn.readVarInt();
+		plane = dIn.readVarInt();
+		baseZ = dIn.readVarInt();
+		revision = dIn.readVarInt();
 	}
 
 	@Override
 	public final int getLength() {
 		return SizeOf.INT * 4;
 	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
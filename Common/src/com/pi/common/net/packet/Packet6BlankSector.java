@@ -3,6 +3,7 @@ package com.pi.common.net.packet;
 import java.io.IOException;
 
 import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -21,21 +22,26 @@ public class Packet6BlankSector extends Packet {
 	@Override
 	public final void writeData(final PacketOutputStream dOut)
 			throws IOException {
-		dOut.writeInt(baseX);
-		dOut.writeInt(plane);
-		dOut.writeInt(baseZ);
+		dOut.writeVarInt(baseX);
+		dOut.writeVarInt(plane);
+		dOut.writeVarInt(baseZ);
 	}
 
 	@Override
 	public final void readData(final PacketInputStream dIn)
 			throws IOException {
-		baseX = dIn.readInt();
-		plane = dIn.readInt();
-		baseZ = dIn.readInt();
+		baseX = dIn.readVarInt();
+		plane = dIn.readVarInt();
+		baseZ = dIn.readVarInt();
 	}
 
 	@Override
 	public final int getLength() {
 		return SizeOf.INT * 3;
 	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
@@ -6,6 +6,7 @@ import com.pi.common.constants.NetworkConstants.SizeOf;
 import com.pi.common.database.Location;
 import com.pi.common.database.world.TileLayer;
 import com.pi.common.game.entity.Entity;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 
@@ -43,20 +44,20 @@ public class Packet7EntityTeleport extends Packet {
 		if (moved == null) {
 			moved = new Location();
 		}
-		pOut.writeInt(entityID);
+		pOut.writeVarInt(entityID);
 		moved.writeData(pOut);
-		pOut.writeInt(entityLayer.ordinal());
+		pOut.writeEnum(entityLayer.ordinal());
 	}
 
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		entityID = pIn.readInt();
+		entityID = pIn.readVarInt();
 		if (moved == null) {
 			moved = new Location();
 		}
 		moved.readData(pIn);
-		int eLI = pIn.readInt();
+		int eLI = pIn.readEnum();
 		if (eLI >= 0 && eLI < TileLayer.MAX_VALUE.ordinal()) {
 			entityLayer = TileLayer.values()[eLI];
 		} else {
@@ -71,4 +72,14 @@ public class Packet7EntityTeleport extends Packet {
 		}
 		return (SizeOf.INT * 2) + moved.getLength();
 	}
+
+	@Override
+	public final int getStateKey() {
+		return entityID;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
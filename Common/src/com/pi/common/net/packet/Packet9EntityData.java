@@ -8,6 +8,7 @@ import com.pi.common.database.world.TileLayer;
 import com.pi.common.game.entity.Entity;
 import com.pi.common.game.entity.comp.EntityComponent;
 import com.pi.common.game.entity.comp.EntityComponentManager;
+import com.pi.common.net.NetHandler;
 import com.pi.common.net.PacketInputStream;
 import com.pi.common.net.PacketOutputStream;
 import com.pi.common.util.ObjectHeap;
@@ -32,14 +33,14 @@ public class Packet9EntityData extends Packet {
 	@Override
 	public final void writeData(final PacketOutputStream pOut)
 			throws IOException {
-		pOut.writeInt(entID);
+		pOut.writeVarInt(entID);
 		if (loc == null) {
 			loc = new Location();
 		}
 
 		loc.writeData(pOut);
-		pOut.writeInt(layer.ordinal());
-		pOut.writeInt(defID);
+		pOut.writeEnum(layer.ordinal());
+		pOut.writeVarInt(defID);
 
 		EntityComponent comp;
 		for (int i = 0; i < EntityComponentManager.getInstance()
@@ -57,19 +58,19 @@ public class Packet9EntityData extends Packet {
 	@Override
 	public final void readData(final PacketInputStream pIn)
 			throws IOException {
-		entID = pIn.readInt();
+		entID = pIn.readVarInt();
 		if (loc == null) {
 			loc = new Location();
 		}
 
 		loc.readData(pIn);
-		int lI = pIn.readInt();
+		int lI = pIn.readEnum();
 		if (lI >= 0 && lI < TileLayer.MAX_VALUE.ordinal()) {
 			layer = TileLayer.values()[lI];
 		} else {
 			layer = TileLayer.MASK1;
 		}
-		defID = pIn.readInt();
+		defID = pIn.readVarInt();
 
 		for (int i = 0; i < EntityComponentManager.getInstance()
 				.getPairCount(); i++) {
@@ -125,4 +126,14 @@ public class Packet9EntityData extends Packet {
 		}
 		return size;
 	}
+
+	@Override
+	public final int getStateKey() {
+		return entID;
+	}
+
+	@Override
+	public final void dispatch(final NetHandler handler) {
+		handler.process(this);
+	}
 }
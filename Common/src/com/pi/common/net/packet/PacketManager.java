@@ -55,6 +55,14 @@ public final class PacketManager {
 		INSTANCE.registerPair(Packet23ItemDef.class);
 		INSTANCE.registerPair(Packet24InventoryData.class);
 		INSTANCE.registerPair(Packet25InventoryUpdate.class);
+		INSTANCE.registerPair(Packet26Batch.class);
+		INSTANCE.registerPair(Packet27EntityDelta.class);
+		INSTANCE.registerPair(Packet28CompressedSector.class);
+		INSTANCE.registerPair(Packet29WireFormat.class);
+		INSTANCE.registerPair(Packet30SectorPatch.class);
+		INSTANCE.registerPair(Packet31Chunk.class);
+		INSTANCE.registerPair(Packet32KeepAlive.class);
+		INSTANCE.registerPair(Packet33DatagramOffer.class);
 		INSTANCE.trimMaps();
 	}
 
@@ -22,7 +22,8 @@ public interface PacketObject {
 	void writeData(PacketOutputStream pOut) throws IOException;
 
 	/**
-	 * Gets the byte length of the data written by this packet.
+	 * Gets the byte length of the data written by this packet in the
+	 * {@link com.pi.common.net.WireFormat#V1} format.
 	 * 
 	 * @return the byte length
 	 */
@@ -0,0 +1,174 @@
+package com.pi.common.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of non-negative values with power of two buckets.
+ * <p>
+ * Bucket zero counts the value zero, and bucket <code>i</code> counts the
+ * values from <code>2^(i-1)</code> up to <code>2^i - 1</code>. Values larger
+ * than the last bucket are counted in the last bucket.
+ * 
+ * @author Westin
+ * 
+ */
+public class Histogram {
+	/**
+	 * The number of values recorded in each bucket.
+	 */
+	private final AtomicLongArray buckets;
+	/**
+	 * The number of values recorded.
+	 */
+	private final AtomicLong count = new AtomicLong();
+	/**
+	 * The sum of the values recorded.
+	 */
+	private final AtomicLong total = new AtomicLong();
+	/**
+	 * The largest value recorded.
+	 */
+	private volatile long max = 0;
+
+	/**
+	 * Creates a histogram with the given number of buckets.
+	 * 
+	 * @param bucketCount the number of buckets
+	 */
+	public Histogram(final int bucketCount) {
+		this.buckets = new AtomicLongArray(bucketCount);
+	}
+
+	/**
+	 * Records a value in this histogram.
+	 * 
+	 * @param value the value to record
+	 */
+	public final void record(final long value) {
+		int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, value));
+		buckets.incrementAndGet(Math.min(bucket, buckets.length() - 1));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/**
+	 * Gets the number of buckets in this histogram.
+	 * 
+	 * @return the bucket count
+	 */
+	public final int getBucketCount() {
+		return buckets.length();
+	}
+
+	/**
+	 * Gets the number of values recorded in the given bucket.
+	 * 
+	 * @param bucket the bucket index
+	 * @return the number of values
+	 */
+	public final long getBucket(final int bucket) {
+		return buckets.get(bucket);
+	}
+
+	/**
+	 * Gets the smallest value counted by the given bucket.
+	 * 
+	 * @param bucket the bucket index
+	 * @return the lower bound
+	 */
+	public final long getLowerBound(final int bucket) {
+		if (bucket == 0) {
+			return 0;
+		}
+		return 1L << (bucket - 1);
+	}
+
+	/**
+	 * Gets the largest value counted by the given bucket, or
+	 * {@link Long#MAX_VALUE} for the last bucket.
+	 * 
+	 * @param bucket the bucket index
+	 * @return the upper bound
+	 */
+	public final long getUpperBound(final int bucket) {
+		if (bucket >= buckets.length() - 1) {
+			return Long.MAX_VALUE;
+		}
+		return (1L << bucket) - 1;
+	}
+
+	/**
+	 * Gets the number of values recorded in this histogram.
+	 * 
+	 * @return the value count
+	 */
+	public final long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets the average value recorded, or <code>0</code> if no values have
+	 * been recorded.
+	 * 
+	 * @return the mean
+	 */
+	public final double getMean() {
+		long c = count.get();
+		if (c == 0) {
+			return 0;
+		}
+		return total.get() / (double) c;
+	}
+
+	/**
+	 * Gets the largest value recorded.
+	 * 
+	 * @return the maximum
+	 */
+	public final long getMax() {
+		return max;
+	}
+
+	/**
+	 * Gets an estimate of the given percentile of the values recorded, as the
+	 * upper bound of the bucket the percentile falls in. As the buckets double
+	 * in size the estimate is within a factor of two of the real value, and it
+	 * is never more than the maximum.
+	 * 
+	 * @param percentile the percentile, from <code>0</code> to
+	 *            <code>100</code>
+	 * @return the estimated percentile, or <code>0</code> if no values have
+	 *         been recorded
+	 */
+	public final long getPercentile(final double percentile) {
+		long c = count.get();
+		if (c == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(c * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(getUpperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Clears all the values recorded in this histogram.
+	 */
+	public final void reset() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max = 0;
+	}
+}
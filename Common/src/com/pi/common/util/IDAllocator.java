@@ -31,7 +31,7 @@ public class IDAllocator {
 	 * @see #availablecurrentIDs
 	 * @return the first available currentID
 	 */
-	public final int checkOut() {
+	public final synchronized int checkOut() {
 		if (availableIDs.size() > 0) {
 			return availableIDs.poll();
 		}
@@ -49,7 +49,7 @@ public class IDAllocator {
 	 * @see currentID
 	 * @param id the currentID number to check in
 	 */
-	public final void checkIn(final int id) {
+	public final synchronized void checkIn(final int id) {
 		if (id == currentID - 1) {
 			currentID--;
 		} else {
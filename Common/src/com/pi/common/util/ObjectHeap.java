@@ -165,6 +165,24 @@ public class ObjectHeap<E> implements Iterable<E> {
 		return oldValue;
 	}
 
+	/**
+	 * Removes the element data at the specified index, if it is the given
+	 * element.
+	 * 
+	 * @param index the global index
+	 * @param element the element expected at the index
+	 * @return <code>true</code> if the element was removed, <code>false</code>
+	 *         if a different element, or none, is at the index
+	 */
+	public final synchronized boolean remove(final int index,
+			final E element) {
+		if (element == null || elementData(index) != element) {
+			return false;
+		}
+		remove(index);
+		return true;
+	}
+
 	/**
 	 * The number of set elements in the heap.
 	 * 
@@ -0,0 +1,68 @@
+package com.pi.common.world;
+
+/**
+ * An interface specifying the counters of a sector manager that keeps its
+ * loaded sectors within a memory budget.
+ * 
+ * @author Westin
+ * 
+ */
+public interface SectorCacheMetrics {
+	/**
+	 * Gets the number of sector requests that have been made.
+	 * 
+	 * @return the request count
+	 */
+	long getRequestCount();
+
+	/**
+	 * Gets the number of sector requests that found the sector loaded.
+	 * 
+	 * @return the hit count
+	 */
+	long getHitCount();
+
+	/**
+	 * Gets the number of sectors that have been loaded from the disk.
+	 * 
+	 * @return the load count
+	 */
+	long getLoadCount();
+
+	/**
+	 * Gets the number of sectors that have been evicted.
+	 * 
+	 * @return the eviction count
+	 */
+	long getEvictionCount();
+
+	/**
+	 * Gets the number of changed sectors that have been written back to the
+	 * disk.
+	 * 
+	 * @return the write back count
+	 */
+	long getWriteBackCount();
+
+	/**
+	 * Gets the number of loaded sectors with changes that haven't been written
+	 * back.
+	 * 
+	 * @return the dirty sector count
+	 */
+	int getDirtyCount();
+
+	/**
+	 * Gets the estimated number of bytes used by the loaded sectors.
+	 * 
+	 * @return the resident bytes
+	 */
+	long getResidentBytes();
+
+	/**
+	 * Gets the number of bytes the loaded sectors are kept within.
+	 * 
+	 * @return the budget in bytes
+	 */
+	long getBudget();
+}
@@ -64,25 +64,31 @@ public interface SectorManager {
 		 */
 		private long lastUsed;
 		/**
-		 * The wrapped sector data.
+		 * The wrapped sector data, which can be read without the sector
+		 * manager's lock once it's set.
 		 */
-		private Sector data;
+		private volatile Sector data;
 		/**
 		 * If this sector is loaded, but empty.
 		 */
-		private boolean empty;
+		private volatile boolean empty;
 		/**
 		 * If last time that this sector was requested.
 		 */
 		private long requested = 0;
 
 		/**
-		 * Gets the sector instance stored, and updates the last used time.
+		 * Gets the sector instance stored, and updates the last used time. The
+		 * time is only written when it changes, so threads reading the same
+		 * sector don't keep writing to it.
 		 * 
 		 * @return the stored sector, or <code>null</code> if empty
 		 */
 		public final Sector getSector() {
-			lastUsed = System.currentTimeMillis();
+			long now = System.currentTimeMillis();
+			if (lastUsed != now) {
+				lastUsed = now;
+			}
 			return data;
 		}
 
@@ -7,6 +7,8 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.List;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
@@ -16,7 +18,10 @@ import com.pi.common.constants.TileConstants;
 import com.pi.common.constants.TileFlags;
 import com.pi.common.database.io.DatabaseIO;
 import com.pi.common.database.io.GraphicsDirectories;
+import com.pi.common.database.io.RegionSectorStore;
+import com.pi.common.database.io.SectorStore;
 import com.pi.common.database.world.Sector;
+import com.pi.common.database.world.SectorLocation;
 import com.pi.common.database.world.Tile;
 import com.pi.common.database.world.TileGraphicsObject;
 import com.pi.common.database.world.TileLayer;
@@ -342,6 +347,36 @@ public class MapEditorObject extends PIContainer implements
 		}
 	}
 
+	/**
+	 * Asks which of the sectors in the region files of the given directory to
+	 * edit, and loads it.
+	 * 
+	 * @param directory the directory holding the region files
+	 * @throws IOException if the sector can't be read
+	 */
+	private void loadFromRegion(final File directory) throws IOException {
+		SectorStore store = new RegionSectorStore(directory);
+		try {
+			List<SectorLocation> locations = store.getLocations();
+			if (locations.isEmpty()) {
+				JOptionPane.showMessageDialog(null,
+						"There are no sectors in " + directory);
+				return;
+			}
+			SectorLocation l =
+					(SectorLocation) JOptionPane.showInputDialog(null,
+							"Sector", "Load Sector",
+							JOptionPane.PLAIN_MESSAGE, null,
+							locations.toArray(), locations.get(0));
+			if (l != null) {
+				viewer.setSector(store.read(l.getSectorX(),
+						l.getPlane(), l.getSectorZ()));
+			}
+		} finally {
+			store.close();
+		}
+	}
+
 	public int tileX, tileY, dragTileX, dragTileY;
 	public int tileAX = -1, tileAY, dragTileAX, dragTileAY;
 	private boolean mouseDown = false;
@@ -366,8 +401,18 @@ public class MapEditorObject extends PIContainer implements
 					File file = fc.getSelectedFile();
 					lastDirectory = new File(file.getParent());
 					try {
-						DatabaseIO.write(file,
-								viewer.getSector());
+						if (file.getName().endsWith(".region")) {
+							SectorStore store =
+									new RegionSectorStore(lastDirectory);
+							try {
+								store.write(viewer.getSector());
+							} finally {
+								store.close();
+							}
+						} else {
+							DatabaseIO.write(file,
+									viewer.getSector());
+						}
 					} catch (Exception ex) {
 						JOptionPane.showMessageDialog(null,
 								ex.toString());
@@ -387,8 +432,12 @@ public class MapEditorObject extends PIContainer implements
 					File file = fc.getSelectedFile();
 					lastDirectory = new File(file.getParent());
 					try {
-						viewer.setSector((Sector) DatabaseIO
-								.read(file, new Sector()));
+						if (file.getName().endsWith(".region")) {
+							loadFromRegion(lastDirectory);
+						} else {
+							viewer.setSector((Sector) DatabaseIO
+									.read(file, new Sector()));
+						}
 					} catch (Exception ex) {
 						JOptionPane.showMessageDialog(null,
 								ex.toString());
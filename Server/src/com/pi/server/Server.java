@@ -2,8 +2,10 @@ package com.pi.server;
 
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.IOException;
 import java.net.BindException;
 
+import javax.management.JMException;
 import javax.swing.JFrame;
 
 import com.pi.common.database.Location;
@@ -13,12 +15,18 @@ import com.pi.common.debug.PIResourceViewer;
 import com.pi.common.debug.SectorMonitorPanel;
 import com.pi.common.debug.ThreadMonitorPanel;
 import com.pi.common.game.entity.comp.ItemLinkageComponent;
+import com.pi.common.net.NetClient;
+import com.pi.common.net.PacketMetrics;
 import com.pi.server.client.ClientManager;
 import com.pi.server.constants.ServerConstants;
 import com.pi.server.database.Paths;
 import com.pi.server.database.ServerDatabase;
 import com.pi.server.debug.ClientMonitorPanel;
 import com.pi.server.debug.EntityMonitorPanel;
+import com.pi.server.debug.HistogramMonitorPanel;
+import com.pi.server.debug.PacketMonitorPanel;
+import com.pi.server.debug.ReactorMonitorPanel;
+import com.pi.server.debug.WorkerMonitorPanel;
 import com.pi.server.def.Definitions;
 import com.pi.server.entity.ServerEntityManager;
 import com.pi.server.logic.ServerLogic;
@@ -83,6 +91,21 @@ public class Server {
 	 * systems from being disposed twice.
 	 */
 	private boolean disposing = false;
+	/**
+	 * The lock held by packet handlers that change the world or an account,
+	 * as clients are handled on several workers at once.
+	 */
+	private final Object worldLock = new Object();
+
+	/**
+	 * Gets the lock that packet handlers changing the world or an account
+	 * hold, so that the handlers for different clients don't interleave.
+	 * 
+	 * @return the world lock
+	 */
+	public final Object getWorldLock() {
+		return worldLock;
+	}
 
 	/**
 	 * Gets the server's network model instance.
@@ -151,9 +174,24 @@ public class Server {
 							ServerConstants.NETWORK_PORT);
 			rcView.addTab("Network Clients",
 					new ClientMonitorPanel(clientManager));
+			rcView.addTab("Network Reactors",
+					new ReactorMonitorPanel(network));
+			rcView.addTab("Network Workers", new WorkerMonitorPanel(
+					network.getWorker()));
+			rcView.addTab("Batch Packets", new HistogramMonitorPanel(
+					NetClient.getBatchPacketHistogram()));
+			rcView.addTab("Batch Bytes", new HistogramMonitorPanel(
+					NetClient.getBatchByteHistogram()));
+			rcView.addTab("Packets", new PacketMonitorPanel(
+					PacketMetrics.getInstance()));
+			try {
+				PacketMetrics.getInstance().registerMBean();
+			} catch (JMException e) {
+				log.printStackTrace(e);
+			}
 			world = new SectorManager(this);
 			rcView.addTab("Sectors", new SectorMonitorPanel(
-					world));
+					world, world));
 			defs = new Definitions(this);
 
 			sLogic = new ServerLogic(this);
@@ -167,6 +205,9 @@ public class Server {
 
 		} catch (BindException e1) {
 			dispose();
+		} catch (IOException e) {
+			log.printStackTrace(e);
+			dispose();
 		}
 	}
 
@@ -1,11 +1,13 @@
 package com.pi.server.client;
 
+import com.pi.common.constants.NetworkConstants;
 import com.pi.common.database.Account;
 import com.pi.common.game.entity.Entity;
 import com.pi.common.net.packet.Packet11LocalEntityID;
 import com.pi.common.net.packet.Packet24InventoryData;
 import com.pi.server.Server;
 import com.pi.server.constants.ServerConstants;
+import com.pi.server.entity.EntityReplicator;
 import com.pi.server.net.NetServerClient;
 
 /**
@@ -36,6 +38,14 @@ public class Client {
 	 * The client identification number that this client has.
 	 */
 	private final int clientID;
+	/**
+	 * The entity state this client has been sent.
+	 */
+	private final EntityReplicator replicator = new EntityReplicator();
+	/**
+	 * The optional protocol features negotiated with this client at login.
+	 */
+	private volatile int features = 0;
 
 	/**
 	 * Creates a client instance with the given server and network model.
@@ -82,10 +92,12 @@ public class Client {
 	 */
 	public final void dispose() {
 		String desc = this.toString();
-		if (entity != null) {
-			acc.setLocation(entity.x, entity.plane, entity.z);
-			server.getEntityManager().sendEntityDispose(
-					entity.getEntityID());
+		synchronized (server.getWorldLock()) {
+			if (entity != null) {
+				acc.setLocation(entity.x, entity.plane, entity.z);
+				server.getEntityManager().sendEntityDispose(
+						entity.getEntityID());
+			}
 		}
 		if (network != null) {
 			network.dispose();
@@ -121,6 +133,36 @@ public class Client {
 		return acc;
 	}
 
+	/**
+	 * Gets the entity replicator that tracks the entity state this client has
+	 * been sent.
+	 * 
+	 * @return the entity replicator
+	 */
+	public final EntityReplicator getReplicator() {
+		return replicator;
+	}
+
+	/**
+	 * Sets the optional protocol features this client advertised at login,
+	 * keeping only the ones this server supports.
+	 * 
+	 * @param advertised the features the client advertised
+	 */
+	public final void setFeatures(final int advertised) {
+		this.features = advertised & NetworkConstants.SUPPORTED_FEATURES;
+	}
+
+	/**
+	 * Checks if the given protocol feature was negotiated with this client.
+	 * 
+	 * @param feature the feature flag
+	 * @return <code>true</code> if both sides support the feature
+	 */
+	public final boolean hasFeature(final int feature) {
+		return (features & feature) == feature;
+	}
+
 	/**
 	 * Gets the network model bound to this client.
 	 * 
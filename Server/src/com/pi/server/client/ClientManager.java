@@ -1,5 +1,6 @@
 package com.pi.server.client;
 
+import com.pi.common.database.Account;
 import com.pi.common.util.IDAllocator;
 import com.pi.common.util.ObjectHeap;
 import com.pi.server.constants.ServerConstants;
@@ -53,6 +54,23 @@ public class ClientManager {
 		return null;
 	}
 
+	/**
+	 * Gets the client that is logged in to the given account, or
+	 * <code>null</code> if there isn't one.
+	 * 
+	 * @param account
+	 *            the account
+	 * @return the client instance
+	 */
+	public final Client getClientByAccount(final Account account) {
+		for (Client c : clientMap) {
+			if (c.getAccount() == account) {
+				return c;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Disposes the client linked to the given identification number and removes
 	 * the client from the mapping.
@@ -79,34 +97,6 @@ public class ClientManager {
 		disposeClient(client.getID());
 	}
 
-	/**
-	 * Disposes all clients that don't have a connected network model.
-	 */
-	public final void removeDeadClients() {
-		for (int i = 0; i < ServerConstants.MAX_CLIENTS; i++) {
-			Client c = clientMap.get(i);
-			if (c != null
-					&& (c.getNetClient() == null || !c.getNetClient()
-							.isConnected())) {
-				disposeClient(c);
-			}
-		}
-	}
-
-	/**
-	 * Updates the handshake confirmation packets of all connected clients.
-	 */
-	public final void updateHandshakes() {
-		for (int i = 0; i < ServerConstants.MAX_CLIENTS; i++) {
-			Client c = clientMap.get(i);
-			if (c != null
-					&& (c.getNetClient() == null || !c.getNetClient()
-							.isConnected())) {
-				c.getNetClient().checkHandshakes();
-			}
-		}
-	}
-
 	/**
 	 * Registers the client to this manager, returning the identification number
 	 * it was registered to, or <code>-1</code> if there wasn't an available
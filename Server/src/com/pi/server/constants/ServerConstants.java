@@ -30,6 +30,151 @@ public final class ServerConstants {
 	 * The network port this server operates on.
 	 */
 	public static final int NETWORK_PORT = 9999;
+	/**
+	 * The number of selector reactors that accepted connections are balanced
+	 * across. If this is zero, the acceptor thread does all the network reading
+	 * and writing itself. Reactors only raise throughput when there are cores
+	 * for them to run on; on a single core every count performs about the same.
+	 */
+	public static final int NETWORK_REACTOR_COUNT = Runtime.getRuntime()
+			.availableProcessors();
+	/**
+	 * The number of data workers that received packets are handled on. Each
+	 * client is pinned to one worker, so it's packets are still handled in
+	 * order. A value of one handles every packet on a single thread.
+	 */
+	public static final int NETWORK_WORKER_COUNT = Runtime.getRuntime()
+			.availableProcessors();
+	/**
+	 * If small packets sent to a client are collected into batch frames, which
+	 * are flushed once per flush window.
+	 */
+	public static final boolean NETWORK_BATCHING = true;
+	/**
+	 * The time in milliseconds that packets are batched for after the first
+	 * one is sent, before the batch frames are flushed.
+	 */
+	public static final long NETWORK_FLUSH_WINDOW = 5L;
+	/**
+	 * If clients that support it are switched to the compact
+	 * {@link com.pi.common.net.WireFormat#V2} wire format when they log in.
+	 */
+	public static final boolean NETWORK_WIRE_V2 = true;
+	/**
+	 * If bulk packets, such as sectors, are sent in chunks in a separate lane
+	 * to clients that support it, so they don't delay real-time packets.
+	 */
+	public static final boolean NETWORK_BULK_LANE = true;
+	/**
+	 * The number of bytes queued to a client above which it is congested, and
+	 * packets are coalesced or dropped according to their
+	 * {@link com.pi.common.net.SendPolicy}. Zero disables this.
+	 */
+	public static final int NETWORK_SEND_SOFT_LIMIT = 256 * 1024;
+	/**
+	 * The number of bytes queued to a client above which it is overflowing.
+	 * Zero disables this.
+	 */
+	public static final int NETWORK_SEND_HARD_LIMIT = 2 * 1024 * 1024;
+	/**
+	 * The time in milliseconds a client can overflow for before it is
+	 * disconnected.
+	 */
+	public static final long NETWORK_SEND_OVERFLOW_TIME = 10000L;
+	/**
+	 * The time in milliseconds covered by each bucket of the network timer
+	 * wheel, which handshake timeouts are rounded up to.
+	 */
+	public static final long NETWORK_TIMER_TICK = 50L;
+	/**
+	 * The number of buckets in the network timer wheel, rounded up to a power
+	 * of two. Timeouts longer than a full turn of the wheel wait for more than
+	 * one turn.
+	 */
+	public static final int NETWORK_TIMER_WHEEL_SIZE = 256;
+	/**
+	 * The time in milliseconds a client can go without sending anything before
+	 * it is disconnected.
+	 */
+	public static final long NETWORK_IDLE_TIMEOUT = 60000L;
+	/**
+	 * The time in milliseconds a client can go without sending anything before
+	 * it is sent a keep alive probe, if it supports them.
+	 */
+	public static final long NETWORK_KEEPALIVE_TIME = 15000L;
+	/**
+	 * If TCP keep alive is enabled on accepted sockets, so the operating system
+	 * also probes connections that have gone quiet.
+	 */
+	public static final boolean NETWORK_TCP_KEEPALIVE = true;
+	/**
+	 * The time in milliseconds after a logged in client disconnects that the
+	 * account database is saved, so the accounts of clients that disconnect
+	 * around the same time are saved together.
+	 */
+	public static final long ACCOUNT_SAVE_DELAY = 5000L;
+	/**
+	 * If clients that support it are offered a datagram channel for movement
+	 * and facing updates. The channel listens on the same port number as
+	 * {@link #NETWORK_PORT}, over UDP.
+	 */
+	public static final boolean NETWORK_DATAGRAMS = true;
+	/**
+	 * The time in milliseconds between resends of the unacknowledged updates
+	 * on a datagram channel.
+	 */
+	public static final long NETWORK_DATAGRAM_RESEND_TIME = 100L;
+	/**
+	 * The time in milliseconds a datagram channel can go without hearing from
+	 * its client before its updates fall back to TCP. The channel is used
+	 * again once the client is heard from.
+	 */
+	public static final long NETWORK_DATAGRAM_TIMEOUT = 2000L;
+	/**
+	 * If the frames sent and received on each connection are recorded to a
+	 * capture in the captures directory, for replaying later.
+	 */
+	public static final boolean NETWORK_CAPTURE = false;
+	/**
+	 * If a compressed copy of each loaded sector is kept, and sent to clients
+	 * that support compressed sectors.
+	 */
+	public static final boolean SECTOR_COMPRESSION = true;
+	/**
+	 * The {@link java.util.zip.Deflater} level that sector packets are
+	 * compressed with.
+	 */
+	public static final int SECTOR_COMPRESSION_LEVEL = 6;
+	/**
+	 * The number of revisions of each loaded sector that the changed tiles are
+	 * journaled for. Clients further behind than this are sent the whole
+	 * sector instead of a patch.
+	 */
+	public static final int SECTOR_JOURNAL_LENGTH = 32;
+	/**
+	 * The number of threads that read sectors from the disk.
+	 */
+	public static final int SECTOR_LOADER_THREADS = 4;
+	/**
+	 * The time in milliseconds between each sweep that writes changed sectors
+	 * back to the disk and evicts sectors.
+	 */
+	public static final long SECTOR_SWEEP_INTERVAL = 5000;
+	/**
+	 * The estimated number of bytes the loaded sectors are kept within.
+	 */
+	public static final long SECTOR_CACHE_BUDGET = 128L << 20;
+	/**
+	 * The fraction of the budget the loaded sectors are evicted down to once
+	 * they go over it.
+	 */
+	public static final double SECTOR_CACHE_LOW_WATER = 0.875;
+	/**
+	 * If the world's sectors are stored in region files, rather than a file
+	 * for each sector. Existing sector files are converted the first time the
+	 * world is opened with region files.
+	 */
+	public static final boolean SECTOR_REGION_FILES = true;
 
 	/**
 	 * The amount of time in milliseconds for an entity to ignore an entity that
@@ -1,6 +1,5 @@
 package com.pi.server.database;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -31,10 +30,7 @@ public class AccountDatabase implements PacketObject {
 	public AccountDatabase() throws IOException {
 		list = new ArrayList<Account>();
 		if (Paths.getAccountsDatabase().exists()) {
-			readData(new PacketInputStream(
-					DatabaseIO
-							.readByteBuffer(new FileInputStream(
-									Paths.getAccountsDatabase()))));
+			DatabaseIO.read(Paths.getAccountsDatabase(), this);
 		}
 	}
 
@@ -44,7 +40,7 @@ public class AccountDatabase implements PacketObject {
 	 * @param username the username to search for
 	 * @return the account instance, or <code>null</code> if not found
 	 */
-	public final Account getAccount(final String username) {
+	public final synchronized Account getAccount(final String username) {
 		for (Account acc : list) {
 			if (acc.getUsername().equalsIgnoreCase(username)) {
 				return acc;
@@ -62,7 +58,7 @@ public class AccountDatabase implements PacketObject {
 	 * @return <code>true</code> if added, or <code>false</code> if an account
 	 *         with the given username is already registered
 	 */
-	public final boolean addAccount(final String username,
+	public final synchronized boolean addAccount(final String username,
 			final String passwordHash) {
 		if (getAccount(username) != null) {
 			return false;
@@ -75,7 +71,7 @@ public class AccountDatabase implements PacketObject {
 	}
 
 	@Override
-	public final void writeData(final PacketOutputStream pOut)
+	public final synchronized void writeData(final PacketOutputStream pOut)
 			throws IOException {
 		pOut.writeInt(list.size());
 		for (Account a : list) {
@@ -84,7 +80,7 @@ public class AccountDatabase implements PacketObject {
 	}
 
 	@Override
-	public final int getLength() {
+	public final synchronized int getLength() {
 		int len = 4;
 		for (Account a : list) {
 			len += a.getLength();
@@ -93,7 +89,7 @@ public class AccountDatabase implements PacketObject {
 	}
 
 	@Override
-	public final void readData(final PacketInputStream pIn)
+	public final synchronized void readData(final PacketInputStream pIn)
 			throws IOException {
 		list.clear();
 		if (pIn.getByteBuffer().remaining() >= 4) {
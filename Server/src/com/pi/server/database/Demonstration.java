@@ -11,10 +11,13 @@ import com.pi.common.database.def.entity.HealthDefComponent;
 import com.pi.common.database.def.entity.LogicDefComponent;
 import com.pi.common.database.io.DatabaseIO;
 import com.pi.common.database.io.GraphicsDirectories;
+import com.pi.common.database.io.SectorStore;
+import com.pi.common.database.io.SectorStores;
 import com.pi.common.database.world.Sector;
 import com.pi.common.database.world.Tile;
 import com.pi.common.database.world.TileGraphicsObject;
 import com.pi.common.database.world.TileLayer;
+import com.pi.server.constants.ServerConstants;
 
 /**
  * Creates and saves demonstration information to the server's database.
@@ -88,7 +91,11 @@ public final class Demonstration {
 	 */
 	public static void main(final String[] args) throws IOException {
 		try {
-			DatabaseIO.write(Paths.getSectorFile(0, 0, 0), create());
+			SectorStore store =
+					SectorStores.open(Paths.getSectorDirectory(),
+							ServerConstants.SECTOR_REGION_FILES);
+			store.write(create());
+			store.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
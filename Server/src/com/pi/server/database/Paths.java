@@ -166,6 +166,31 @@ public final class Paths {
 		return f;
 	}
 
+	/**
+	 * Gets the directory the traffic captures are created in.
+	 * 
+	 * @return the capture directory
+	 */
+	public static File getCaptureDirectory() {
+		File f = new File(getHomeDirectory(), "captures");
+		if (!f.exists()) {
+			f.mkdir();
+		}
+		return f;
+	}
+
+	/**
+	 * Gets a new file to capture the traffic of the client with the given
+	 * identification number to.
+	 * 
+	 * @param id the client's id number
+	 * @return the capture file
+	 */
+	public static File getCaptureFile(final int id) {
+		return new File(getCaptureDirectory(), System.currentTimeMillis()
+				+ "-" + id + ".cap");
+	}
+
 	/**
 	 * Gets the file the server's logger prints to.
 	 * 
@@ -49,13 +49,17 @@ public class ClientMonitorPanel extends JPanel {
 		 * The column names.
 		 */
 		private static final String[] COLUMN_NAMES = { "ID",
-				"IP", "Account", "Upload", "Download" };
+				"IP", "Account", "Upload", "Download", "Queued",
+				"Peak Queued", "Held", "Coalesced", "Dropped",
+				"Unconfirmed", "Idle", "Datagrams" };
 		/**
 		 * The column classes.
 		 */
 		private static final Class<?>[] COLUMN_CLASSES = {
 				String.class, String.class, String.class,
-				String.class, String.class };
+				String.class, String.class, String.class,
+				String.class, String.class, String.class,
+				String.class, String.class, String.class };
 
 		/**
 		 * The client manager bound to this monitor.
@@ -122,6 +126,23 @@ public class ClientMonitorPanel extends JPanel {
 					return (c.getUploadSpeed() * 8) + "b/s";
 				case 4:
 					return (c.getDownloadSpeed() * 8) + "b/s";
+				case 5:
+					return (c.getQueuedBytes() / 1024) + "KB";
+				case 6:
+					return (c.getPeakQueuedBytes() / 1024) + "KB";
+				case 7:
+					return c.getHeldPacketCount() + "";
+				case 8:
+					return c.getCoalescedCount() + "";
+				case 9:
+					return c.getDroppedCount() + "";
+				case 10:
+					return c.getUnconfirmedCount() + "";
+				case 11:
+					return ((System.currentTimeMillis() - c
+							.getLastReadTime()) / 1000) + "s";
+				case 12:
+					return c.getDatagramState();
 				default:
 					return "";
 				}
@@ -0,0 +1,137 @@
+package com.pi.server.debug;
+
+import javax.swing.JPanel;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+
+import com.pi.common.debug.PIResourceViewer;
+import com.pi.common.util.Histogram;
+
+/**
+ * Monitors the buckets of a histogram using a graphical JPanel.
+ * 
+ * @see com.pi.common.util.Histogram
+ * @author Westin
+ * 
+ */
+public class HistogramMonitorPanel extends JPanel {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a histogram monitoring panel for the given histogram.
+	 * 
+	 * @param sHistogram the histogram to bind to
+	 */
+	public HistogramMonitorPanel(final Histogram sHistogram) {
+		setLocation(0, 0);
+		setSize(PIResourceViewer.DEFAULT_WIDTH,
+				PIResourceViewer.DEFAULT_HEIGHT);
+		setLayout(null);
+		JTable tbl = new JTable(new HistogramTableModel(sHistogram));
+		tbl.setLocation(0, 0);
+		tbl.setSize(PIResourceViewer.DEFAULT_WIDTH,
+				PIResourceViewer.DEFAULT_HEIGHT);
+		tbl.setVisible(true);
+		tbl.setFillsViewportHeight(true);
+		add(tbl);
+		setVisible(true);
+	}
+
+	/**
+	 * A table model that uses a histogram to provide the information, with a
+	 * row for each bucket and a final summary row.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private static final class HistogramTableModel extends
+			AbstractTableModel {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The column names.
+		 */
+		private static final String[] COLUMN_NAMES = { "Range", "Count",
+				"Percent" };
+		/**
+		 * The column classes.
+		 */
+		private static final Class<?>[] COLUMN_CLASSES = {
+				String.class, String.class, String.class };
+
+		/**
+		 * The histogram bound to this monitor.
+		 */
+		private final Histogram histogram;
+
+		/**
+		 * Creates a histogram monitoring table model for the given histogram.
+		 * 
+		 * @param sHistogram the histogram to bind to
+		 */
+		private HistogramTableModel(final Histogram sHistogram) {
+			this.histogram = sHistogram;
+		}
+
+		@Override
+		public int getRowCount() {
+			return histogram.getBucketCount() + 1;
+		}
+
+		@Override
+		public int getColumnCount() {
+			return COLUMN_NAMES.length;
+		}
+
+		@Override
+		public Object getValueAt(final int row, final int col) {
+			if (row == histogram.getBucketCount()) {
+				switch (col) {
+				case 0:
+					return "Mean " + ((long) histogram.getMean()) + ", Max "
+							+ histogram.getMax();
+				case 1:
+					return histogram.getCount() + "";
+				default:
+					return "";
+				}
+			}
+			if (row < 0 || row > histogram.getBucketCount()) {
+				return "";
+			}
+			switch (col) {
+			case 0:
+				long upper = histogram.getUpperBound(row);
+				if (upper == Long.MAX_VALUE) {
+					return histogram.getLowerBound(row) + "+";
+				}
+				return histogram.getLowerBound(row) + "-" + upper;
+			case 1:
+				return histogram.getBucket(row) + "";
+			case 2:
+				long total = histogram.getCount();
+				if (total == 0) {
+					return "0%";
+				}
+				return (histogram.getBucket(row) * 100 / total) + "%";
+			default:
+				return "";
+			}
+		}
+
+		@Override
+		public String getColumnName(final int col) {
+			return COLUMN_NAMES[col];
+		}
+
+		@Override
+		public Class<?> getColumnClass(final int col) {
+			return COLUMN_CLASSES[col];
+		}
+
+		@Override
+		public boolean isCellEditable(final int row,
+				final int col) {
+			return false;
+		}
+	}
+}
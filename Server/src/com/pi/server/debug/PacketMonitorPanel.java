@@ -0,0 +1,149 @@
+package com.pi.server.debug;
+
+import javax.swing.JPanel;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+
+import com.pi.common.debug.PIResourceViewer;
+import com.pi.common.net.PacketMetrics;
+import com.pi.common.util.Histogram;
+
+/**
+ * Monitors the traffic and timings of each packet type using a graphical
+ * JPanel.
+ * 
+ * @see com.pi.common.net.PacketMetrics
+ * @author Westin
+ * 
+ */
+public class PacketMonitorPanel extends JPanel {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a packet monitoring panel for the given packet metrics.
+	 * 
+	 * @param sMetrics the packet metrics to bind to
+	 */
+	public PacketMonitorPanel(final PacketMetrics sMetrics) {
+		setLocation(0, 0);
+		setSize(PIResourceViewer.DEFAULT_WIDTH,
+				PIResourceViewer.DEFAULT_HEIGHT);
+		setLayout(null);
+		JTable tbl = new JTable(new PacketTableModel(sMetrics));
+		tbl.setLocation(0, 0);
+		tbl.setSize(PIResourceViewer.DEFAULT_WIDTH,
+				PIResourceViewer.DEFAULT_HEIGHT);
+		tbl.setVisible(true);
+		tbl.setFillsViewportHeight(true);
+		add(tbl);
+		setVisible(true);
+	}
+
+	/**
+	 * A table model that uses the packet metrics to provide the information,
+	 * with a row for each packet ID.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private static final class PacketTableModel extends AbstractTableModel {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The column names.
+		 */
+		private static final String[] COLUMN_NAMES = { "Packet", "Sent",
+				"Sent KB", "Received", "Received KB", "Dwell p50",
+				"Dwell p99", "Wait p50", "Wait p99", "Handler Avg",
+				"Handler p99", "Handler Max" };
+		/**
+		 * The column classes.
+		 */
+		private static final Class<?>[] COLUMN_CLASSES = {
+				String.class, String.class, String.class, String.class,
+				String.class, String.class, String.class, String.class,
+				String.class, String.class, String.class, String.class };
+
+		/**
+		 * The packet metrics bound to this monitor.
+		 */
+		private final PacketMetrics metrics;
+
+		/**
+		 * Creates a packet monitoring table model for the given packet
+		 * metrics.
+		 * 
+		 * @param sMetrics the packet metrics to bind to
+		 */
+		private PacketTableModel(final PacketMetrics sMetrics) {
+			this.metrics = sMetrics;
+		}
+
+		@Override
+		public int getRowCount() {
+			return metrics.getTypeCount();
+		}
+
+		@Override
+		public int getColumnCount() {
+			return COLUMN_NAMES.length;
+		}
+
+		@Override
+		public Object getValueAt(final int row, final int col) {
+			if (row < 0 || row >= metrics.getTypeCount()) {
+				return "";
+			}
+			Histogram dwell = metrics.getSendDwells(row);
+			Histogram wait = metrics.getDispatchWaits(row);
+			Histogram handler = metrics.getHandlerTimes(row);
+			switch (col) {
+			case 0:
+				String name = metrics.getTypeName(row);
+				if (name == null) {
+					return row + "";
+				}
+				return name;
+			case 1:
+				return metrics.getSentCount(row) + "";
+			case 2:
+				return (metrics.getSentBytes(row) / 1024) + "KB";
+			case 3:
+				return metrics.getReceivedCount(row) + "";
+			case 4:
+				return (metrics.getReceivedBytes(row) / 1024) + "KB";
+			case 5:
+				return dwell.getPercentile(50) + "us";
+			case 6:
+				return dwell.getPercentile(99) + "us";
+			case 7:
+				return wait.getPercentile(50) + "us";
+			case 8:
+				return wait.getPercentile(99) + "us";
+			case 9:
+				return ((long) handler.getMean()) + "us";
+			case 10:
+				return handler.getPercentile(99) + "us";
+			case 11:
+				return handler.getMax() + "us";
+			default:
+				return "";
+			}
+		}
+
+		@Override
+		public String getColumnName(final int col) {
+			return COLUMN_NAMES[col];
+		}
+
+		@Override
+		public Class<?> getColumnClass(final int col) {
+			return COLUMN_CLASSES[col];
+		}
+
+		@Override
+		public boolean isCellEditable(final int row,
+				final int col) {
+			return false;
+		}
+	}
+}
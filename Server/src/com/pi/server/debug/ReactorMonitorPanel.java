@@ -0,0 +1,142 @@
+package com.pi.server.debug;
+
+import javax.swing.JPanel;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+
+import com.pi.common.debug.PIResourceViewer;
+import com.pi.server.net.NetReactor;
+import com.pi.server.net.NetServer;
+
+/**
+ * Monitors the load on each of the network server's reactors using a graphical
+ * JPanel.
+ * 
+ * @see com.pi.server.net.NetReactor
+ * @author Westin
+ * 
+ */
+public class ReactorMonitorPanel extends JPanel {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a reactor monitoring panel for the given network server.
+	 * 
+	 * @param sNet the network server to bind to
+	 */
+	public ReactorMonitorPanel(final NetServer sNet) {
+		setLocation(0, 0);
+		setSize(PIResourceViewer.DEFAULT_WIDTH,
+				PIResourceViewer.DEFAULT_HEIGHT);
+		setLayout(null);
+		JTable tbl = new JTable(new ReactorTableModel(sNet));
+		tbl.setLocation(0, 0);
+		tbl.setSize(PIResourceViewer.DEFAULT_WIDTH,
+				PIResourceViewer.DEFAULT_HEIGHT);
+		tbl.setVisible(true);
+		tbl.setFillsViewportHeight(true);
+		add(tbl);
+		setVisible(true);
+	}
+
+	/**
+	 * A table model that uses a network server's reactors to provide the
+	 * information.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private static final class ReactorTableModel extends
+			AbstractTableModel {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The column names.
+		 */
+		private static final String[] COLUMN_NAMES = { "Reactor",
+				"Connections", "Selects", "Read", "Written",
+				"Syscalls/Flush", "Bytes/Syscall" };
+		/**
+		 * The column classes.
+		 */
+		private static final Class<?>[] COLUMN_CLASSES = {
+				String.class, String.class, String.class,
+				String.class, String.class, String.class,
+				String.class };
+
+		/**
+		 * The network server bound to this monitor.
+		 */
+		private final NetServer net;
+
+		/**
+		 * Creates a reactor monitoring table model for the given network
+		 * server.
+		 * 
+		 * @param sNet the network server to bind to
+		 */
+		private ReactorTableModel(final NetServer sNet) {
+			this.net = sNet;
+		}
+
+		@Override
+		public int getRowCount() {
+			return net.getReactors().length;
+		}
+
+		@Override
+		public int getColumnCount() {
+			return COLUMN_NAMES.length;
+		}
+
+		@Override
+		public Object getValueAt(final int row, final int col) {
+			NetReactor[] reactors = net.getReactors();
+			if (row < 0 || row >= reactors.length) {
+				return "";
+			}
+			NetReactor r = reactors[row];
+			switch (col) {
+			case 0:
+				return r.getName();
+			case 1:
+				return r.getConnectionCount() + "";
+			case 2:
+				return r.getSelectCount() + "";
+			case 3:
+				return r.getBytesRead() + "B";
+			case 4:
+				return r.getBytesWritten() + "B";
+			case 5:
+				if (r.getFlushCount() == 0) {
+					return "0";
+				}
+				return String.format("%.2f", r.getWriteSyscallCount()
+						/ (double) r.getFlushCount());
+			case 6:
+				if (r.getWriteSyscallCount() == 0) {
+					return "0B";
+				}
+				return (r.getBytesWritten() / r.getWriteSyscallCount())
+						+ "B";
+			default:
+				return "";
+			}
+		}
+
+		@Override
+		public String getColumnName(final int col) {
+			return COLUMN_NAMES[col];
+		}
+
+		@Override
+		public Class<?> getColumnClass(final int col) {
+			return COLUMN_CLASSES[col];
+		}
+
+		@Override
+		public boolean isCellEditable(final int row,
+				final int col) {
+			return false;
+		}
+	}
+}
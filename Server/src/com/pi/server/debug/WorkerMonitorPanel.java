@@ -0,0 +1,127 @@
+package com.pi.server.debug;
+
+import javax.swing.JPanel;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+
+import com.pi.common.debug.PIResourceViewer;
+import com.pi.common.net.DataWorker;
+import com.pi.common.net.DataWorkerPool;
+
+/**
+ * Monitors the queue depth and handler latency of each data worker in a pool
+ * using a graphical JPanel.
+ * 
+ * @see com.pi.common.net.DataWorkerPool
+ * @author Westin
+ * 
+ */
+public class WorkerMonitorPanel extends JPanel {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a worker monitoring panel for the given data worker pool.
+	 * 
+	 * @param sPool the data worker pool to bind to
+	 */
+	public WorkerMonitorPanel(final DataWorkerPool sPool) {
+		setLocation(0, 0);
+		setSize(PIResourceViewer.DEFAULT_WIDTH,
+				PIResourceViewer.DEFAULT_HEIGHT);
+		setLayout(null);
+		JTable tbl = new JTable(new WorkerTableModel(sPool));
+		tbl.setLocation(0, 0);
+		tbl.setSize(PIResourceViewer.DEFAULT_WIDTH,
+				PIResourceViewer.DEFAULT_HEIGHT);
+		tbl.setVisible(true);
+		tbl.setFillsViewportHeight(true);
+		add(tbl);
+		setVisible(true);
+	}
+
+	/**
+	 * A table model that uses a data worker pool to provide the information.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private static final class WorkerTableModel extends
+			AbstractTableModel {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * The column names.
+		 */
+		private static final String[] COLUMN_NAMES = { "Worker",
+				"Queued", "Handled", "Avg Handler", "Max Handler" };
+		/**
+		 * The column classes.
+		 */
+		private static final Class<?>[] COLUMN_CLASSES = {
+				String.class, String.class, String.class,
+				String.class, String.class };
+
+		/**
+		 * The data worker pool bound to this monitor.
+		 */
+		private final DataWorkerPool pool;
+
+		/**
+		 * Creates a worker monitoring table model for the given data worker
+		 * pool.
+		 * 
+		 * @param sPool the data worker pool to bind to
+		 */
+		private WorkerTableModel(final DataWorkerPool sPool) {
+			this.pool = sPool;
+		}
+
+		@Override
+		public int getRowCount() {
+			return pool.getWorkers().length;
+		}
+
+		@Override
+		public int getColumnCount() {
+			return COLUMN_NAMES.length;
+		}
+
+		@Override
+		public Object getValueAt(final int row, final int col) {
+			DataWorker[] workers = pool.getWorkers();
+			if (row < 0 || row >= workers.length) {
+				return "";
+			}
+			DataWorker w = workers[row];
+			switch (col) {
+			case 0:
+				return w.getName();
+			case 1:
+				return w.getQueueDepth() + "";
+			case 2:
+				return w.getHandledCount() + "";
+			case 3:
+				return (w.getAverageHandlerTime() / 1000) + "us";
+			case 4:
+				return (w.getMaxHandlerTime() / 1000) + "us";
+			default:
+				return "";
+			}
+		}
+
+		@Override
+		public String getColumnName(final int col) {
+			return COLUMN_NAMES[col];
+		}
+
+		@Override
+		public Class<?> getColumnClass(final int col) {
+			return COLUMN_CLASSES[col];
+		}
+
+		@Override
+		public boolean isCellEditable(final int row,
+				final int col) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package com.pi.server.entity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi.common.database.Location;
+import com.pi.common.database.world.TileLayer;
+import com.pi.common.game.entity.Entity;
+import com.pi.common.game.entity.comp.EntityComponent;
+import com.pi.common.game.entity.comp.EntityComponentManager;
+import com.pi.common.net.PacketOutputStream;
+import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.Packet27EntityDelta;
+import com.pi.common.net.packet.Packet9EntityData;
+
+/**
+ * Tracks, for a single client, the state of each entity that client was last
+ * sent, so later updates only carry the fields that changed.
+ * <p>
+ * The connection is ordered and reliable, so a baseline is the state the
+ * client will have once it has read everything sent so far. A baseline is
+ * dropped when the client is told to dispose the entity, or asks for the
+ * entity's data because it doesn't have it, and the next update falls back to
+ * a full {@link Packet9EntityData} snapshot. A reconnecting client gets a new
+ * replicator, and so starts from full snapshots.
+ * 
+ * @author Westin
+ * 
+ */
+public class EntityReplicator {
+	/**
+	 * The number of snapshot bytes sent by all replicators.
+	 */
+	private static final AtomicLong SNAPSHOT_BYTES = new AtomicLong();
+	/**
+	 * The number of delta bytes sent by all replicators.
+	 */
+	private static final AtomicLong DELTA_BYTES = new AtomicLong();
+	/**
+	 * The number of updates that were skipped because nothing had changed.
+	 */
+	private static final AtomicLong UNCHANGED_COUNT = new AtomicLong();
+
+	/**
+	 * The baseline of each entity this client has been sent, by entity ID.
+	 */
+	private final Map<Integer, Baseline> baselines =
+			new HashMap<Integer, Baseline>();
+
+	/**
+	 * Records the given entity as fully known by the client, and creates the
+	 * snapshot packet that makes it so.
+	 * 
+	 * @param e the entity
+	 * @return the snapshot packet to send
+	 */
+	public final synchronized Packet9EntityData snapshot(final Entity e) {
+		record(e);
+		Packet9EntityData p = Packet9EntityData.create(e);
+		SNAPSHOT_BYTES.addAndGet(p.getPacketLength());
+		return p;
+	}
+
+	/**
+	 * Records the given entity as fully known by the client, for a snapshot
+	 * that is being sent to several clients at once.
+	 * 
+	 * @param e the entity
+	 * @param length the packet length of the shared snapshot
+	 */
+	public final synchronized void recordSnapshot(final Entity e,
+			final int length) {
+		record(e);
+		SNAPSHOT_BYTES.addAndGet(length);
+	}
+
+	/**
+	 * Creates the packet that brings the client up to date with the given
+	 * entity, and updates the baseline to match. This is a snapshot if the
+	 * client has no baseline for the entity, otherwise a delta.
+	 * 
+	 * @param e the entity
+	 * @return the packet to send, or <code>null</code> if nothing changed
+	 */
+	public final synchronized Packet update(final Entity e) {
+		Baseline base = baselines.get(e.getEntityID());
+		if (base == null) {
+			return snapshot(e);
+		}
+		Packet27EntityDelta delta = new Packet27EntityDelta();
+		delta.entityID = e.getEntityID();
+		if (e.plane != base.plane || !fitsOffset(e.x - base.x)
+				|| !fitsOffset(e.z - base.z)) {
+			delta.fields |= Packet27EntityDelta.LOCATION;
+			delta.loc = new Location(e.x, e.plane, e.z);
+		} else if (e.x != base.x || e.z != base.z) {
+			delta.fields |= Packet27EntityDelta.LOCATION_OFFSET;
+			delta.offsetX = e.x - base.x;
+			delta.offsetZ = e.z - base.z;
+		}
+		if (e.getLayer() != base.layer) {
+			delta.fields |= Packet27EntityDelta.LAYER;
+			delta.layer = e.getLayer();
+		}
+		if (e.getEntityDef() != base.defID) {
+			delta.fields |= Packet27EntityDelta.DEF;
+			delta.defID = e.getEntityDef();
+		}
+		for (int i = 0; i < base.components.length; i++) {
+			EntityComponent comp = e.getComponent(i);
+			if (comp == null) {
+				if (base.components[i] != null) {
+					delta.fields |= Packet27EntityDelta.REMOVED;
+					delta.removed |= 1 << i;
+					base.components[i] = null;
+				}
+			} else {
+				byte[] data = encode(comp);
+				if (!Arrays.equals(data, base.components[i])) {
+					delta.changed[i] = comp;
+					base.components[i] = data;
+				}
+			}
+		}
+		base.setLocation(e);
+		base.layer = e.getLayer();
+		base.defID = e.getEntityDef();
+		if (delta.isEmpty()) {
+			UNCHANGED_COUNT.incrementAndGet();
+			return null;
+		}
+		DELTA_BYTES.addAndGet(delta.getPacketLength());
+		return delta;
+	}
+
+	/**
+	 * Updates the location in the baseline of the given entity after it has
+	 * been sent as a movement packet.
+	 * 
+	 * @param entity the entity ID
+	 * @param to the location the client was sent
+	 */
+	public final synchronized void moved(final int entity,
+			final Location to) {
+		Baseline base = baselines.get(entity);
+		if (base != null) {
+			base.setLocation(to);
+		}
+	}
+
+	/**
+	 * Drops the baseline for the given entity, so the next update sends a full
+	 * snapshot.
+	 * 
+	 * @param entity the entity ID
+	 */
+	public final synchronized void forget(final int entity) {
+		baselines.remove(entity);
+	}
+
+	/**
+	 * Gets the number of entities this client has a baseline for.
+	 * 
+	 * @return the baseline count
+	 */
+	public final synchronized int getBaselineCount() {
+		return baselines.size();
+	}
+
+	/**
+	 * Stores a baseline matching the given entity's current state.
+	 * 
+	 * @param e the entity
+	 */
+	private void record(final Entity e) {
+		Baseline base = new Baseline();
+		base.setLocation(e);
+		base.layer = e.getLayer();
+		base.defID = e.getEntityDef();
+		for (int i = 0; i < base.components.length; i++) {
+			EntityComponent comp = e.getComponent(i);
+			if (comp != null) {
+				base.components[i] = encode(comp);
+			}
+		}
+		baselines.put(e.getEntityID(), base);
+	}
+
+	/**
+	 * Checks if the given coordinate change can be sent as a byte offset.
+	 * 
+	 * @param d the coordinate change
+	 * @return if the change fits in a byte
+	 */
+	private static boolean fitsOffset(final int d) {
+		return d >= Byte.MIN_VALUE && d <= Byte.MAX_VALUE;
+	}
+
+	/**
+	 * Encodes a component with its packet object data, so it can be compared
+	 * with the baseline.
+	 * 
+	 * @param comp the component
+	 * @return the encoded data
+	 */
+	private static byte[] encode(final EntityComponent comp) {
+		ByteBuffer bb = ByteBuffer.allocate(comp.getLength());
+		try {
+			comp.writeData(new PacketOutputStream(bb));
+		} catch (IOException e) {
+			return null;
+		}
+		return bb.array();
+	}
+
+	/**
+	 * Gets the number of snapshot bytes sent by all replicators.
+	 * 
+	 * @return the snapshot bytes
+	 */
+	public static long getSnapshotBytes() {
+		return SNAPSHOT_BYTES.get();
+	}
+
+	/**
+	 * Gets the number of delta bytes sent by all replicators.
+	 * 
+	 * @return the delta bytes
+	 */
+	public static long getDeltaBytes() {
+		return DELTA_BYTES.get();
+	}
+
+	/**
+	 * Gets the number of updates that were skipped because nothing had
+	 * changed since the baseline.
+	 * 
+	 * @return the unchanged update count
+	 */
+	public static long getUnchangedCount() {
+		return UNCHANGED_COUNT.get();
+	}
+
+	/**
+	 * The state of an entity as last sent to the client.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private static final class Baseline extends Location {
+		/**
+		 * The entity's tile layer.
+		 */
+		private TileLayer layer;
+		/**
+		 * The entity's definition ID.
+		 */
+		private int defID;
+		/**
+		 * The encoded data of each component, indexed by component ID.
+		 */
+		private final byte[][] components =
+				new byte[EntityComponentManager.getInstance()
+						.getPairCount()][];
+
+		/**
+		 * Sets this baseline's location to match the given location.
+		 * 
+		 * @param l the location
+		 */
+		private void setLocation(final Location l) {
+			setLocation(l.x, l.plane, l.z);
+		}
+	}
+}
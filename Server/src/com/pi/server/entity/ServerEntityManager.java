@@ -4,10 +4,11 @@ import com.pi.common.constants.Direction;
 import com.pi.common.database.Location;
 import com.pi.common.game.entity.Entity;
 import com.pi.common.game.entity.EntityManager;
+import com.pi.common.net.PacketFrame;
+import com.pi.common.net.packet.Packet;
 import com.pi.common.net.packet.Packet10EntityDataRequest;
 import com.pi.common.net.packet.Packet16EntityMove;
 import com.pi.common.net.packet.Packet21EntityFace;
-import com.pi.common.net.packet.Packet7EntityTeleport;
 import com.pi.common.net.packet.Packet8EntityDispose;
 import com.pi.common.net.packet.Packet9EntityData;
 import com.pi.server.Server;
@@ -37,7 +38,8 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 	}
 
 	/**
-	 * Requests the entity data for the given client and packet.
+	 * Requests the entity data for the given client and packet. The client
+	 * doesn't have the entity, so a full snapshot is sent.
 	 * 
 	 * @param id
 	 *            the client id
@@ -50,14 +52,15 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 		if (ent != null) {
 			Client cli = server.getClientManager().getClient(id);
 			if (cli != null && cli.getNetClient() != null) {
-				cli.getNetClient().send(Packet9EntityData.create(ent));
+				cli.getNetClient().send(
+						cli.getReplicator().snapshot(ent));
 			}
 		}
 	}
 
 	/**
-	 * Sends an entity teleport packet to all nearby clients for the given
-	 * entity, between the given location.
+	 * Sends the changes to the given entity to all nearby clients after it
+	 * has teleported, between the given location.
 	 * 
 	 * @param entity
 	 *            the entity to send the packet for
@@ -70,6 +73,8 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 			final Location to) {
 		ServerEntity e = getEntityContainer(entity);
 		if (e != null) {
+			PacketFrame dispose = new PacketFrame(
+					Packet8EntityDispose.create(entity));
 			for (int i = 0; i < ServerConstants.MAX_CLIENTS; i++) {
 				Client cli = server.getClientManager().getClient(i);
 				if (cli != null && cli.getEntity() != null
@@ -77,15 +82,14 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 					int nDist = Location.dist(cli.getEntity(), to);
 					int oDist = Location.dist(cli.getEntity(), from);
 					if (nDist <= ServerConstants.ENTITY_UPDATE_DIST) {
-						cli.getNetClient().send(
-								Packet7EntityTeleport.create(e
-										.getWrappedEntity()));
+						sendEntityUpdate(cli, e.getWrappedEntity());
 					} else if (oDist > ServerConstants.ENTITY_DISPOSE_DIST) {
-						cli.getNetClient().send(
-								Packet8EntityDispose.create(entity));
+						cli.getReplicator().forget(entity);
+						cli.getNetClient().send(dispose);
 					}
 				}
 			}
+			dispose.release();
 		}
 	}
 
@@ -97,20 +101,59 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 	 *            the entity to dispose
 	 */
 	public final void sendEntityDispose(final int entity) {
-		Entity e = deRegisterEntity(entity).getWrappedEntity();
-		if (e != null) {
-			for (int i = 0; i < ServerConstants.MAX_CLIENTS; i++) {
-				Client cli = server.getClientManager().getClient(i);
-				if (cli != null && cli.getEntity() != null
-						&& cli.getNetClient() != null) {
-					int dist = Location.dist(cli.getEntity(), e);
-					if (dist <= ServerConstants.ENTITY_DISPOSE_DIST) {
-						cli.getNetClient().send(
-								Packet8EntityDispose.create(entity));
-					}
+		ServerEntity container = deRegisterEntity(entity);
+		if (container != null) {
+			sendEntityDispose(entity, container.getWrappedEntity());
+		}
+	}
+
+	/**
+	 * Disposes the given entity if it's still registered, and sends an entity
+	 * dispose packet to all the clients within disposal distance of it. If
+	 * several handlers dispose the same entity at once, only one of them
+	 * does, so this can be used to claim the entity.
+	 * 
+	 * @param container
+	 *            the entity to dispose
+	 * @return <code>true</code> if this call disposed the entity,
+	 *         <code>false</code> if it was already disposed
+	 */
+	public final boolean sendEntityDispose(final ServerEntity container) {
+		Entity e = container.getWrappedEntity();
+		int entity = e.getEntityID();
+		if (!deRegisterEntity(entity, container)) {
+			return false;
+		}
+		sendEntityDispose(entity, e);
+		return true;
+	}
+
+	/**
+	 * Sends an entity dispose packet for an entity that has been deregistered
+	 * to all the clients within disposal distance of it.
+	 * 
+	 * @param entity
+	 *            the entity's ID before it was deregistered
+	 * @param e
+	 *            the entity
+	 */
+	private void sendEntityDispose(final int entity, final Entity e) {
+		PacketFrame dispose = new PacketFrame(
+				Packet8EntityDispose.create(entity));
+		for (int i = 0; i < ServerConstants.MAX_CLIENTS; i++) {
+			Client cli = server.getClientManager().getClient(i);
+			if (cli != null) {
+				cli.getReplicator().forget(entity);
+			}
+			if (cli != null && cli.getEntity() != null
+					&& cli.getNetClient() != null) {
+				int dist = Location.dist(cli.getEntity(), e);
+				if (dist <= ServerConstants.ENTITY_DISPOSE_DIST) {
+					cli.getNetClient().send(dispose);
 				}
 			}
 		}
+		dispose.release();
 	}
 
 	/**
@@ -122,17 +165,23 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 	public final void sendSpawnEntity(final int entity) {
 		ServerEntity e = getEntityContainer(entity);
 		if (e != null) {
+			Packet9EntityData pack =
+					Packet9EntityData.create(e.getWrappedEntity());
+			int length = pack.getPacketLength();
+			PacketFrame data = new PacketFrame(pack);
 			for (int i = 0; i < ServerConstants.MAX_CLIENTS; i++) {
 				Client cli = server.getClientManager().getClient(i);
 				if (cli != null && cli.getEntity() != null
 						&& cli.getNetClient() != null) {
 					int dist = Location.dist(cli.getEntity(), cli.getEntity());
 					if (dist <= ServerConstants.ENTITY_UPDATE_DIST) {
-						cli.getNetClient().send(
-								Packet9EntityData.create(e.getWrappedEntity()));
+						cli.getReplicator().recordSnapshot(
+								e.getWrappedEntity(), length);
+						cli.getNetClient().send(data);
 					}
 				}
 			}
+			data.release();
 		}
 	}
 
@@ -151,7 +200,8 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 							cli.getEntity());
 					if (dist <= ServerConstants.ENTITY_UPDATE_DIST) {
 						cli.getNetClient().send(
-								Packet9EntityData.create(e.getWrappedEntity()));
+								cli.getReplicator().snapshot(
+										e.getWrappedEntity()));
 					}
 				}
 			}
@@ -175,6 +225,10 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 			final Location to, final Direction dir) {
 		ServerEntity e = getEntityContainer(entity);
 		if (e != null) {
+			PacketFrame move = new PacketFrame(
+					Packet16EntityMove.create(entity, to));
+			PacketFrame dispose = new PacketFrame(
+					Packet8EntityDispose.create(entity));
 			for (int i = 0; i < ServerConstants.MAX_CLIENTS; i++) {
 				Client cli = server.getClientManager().getClient(i);
 				if (cli != null && cli.getEntity() != null
@@ -183,14 +237,16 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 					int nDist = Location.dist(cli.getEntity(), to);
 					int oDist = Location.dist(cli.getEntity(), from);
 					if (nDist <= ServerConstants.ENTITY_UPDATE_DIST) {
-						cli.getNetClient().send(
-								Packet16EntityMove.create(entity, to));
+						cli.getReplicator().moved(entity, to);
+						cli.getNetClient().send(move);
 					} else if (oDist > ServerConstants.ENTITY_DISPOSE_DIST) {
-						cli.getNetClient().send(
-								Packet8EntityDispose.create(entity));
+						cli.getReplicator().forget(entity);
+						cli.getNetClient().send(dispose);
 					}
 				}
 			}
+			move.release();
+			dispose.release();
 		}
 	}
 
@@ -205,6 +261,8 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 	public final void sendEntityRotate(final int entity, final Direction face) {
 		ServerEntity e = getEntityContainer(entity);
 		if (e != null) {
+			PacketFrame rotate = new PacketFrame(
+					Packet21EntityFace.create(entity, face));
 			for (int i = 0; i < ServerConstants.MAX_CLIENTS; i++) {
 				Client cli = server.getClientManager().getClient(i);
 				if (cli != null && cli.getEntity() != null
@@ -213,11 +271,29 @@ public class ServerEntityManager extends EntityManager<ServerEntity> {
 					int dist = Location.dist(cli.getEntity(),
 							e.getWrappedEntity());
 					if (dist <= ServerConstants.ENTITY_UPDATE_DIST) {
-						cli.getNetClient().send(
-								Packet21EntityFace.create(entity, face));
+						cli.getNetClient().send(rotate);
 					}
 				}
 			}
+			rotate.release();
+		}
+	}
+
+	/**
+	 * Sends the changes to the given entity since the state the given client
+	 * was last sent, or a full snapshot if it hasn't been sent the entity.
+	 * 
+	 * @param cli
+	 *            the client to update
+	 * @param e
+	 *            the entity that changed
+	 */
+	public final void sendEntityUpdate(final Client cli, final Entity e) {
+		if (cli.getNetClient() != null) {
+			Packet p = cli.getReplicator().update(e);
+			if (p != null) {
+				cli.getNetClient().send(p);
+			}
 		}
 	}
 
@@ -1,8 +1,6 @@
 package com.pi.server.logic;
 
 import com.pi.common.game.entity.comp.HealthComponent;
-import com.pi.common.net.packet.Packet;
-import com.pi.common.net.packet.Packet18EntityComponent;
 import com.pi.server.Server;
 import com.pi.server.client.Client;
 import com.pi.server.entity.ServerEntity;
@@ -62,15 +60,13 @@ public class CombatLogic {
 				attackedClient.onEntityDeath();
 			}
 		} else {
-			Packet pack =
-					Packet18EntityComponent.create(
-							target.getWrappedEntity(),
-							HealthComponent.class);
 			if (attackingClient != null) {
-				attackingClient.getNetClient().send(pack);
+				server.getEntityManager().sendEntityUpdate(
+						attackingClient, target.getWrappedEntity());
 			}
 			if (attackedClient != null) {
-				attackedClient.getNetClient().send(pack);
+				server.getEntityManager().sendEntityUpdate(
+						attackedClient, target.getWrappedEntity());
 			}
 		}
 	}
@@ -0,0 +1,419 @@
+package com.pi.server.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi.common.net.DatagramFrame;
+import com.pi.common.net.packet.Packet;
+import com.pi.server.constants.ServerConstants;
+
+/**
+ * The server end of a client's datagram channel. It holds the latest
+ * unreliable packet for each datagram state key until the client acknowledges
+ * a datagram it was sent in. It's scheduled on the network timer every half
+ * {@link ServerConstants#NETWORK_DATAGRAM_RESEND_TIME}, to resend the packets
+ * that were sent at least that long ago and haven't been acknowledged.
+ * <p>
+ * The session is active while the client has been heard from in the last
+ * {@link ServerConstants#NETWORK_DATAGRAM_TIMEOUT} milliseconds. Once it goes
+ * quiet the held packets are sent over TCP, and so are any later unreliable
+ * packets until the client is heard from again.
+ * <p>
+ * Each packet is sent with the epoch it was offered in. Before a reliable
+ * packet with a state key is sent over TCP, the held packets with the same
+ * state key are sent over TCP ahead of it, so the client never applies the
+ * reliable packet without the updates it follows.
+ * 
+ * @see DatagramFrame
+ * @author Westin
+ * 
+ */
+final class DatagramSession extends NetTimer.Timeout {
+	/**
+	 * An unreliable packet waiting to be acknowledged.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private static final class Update {
+		/**
+		 * The latest packet for the update's state key.
+		 */
+		private Packet packet;
+		/**
+		 * The sequence number of the datagram the packet was last sent in, or
+		 * <code>0</code> if it hasn't been sent yet.
+		 */
+		private int sequence;
+		/**
+		 * The system time the packet was last sent.
+		 */
+		private long sentTime;
+		/**
+		 * The number of reliable packets with the packet's state key sent
+		 * before it.
+		 */
+		private int epoch;
+	}
+
+	/**
+	 * The datagram server this session belongs to.
+	 */
+	private final NetDatagramServer datagrams;
+	/**
+	 * The network client this session belongs to.
+	 */
+	private final NetServerClient client;
+	/**
+	 * The token the client's datagrams are identified by.
+	 */
+	private final long token;
+	/**
+	 * The address the client was last heard from.
+	 */
+	private volatile SocketAddress address = null;
+	/**
+	 * If unreliable packets are being sent over this session.
+	 */
+	private volatile boolean active = false;
+	/**
+	 * The system time the client was last heard from.
+	 */
+	private volatile long lastHeard = 0;
+	/**
+	 * The unacknowledged updates, indexed by datagram state key. Also guards
+	 * {@link #nextSequence} and {@link #flushScheduled}.
+	 */
+	private final Map<Long, Update> pending =
+			new LinkedHashMap<Long, Update>();
+	/**
+	 * The sequence number of the last datagram sent.
+	 */
+	private int nextSequence = 0;
+	/**
+	 * If the client has been scheduled to flush the updates not yet sent.
+	 */
+	private boolean flushScheduled = false;
+	/**
+	 * The number of state datagrams sent.
+	 */
+	private final AtomicLong datagramCount = new AtomicLong();
+	/**
+	 * The number of updates sent again because they weren't acknowledged.
+	 */
+	private final AtomicLong resendCount = new AtomicLong();
+	/**
+	 * The number of times this session has fallen back to TCP.
+	 */
+	private final AtomicLong fallbackCount = new AtomicLong();
+
+	/**
+	 * Creates a session for the given client.
+	 * 
+	 * @param sDatagrams the datagram server
+	 * @param sClient the network client
+	 * @param sToken the session token
+	 */
+	DatagramSession(final NetDatagramServer sDatagrams,
+			final NetServerClient sClient, final long sToken) {
+		this.datagrams = sDatagrams;
+		this.client = sClient;
+		this.token = sToken;
+	}
+
+	/**
+	 * Gets the token the client's datagrams are identified by.
+	 * 
+	 * @return the token
+	 */
+	long getToken() {
+		return token;
+	}
+
+	/**
+	 * Called when a hello with this session's token is received, binding the
+	 * session to the address it came from and answering it.
+	 * 
+	 * @param from the address the hello came from
+	 */
+	void onHello(final SocketAddress from) {
+		heard(from);
+		datagrams.send(
+				DatagramFrame.create(DatagramFrame.HELLO_ACK, token, 0), from);
+	}
+
+	/**
+	 * Called when an acknowledgement with this session's token is received,
+	 * removing the updates that were last sent in the acknowledged datagram.
+	 * 
+	 * @param from the address the acknowledgement came from
+	 * @param sequence the acknowledged sequence number, or <code>0</code> for
+	 *            a heartbeat
+	 */
+	void onAck(final SocketAddress from, final int sequence) {
+		heard(from);
+		if (sequence == 0) {
+			return;
+		}
+		synchronized (pending) {
+			Iterator<Update> it = pending.values().iterator();
+			while (it.hasNext()) {
+				if (it.next().sequence == sequence) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records that the client was heard from at the given address, activating
+	 * this session if it wasn't active.
+	 * 
+	 * @param from the client's address
+	 */
+	private void heard(final SocketAddress from) {
+		address = from;
+		lastHeard = System.currentTimeMillis();
+		if (!active) {
+			synchronized (pending) {
+				active = true;
+			}
+			client.getLog().info("Datagram channel open" + client.getSuffix());
+			datagrams.getTimer().schedule(this,
+					ServerConstants.NETWORK_DATAGRAM_RESEND_TIME / 2);
+		}
+	}
+
+	/**
+	 * Offers an unreliable packet to this session, replacing any pending
+	 * update with the same state key. The client is scheduled to flush if it
+	 * hasn't been since the last flush.
+	 * 
+	 * @param p the packet
+	 * @param epoch the number of reliable packets with the packet's state key
+	 *            sent before it
+	 * @return <code>true</code> if the packet was taken, <code>false</code>
+	 *         if the session isn't active and it should be sent over TCP
+	 */
+	boolean offer(final Packet p, final int epoch) {
+		boolean schedule;
+		synchronized (pending) {
+			if (!active) {
+				return false;
+			}
+			Long key = DatagramFrame.getStateKey(p);
+			Update u = pending.get(key);
+			if (u == null) {
+				u = new Update();
+				pending.put(key, u);
+			}
+			u.packet = p;
+			u.epoch = epoch;
+			u.sequence = 0;
+			schedule = !flushScheduled;
+			flushScheduled = true;
+		}
+		if (schedule) {
+			client.scheduleFlush();
+		}
+		return true;
+	}
+
+	/**
+	 * Sends the updates that haven't been sent yet.
+	 */
+	void flush() {
+		synchronized (pending) {
+			flushScheduled = false;
+			if (active) {
+				sendUpdates(false);
+			}
+		}
+	}
+
+	/**
+	 * Resends the unacknowledged updates, or falls back to TCP if the client
+	 * hasn't been heard from in time.
+	 */
+	@Override
+	protected void expire() {
+		if (!active) {
+			return;
+		}
+		if (System.currentTimeMillis() - lastHeard
+				>= ServerConstants.NETWORK_DATAGRAM_TIMEOUT) {
+			fallback();
+			return;
+		}
+		synchronized (pending) {
+			sendUpdates(true);
+		}
+		datagrams.getTimer().schedule(this,
+				ServerConstants.NETWORK_DATAGRAM_RESEND_TIME / 2);
+	}
+
+	/**
+	 * Deactivates this session and sends the pending updates over TCP. The
+	 * updates are sent while holding the pending lock, so they can't be
+	 * overtaken by newer packets offered in the meantime.
+	 */
+	private void fallback() {
+		synchronized (pending) {
+			active = false;
+			fallbackCount.incrementAndGet();
+			client.getLog().warning(
+					"Datagram channel timed out, falling back to TCP"
+							+ client.getSuffix());
+			List<Packet> packets = new ArrayList<Packet>(pending.size());
+			for (Update u : pending.values()) {
+				packets.add(u.packet);
+			}
+			pending.clear();
+			for (Packet p : packets) {
+				client.sendOnStream(p);
+			}
+		}
+	}
+
+	/**
+	 * Sends pending updates in as few datagrams as they fit in, each under a
+	 * new sequence number. Must be called while holding the pending lock.
+	 * 
+	 * @param resend <code>true</code> to also send the updates that were last
+	 *            sent at least the resend time ago, <code>false</code> to only
+	 *            send the updates that haven't been sent yet
+	 */
+	private void sendUpdates(final boolean resend) {
+		long now = System.currentTimeMillis();
+		SocketAddress to = address;
+		ByteBuffer datagram = null;
+		int sequence = 0;
+		try {
+			for (Update u : pending.values()) {
+				if (u.sequence != 0) {
+					if (!resend
+							|| now - u.sentTime
+									< ServerConstants.NETWORK_DATAGRAM_RESEND_TIME) {
+						continue;
+					}
+					resendCount.incrementAndGet();
+				}
+				if (datagram == null
+						|| !DatagramFrame.append(datagram, u.packet, u.epoch)) {
+					if (datagram != null) {
+						datagrams.send(datagram, to);
+						datagramCount.incrementAndGet();
+					}
+					if (++nextSequence == 0) {
+						nextSequence++;
+					}
+					sequence = nextSequence;
+					datagram =
+							DatagramFrame.create(DatagramFrame.STATE, token,
+									sequence);
+					DatagramFrame.append(datagram, u.packet, u.epoch);
+				}
+				u.sequence = sequence;
+				u.sentTime = now;
+			}
+		} catch (IOException e) {
+			client.getLog().printStackTrace(e);
+		}
+		if (datagram != null) {
+			datagrams.send(datagram, to);
+			datagramCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Called before a reliable packet with a state key is sent to the client
+	 * over TCP. The pending updates with the same state key, sent or not, are
+	 * sent over TCP so they arrive ahead of it. Any copies still in flight on
+	 * the datagram channel are skipped by the client, as their epoch is now
+	 * behind.
+	 * 
+	 * @param stateKey the reliable packet's state key
+	 */
+	void takeOver(final int stateKey) {
+		synchronized (pending) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			Iterator<Update> it = pending.values().iterator();
+			while (it.hasNext()) {
+				Update u = it.next();
+				if (u.packet.getStateKey() == stateKey) {
+					it.remove();
+					client.sendOnStream(u.packet);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes this session, dropping the pending updates.
+	 */
+	void close() {
+		synchronized (pending) {
+			active = false;
+			pending.clear();
+		}
+		datagrams.getTimer().cancel(this);
+		datagrams.remove(this);
+	}
+
+	/**
+	 * Checks if unreliable packets are being sent over this session.
+	 * 
+	 * @return if the session is active
+	 */
+	boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Gets the number of unacknowledged updates.
+	 * 
+	 * @return the pending update count
+	 */
+	int getPendingCount() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * Gets the number of state datagrams sent.
+	 * 
+	 * @return the datagram count
+	 */
+	long getDatagramCount() {
+		return datagramCount.get();
+	}
+
+	/**
+	 * Gets the number of updates sent again because they weren't
+	 * acknowledged.
+	 * 
+	 * @return the resend count
+	 */
+	long getResendCount() {
+		return resendCount.get();
+	}
+
+	/**
+	 * Gets the number of times this session has fallen back to TCP.
+	 * 
+	 * @return the fallback count
+	 */
+	long getFallbackCount() {
+		return fallbackCount.get();
+	}
+}
@@ -1,33 +1,42 @@
 package com.pi.server.net;
 
-import com.pi.common.constants.NetworkConstants;
 import com.pi.common.net.packet.Packet;
 
 /**
- * A simple container class representing a queued handshake confirmation.
+ * A simple container class representing a queued handshake confirmation,
+ * which is scheduled on the network timer to resend its packet if it isn't
+ * confirmed in time.
  * 
  * @author Westin
  * 
  */
-public class HandshakeConfirmation {
+public class HandshakeConfirmation extends NetTimer.Timeout {
 	/**
-	 * The time the packet was sent.
+	 * The client the packet was sent to.
 	 */
-	private long timestamp;
+	private final NetServerClient client;
 	/**
 	 * The packet that was sent.
 	 */
-	private Packet packet;
+	private final Packet packet;
+	/**
+	 * The number of packets with the same ID that had been sent to the client
+	 * requiring a handshake, including this one.
+	 */
+	private final int sequence;
 
 	/**
-	 * Creates a handshake confirmation object for the given packet, setting the
-	 * sent time to the current time.
+	 * Creates a handshake confirmation object for the given packet.
 	 * 
+	 * @param sClient the client the packet was sent to
 	 * @param sPacket the packet
+	 * @param sSequence the packet's sequence number
 	 */
-	public HandshakeConfirmation(final Packet sPacket) {
+	public HandshakeConfirmation(final NetServerClient sClient,
+			final Packet sPacket, final int sSequence) {
+		this.client = sClient;
 		this.packet = sPacket;
-		this.timestamp = System.currentTimeMillis();
+		this.sequence = sSequence;
 	}
 
 	/**
@@ -40,15 +49,17 @@ public class HandshakeConfirmation {
 	}
 
 	/**
-	 * Checks if the packet represented by this object needs to be re-sent.
-	 * 
-	 * The equation this uses is
-	 * <code>{@link System#currentTimeMillis()} >= {@link HandshakeConfirmation#timestamp} + {@link NetworkConstants#HANDSHAKE_EXPIRY_TIME}</code>
+	 * Gets the sequence number of the packet among the packets with the same
+	 * ID sent to the client.
 	 * 
-	 * @return if this packet must be re-sent
+	 * @return the sequence number
 	 */
-	public final boolean needToResend() {
-		return System.currentTimeMillis() >= timestamp
-				+ NetworkConstants.HANDSHAKE_EXPIRY_TIME;
+	public final int getSequence() {
+		return sequence;
+	}
+
+	@Override
+	protected final void expire() {
+		client.onHandshakeTimeout(this);
 	}
 }
@@ -0,0 +1,242 @@
+package com.pi.server.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi.common.constants.NetworkConstants;
+import com.pi.common.net.DatagramFrame;
+import com.pi.server.Server;
+import com.pi.server.constants.ServerConstants;
+
+/**
+ * The thread that receives the datagrams of every client's datagram channel.
+ * <p>
+ * A client that supports datagrams is offered a random token over TCP once it
+ * logs in, and opens its channel by sending hellos with the token to this
+ * server's port. Datagrams are matched to their {@link DatagramSession} by
+ * token rather than address, so a client's address may change without
+ * breaking its channel. Datagrams are sent straight from whichever thread
+ * flushes or resends a session.
+ * 
+ * @see DatagramFrame
+ * @author Westin
+ * 
+ */
+public class NetDatagramServer extends Thread {
+	/**
+	 * The network server this datagram server belongs to.
+	 */
+	private final NetServer network;
+	/**
+	 * The server instance.
+	 */
+	private final Server server;
+	/**
+	 * The channel datagrams are sent and received on.
+	 */
+	private final DatagramChannel channel;
+	/**
+	 * The port the channel is bound to.
+	 */
+	private final int port;
+	/**
+	 * The open sessions, indexed by token.
+	 */
+	private final ConcurrentMap<Long, DatagramSession> sessions =
+			new ConcurrentHashMap<Long, DatagramSession>();
+	/**
+	 * The random number generator session tokens are drawn from.
+	 */
+	private final Random random = new SecureRandom();
+	/**
+	 * The number of datagrams received.
+	 */
+	private final AtomicLong receivedCount = new AtomicLong();
+	/**
+	 * The number of datagrams sent.
+	 */
+	private final AtomicLong sentCount = new AtomicLong();
+
+	/**
+	 * Creates a datagram server bound to the given port.
+	 * 
+	 * @param sServer the server instance
+	 * @param sNetwork the network server
+	 * @param sPort the port to bind to
+	 * @throws IOException if the channel couldn't be bound
+	 */
+	public NetDatagramServer(final Server sServer, final NetServer sNetwork,
+			final int sPort) throws IOException {
+		super(sServer.getThreadGroup(), "NetDatagramServer");
+		this.server = sServer;
+		this.network = sNetwork;
+		this.channel = DatagramChannel.open();
+		channel.socket().bind(
+				new InetSocketAddress((InetAddress) null, sPort));
+		this.port = channel.socket().getLocalPort();
+	}
+
+	@Override
+	public final void run() {
+		server.getLog().info("Started " + getName());
+		ByteBuffer datagram =
+				ByteBuffer.allocate(NetworkConstants.DATAGRAM_MAX_SIZE);
+		while (network.isConnected()) {
+			try {
+				datagram.clear();
+				SocketAddress from = channel.receive(datagram);
+				if (from == null) {
+					continue;
+				}
+				datagram.flip();
+				receivedCount.incrementAndGet();
+				handle(datagram, from);
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (Exception e) {
+				server.getLog().printStackTrace(e);
+			}
+		}
+		server.getLog().info("Stopped " + getName());
+	}
+
+	/**
+	 * Passes a received datagram to the session its token belongs to.
+	 * Datagrams with unknown tokens are ignored.
+	 * 
+	 * @param datagram the datagram
+	 * @param from the address it came from
+	 */
+	private void handle(final ByteBuffer datagram, final SocketAddress from) {
+		if (datagram.remaining() < DatagramFrame.HEADER_SIZE) {
+			return;
+		}
+		byte type = datagram.get();
+		DatagramSession session = sessions.get(datagram.getLong());
+		if (session == null) {
+			return;
+		}
+		int sequence = datagram.getInt();
+		if (type == DatagramFrame.HELLO) {
+			session.onHello(from);
+		} else if (type == DatagramFrame.ACK) {
+			session.onAck(from, sequence);
+		}
+	}
+
+	/**
+	 * Opens a session for the given client under a new random token.
+	 * 
+	 * @param client the network client
+	 * @return the session
+	 */
+	final DatagramSession open(final NetServerClient client) {
+		while (true) {
+			long token = random.nextLong();
+			if (token == 0) {
+				continue;
+			}
+			DatagramSession session = new DatagramSession(this, client, token);
+			if (sessions.putIfAbsent(token, session) == null) {
+				return session;
+			}
+		}
+	}
+
+	/**
+	 * Removes a closed session.
+	 * 
+	 * @param session the session
+	 */
+	final void remove(final DatagramSession session) {
+		sessions.remove(session.getToken(), session);
+	}
+
+	/**
+	 * Sends a datagram.
+	 * 
+	 * @param datagram the datagram buffer, positioned after its contents
+	 * @param to the address to send to, or <code>null</code> to drop it
+	 */
+	final void send(final ByteBuffer datagram, final SocketAddress to) {
+		if (to == null) {
+			return;
+		}
+		datagram.flip();
+		try {
+			channel.send(datagram, to);
+			sentCount.incrementAndGet();
+		} catch (IOException e) {
+			server.getLog().printStackTrace(e);
+		}
+	}
+
+	/**
+	 * Gets the timer that sessions schedule their resends on.
+	 * 
+	 * @return the network timer
+	 */
+	final NetTimer getTimer() {
+		return network.getTimer();
+	}
+
+	/**
+	 * Gets the port the datagram channel is bound to.
+	 * 
+	 * @return the port
+	 */
+	public final int getPort() {
+		return port;
+	}
+
+	/**
+	 * Gets the number of open sessions.
+	 * 
+	 * @return the session count
+	 */
+	public final int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * Gets the number of datagrams received.
+	 * 
+	 * @return the received datagram count
+	 */
+	public final long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	/**
+	 * Gets the number of datagrams sent.
+	 * 
+	 * @return the sent datagram count
+	 */
+	public final long getSentCount() {
+		return sentCount.get();
+	}
+
+	/**
+	 * Closes the datagram channel and waits for this thread to stop.
+	 * 
+	 * @throws InterruptedException if interrupted while joining
+	 */
+	public final void dispose() throws InterruptedException {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			server.getLog().printStackTrace(e);
+		}
+		join();
+	}
+}
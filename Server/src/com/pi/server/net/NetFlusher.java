@@ -0,0 +1,106 @@
+package com.pi.server.net;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.pi.common.net.NetClient;
+import com.pi.server.Server;
+import com.pi.server.constants.ServerConstants;
+
+/**
+ * A thread that flushes the batch frames of network clients at the end of each
+ * flush window.
+ * <p>
+ * A client is scheduled when the first packet is added to its batch frame.
+ * Once a client has been scheduled this thread waits for
+ * {@link ServerConstants#NETWORK_FLUSH_WINDOW} milliseconds, so packets sent
+ * to any client in that time are batched, and then flushes every scheduled
+ * client, waking each client's reactor once.
+ * 
+ * @author Westin
+ * 
+ */
+public class NetFlusher extends Thread {
+	/**
+	 * The network server this flusher belongs to.
+	 */
+	private final NetServer network;
+	/**
+	 * The server instance.
+	 */
+	private final Server server;
+	/**
+	 * The clients waiting to be flushed.
+	 */
+	private final BlockingQueue<NetClient> scheduled =
+			new LinkedBlockingQueue<NetClient>();
+
+	/**
+	 * Creates a flusher bound to the given network server.
+	 * 
+	 * @param sServer the server instance
+	 * @param sNetwork the network server
+	 */
+	public NetFlusher(final Server sServer, final NetServer sNetwork) {
+		super(sServer.getThreadGroup(), "NetFlusher");
+		this.server = sServer;
+		this.network = sNetwork;
+	}
+
+	@Override
+	public final void run() {
+		server.getLog().info("Started " + getName());
+		while (network.isConnected()) {
+			try {
+				NetClient first = scheduled.take();
+				if (ServerConstants.NETWORK_FLUSH_WINDOW > 0) {
+					Thread.sleep(ServerConstants.NETWORK_FLUSH_WINDOW);
+				}
+				first.flush();
+				NetClient c;
+				while ((c = scheduled.poll()) != null) {
+					c.flush();
+				}
+			} catch (InterruptedException e) {
+				continue;
+			} catch (Exception e) {
+				server.getLog().printStackTrace(e);
+			}
+		}
+		server.getLog().info("Stopped " + getName());
+	}
+
+	/**
+	 * Schedules the given client to be flushed at the end of the current flush
+	 * window.
+	 * 
+	 * @param c the client to flush
+	 */
+	public final void schedule(final NetClient c) {
+		scheduled.add(c);
+	}
+
+	/**
+	 * Gets the number of clients waiting to be flushed.
+	 * 
+	 * @return the scheduled client count
+	 */
+	public final int getScheduledCount() {
+		return scheduled.size();
+	}
+
+	/**
+	 * Stops this flusher once the network server has been disconnected,
+	 * flushing any clients that are still scheduled.
+	 * 
+	 * @throws InterruptedException if interrupted while joining
+	 */
+	public final void dispose() throws InterruptedException {
+		interrupt();
+		join();
+		NetClient c;
+		while ((c = scheduled.poll()) != null) {
+			c.flush();
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.pi.server.net;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi.server.Server;
+import com.pi.server.client.Client;
+import com.pi.server.constants.ServerConstants;
+
+/**
+ * A thread that cleans up after clients that have disconnected, so the
+ * reactors only have to report a disconnect and get back to reading and
+ * writing.
+ * <p>
+ * A client is reported once, when its connection is closed for any reason.
+ * This thread then disposes the client, which stores its entity's location in
+ * its account and releases its ID, and saves the account database
+ * {@link ServerConstants#ACCOUNT_SAVE_DELAY} milliseconds after the first
+ * logged in client that disconnected since the last save.
+ * 
+ * @author Westin
+ * 
+ */
+public class NetHousekeeper extends Thread {
+	/**
+	 * The network server this housekeeper belongs to.
+	 */
+	private final NetServer network;
+	/**
+	 * The server instance.
+	 */
+	private final Server server;
+	/**
+	 * The clients that have disconnected and are waiting to be disposed.
+	 */
+	private final BlockingQueue<Client> disconnected =
+			new LinkedBlockingQueue<Client>();
+	/**
+	 * The system time the account database is due to be saved at, or
+	 * <code>-1</code> if it doesn't need saving.
+	 */
+	private long saveTime = -1;
+	/**
+	 * The number of clients this housekeeper has disposed.
+	 */
+	private final AtomicLong disposedCount = new AtomicLong();
+
+	/**
+	 * Creates a housekeeper bound to the given network server.
+	 * 
+	 * @param sServer the server instance
+	 * @param sNetwork the network server
+	 */
+	public NetHousekeeper(final Server sServer, final NetServer sNetwork) {
+		super(sServer.getThreadGroup(), "NetHousekeeper");
+		this.server = sServer;
+		this.network = sNetwork;
+	}
+
+	@Override
+	public final void run() {
+		server.getLog().info("Started " + getName());
+		while (network.isConnected()) {
+			try {
+				Client c;
+				if (saveTime < 0) {
+					c = disconnected.take();
+				} else {
+					c =
+							disconnected.poll(saveTime
+									- System.currentTimeMillis(),
+									TimeUnit.MILLISECONDS);
+				}
+				if (c != null) {
+					dispose(c);
+				} else if (saveTime >= 0
+						&& System.currentTimeMillis() >= saveTime) {
+					saveTime = -1;
+					server.getDatabase().save();
+				}
+			} catch (InterruptedException e) {
+				continue;
+			} catch (Exception e) {
+				server.getLog().printStackTrace(e);
+			}
+		}
+		server.getLog().info("Stopped " + getName());
+	}
+
+	/**
+	 * Disposes the given client, including clients that never got an ID as the
+	 * server was full, and schedules the account database to be saved if the
+	 * client was logged in.
+	 * 
+	 * @param c the client
+	 */
+	private void dispose(final Client c) {
+		boolean loggedIn = c.getAccount() != null;
+		if (c.isRegistered()) {
+			server.getClientManager().disposeClient(c);
+		} else {
+			c.dispose();
+		}
+		disposedCount.incrementAndGet();
+		if (loggedIn && saveTime < 0) {
+			saveTime =
+					System.currentTimeMillis()
+							+ ServerConstants.ACCOUNT_SAVE_DELAY;
+		}
+	}
+
+	/**
+	 * Reports that the given client has disconnected, so it's disposed on this
+	 * thread.
+	 * 
+	 * @param c the client
+	 */
+	public final void disconnected(final Client c) {
+		disconnected.add(c);
+	}
+
+	/**
+	 * Gets the number of disconnected clients waiting to be disposed.
+	 * 
+	 * @return the disconnected client count
+	 */
+	public final int getPendingCount() {
+		return disconnected.size();
+	}
+
+	/**
+	 * Gets the number of clients this housekeeper has disposed.
+	 * 
+	 * @return the disposed client count
+	 */
+	public final long getDisposedCount() {
+		return disposedCount.get();
+	}
+
+	/**
+	 * Stops this housekeeper once the network server has been disconnected,
+	 * disposing any clients that are still waiting. The account database is
+	 * left for the server to save as it shuts down.
+	 * 
+	 * @throws InterruptedException if interrupted while joining
+	 */
+	public final void dispose() throws InterruptedException {
+		interrupt();
+		join();
+		Client c;
+		while ((c = disconnected.poll()) != null) {
+			dispose(c);
+		}
+	}
+}
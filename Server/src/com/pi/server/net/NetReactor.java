@@ -0,0 +1,329 @@
+package com.pi.server.net;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi.common.net.NetChangeRequest;
+import com.pi.server.Server;
+import com.pi.server.client.Client;
+
+/**
+ * A selector thread that performs the reading and writing for the socket
+ * channels pinned to it.
+ * <p>
+ * The acceptor reactor additionally has the server channel registered to it,
+ * and passes acceptable keys back to the network server.
+ * <p>
+ * Reactors only perform I/O. A client whose channel reaches end-of-stream or
+ * fails while being read or written is disconnected, which hands it to the
+ * network's housekeeper to be disposed.
+ * 
+ * @author Westin
+ * 
+ */
+public class NetReactor extends Thread {
+	/**
+	 * The network server this reactor belongs to.
+	 */
+	private final NetServer network;
+	/**
+	 * The server instance.
+	 */
+	private final Server server;
+	/**
+	 * The selector this reactor uses.
+	 */
+	private final Selector selector;
+	/**
+	 * The pending changes on this reactor.
+	 */
+	private final Queue<NetChangeRequest> pendingChanges =
+			new LinkedBlockingQueue<NetChangeRequest>();
+	/**
+	 * The number of socket channels pinned to this reactor.
+	 */
+	private final AtomicInteger connectionCount = new AtomicInteger();
+	/**
+	 * The number of times this reactor has returned from a select call.
+	 */
+	private final AtomicLong selectCount = new AtomicLong();
+	/**
+	 * The number of bytes read by this reactor.
+	 */
+	private final AtomicLong bytesRead = new AtomicLong();
+	/**
+	 * The number of bytes written by this reactor.
+	 */
+	private final AtomicLong bytesWritten = new AtomicLong();
+	/**
+	 * The number of send queue flushes performed by this reactor.
+	 */
+	private final AtomicLong flushCount = new AtomicLong();
+	/**
+	 * The number of socket write calls made by this reactor.
+	 */
+	private final AtomicLong writeSyscallCount = new AtomicLong();
+
+	/**
+	 * Creates a reactor with the given name bound to the provided network
+	 * server.
+	 * 
+	 * @param sServer the server instance
+	 * @param sNetwork the network server
+	 * @param name the thread name
+	 * @throws IOException if the selector couldn't be opened
+	 */
+	public NetReactor(final Server sServer, final NetServer sNetwork,
+			final String name) throws IOException {
+		super(sServer.getThreadGroup(), name);
+		this.server = sServer;
+		this.network = sNetwork;
+		this.selector = SelectorProvider.provider().openSelector();
+	}
+
+	@Override
+	public final void run() {
+		server.getLog().info("Started " + getName());
+		while (selector.isOpen() && network.isConnected()) {
+			try {
+				processChanges();
+				this.selector.select();
+				selectCount.incrementAndGet();
+				Iterator<SelectionKey> selectedKeys =
+						this.selector.selectedKeys().iterator();
+				while (selectedKeys.hasNext()) {
+					SelectionKey key = selectedKeys.next();
+					selectedKeys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						network.accept(key);
+					} else if (key.isReadable()) {
+						this.read(key);
+					} else if (key.isWritable()) {
+						this.write(key);
+					}
+				}
+			} catch (ClosedSelectorException e) {
+				break;
+			} catch (Exception e) {
+				server.getLog().printStackTrace(e);
+			}
+		}
+		server.getLog().info("Stopped " + getName());
+	}
+
+	/**
+	 * Applies the pending change requests to this reactor's selector. Change
+	 * requests for a channel that isn't registered yet are kept until it is,
+	 * and requests for closed channels are dropped.
+	 * 
+	 * @throws IOException if a channel couldn't be registered
+	 */
+	private void processChanges() throws IOException {
+		synchronized (this.pendingChanges) {
+			Iterator<NetChangeRequest> changes =
+					this.pendingChanges.iterator();
+			while (changes.hasNext()) {
+				NetChangeRequest change = changes.next();
+				if (!change.getChannel().isOpen()) {
+					changes.remove();
+					continue;
+				}
+				switch (change.getType()) {
+				case NetChangeRequest.REGISTER:
+					change.getChannel()
+							.register(this.selector,
+									change.getOperations())
+							.attach(change.getAttachment());
+					changes.remove();
+					break;
+				case NetChangeRequest.CHANGEOPS:
+					SelectionKey key =
+							change.getChannel().keyFor(this.selector);
+					if (key != null && key.isValid()) {
+						key.interestOps(change.getOperations());
+						changes.remove();
+					}
+					break;
+				default:
+					changes.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Processes a readable selection key, disconnecting the client if its
+	 * channel has reached end-of-stream or couldn't be read.
+	 * 
+	 * @param key the selection key
+	 */
+	private void read(final SelectionKey key) {
+		NetServerClient cli = ((Client) key.attachment()).getNetClient();
+		try {
+			int numRead = cli.read(key);
+			if (numRead > 0) {
+				bytesRead.addAndGet(numRead);
+			} else if (numRead < 0) {
+				cli.disconnect("End of stream");
+			}
+		} catch (IOException e) {
+			key.cancel();
+			cli.disconnect("Read failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Processes a writable selection key, disconnecting the client if its
+	 * channel couldn't be written.
+	 * 
+	 * @param key the selection key
+	 */
+	private void write(final SelectionKey key) {
+		NetServerClient c = ((Client) key.attachment()).getNetClient();
+		long syscalls = c.getWriteSyscallCount();
+		try {
+			bytesWritten.addAndGet(c.write(key));
+		} catch (IOException e) {
+			key.cancel();
+			c.disconnect("Write failed: " + e.getMessage());
+			return;
+		}
+		flushCount.incrementAndGet();
+		writeSyscallCount.addAndGet(c.getWriteSyscallCount() - syscalls);
+	}
+
+	/**
+	 * Pins the given channel to this reactor, registering it for reading once
+	 * the selector thread processes the change.
+	 * 
+	 * @param socketChannel the accepted channel
+	 * @param c the client bound to the channel
+	 */
+	public final void registerClient(final SocketChannel socketChannel,
+			final Client c) {
+		connectionCount.incrementAndGet();
+		c.getNetClient().bindReactor(this);
+		addChangeRequest(new NetChangeRequest(socketChannel,
+				NetChangeRequest.REGISTER, SelectionKey.OP_READ, c));
+		selector.wakeup();
+	}
+
+	/**
+	 * Removes a socket channel from this reactor's selector.
+	 * 
+	 * @param s the channel to remove
+	 */
+	public final void deregisterSocketChannel(final SocketChannel s) {
+		SelectionKey k = s.keyFor(selector);
+		if (k != null) {
+			k.cancel();
+		}
+		connectionCount.decrementAndGet();
+	}
+
+	/**
+	 * Adds a network change request to this reactor's change queue.
+	 * 
+	 * @param netChangeRequest the change request
+	 */
+	public final void addChangeRequest(
+			final NetChangeRequest netChangeRequest) {
+		pendingChanges.add(netChangeRequest);
+	}
+
+	/**
+	 * Wakes the selector bound to this reactor.
+	 */
+	public final void wakeSelector() {
+		selector.wakeup();
+	}
+
+	/**
+	 * Gets the selector bound to this reactor.
+	 * 
+	 * @return the selector
+	 */
+	public final Selector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Closes this reactor's selector after the thread has been woken and
+	 * joined.
+	 * 
+	 * @throws IOException if the selector couldn't be closed
+	 * @throws InterruptedException if interrupted while joining
+	 */
+	public final void dispose() throws IOException, InterruptedException {
+		selector.wakeup();
+		join();
+		selector.close();
+	}
+
+	/**
+	 * Gets the number of socket channels pinned to this reactor.
+	 * 
+	 * @return the connection count
+	 */
+	public final int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	/**
+	 * Gets the number of times this reactor has returned from a select call.
+	 * 
+	 * @return the select count
+	 */
+	public final long getSelectCount() {
+		return selectCount.get();
+	}
+
+	/**
+	 * Gets the number of bytes read by this reactor.
+	 * 
+	 * @return the bytes read
+	 */
+	public final long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	/**
+	 * Gets the number of bytes written by this reactor.
+	 * 
+	 * @return the bytes written
+	 */
+	public final long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	/**
+	 * Gets the number of send queue flushes performed by this reactor.
+	 * 
+	 * @return the flush count
+	 */
+	public final long getFlushCount() {
+		return flushCount.get();
+	}
+
+	/**
+	 * Gets the number of socket write calls made by this reactor.
+	 * 
+	 * @return the write call count
+	 */
+	public final long getWriteSyscallCount() {
+		return writeSyscallCount.get();
+	}
+}
@@ -4,31 +4,31 @@ import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.channels.spi.SelectorProvider;
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import com.pi.common.debug.PILogger;
 import com.pi.common.net.DataWorker;
-import com.pi.common.net.NetChangeRequest;
+import com.pi.common.net.DataWorkerPool;
+import com.pi.common.net.TrafficCapture;
 import com.pi.server.Server;
 import com.pi.server.client.Client;
+import com.pi.server.constants.ServerConstants;
+import com.pi.server.database.Paths;
 
 /**
- * The main server network class providing the main selector thread and data
- * worker.
+ * The main server network class providing the acceptor, the selector reactors
+ * and the data workers.
+ * <p>
+ * Accepted channels are pinned to the reactor with the fewest connections. If
+ * {@link ServerConstants#NETWORK_REACTOR_COUNT} is zero the acceptor performs
+ * all the reading and writing itself, like a single selector thread.
  * 
  * @author Westin
  * 
  */
-public class NetServer extends Thread {
+public class NetServer {
 	/**
 	 * The port this server is bound to.
 	 */
@@ -38,24 +38,40 @@ public class NetServer extends Thread {
 	 */
 	private ServerSocketChannel serverChannel;
 	/**
-	 * The selector this server uses.
+	 * The reactor that accepts incoming connections.
 	 */
-	private Selector selector;
+	private NetReactor acceptor;
 	/**
-	 * The data worker this network uses.
+	 * The reactors that accepted connections are balanced across.
 	 */
-	private DataWorker worker;
+	private NetReactor[] reactors;
 	/**
-	 * The pending changes on this network server.
+	 * The data workers this network processes packets on.
 	 */
-	private Queue<NetChangeRequest> pendingChanges =
-			new LinkedBlockingQueue<NetChangeRequest>();
+	private DataWorkerPool worker;
+	/**
+	 * The thread that flushes batched packets.
+	 */
+	private NetFlusher flusher;
+	/**
+	 * The timer wheel that handshake timeouts are scheduled on.
+	 */
+	private NetTimer timer;
+	/**
+	 * The thread that disposes disconnected clients.
+	 */
+	private NetHousekeeper housekeeper;
+	/**
+	 * The thread that receives datagrams, or <code>null</code> if there is no
+	 * datagram channel.
+	 */
+	private NetDatagramServer datagrams = null;
 	/**
 	 * The server this network is bound to.
 	 */
 	private Server server;
 	/**
-	 * If the selector thread is running.
+	 * If the reactor threads are running.
 	 */
 	private volatile boolean isRunning = true;
 
@@ -68,13 +84,53 @@ public class NetServer extends Thread {
 	 */
 	public NetServer(final Server sServer, final int sPort)
 			throws BindException {
-		super(sServer.getThreadGroup(), "NetSelector");
 		try {
 			this.server = sServer;
 			this.port = sPort;
-			this.selector = this.initSelector();
-			this.worker = new ServerDataWorker(this);
-			start();
+			int reactorCount =
+					ServerConstants.NETWORK_REACTOR_COUNT;
+			this.acceptor =
+					new NetReactor(server, this, "NetSelector");
+			if (reactorCount <= 0) {
+				this.reactors = new NetReactor[] { acceptor };
+			} else {
+				this.reactors = new NetReactor[reactorCount];
+				for (int i = 0; i < reactorCount; i++) {
+					reactors[i] =
+							new NetReactor(server, this, "NetReactor-" + i);
+				}
+			}
+			this.initServerChannel();
+			int workerCount =
+					Math.max(1, ServerConstants.NETWORK_WORKER_COUNT);
+			DataWorker[] workers = new DataWorker[workerCount];
+			for (int i = 0; i < workerCount; i++) {
+				workers[i] = new ServerDataWorker(this, i);
+			}
+			this.worker = new DataWorkerPool(workers);
+			this.flusher = new NetFlusher(server, this);
+			flusher.start();
+			this.timer = new NetTimer(server, this);
+			timer.start();
+			this.housekeeper = new NetHousekeeper(server, this);
+			housekeeper.start();
+			if (ServerConstants.NETWORK_DATAGRAMS) {
+				try {
+					this.datagrams = new NetDatagramServer(server, this, port);
+					datagrams.start();
+				} catch (IOException e) {
+					server.getLog().warning(
+							"Couldn't open the datagram channel on port "
+									+ port + ", sending all packets over TCP: "
+									+ e.getMessage());
+				}
+			}
+			acceptor.start();
+			if (reactors[0] != acceptor) {
+				for (NetReactor r : reactors) {
+					r.start();
+				}
+			}
 		} catch (BindException e) {
 			throw e;
 		} catch (IOException e) {
@@ -82,159 +138,118 @@ public class NetServer extends Thread {
 		}
 	}
 
-	@Override
-	public final void run() {
-		server.getLog().info("Started selector");
-		while (isConnected()) {
-			server.getClientManager().removeDeadClients();
-			server.getClientManager().updateHandshakes();
-			try {
-				// Process any pending changes
-				synchronized (this.pendingChanges) {
-					Iterator<NetChangeRequest> changes =
-							this.pendingChanges.iterator();
-					while (changes.hasNext()) {
-						NetChangeRequest change = changes.next();
-						switch (change.getType()) {
-						case NetChangeRequest.CHANGEOPS:
-							SelectionKey key =
-									change.getChannel().keyFor(
-											this.selector);
-							if (key != null && key.isValid()) {
-								key.interestOps(change
-										.getOperations());
-								changes.remove();
-							}
-						default:
-							break;
-						}
-					}
-				}
-				this.selector.select();
-				Iterator<SelectionKey> selectedKeys =
-						this.selector.selectedKeys().iterator();
-				while (selectedKeys.hasNext()) {
-					SelectionKey key = selectedKeys.next();
-					selectedKeys.remove();
-					if (!key.isValid()) {
-						continue;
-					}
-					if (key.isAcceptable()) {
-						this.accept(key);
-					} else if (key.isReadable()) {
-						this.read(key);
-					} else if (key.isWritable()) {
-						this.write(key);
-					}
-				}
-			} catch (ClosedSelectorException e) {
-				server.getLog().info("Closed selector");
-				break;
-			} catch (Exception e) {
-				server.getLog().printStackTrace(e);
-			}
-		}
-		server.getLog().info("Stopped selector");
+	/**
+	 * Gets the data workers that this server processes data on.
+	 * 
+	 * @return the data worker pool
+	 */
+	public final DataWorkerPool getWorker() {
+		return worker;
 	}
 
 	/**
-	 * Gets the data worker that this server processes data on.
+	 * Gets the thread that flushes batched packets.
 	 * 
-	 * @return the data worker
+	 * @return the flusher
 	 */
-	public final DataWorker getWorker() {
-		return worker;
+	public final NetFlusher getFlusher() {
+		return flusher;
+	}
+
+	/**
+	 * Gets the timer wheel that handshake timeouts are scheduled on.
+	 * 
+	 * @return the timer
+	 */
+	public final NetTimer getTimer() {
+		return timer;
+	}
+
+	/**
+	 * Gets the thread that disposes disconnected clients.
+	 * 
+	 * @return the housekeeper
+	 */
+	public final NetHousekeeper getHousekeeper() {
+		return housekeeper;
 	}
 
 	/**
-	 * Processes an acceptable selection key.
+	 * Gets the thread that receives datagrams.
+	 * 
+	 * @return the datagram server, or <code>null</code> if there is no
+	 *         datagram channel
+	 */
+	public final NetDatagramServer getDatagrams() {
+		return datagrams;
+	}
+
+	/**
+	 * Processes an acceptable selection key, pinning the accepted channel to
+	 * the least loaded reactor.
 	 * 
 	 * @param key the selection key
 	 * @throws IOException if an error occurs
 	 */
-	private void accept(final SelectionKey key)
-			throws IOException {
+	final void accept(final SelectionKey key) throws IOException {
 		ServerSocketChannel serverSocketChannel =
 				(ServerSocketChannel) key.channel();
 		SocketChannel socketChannel =
 				serverSocketChannel.accept();
+		if (socketChannel == null) {
+			return;
+		}
 		socketChannel.configureBlocking(false);
 		socketChannel.socket().setTcpNoDelay(false);
+		socketChannel.socket().setKeepAlive(
+				ServerConstants.NETWORK_TCP_KEEPALIVE);
 		Client c =
 				new Client(server, new NetServerClient(server,
 						socketChannel));
 		c.getNetClient().bindClient(c);
-		socketChannel.register(this.selector,
-				SelectionKey.OP_READ).attach(c);
-	}
-
-	/**
-	 * Processes a readable selection key.
-	 * 
-	 * @param key the selection key
-	 * @throws IOException if an error occurs
-	 */
-	private void read(final SelectionKey key) throws IOException {
-		SocketChannel socketChannel =
-				(SocketChannel) key.channel();
-		try {
-			NetServerClient cli =
-					((Client) key.attachment()).getNetClient();
-			cli.read(key);
-		} catch (IOException e) {
-			key.cancel();
-			socketChannel.close();
-			return;
+		if (ServerConstants.NETWORK_CAPTURE) {
+			try {
+				c.getNetClient().startCapture(
+						Paths.getCaptureFile(c.getID()),
+						TrafficCapture.SIDE_SERVER);
+			} catch (IOException e) {
+				server.getLog().printStackTrace(e);
+			}
 		}
+		getLeastLoadedReactor().registerClient(socketChannel, c);
 	}
 
 	/**
-	 * Processes a writable selection key.
+	 * Gets the reactor with the fewest pinned connections, preferring the
+	 * lowest index on ties.
 	 * 
-	 * @param key the selection key
-	 * @throws IOException if an error occurs
+	 * @return the least loaded reactor
 	 */
-	private void write(final SelectionKey key)
-			throws IOException {
-		SocketChannel socketChannel =
-				(SocketChannel) key.channel();
-		NetServerClient c =
-				((Client) key.attachment()).getNetClient();
-		synchronized (c.getSendQueue()) {
-			while (!c.getSendQueue().isEmpty()) {
-				ByteBuffer buf =
-						(ByteBuffer) c.getSendQueue().peek();
-				socketChannel.write(buf);
-				if (buf.remaining() > 0) {
-					break;
-				}
-				c.getSendQueue().poll();
-			}
-
-			if (c.getSendQueue().isEmpty()) {
-				key.interestOps(SelectionKey.OP_READ);
+	private NetReactor getLeastLoadedReactor() {
+		NetReactor best = reactors[0];
+		for (int i = 1; i < reactors.length; i++) {
+			if (reactors[i].getConnectionCount() < best
+					.getConnectionCount()) {
+				best = reactors[i];
 			}
 		}
+		return best;
 	}
 
 	/**
-	 * Creates the server channel and the selector bound to it.
+	 * Creates the server channel and registers it to the acceptor.
 	 * 
-	 * @return a new selector
 	 * @throws IOException if a creation error occurs
 	 */
-	private Selector initSelector() throws IOException {
-		Selector socketSelector =
-				SelectorProvider.provider().openSelector();
+	private void initServerChannel() throws IOException {
 		this.serverChannel = ServerSocketChannel.open();
 		serverChannel.configureBlocking(false);
 		InetSocketAddress isa =
 				new InetSocketAddress((InetAddress) null,
 						this.port);
 		serverChannel.socket().bind(isa);
-		serverChannel.register(socketSelector,
+		serverChannel.register(acceptor.getSelector(),
 				SelectionKey.OP_ACCEPT);
-		return socketSelector;
 	}
 
 	/**
@@ -243,11 +258,20 @@ public class NetServer extends Thread {
 	public final void dispose() {
 		try {
 			isRunning = false;
-			selector.wakeup();
-			join();
+			flusher.dispose();
+			timer.dispose();
+			acceptor.dispose();
+			if (reactors[0] != acceptor) {
+				for (NetReactor r : reactors) {
+					r.dispose();
+				}
+			}
+			housekeeper.dispose();
+			if (datagrams != null) {
+				datagrams.dispose();
+			}
 			worker.wakeup();
 			worker.join();
-			selector.close();
 			serverChannel.close();
 		} catch (Exception e) {
 			server.getLog().printStackTrace(e);
@@ -260,7 +284,7 @@ public class NetServer extends Thread {
 	 * @return if the network is connected
 	 */
 	public final boolean isConnected() {
-		return selector.isOpen() && serverChannel.isOpen()
+		return serverChannel != null && serverChannel.isOpen()
 				&& isRunning;
 	}
 
@@ -274,32 +298,20 @@ public class NetServer extends Thread {
 	}
 
 	/**
-	 * Wakes the selector bound to this server.
-	 */
-	public final void wakeSelector() {
-		selector.wakeup();
-	}
-
-	/**
-	 * Adds a network change request to the change queue.
+	 * Gets the reactors that accepted connections are balanced across.
 	 * 
-	 * @param netChangeRequest the change request
+	 * @return the reactors
 	 */
-	public final void addChangeRequest(
-			final NetChangeRequest netChangeRequest) {
-		pendingChanges.add(netChangeRequest);
+	public final NetReactor[] getReactors() {
+		return reactors;
 	}
 
 	/**
-	 * Removes a socket channel from this selector.
+	 * Gets the server instance this network is bound to.
 	 * 
-	 * @param s the channel to remove
+	 * @return the server
 	 */
-	public final void deregisterSocketChannel(
-			final SocketChannel s) {
-		SelectionKey k = s.keyFor(selector);
-		if (k != null) {
-			k.cancel();
-		}
+	public final Server getServer() {
+		return server;
 	}
 }
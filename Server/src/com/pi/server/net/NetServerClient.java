@@ -3,15 +3,22 @@ package com.pi.server.net;
 import java.io.IOException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.pi.common.constants.NetworkConstants;
 import com.pi.common.debug.PILogger;
 import com.pi.common.net.NetChangeRequest;
 import com.pi.common.net.NetClient;
 import com.pi.common.net.NetHandler;
 import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.Packet32KeepAlive;
+import com.pi.common.net.packet.Packet33DatagramOffer;
 import com.pi.common.net.packet.PacketManager;
 import com.pi.server.Server;
 import com.pi.server.client.Client;
+import com.pi.server.constants.ServerConstants;
 
 /**
  * A network client bound to a network server.
@@ -36,14 +43,43 @@ public class NetServerClient extends NetClient {
 	 * The client bound to this network instance.
 	 */
 	private Client cliRef = null;
+	/**
+	 * The reactor this client's channel is pinned to.
+	 */
+	private NetReactor reactor = null;
+	/**
+	 * The datagram channel this client has been offered, or <code>null</code>
+	 * if it hasn't been offered one.
+	 */
+	private volatile DatagramSession datagrams = null;
 
 	/**
-	 * An array of handshake confirmation objects with enough elements for each
-	 * packet ID number to be set.
+	 * The unconfirmed packets sent to this client that require a handshake,
+	 * in the order they were sent, indexed by packet ID. Also guards
+	 * {@link #handshakeSequences}.
 	 */
-	private HandshakeConfirmation[] handshakes =
-			new HandshakeConfirmation[PacketManager
+	@SuppressWarnings("unchecked")
+	private final Queue<HandshakeConfirmation>[] handshakes =
+			(Queue<HandshakeConfirmation>[]) new Queue<?>[PacketManager
 					.getInstance().getPairCount()];
+	/**
+	 * The number of packets requiring a handshake sent to this client, indexed
+	 * by packet ID.
+	 */
+	private final int[] handshakeSequences = new int[handshakes.length];
+	/**
+	 * If this client has been disconnected.
+	 */
+	private final AtomicBoolean disconnected = new AtomicBoolean();
+	/**
+	 * The timeout that checks if this client has gone idle.
+	 */
+	private final NetTimer.Timeout idleCheck = new NetTimer.Timeout() {
+		@Override
+		protected void expire() {
+			checkIdle();
+		}
+	};
 
 	/**
 	 * Creates a network server client for the given server and channel.
@@ -56,6 +92,10 @@ public class NetServerClient extends NetClient {
 		super(socket);
 		this.server = sServer;
 		this.handler = new NetServerHandler(server, this);
+		setBatching(ServerConstants.NETWORK_BATCHING);
+		setSendLimits(ServerConstants.NETWORK_SEND_SOFT_LIMIT,
+				ServerConstants.NETWORK_SEND_HARD_LIMIT,
+				ServerConstants.NETWORK_SEND_OVERFLOW_TIME);
 	}
 
 	/**
@@ -72,6 +112,18 @@ public class NetServerClient extends NetClient {
 		}
 	}
 
+	/**
+	 * Pins this network client to the given reactor, and starts checking if
+	 * it has gone idle.
+	 * 
+	 * @param r the reactor that owns this client's channel
+	 */
+	final void bindReactor(final NetReactor r) {
+		this.reactor = r;
+		getTimer().schedule(idleCheck,
+				ServerConstants.NETWORK_KEEPALIVE_TIME);
+	}
+
 	@Override
 	public final PILogger getLog() {
 		return server.getLog();
@@ -96,61 +148,249 @@ public class NetServerClient extends NetClient {
 	}
 
 	/**
-	 * Disposes this network client for the given reason.
+	 * Closes this client's channel for the given reason, and reports the
+	 * client to the network's housekeeper to be disposed. Only the first call
+	 * has any effect.
 	 * 
 	 * @param reason the reason
-	 * @param details the details behind the reason
 	 */
-	public final void dispose(final String reason,
-			final String details) { // TODO
-		server.getNetwork()
-				.deregisterSocketChannel(getChannel());
+	public final void disconnect(final String reason) {
+		if (!disconnected.compareAndSet(false, true)) {
+			return;
+		}
+		getLog().info("Disconnecting " + this + ": " + reason);
+		try {
+			getChannel().close();
+		} catch (IOException e) {
+			getLog().printStackTrace(e);
+		}
+		if (cliRef != null) {
+			server.getNetwork().getHousekeeper().disconnected(cliRef);
+		}
 	}
 
 	/**
-	 * Disposes this network client.
+	 * Checks how long it has been since anything was read from this client,
+	 * disconnecting it if it has been idle for too long, and sending it a keep
+	 * alive probe if it has been quiet for a while and supports them.
 	 */
-	public final void dispose() {
-		server.getNetwork()
-				.deregisterSocketChannel(getChannel());
+	private void checkIdle() {
+		if (disconnected.get()) {
+			return;
+		}
+		long idle = System.currentTimeMillis() - getLastReadTime();
+		if (idle >= ServerConstants.NETWORK_IDLE_TIMEOUT) {
+			disconnect("Idle for " + idle + "ms");
+			return;
+		}
+		long next = ServerConstants.NETWORK_KEEPALIVE_TIME - idle;
+		if (next <= 0) {
+			if (cliRef != null
+					&& cliRef.hasFeature(NetworkConstants.FEATURE_KEEPALIVE)) {
+				send(Packet32KeepAlive.create());
+			}
+			next =
+					Math.min(ServerConstants.NETWORK_KEEPALIVE_TIME,
+							ServerConstants.NETWORK_IDLE_TIMEOUT - idle);
+		}
+		getTimer().schedule(idleCheck, next);
 	}
 
 	/**
-	 * Runs through the handshakes, looking for any that need to be resent.
+	 * Disposes this network client, removing it from it's reactor and
+	 * cancelling its timeouts.
 	 */
-	public final void checkHandshakes() {
-		for (int i = 0; i < handshakes.length; i++) {
-			if (handshakes[i] != null
-					&& handshakes[i].needToResend()) {
-				Packet p = handshakes[i].getPacket();
-				getLog().severe(
-						"Have to resend " + p.getName()
-								+ " due to a handshake timeout!");
-				handshakes[i] = null;
-				send(p);
+	public final synchronized void dispose() {
+		disconnected.set(true);
+		if (reactor != null) {
+			reactor.deregisterSocketChannel(getChannel());
+			reactor = null;
+		}
+		try {
+			getChannel().close();
+		} catch (IOException e) {
+			getLog().printStackTrace(e);
+		}
+		releaseSendQueue();
+		stopCapture();
+		getTimer().cancel(idleCheck);
+		if (datagrams != null) {
+			datagrams.close();
+		}
+		synchronized (handshakes) {
+			for (Queue<HandshakeConfirmation> q : handshakes) {
+				if (q != null) {
+					for (HandshakeConfirmation h : q) {
+						getTimer().cancel(h);
+					}
+					q.clear();
+				}
 			}
 		}
 	}
 
 	/**
-	 * Called when this client receives a handshake packet.
+	 * Gets the timer that handshake timeouts are scheduled on.
+	 * 
+	 * @return the network timer
+	 */
+	private NetTimer getTimer() {
+		return server.getNetwork().getTimer();
+	}
+
+	/**
+	 * Called when this client receives a handshake packet, confirming every
+	 * packet with the given ID up to the given sequence number. Clients that
+	 * don't send a sequence number confirm the oldest packet with the ID.
 	 * 
 	 * @param packetID the packet id number
+	 * @param sequence the number of packets with the ID the client has
+	 *            received, or <code>-1</code> if not given
 	 */
-	public final void onHandshake(final int packetID) {
-		if (packetID >= 0 && packetID < handshakes.length) {
-			handshakes[packetID] = null;
+	public final void onHandshake(final int packetID, final int sequence) {
+		if (packetID < 0 || packetID >= handshakes.length) {
+			return;
+		}
+		synchronized (handshakes) {
+			Queue<HandshakeConfirmation> q = handshakes[packetID];
+			if (q == null) {
+				return;
+			}
+			HandshakeConfirmation h;
+			while ((h = q.peek()) != null
+					&& (sequence < 0 || h.getSequence() - sequence <= 0)) {
+				q.poll();
+				getTimer().cancel(h);
+				if (sequence < 0) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called on the network timer when a packet hasn't been confirmed in time,
+	 * resending it unless it was confirmed in the meantime.
+	 * 
+	 * @param h the handshake confirmation that expired
+	 */
+	final void onHandshakeTimeout(final HandshakeConfirmation h) {
+		Packet p = h.getPacket();
+		synchronized (handshakes) {
+			Queue<HandshakeConfirmation> q = handshakes[p.getID()];
+			if (q == null || !q.remove(h)) {
+				return;
+			}
+		}
+		getLog().severe(
+				"Have to resend " + p.getName()
+						+ " due to a handshake timeout!");
+		send(p);
+	}
+
+	/**
+	 * Gets the number of packets sent to this client that are waiting for a
+	 * handshake.
+	 * 
+	 * @return the unconfirmed packet count
+	 */
+	public final int getUnconfirmedCount() {
+		int count = 0;
+		synchronized (handshakes) {
+			for (Queue<HandshakeConfirmation> q : handshakes) {
+				if (q != null) {
+					count += q.size();
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Offers this client a datagram channel for its unreliable packets, if the
+	 * network has a datagram server and this client hasn't been offered one
+	 * already. Until the client opens the channel, unreliable packets are sent
+	 * over TCP as before.
+	 */
+	public final void offerDatagrams() {
+		NetDatagramServer ds = server.getNetwork().getDatagrams();
+		if (ds == null || datagrams != null) {
+			return;
+		}
+		datagrams = ds.open(this);
+		send(Packet33DatagramOffer.create(datagrams.getToken(), ds.getPort()));
+	}
+
+	/**
+	 * Gets a short description of how unreliable packets are being sent to
+	 * this client.
+	 * 
+	 * @return <code>UDP</code> if the datagram channel is open,
+	 *         <code>TCP</code> if it was offered but isn't open, or
+	 *         <code>-</code> if it wasn't offered
+	 */
+	public final String getDatagramState() {
+		DatagramSession s = datagrams;
+		if (s == null) {
+			return "-";
+		}
+		if (s.isActive()) {
+			return "UDP " + s.getPendingCount();
+		}
+		return "TCP";
+	}
+
+	@Override
+	protected final boolean sendUnreliable(final Packet p, final int epoch) {
+		DatagramSession s = datagrams;
+		return s != null && s.offer(p, epoch);
+	}
+
+	@Override
+	protected final void beforeCounted(final int stateKey) {
+		DatagramSession s = datagrams;
+		if (s != null) {
+			s.takeOver(stateKey);
+		}
+	}
+
+	@Override
+	protected final void onFlush() {
+		DatagramSession s = datagrams;
+		if (s != null) {
+			s.flush();
 		}
 	}
 
 	@Override
 	public final void onSend(final Packet p) {
-		if (p.requiresHandshake() && p.getID() >= 0
-				&& p.getID() < handshakes.length) {
-			handshakes[p.getID()] = new HandshakeConfirmation(p);
+		int id = p.getID();
+		if (!p.requiresHandshake() || id < 0 || id >= handshakes.length) {
+			return;
+		}
+		synchronized (handshakes) {
+			if (handshakes[id] == null) {
+				handshakes[id] = new LinkedList<HandshakeConfirmation>();
+			}
+			HandshakeConfirmation h =
+					new HandshakeConfirmation(this, p,
+							++handshakeSequences[id]);
+			handshakes[id].add(h);
+			getTimer().schedule(h, NetworkConstants.HANDSHAKE_EXPIRY_TIME);
 		}
 	}
 
+	/**
+	 * Disconnects this client, as it hasn't been reading the data sent to it
+	 * quickly enough.
+	 */
+	@Override
+	protected final void onSendOverflow() {
+		disconnect("Send queue overflow, over "
+				+ ServerConstants.NETWORK_SEND_HARD_LIMIT + " bytes queued for "
+				+ ServerConstants.NETWORK_SEND_OVERFLOW_TIME + "ms");
+	}
+
 	@Override
 	public final void processData(final byte[] data,
 			final int off, final int len) {
@@ -164,10 +404,17 @@ public class NetServerClient extends NetClient {
 
 	@Override
 	public final void addWriteRequest() {
-		server.getNetwork().addChangeRequest(
-				new NetChangeRequest(getChannel(),
-						NetChangeRequest.CHANGEOPS,
-						SelectionKey.OP_WRITE));
+		NetReactor r = reactor;
+		if (r != null) {
+			r.addChangeRequest(new NetChangeRequest(getChannel(),
+					NetChangeRequest.CHANGEOPS,
+					SelectionKey.OP_WRITE));
+		}
+	}
+
+	@Override
+	protected final void scheduleFlush() {
+		server.getNetwork().getFlusher().schedule(this);
 	}
 
 	@Override
@@ -177,7 +424,10 @@ public class NetServerClient extends NetClient {
 
 	@Override
 	public final void wakeSelector() {
-		server.getNetwork().wakeSelector();
+		NetReactor r = reactor;
+		if (r != null) {
+			r.wakeSelector();
+		}
 	}
 
 	@Override
@@ -3,6 +3,7 @@ package com.pi.server.net;
 import java.util.Iterator;
 
 import com.pi.common.constants.Direction;
+import com.pi.common.constants.NetworkConstants;
 import com.pi.common.constants.GameState;
 import com.pi.common.database.Account;
 import com.pi.common.database.Item;
@@ -12,6 +13,7 @@ import com.pi.common.game.entity.Entity;
 import com.pi.common.game.entity.comp.HealthComponent;
 import com.pi.common.game.entity.comp.ItemLinkageComponent;
 import com.pi.common.net.NetHandler;
+import com.pi.common.net.WireFormat;
 import com.pi.common.net.packet.Packet;
 import com.pi.common.net.packet.Packet0Handshake;
 import com.pi.common.net.packet.Packet10EntityDataRequest;
@@ -25,10 +27,12 @@ import com.pi.common.net.packet.Packet1Login;
 import com.pi.common.net.packet.Packet22ItemDefRequest;
 import com.pi.common.net.packet.Packet25InventoryUpdate;
 import com.pi.common.net.packet.Packet2Alert;
+import com.pi.common.net.packet.Packet32KeepAlive;
 import com.pi.common.net.packet.Packet3Register;
 import com.pi.common.net.packet.Packet5SectorRequest;
 import com.pi.server.Server;
 import com.pi.server.client.Client;
+import com.pi.server.constants.ServerConstants;
 import com.pi.server.entity.ServerEntity;
 
 /**
@@ -88,13 +92,22 @@ public class NetServerHandler extends NetHandler {
 		netClient.send(p);
 	}
 
+	/**
+	 * Processes a keep alive packet, id 32. Receiving it is all that matters,
+	 * as it marks the client as active.
+	 * 
+	 * @param p the packet
+	 */
+	public final void process(final Packet32KeepAlive p) {
+	}
+
 	/**
 	 * Processes a handshake packet, id 0.
 	 * 
 	 * @param p the packet
 	 */
 	public final void process(final Packet0Handshake p) {
-		netClient.onHandshake(p.packetShake);
+		netClient.onHandshake(p.packetShake, p.sequence);
 	}
 
 	/**
@@ -103,15 +116,40 @@ public class NetServerHandler extends NetHandler {
 	 * @param p the packet
 	 */
 	public final void process(final Packet1Login p) {
+		Client cli = getClient();
+		if (cli != null) {
+			cli.setFeatures(p.features);
+			if (ServerConstants.NETWORK_WIRE_V2
+					&& cli.hasFeature(NetworkConstants.FEATURE_WIRE_V2)) {
+				netClient.switchWireFormat(WireFormat.V2);
+			}
+			netClient.setChunking(ServerConstants.NETWORK_BULK_LANE
+					&& cli.hasFeature(NetworkConstants.FEATURE_CHUNKED_BULK));
+		}
 		try {
 			Account acc =
 					server.getDatabase().getAccounts()
 							.getAccount(p.username);
 			if (acc != null) {
 				if (acc.getPasswordHash().equals(p.password)) {
-					getClient().bindAccount(acc);
+					synchronized (server.getWorldLock()) {
+						Client bound =
+								server.getClientManager()
+										.getClientByAccount(acc);
+						if (bound != null && bound != getClient()) {
+							netClient.send(Packet2Alert
+									.create("That account is already logged in"));
+							return;
+						}
+						getClient().bindAccount(acc);
+					}
 					netClient.send(Packet15GameState
 							.create(GameState.MAIN_GAME));
+					if (ServerConstants.NETWORK_DATAGRAMS
+							&& getClient().hasFeature(
+									NetworkConstants.FEATURE_DATAGRAMS)) {
+						netClient.offerDatagrams();
+					}
 				} else {
 					netClient.send(Packet2Alert
 							.create("Invalid password"));
@@ -180,26 +218,30 @@ public class NetServerHandler extends NetHandler {
 		Client cli =
 				server.getClientManager().getClient(
 						netClient.getID());
-		if (cli != null) {
-			Entity ent = cli.getEntity();
-			if (ent != null) {
-				Location origin =
-						new Location(ent.x, ent.plane, ent.z);
-				Location l = p.apply(ent);
-				int xC = l.x - ent.x;
-				int zC = l.z - ent.z;
-				Direction dir =
-						Direction.getBestDirection(xC, zC);
-				if (Location.dist(origin, l) < 2
-						&& ent.canMoveIn(server.getWorld(), dir)) {
-					ent.teleportShort(l);
-					server.getEntityManager().sendEntityMove(
-							ent.getEntityID(), origin, l,
-							ent.getDir());
-				} else {
-					cli.getNetClient().send(
-							Packet16EntityMove.create(cli
-									.getEntity()));
+		synchronized (server.getWorldLock()) {
+			if (cli != null) {
+				Entity ent = cli.getEntity();
+				if (ent != null) {
+					Location origin =
+							new Location(ent.x, ent.plane, ent.z);
+					Location l = p.apply(ent);
+					int xC = l.x - ent.x;
+					int zC = l.z - ent.z;
+					Direction dir =
+							Direction.getBestDirection(xC, zC);
+					if (Location.dist(origin, l) < 2
+							&& ent.canMoveIn(server.getWorld(), dir)) {
+						ent.teleportShort(l);
+						cli.getReplicator().moved(ent.getEntityID(), ent);
+						server.getEntityManager().sendEntityMove(
+								ent.getEntityID(), origin, l,
+								ent.getDir());
+					} else {
+						cli.getReplicator().moved(ent.getEntityID(), ent);
+						cli.getNetClient().send(
+								Packet16EntityMove.create(cli
+										.getEntity()));
+					}
 				}
 			}
 		}
@@ -214,79 +256,82 @@ public class NetServerHandler extends NetHandler {
 		Client cli =
 				server.getClientManager().getClient(
 						netClient.getID());
-		if (cli != null && cli.getEntity() != null) {
-			ServerEntity sE =
-					server.getEntityManager()
-							.getEntityContainer(
-									cli.getEntity()
-											.getEntityID());
-			Location findAt;
-			if (p.button.isTargetInMyDirection()) {
-				findAt =
-						new Location(cli.getEntity().x
-								+ cli.getEntity().getDir()
-										.getXOff(),
-								cli.getEntity().plane,
-								cli.getEntity().z
-										+ cli.getEntity()
-												.getDir()
-												.getZOff());
-			} else {
-				findAt = cli.getEntity();
-			}
-			Iterator<ServerEntity> entz =
-					server.getEntityManager()
-							.getEntitiesAtLocation(findAt);
-			switch (p.button) {
-			case ATTACK:
-				if (!sE.isAttacking()) {
+		synchronized (server.getWorldLock()) {
+			if (cli != null && cli.getEntity() != null) {
+				ServerEntity sE =
+						server.getEntityManager()
+								.getEntityContainer(
+										cli.getEntity()
+												.getEntityID());
+				Location findAt;
+				if (p.button.isTargetInMyDirection()) {
+					findAt =
+							new Location(cli.getEntity().x
+									+ cli.getEntity().getDir()
+											.getXOff(),
+									cli.getEntity().plane,
+									cli.getEntity().z
+											+ cli.getEntity()
+													.getDir()
+													.getZOff());
+				} else {
+					findAt = cli.getEntity();
+				}
+				Iterator<ServerEntity> entz =
+						server.getEntityManager()
+								.getEntitiesAtLocation(findAt);
+				switch (p.button) {
+				case ATTACK:
+					if (!sE.isAttacking()) {
+						while (entz.hasNext()) {
+							ServerEntity ent = entz.next();
+							HealthComponent lC =
+									(HealthComponent) ent
+											.getWrappedEntity()
+											.getComponent(
+													HealthComponent.class);
+							if (lC != null) {
+								server.getLogic().getCombatLogic()
+										.entityAttackEntity(sE, ent);
+								break;
+							}
+						}
+					}
+					break;
+				case GRAB:
 					while (entz.hasNext()) {
 						ServerEntity ent = entz.next();
-						HealthComponent lC =
-								(HealthComponent) ent
+						ItemLinkageComponent iLC =
+								(ItemLinkageComponent) ent
 										.getWrappedEntity()
 										.getComponent(
-												HealthComponent.class);
-						if (lC != null) {
-							server.getLogic().getCombatLogic()
-									.entityAttackEntity(sE, ent);
-							break;
-						}
-					}
-				}
-				break;
-			case GRAB:
-				while (entz.hasNext()) {
-					ServerEntity ent = entz.next();
-					ItemLinkageComponent iLC =
-							(ItemLinkageComponent) ent
-									.getWrappedEntity()
-									.getComponent(
-											ItemLinkageComponent.class);
-					server.getLog().info("LOOKAT: " + iLC);
-					if (iLC != null) {
-						int slot =
+												ItemLinkageComponent.class);
+						server.getLog().info("LOOKAT: " + iLC);
+						if (iLC != null) {
+							int slot =
+									cli.getAccount().getInventory()
+											.getFreeSlot();
+							if (slot == -1) {
+								break;
+							}
+							// Only the handler that disposes the item gets it.
+							if (server.getEntityManager()
+									.sendEntityDispose(ent)) {
+								Item itm =
+										new Item(iLC.getItemID(), 1);
 								cli.getAccount().getInventory()
-										.getFreeSlot();
-						if (slot != -1) {
-							Item itm =
-									new Item(iLC.getItemID(), 1);
-							cli.getAccount().getInventory()
-									.setInventoryAt(slot, itm);
-							netClient
-									.send(Packet25InventoryUpdate
-											.create(itm, slot));
-							server.getEntityManager()
-									.sendEntityDispose(
-											ent.getWrappedEntity()
-													.getEntityID());
-							break;
+										.setInventoryAt(slot, itm);
+								netClient
+										.send(Packet25InventoryUpdate
+												.create(itm, slot));
+								break;
+							}
 						}
 					}
+					break;
+				default:
+					break;
 				}
-				break;
-			default:
-				break;
 			}
 		}
 	}
@@ -0,0 +1,307 @@
+package com.pi.server.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi.server.Server;
+import com.pi.server.constants.ServerConstants;
+
+/**
+ * A hashed timer wheel shared by every network client, that expires the
+ * timeouts scheduled on it.
+ * <p>
+ * The wheel has {@link ServerConstants#NETWORK_TIMER_WHEEL_SIZE} buckets, each
+ * covering {@link ServerConstants#NETWORK_TIMER_TICK} milliseconds. A timeout
+ * is linked into the bucket its deadline falls in, along with the number of
+ * times the wheel has to turn before it's due, so scheduling and cancelling
+ * take constant time, and each tick only looks at a single bucket. The thread
+ * waits without ticking while no timeouts are scheduled.
+ * 
+ * @author Westin
+ * 
+ */
+public class NetTimer extends Thread {
+	/**
+	 * A timeout that can be scheduled on a timer wheel. A timeout can be
+	 * scheduled on one wheel at a time.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	public abstract static class Timeout {
+		/**
+		 * The next timeout in this timeout's bucket.
+		 */
+		private Timeout next = null;
+		/**
+		 * The previous timeout in this timeout's bucket.
+		 */
+		private Timeout prev = null;
+		/**
+		 * The bucket this timeout is linked into, or <code>-1</code> if it
+		 * isn't scheduled.
+		 */
+		private int bucket = -1;
+		/**
+		 * The number of times the wheel has to pass this timeout's bucket
+		 * before it's due.
+		 */
+		private long rounds = 0;
+
+		/**
+		 * Called on the timer thread once this timeout is due. The timeout is
+		 * no longer scheduled, and can be scheduled again.
+		 */
+		protected abstract void expire();
+	}
+
+	/**
+	 * The network server this timer belongs to.
+	 */
+	private final NetServer network;
+	/**
+	 * The server instance.
+	 */
+	private final Server server;
+	/**
+	 * The first timeout in each bucket.
+	 */
+	private final Timeout[] wheel;
+	/**
+	 * The mask giving the bucket of a tick.
+	 */
+	private final int mask;
+	/**
+	 * The last tick that has been processed.
+	 */
+	private long tick = 0;
+	/**
+	 * The number of scheduled timeouts.
+	 */
+	private int pending = 0;
+
+	/**
+	 * The number of timeouts that have been scheduled.
+	 */
+	private final AtomicLong scheduledCount = new AtomicLong();
+	/**
+	 * The number of timeouts that have been cancelled before they were due.
+	 */
+	private final AtomicLong cancelledCount = new AtomicLong();
+	/**
+	 * The number of timeouts that have expired.
+	 */
+	private final AtomicLong expiredCount = new AtomicLong();
+	/**
+	 * The number of ticks this timer has processed.
+	 */
+	private final AtomicLong tickCount = new AtomicLong();
+
+	/**
+	 * Creates a timer bound to the given network server.
+	 * 
+	 * @param sServer the server instance
+	 * @param sNetwork the network server
+	 */
+	public NetTimer(final Server sServer, final NetServer sNetwork) {
+		super(sServer.getThreadGroup(), "NetTimer");
+		this.server = sServer;
+		this.network = sNetwork;
+		int size = Integer.highestOneBit(Math.max(1,
+				ServerConstants.NETWORK_TIMER_WHEEL_SIZE - 1)) << 1;
+		this.wheel = new Timeout[size];
+		this.mask = size - 1;
+	}
+
+	@Override
+	public final void run() {
+		server.getLog().info("Started " + getName());
+		long tickNanos = ServerConstants.NETWORK_TIMER_TICK * 1000000L;
+		long nextTick = System.nanoTime() + tickNanos;
+		List<Timeout> expired = new ArrayList<Timeout>();
+		while (network.isConnected()) {
+			try {
+				synchronized (wheel) {
+					if (pending == 0) {
+						wheel.wait();
+						nextTick = System.nanoTime() + tickNanos;
+						continue;
+					}
+				}
+				long wait = nextTick - System.nanoTime();
+				if (wait > 0) {
+					Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+				}
+				synchronized (wheel) {
+					advance(expired);
+				}
+				nextTick += tickNanos;
+				for (Timeout t : expired) {
+					t.expire();
+				}
+			} catch (InterruptedException e) {
+				continue;
+			} catch (Exception e) {
+				server.getLog().printStackTrace(e);
+			} finally {
+				expired.clear();
+			}
+		}
+		server.getLog().info("Stopped " + getName());
+	}
+
+	/**
+	 * Processes the next tick, unlinking every timeout in its bucket that is
+	 * due. Must be called while holding the wheel's lock.
+	 * 
+	 * @param expired the list to add the due timeouts to
+	 */
+	private void advance(final List<Timeout> expired) {
+		tick++;
+		tickCount.incrementAndGet();
+		int b = (int) (tick & mask);
+		Timeout t = wheel[b];
+		while (t != null) {
+			Timeout next = t.next;
+			if (t.rounds > 0) {
+				t.rounds--;
+			} else {
+				unlink(t);
+				expired.add(t);
+				expiredCount.incrementAndGet();
+			}
+			t = next;
+		}
+	}
+
+	/**
+	 * Schedules the given timeout to expire after the given delay, rounded up
+	 * to a whole number of ticks. If the timeout is already scheduled it's
+	 * rescheduled.
+	 * 
+	 * @param t the timeout
+	 * @param delay the delay in milliseconds
+	 */
+	public final void schedule(final Timeout t, final long delay) {
+		long ticks =
+				Math.max(1, (delay + ServerConstants.NETWORK_TIMER_TICK - 1)
+						/ ServerConstants.NETWORK_TIMER_TICK);
+		synchronized (wheel) {
+			if (t.bucket >= 0) {
+				unlink(t);
+			}
+			int b = (int) ((tick + ticks) & mask);
+			t.rounds = (ticks - 1) / wheel.length;
+			t.bucket = b;
+			t.prev = null;
+			t.next = wheel[b];
+			if (t.next != null) {
+				t.next.prev = t;
+			}
+			wheel[b] = t;
+			if (pending++ == 0) {
+				wheel.notify();
+			}
+		}
+		scheduledCount.incrementAndGet();
+	}
+
+	/**
+	 * Cancels the given timeout if it's scheduled.
+	 * 
+	 * @param t the timeout
+	 * @return <code>true</code> if the timeout was scheduled,
+	 *         <code>false</code> if it had already expired or been cancelled
+	 */
+	public final boolean cancel(final Timeout t) {
+		synchronized (wheel) {
+			if (t.bucket < 0) {
+				return false;
+			}
+			unlink(t);
+		}
+		cancelledCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Removes a scheduled timeout from its bucket. Must be called while
+	 * holding the wheel's lock.
+	 * 
+	 * @param t the timeout
+	 */
+	private void unlink(final Timeout t) {
+		if (t.prev != null) {
+			t.prev.next = t.next;
+		} else {
+			wheel[t.bucket] = t.next;
+		}
+		if (t.next != null) {
+			t.next.prev = t.prev;
+		}
+		t.next = null;
+		t.prev = null;
+		t.bucket = -1;
+		pending--;
+	}
+
+	/**
+	 * Gets the number of timeouts that are scheduled.
+	 * 
+	 * @return the pending timeout count
+	 */
+	public final int getPendingCount() {
+		synchronized (wheel) {
+			return pending;
+		}
+	}
+
+	/**
+	 * Gets the number of timeouts that have been scheduled.
+	 * 
+	 * @return the scheduled count
+	 */
+	public final long getScheduledCount() {
+		return scheduledCount.get();
+	}
+
+	/**
+	 * Gets the number of timeouts that have been cancelled before they were
+	 * due.
+	 * 
+	 * @return the cancelled count
+	 */
+	public final long getCancelledCount() {
+		return cancelledCount.get();
+	}
+
+	/**
+	 * Gets the number of timeouts that have expired.
+	 * 
+	 * @return the expired count
+	 */
+	public final long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	/**
+	 * Gets the number of ticks this timer has processed.
+	 * 
+	 * @return the tick count
+	 */
+	public final long getTickCount() {
+		return tickCount.get();
+	}
+
+	/**
+	 * Stops this timer once the network server has been disconnected. Any
+	 * timeouts that are still scheduled never expire.
+	 * 
+	 * @throws InterruptedException if interrupted while joining
+	 */
+	public final void dispose() throws InterruptedException {
+		interrupt();
+		join();
+	}
+}
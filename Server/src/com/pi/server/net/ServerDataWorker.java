@@ -19,10 +19,13 @@ public class ServerDataWorker extends DataWorker {
 	 * Creates a data worker for the given network server.
 	 * 
 	 * @param sT the network server
+	 * @param index the index of this worker in the network server's pool
 	 */
-	public ServerDataWorker(final NetServer sT) {
-		super(sT.getThreadGroup());
+	public ServerDataWorker(final NetServer sT, final int index) {
+		super(sT.getServer().getThreadGroup(), "NetDataWorker-"
+				+ index);
 		this.t = sT;
+		start();
 	}
 
 	@Override
@@ -0,0 +1,195 @@
+package com.pi.server.world;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.pi.common.constants.SectorConstants;
+import com.pi.common.database.world.Sector;
+import com.pi.common.database.world.Tile;
+import com.pi.common.net.PacketOutputStream;
+
+/**
+ * A bounded journal of the tiles changed by each revision of a sector, used to
+ * work out which tiles a client that's a few revisions behind is missing.
+ * Entries are kept for consecutive revisions only, and the oldest entry is
+ * dropped once the journal is full.
+ * 
+ * @author Westin
+ * 
+ */
+final class SectorJournal {
+	/**
+	 * The revision of each entry, in a ring starting at {@link #start}.
+	 */
+	private final int[] revisions;
+	/**
+	 * The local indices of the tiles changed by each entry.
+	 */
+	private final int[][] changes;
+	/**
+	 * The ring index of the oldest entry.
+	 */
+	private int start = 0;
+	/**
+	 * The number of entries in the journal.
+	 */
+	private int count = 0;
+	/**
+	 * The revision the oldest entry was made on top of. Patches can be
+	 * created from this revision onwards.
+	 */
+	private int baseRevision = 0;
+
+	/**
+	 * Creates a journal that keeps the given number of revisions.
+	 * 
+	 * @param capacity the number of revisions to keep
+	 */
+	SectorJournal(final int capacity) {
+		revisions = new int[capacity];
+		changes = new int[capacity][];
+	}
+
+	/**
+	 * Records the tiles changed by the given revision. If the revision doesn't
+	 * directly follow the newest entry the journal is restarted from it.
+	 * 
+	 * @param revision the new revision
+	 * @param tiles the local indices of the changed tiles
+	 */
+	void record(final int revision, final int[] tiles) {
+		if (revisions.length == 0) {
+			return;
+		}
+		if (count == 0
+				|| revisions[(start + count - 1) % revisions.length] != revision - 1) {
+			clear();
+			baseRevision = revision - 1;
+		}
+		if (count == revisions.length) {
+			baseRevision = revisions[start];
+			start = (start + 1) % revisions.length;
+			count--;
+		}
+		int i = (start + count) % revisions.length;
+		revisions[i] = revision;
+		changes[i] = tiles;
+		count++;
+	}
+
+	/**
+	 * Removes every entry, so no patches can be made until the next revision
+	 * is recorded.
+	 */
+	void clear() {
+		Arrays.fill(changes, null);
+		start = 0;
+		count = 0;
+	}
+
+	/**
+	 * Gets the local indices of every tile changed after the given revision,
+	 * in ascending order.
+	 * 
+	 * @param revision the revision to get the changes since
+	 * @return the changed tiles, or <code>null</code> if the journal doesn't
+	 *         cover every revision after the given one
+	 */
+	int[] getChangesSince(final int revision) {
+		if (count == 0 || revision < baseRevision
+				|| revision >= revisions[(start + count - 1) % revisions.length]) {
+			return null;
+		}
+		boolean[] changed =
+				new boolean[SectorConstants.SECTOR_WIDTH
+						* SectorConstants.SECTOR_HEIGHT];
+		int total = 0;
+		for (int j = 0; j < count; j++) {
+			int i = (start + j) % revisions.length;
+			if (revisions[i] > revision) {
+				for (int tile : changes[i]) {
+					if (!changed[tile]) {
+						changed[tile] = true;
+						total++;
+					}
+				}
+			}
+		}
+		int[] result = new int[total];
+		int k = 0;
+		for (int tile = 0; tile < changed.length; tile++) {
+			if (changed[tile]) {
+				result[k++] = tile;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the local index of the tile at the given local position.
+	 * 
+	 * @param x the local x coordinate
+	 * @param z the local z coordinate
+	 * @return the tile index
+	 */
+	static int getTileIndex(final int x, final int z) {
+		return x * SectorConstants.SECTOR_HEIGHT + z;
+	}
+
+	/**
+	 * Gets the local indices of the tiles that differ between two sectors.
+	 * 
+	 * @param a the first sector
+	 * @param b the second sector
+	 * @return the indices of the differing tiles, in ascending order
+	 */
+	static int[] diff(final Sector a, final Sector b) {
+		int[] tiles =
+				new int[SectorConstants.SECTOR_WIDTH
+						* SectorConstants.SECTOR_HEIGHT];
+		int total = 0;
+		for (int x = 0; x < SectorConstants.SECTOR_WIDTH; x++) {
+			for (int z = 0; z < SectorConstants.SECTOR_HEIGHT; z++) {
+				if (!equals(a.getLocalTile(x, z), b.getLocalTile(x, z))) {
+					tiles[total++] = getTileIndex(x, z);
+				}
+			}
+		}
+		return Arrays.copyOf(tiles, total);
+	}
+
+	/**
+	 * Checks if two tiles would be sent as the same data.
+	 * 
+	 * @param a the first tile
+	 * @param b the second tile
+	 * @return if the tiles are the same
+	 */
+	private static boolean equals(final Tile a, final Tile b) {
+		if (a == b) {
+			return true;
+		}
+		if (a == null || b == null || a.getLength() != b.getLength()) {
+			return false;
+		}
+		return encode(a).equals(encode(b));
+	}
+
+	/**
+	 * Encodes a tile as it's written to the network.
+	 * 
+	 * @param tile the tile
+	 * @return the tile data, flipped for reading
+	 */
+	private static ByteBuffer encode(final Tile tile) {
+		ByteBuffer buffer = ByteBuffer.allocate(tile.getLength());
+		try {
+			tile.writeData(new PacketOutputStream(buffer));
+		} catch (IOException e) {
+			buffer.clear();
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
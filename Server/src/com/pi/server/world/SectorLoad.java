@@ -0,0 +1,157 @@
+package com.pi.server.world;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.pi.common.database.world.Sector;
+import com.pi.common.database.world.SectorLocation;
+import com.pi.server.world.SectorManager.ServerSectorStorage;
+
+/**
+ * A sector being read from the disk on one of the sector manager's loader
+ * threads. Every request for a sector that arrives while it's loading shares
+ * the same load.
+ * <p>
+ * Once the load completes the future gives the sector's current data, or
+ * <code>null</code> if the sector is empty. Loads can't be cancelled.
+ * 
+ * @author Westin
+ * 
+ */
+public class SectorLoad implements Runnable, Future<Sector> {
+	/**
+	 * The sector manager that started this load.
+	 */
+	private final SectorManager manager;
+	/**
+	 * The storage the sector is loaded into.
+	 */
+	private final ServerSectorStorage storage;
+	/**
+	 * The location of the sector.
+	 */
+	private final SectorLocation location;
+	/**
+	 * Released once the load completes.
+	 */
+	private final CountDownLatch done = new CountDownLatch(1);
+	/**
+	 * The reason the load failed, or <code>null</code> if it didn't.
+	 */
+	private volatile Throwable failure = null;
+
+	/**
+	 * Creates a load of the given sector into the given storage.
+	 * 
+	 * @param sManager the sector manager
+	 * @param sStorage the storage to load into
+	 * @param sLocation the sector's location
+	 */
+	SectorLoad(final SectorManager sManager,
+			final ServerSectorStorage sStorage,
+			final SectorLocation sLocation) {
+		this.manager = sManager;
+		this.storage = sStorage;
+		this.location = sLocation;
+	}
+
+	/**
+	 * Gets the location of the sector being loaded.
+	 * 
+	 * @return the sector location
+	 */
+	public final SectorLocation getLocation() {
+		return location;
+	}
+
+	/**
+	 * Gets the storage the sector is loaded into.
+	 * 
+	 * @return the storage
+	 */
+	final ServerSectorStorage getStorage() {
+		return storage;
+	}
+
+	@Override
+	public final void run() {
+		try {
+			manager.load(this);
+		} catch (IOException e) {
+			failure = e;
+		} catch (Throwable t) {
+			failure = t;
+			manager.loadFailed(this, t);
+		} finally {
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Completes this load without reading the sector, for storage that was
+	 * filled in some other way.
+	 */
+	final void complete() {
+		done.countDown();
+	}
+
+	/**
+	 * Completes this load with the given failure, for a load that could never
+	 * be run.
+	 * 
+	 * @param cause the reason the load failed
+	 */
+	final void fail(final Throwable cause) {
+		failure = cause;
+		done.countDown();
+	}
+
+	@Override
+	public final boolean cancel(final boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public final boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public final boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public final Sector get() throws InterruptedException,
+			ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public final Sector get(final long timeout, final TimeUnit unit)
+			throws InterruptedException, ExecutionException,
+			TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("Loading " + location);
+		}
+		return getResult();
+	}
+
+	/**
+	 * Gets the result of the completed load.
+	 * 
+	 * @return the sector, or <code>null</code> if it's empty
+	 * @throws ExecutionException if the load failed
+	 */
+	private Sector getResult() throws ExecutionException {
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return storage.getSectorRaw();
+	}
+}
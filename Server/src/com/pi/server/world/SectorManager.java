@@ -1,27 +1,50 @@
 package com.pi.server.world;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.pi.common.constants.NetworkConstants;
+import com.pi.common.constants.NetworkConstants.SizeOf;
+import com.pi.common.constants.SectorConstants;
 import com.pi.common.database.io.DatabaseIO;
+import com.pi.common.database.io.SectorStore;
+import com.pi.common.database.io.SectorStores;
 import com.pi.common.database.world.Sector;
 import com.pi.common.database.world.SectorLocation;
+import com.pi.common.database.world.Tile;
+import com.pi.common.database.world.TileLayer;
+import com.pi.common.game.entity.Entity;
 import com.pi.common.net.PacketOutputStream;
+import com.pi.common.net.WireFormat;
+import com.pi.common.net.packet.Packet;
+import com.pi.common.net.packet.Packet28CompressedSector;
+import com.pi.common.net.packet.Packet30SectorPatch;
 import com.pi.common.net.packet.Packet4Sector;
 import com.pi.common.net.packet.Packet5SectorRequest;
 import com.pi.common.net.packet.Packet6BlankSector;
+import com.pi.common.world.SectorCacheMetrics;
 import com.pi.server.Server;
 import com.pi.server.ServerThread;
 import com.pi.server.client.Client;
+import com.pi.server.constants.ServerConstants;
 import com.pi.server.database.Paths;
+import com.pi.server.entity.ServerEntity;
+import com.pi.server.entity.ServerEntityManager;
 
 /**
  * The sector manager, for loading, saving, and processing client sector
@@ -31,32 +54,125 @@ import com.pi.server.database.Paths;
  * 
  */
 public class SectorManager extends ServerThread implements
-		com.pi.common.world.SectorManager {
+		com.pi.common.world.SectorManager, SectorCacheMetrics {
 	/**
 	 * The amount of time in milliseconds to purge a sector from the memory.
 	 */
 	public static final int SECTOR_EXPIRY = 300000;
 
 	/**
-	 * The sector load queue.
+	 * The estimated bytes used by a sector's tile arrays and its storage,
+	 * assuming a 64 bit virtual machine with compressed references.
 	 */
-	private Queue<SectorLocation> loadQueue =
-			new LinkedBlockingQueue<SectorLocation>();
+	private static final long SECTOR_FOOTPRINT = 5120;
+	/**
+	 * The estimated bytes used by each tile and its layer array.
+	 */
+	private static final long TILE_FOOTPRINT = 40 + 4 * TileLayer.MAX_VALUE
+			.ordinal();
+	/**
+	 * The estimated bytes used by each graphic on a tile.
+	 */
+	private static final long LAYER_FOOTPRINT = 40;
+	/**
+	 * The estimated bytes used by the header of an array.
+	 */
+	private static final long ARRAY_FOOTPRINT = 16;
 
 	/**
-	 * The storage map.
+	 * The number of sector packets that have been compressed.
+	 */
+	private static final AtomicLong COMPRESSED_COUNT = new AtomicLong();
+	/**
+	 * The total length in bytes of the sector packets before compression.
+	 */
+	private static final AtomicLong COMPRESSION_INPUT = new AtomicLong();
+	/**
+	 * The total length in bytes of the sector packets after compression,
+	 * counting the raw length for sectors that didn't get any smaller.
 	 */
-	private Hashtable<SectorLocation, SectorStorage> map =
-			new Hashtable<SectorLocation, SectorStorage>();
+	private static final AtomicLong COMPRESSION_OUTPUT = new AtomicLong();
+	/**
+	 * The total time in nanoseconds spent compressing sector packets.
+	 */
+	private static final AtomicLong COMPRESSION_TIME = new AtomicLong();
+
+	/**
+	 * The loaded sectors, and the sectors being loaded, which are read without
+	 * locking. Only the sector loaders, the expiry sweep and the methods that
+	 * save sectors write to it.
+	 */
+	private final SectorTable<ServerSectorStorage> map =
+			new SectorTable<ServerSectorStorage>();
+
+	/**
+	 * The store the sectors are read from and written to.
+	 */
+	private final SectorStore store;
+
+	/**
+	 * The threads that read sectors from the disk.
+	 */
+	private final ExecutorService loaders;
+
+	/**
+	 * The number of sector requests that have been made.
+	 */
+	private final AtomicLong requestCount = new AtomicLong();
+	/**
+	 * The number of sector requests that found the sector loaded.
+	 */
+	private final AtomicLong hitCount = new AtomicLong();
+	/**
+	 * The number of sectors that have been loaded from the disk.
+	 */
+	private final AtomicLong loadCount = new AtomicLong();
+	/**
+	 * The number of sectors that have been evicted.
+	 */
+	private final AtomicLong evictionCount = new AtomicLong();
+	/**
+	 * The number of changed sectors that have been written back.
+	 */
+	private final AtomicLong writeBackCount = new AtomicLong();
+	/**
+	 * The number of loaded sectors with changes that haven't been written
+	 * back.
+	 */
+	private final AtomicInteger dirtyCount = new AtomicInteger();
+	/**
+	 * The estimated bytes used by the loaded sectors.
+	 */
+	private final AtomicLong residentBytes = new AtomicLong();
 
 	/**
 	 * Create the sector manager for the given server.
 	 * 
 	 * @param server the server
+	 * @throws IOException if the sector store can't be opened
 	 */
-	public SectorManager(final Server server) {
+	public SectorManager(final Server server) throws IOException {
 		super(server);
 		createMutex();
+		this.store =
+				SectorStores.open(Paths.getSectorDirectory(),
+						ServerConstants.SECTOR_REGION_FILES);
+		final AtomicInteger loaderCount = new AtomicInteger();
+		this.loaders =
+				Executors.newFixedThreadPool(
+						ServerConstants.SECTOR_LOADER_THREADS,
+						new ThreadFactory() {
+							@Override
+							public Thread newThread(final Runnable r) {
+								Thread t =
+										new Thread(server.getThreadGroup(), r,
+												"SectorLoader-"
+														+ loaderCount
+																.incrementAndGet());
+								t.setDaemon(true);
+								return t;
+							}
+						});
 		start();
 	}
 
@@ -70,28 +186,31 @@ public class SectorManager extends ServerThread implements
 			final Packet5SectorRequest req) {
 		synchronized (getMutex()) {
 			getServer().getLog().info("Request sector");
+			Client client =
+					getServer().getClientManager().getClient(clientID);
+			if (client == null) {
+				return;
+			}
 			ServerSectorStorage sec =
-					(ServerSectorStorage) getSectorStorage(
-							req.baseX, req.plane, req.baseZ);
-			if (sec != null
-					&& (sec.getSectorRaw() != null || sec
-							.isEmpty())) {
-				sendSectorToClient(getServer()
-						.getClientManager().getClient(clientID),
-						req.baseX, req.plane, req.baseZ, sec,
-						req.revision);
+					getStorage(req.baseX, req.plane, req.baseZ);
+			requestCount.incrementAndGet();
+			if (sec.isLoaded()) {
+				hitCount.incrementAndGet();
+				sendSectorToClient(client, req.baseX, req.plane,
+						req.baseZ, sec, req.revision);
 			} else {
-				if (sec != null) {
-					sec.requestedClients
-							.add(new ServerSectorStorage.ClientSectorRequest(
-									clientID, req.revision));
-				}
+				sec.requestedClients
+						.add(new ServerSectorStorage.ClientSectorRequest(
+								client, req.revision));
 			}
 		}
 	}
 
 	/**
-	 * Sends a sector packet or empty sector packet to the client.
+	 * Sends a sector packet or empty sector packet to the client. If the
+	 * client's revision is recent enough, and the changes since it are smaller
+	 * than the whole sector, a sector patch is sent instead. Nothing is sent if
+	 * the client has disconnected since it asked for the sector.
 	 * 
 	 * @param baseX the sector's x position
 	 * @param plane the sector's plane
@@ -104,6 +223,10 @@ public class SectorManager extends ServerThread implements
 			final int baseX, final int plane, final int baseZ,
 			final ServerSectorStorage sector,
 			final int clientRevision) {
+		if (client.getNetClient() == null
+				|| !client.getNetClient().isConnected()) {
+			return;
+		}
 		if (sector.isEmpty()) {
 			Packet6BlankSector packet = new Packet6BlankSector();
 			packet.baseX = baseX;
@@ -116,7 +239,24 @@ public class SectorManager extends ServerThread implements
 
 				// Packet4Sector packet = new Packet4Sector();
 				// packet.sector = sReal;
-				client.getNetClient().sendRaw(sector.pack);
+				byte[][] full;
+				if (client.hasFeature(NetworkConstants.FEATURE_COMPRESSED_SECTORS)) {
+					full = sector.compressed;
+				} else {
+					full = sector.pack;
+				}
+				byte[] current =
+						full[client.getNetClient().getWriteFormat()
+								.ordinal()];
+				Packet30SectorPatch patch =
+						sector.getPatch(clientRevision);
+				if (patch != null
+						&& (current == null || patch
+								.getPacketLength() < current.length)) {
+					client.getNetClient().send(patch);
+				} else {
+					client.getNetClient().sendRaw(full);
+				}
 				// cli.getNetClient().send(packet);
 			}
 		}
@@ -147,129 +287,438 @@ public class SectorManager extends ServerThread implements
 	@Override
 	public final SectorStorage getSectorStorage(final int x,
 			final int y, final int z) {
+		ServerSectorStorage sS = getStorage(x, y, z);
+		if (sS.isLoaded()) {
+			return sS;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the sector at the given location, loading it if it isn't loaded.
+	 * Requests for a sector that's already being loaded share the same load.
+	 * 
+	 * @param x the sector's x position
+	 * @param plane the sector's plane
+	 * @param z the sector's z position
+	 * @return the sector's load, which gives <code>null</code> for an empty
+	 *         sector
+	 */
+	public final Future<Sector> loadSector(final int x, final int plane,
+			final int z) {
+		ServerSectorStorage sec = getStorage(x, plane, z);
+		requestCount.incrementAndGet();
+		if (sec.isLoaded()) {
+			hitCount.incrementAndGet();
+		}
+		return sec.load;
+	}
+
+	/**
+	 * Gets the storage for the given location, starting a load on the sector
+	 * loaders if there isn't any.
+	 * 
+	 * @param x the sector's x position
+	 * @param plane the sector's plane
+	 * @param z the sector's z position
+	 * @return the storage, which might still be loading, or have failed to
+	 *         load if the server is shutting down
+	 */
+	private ServerSectorStorage getStorage(final int x, final int plane,
+			final int z) {
+		ServerSectorStorage sS = map.get(x, plane, z);
+		if (sS != null) {
+			return sS;
+		}
+		ServerSectorStorage created = new ServerSectorStorage();
+		created.load =
+				new SectorLoad(this, created, new SectorLocation(x, plane,
+						z));
+		sS = map.putIfAbsent(x, plane, z, created);
+		if (sS != null) {
+			return sS;
+		}
+		try {
+			loaders.execute(created.load);
+		} catch (RejectedExecutionException e) {
+			// The server is shutting down, so the load will never run. Fail it
+			// rather than leave anyone waiting on it.
+			map.remove(x, plane, z, created);
+			created.load.fail(e);
+		}
+		return created;
+	}
+
+	/**
+	 * Reads the sector for the given load from the disk, and encodes its
+	 * packets. If the sector wasn't set while it was being read it's put in
+	 * the load's storage, and the clients that requested it are sent it. This
+	 * is called on the sector loaders.
+	 * 
+	 * @param load the sector's load
+	 * @throws IOException if the sector can't be read
+	 */
+	final void load(final SectorLoad load) throws IOException {
+		SectorLocation loc = load.getLocation();
+		ServerSectorStorage sX = load.getStorage();
+		loadCount.incrementAndGet();
+		Sector sector;
+		try {
+			sector =
+					store.read(loc.getSectorX(), loc.getPlane(),
+							loc.getSectorZ());
+		} catch (IOException e) {
+			map.remove(loc.getSectorX(), loc.getPlane(), loc.getSectorZ(),
+					sX);
+			getServer().getLog().printStackTrace(e);
+			throw e;
+		}
+		byte[][] pack = new byte[WireFormat.values().length][];
+		byte[][] compressed = new byte[WireFormat.values().length][];
+		if (sector != null) {
+			ServerSectorStorage.encodePackets(sector, pack, compressed);
+		}
 		synchronized (getMutex()) {
-			SectorLocation p = new SectorLocation(x, y, z);
-			SectorStorage sS = map.get(p);
-			if (sS == null
-					|| (sS.getSectorRaw() == null && !sS
-							.isEmpty())) {
-				loadQueue.add(p);
-				getMutex().notify();
-				return null;
+			if (!sX.isLoaded()) {
+				if (sector != null) {
+					sX.setPacketData(pack, compressed);
+					sX.setEmpty(false);
+					sX.setSector(sector);
+					getServer().getLog().finer(
+							"Loaded sector " + loc.toString());
+				} else {
+					sX.setSector(null);
+					sX.setEmpty(true);
+					getServer().getLog().finest(
+							"Flagged as empty: " + loc.toString());
+				}
+				sX.updateLastTimeUsed();
+				updateFootprint(sX);
+			}
+			try {
+				for (ServerSectorStorage.ClientSectorRequest sS : sX.requestedClients) {
+					sendSectorToClient(sS.client, loc.getSectorX(),
+							loc.getPlane(), loc.getSectorZ(), sX,
+							sS.revision);
+				}
+			} finally {
+				sX.requestedClients.clear();
 			}
-			return sS;
 		}
 	}
 
 	/**
-	 * Saves this sector to the disk, and updates it in the mapping.
+	 * Logs a load that failed for a reason other than the sector being
+	 * unreadable, which {@link #load(SectorLoad)} has already logged.
+	 * 
+	 * @param load the load that failed
+	 * @param t the reason it failed
+	 */
+	final void loadFailed(final SectorLoad load, final Throwable t) {
+		getServer().getLog().severe(
+				"Failed to load sector " + load.getLocation());
+		getServer().getLog().printStackTrace(t);
+	}
+
+	/**
+	 * Updates this sector in the mapping, and marks it to be written back to
+	 * the disk. If the new sector has a later revision than the loaded one,
+	 * the tiles that changed are journaled so clients on the old revision can
+	 * be sent a patch.
 	 * 
 	 * @param sector the sector data
 	 */
 	public final void setSector(final Sector sector) {
 		synchronized (getMutex()) {
 			ServerSectorStorage sec =
-					(ServerSectorStorage) map.get(sector
-							.getSectorLocation());
+					map.get(sector.getSectorX(), sector.getPlane(),
+							sector.getSectorZ());
 			if (sec == null) {
 				sec = new ServerSectorStorage();
+				sec.load =
+						new SectorLoad(this, sec,
+								sector.getSectorLocation());
+				sec.load.complete();
+			}
+			Sector old = sec.getSectorRaw();
+			if (old != null && old != sector
+					&& sector.getRevision() > old.getRevision()) {
+				sec.journal.record(sector.getRevision(),
+						SectorJournal.diff(old, sector));
+			} else {
+				sec.journal.clear();
 			}
+			sec.patches.clear();
 			sec.updateLastTimeUsed();
 			sec.setSector(sector);
 			sec.updatePacketData();
-			map.put(sector.getSectorLocation(), sec);
+			map.put(sector.getSectorX(), sector.getPlane(),
+					sector.getSectorZ(), sec);
+			markDirty(sec);
+			updateFootprint(sec);
 		}
+	}
 
-		// Write Sector
-		try {
-			DatabaseIO.write(Paths.getSectorFile(
-					sector.getSectorX(), sector.getPlane(),
-					sector.getSectorZ()), sector);
-		} catch (IOException e) {
-			getServer().getLog().printStackTrace(e);
+	/**
+	 * Replaces the tile at the given world position in a loaded sector,
+	 * advancing the sector's revision and marking it to be written back to the
+	 * disk.
+	 * 
+	 * @param x the world x coordinate
+	 * @param plane the plane
+	 * @param z the world z coordinate
+	 * @param tile the new tile
+	 * @return <code>true</code> if the tile was set, <code>false</code> if
+	 *         its sector isn't loaded
+	 */
+	public final boolean setTile(final int x, final int plane,
+			final int z, final Tile tile) {
+		synchronized (getMutex()) {
+			ServerSectorStorage sec =
+					map.get(SectorConstants.worldToSectorX(x), plane,
+							SectorConstants.worldToSectorZ(z));
+			if (sec == null || sec.getSectorRaw() == null) {
+				return false;
+			}
+			Sector sector = sec.getSectorRaw();
+			sector.setGlobalTile(x, z, tile);
+			sector.setRevision(sector.getRevision() + 1);
+			sec.journal.record(sector.getRevision(),
+					new int[] { SectorJournal.getTileIndex(
+							SectorConstants.worldToLocalSectorX(x),
+							SectorConstants.worldToLocalSectorZ(z)) });
+			sec.patches.clear();
+			sec.updateLastTimeUsed();
+			sec.updatePacketData();
+			markDirty(sec);
+			updateFootprint(sec);
 		}
+		return true;
 	}
 
-	@Override
-	public final void loop() {
+	/**
+	 * Marks a sector as changed since it was last written to the disk. This
+	 * must be called while holding the mutex.
+	 * 
+	 * @param sec the sector's storage
+	 */
+	private void markDirty(final ServerSectorStorage sec) {
+		if (sec.modifications++ == sec.savedModifications) {
+			dirtyCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Updates the estimated bytes used by a sector, and wakes the sweep if
+	 * the loaded sectors are over budget. This must be called while holding
+	 * the mutex.
+	 * 
+	 * @param sec the sector's storage
+	 */
+	private void updateFootprint(final ServerSectorStorage sec) {
+		long footprint = sec.estimateFootprint();
+		long resident = residentBytes.addAndGet(footprint - sec.footprint);
+		sec.footprint = footprint;
+		if (resident > ServerConstants.SECTOR_CACHE_BUDGET) {
+			getMutex().notify();
+		}
+	}
+
+	/**
+	 * Writes a sector to the sector store if it has changed since it was last
+	 * written. The sector is encoded while holding the mutex, and
+	 * written without it.
+	 * 
+	 * @param e the sector's entry
+	 * @return <code>true</code> if the sector is now unchanged on the disk,
+	 *         <code>false</code> if it couldn't be written
+	 */
+	private boolean writeBack(final SectorTable.Entry<ServerSectorStorage> e) {
+		ServerSectorStorage sec = e.getValue();
+		byte[] data;
+		int modifications;
+		synchronized (getMutex()) {
+			if (sec.modifications == sec.savedModifications) {
+				return true;
+			}
+			modifications = sec.modifications;
+			try {
+				data = DatabaseIO.toByteArray(sec.getSectorRaw());
+			} catch (IOException ex) {
+				getServer().getLog().printStackTrace(ex);
+				return false;
+			}
+		}
+		try {
+			store.write(e.getSectorX(), e.getPlane(), e.getSectorZ(), data);
+		} catch (IOException ex) {
+			getServer().getLog().printStackTrace(ex);
+			return false;
+		}
 		synchronized (getMutex()) {
-			if (loadQueue.size() <= 0) {
-				try {
-					getMutex().wait();
-				} catch (InterruptedException e) {
-					getServer()
-							.getLog()
-							.severe("InterruptedException in the sector manager!");
+			sec.savedModifications = modifications;
+			if (modifications == sec.modifications) {
+				dirtyCount.decrementAndGet();
+			}
+		}
+		writeBackCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Gets the sectors that can't be evicted because an entity is in them.
+	 * 
+	 * @return the pinned sectors
+	 */
+	private SectorTable<Boolean> getPinnedSectors() {
+		SectorTable<Boolean> pinned = new SectorTable<Boolean>();
+		ServerEntityManager entities = getServer().getEntityManager();
+		if (entities != null) {
+			Iterator<ServerEntity> itr = entities.getEntities();
+			while (itr.hasNext()) {
+				Entity e = itr.next().getWrappedEntity();
+				pinned.put(e.getSectorX(), e.getPlane(), e.getSectorZ(),
+						Boolean.TRUE);
+			}
+		}
+		return pinned;
+	}
+
+	/**
+	 * Evicts the least recently used sectors until the loaded sectors are
+	 * back under {@link ServerConstants#SECTOR_CACHE_LOW_WATER} of the budget,
+	 * along with any sectors that haven't been used for
+	 * {@link #SECTOR_EXPIRY} milliseconds. Sectors with entities in them,
+	 * sectors being loaded, and sectors clients are waiting for are kept.
+	 * Changed sectors are written back before they're evicted.
+	 */
+	private void evict() {
+		SectorTable<Boolean> pinned = getPinnedSectors();
+		List<EvictionCandidate> candidates =
+				new ArrayList<EvictionCandidate>();
+		for (SectorTable.Entry<ServerSectorStorage> e : map) {
+			if (e.getValue().isLoaded()
+					&& pinned.get(e.getSectorX(), e.getPlane(),
+							e.getSectorZ()) == null) {
+				candidates.add(new EvictionCandidate(e));
+			}
+		}
+		Collections.sort(candidates);
+		long target =
+				(long) (ServerConstants.SECTOR_CACHE_BUDGET
+						* ServerConstants.SECTOR_CACHE_LOW_WATER);
+		long now = System.currentTimeMillis();
+		for (EvictionCandidate c : candidates) {
+			if (residentBytes.get() <= target
+					&& now - c.lastUsed <= SECTOR_EXPIRY) {
+				break;
+			}
+			if (!writeBack(c.entry)) {
+				continue;
+			}
+			ServerSectorStorage sec = c.entry.getValue();
+			synchronized (getMutex()) {
+				if (sec.modifications != sec.savedModifications
+						|| !sec.requestedClients.isEmpty()
+						|| sec.getLastUsedTime() != c.lastUsed) {
+					continue;
 				}
-			} else {
-				// Do a request
-				SectorLocation oldestSector = loadQueue.poll();
-				ServerSectorStorage sX =
-						(ServerSectorStorage) map
-								.get(oldestSector);
-				if (sX == null
-						|| (sX.getSectorRaw() == null && !sX
-								.isEmpty())) {
-					if (sX == null) {
-						sX = new ServerSectorStorage();
-					}
-					try {
-						sX.setSector((Sector) DatabaseIO.read(
-								Paths.getSectorFile(oldestSector),
-								new Sector()));
-						sX.updatePacketData();
-						sX.setEmpty(false);
-						sX.updateLastTimeUsed();
-						getServer().getLog().finer(
-								"Loaded sector "
-										+ oldestSector
-												.toString());
-						map.put(oldestSector, sX);
-						for (ServerSectorStorage.ClientSectorRequest sS : sX.requestedClients) {
-							sendSectorToClient(getServer()
-									.getClientManager()
-									.getClient(sS.clientID),
-									oldestSector.getSectorX(),
-									oldestSector.getPlane(),
-									oldestSector.getSectorZ(),
-									sX, sS.revision);
-						}
-						sX.requestedClients.clear();
-					} catch (FileNotFoundException e) {
-						sX.setSector(null);
-						sX.setEmpty(true);
-						sX.updateLastTimeUsed();
-						map.put(oldestSector, sX);
-						getServer().getLog().finest(
-								"Flagged as empty: "
-										+ oldestSector
-												.toString());
-						for (ServerSectorStorage.ClientSectorRequest sS : sX.requestedClients) {
-							sendSectorToClient(getServer()
-									.getClientManager()
-									.getClient(sS.clientID),
-									oldestSector.getSectorX(),
-									oldestSector.getPlane(),
-									oldestSector.getSectorZ(),
-									sX, sS.revision);
-						}
-						sX.requestedClients.clear();
-					} catch (IOException e) {
-						getServer().getLog().printStackTrace(e);
-					}
+				if (map.remove(c.entry.getSectorX(), c.entry.getPlane(),
+						c.entry.getSectorZ(), sec)) {
+					residentBytes.addAndGet(-sec.footprint);
+					sec.footprint = 0;
+					evictionCount.incrementAndGet();
+					getServer().getLog().fine(
+							"Dropped sector: "
+									+ new SectorLocation(c.entry
+											.getSectorX(), c.entry
+											.getPlane(), c.entry
+											.getSectorZ()));
 				}
+			}
+		}
+	}
 
-				// Remove the expired sectors
-				for (SectorLocation i : map.keySet()) {
-					if (System.currentTimeMillis()
-							- map.get(i).getLastUsedTime() > SECTOR_EXPIRY) {
-						map.remove(i);
-						getServer().getLog().fine(
-								"Dropped sector: "
-										+ i.toString());
-					}
-				}
+	/**
+	 * A loaded sector that could be evicted, with the time it was last used
+	 * when the sweep started.
+	 * 
+	 * @author Westin
+	 * 
+	 */
+	private static final class EvictionCandidate implements
+			Comparable<EvictionCandidate> {
+		/**
+		 * The sector's entry.
+		 */
+		private final SectorTable.Entry<ServerSectorStorage> entry;
+		/**
+		 * The time the sector was last used.
+		 */
+		private final long lastUsed;
+
+		/**
+		 * Creates an eviction candidate for the given sector.
+		 * 
+		 * @param sEntry the sector's entry
+		 */
+		private EvictionCandidate(
+				final SectorTable.Entry<ServerSectorStorage> sEntry) {
+			this.entry = sEntry;
+			this.lastUsed = sEntry.getValue().getLastUsedTime();
+		}
+
+		@Override
+		public int compareTo(final EvictionCandidate o) {
+			if (lastUsed < o.lastUsed) {
+				return -1;
+			} else if (lastUsed > o.lastUsed) {
+				return 1;
 			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Waits for the next sweep, then writes the changed sectors back to the
+	 * disk and evicts sectors to keep the loaded sectors within
+	 * {@link ServerConstants#SECTOR_CACHE_BUDGET}, and compacts the sector
+	 * store. Once this manager has been disposed the changed sectors are
+	 * written back, the sector loaders are stopped and the store is closed.
+	 */
+	@Override
+	public final void loop() {
+		synchronized (getMutex()) {
+			try {
+				getMutex().wait(ServerConstants.SECTOR_SWEEP_INTERVAL);
+			} catch (InterruptedException e) {
+				getServer()
+						.getLog()
+						.severe("InterruptedException in the sector manager!");
+			}
+		}
+		for (SectorTable.Entry<ServerSectorStorage> e : map) {
+			writeBack(e);
+		}
+		if (!isRunning()) {
+			loaders.shutdown();
+			try {
+				loaders.awaitTermination(
+						ServerConstants.SECTOR_SWEEP_INTERVAL,
+						TimeUnit.MILLISECONDS);
+				store.close();
+			} catch (InterruptedException e) {
+				getServer().getLog().printStackTrace(e);
+			} catch (IOException e) {
+				getServer().getLog().printStackTrace(e);
+			}
+			return;
+		}
+		evict();
+		try {
+			store.compact();
+		} catch (IOException e) {
+			getServer().getLog().printStackTrace(e);
 		}
 	}
 
@@ -282,31 +731,213 @@ public class SectorManager extends ServerThread implements
 	public static class ServerSectorStorage extends
 			SectorStorage {
 		/**
-		 * The raw packet data.
+		 * The raw packet data, indexed by wire format ordinal.
+		 */
+		private final byte[][] pack =
+				new byte[WireFormat.values().length][];
+		/**
+		 * The compressed sector packet data, indexed by wire format ordinal.
+		 * If the sector doesn't compress to less than the raw packet data this
+		 * is the raw packet data instead.
+		 */
+		private final byte[][] compressed =
+				new byte[WireFormat.values().length][];
+
+		/**
+		 * The tiles changed by the recent revisions of this sector.
+		 */
+		private final SectorJournal journal = new SectorJournal(
+				ServerConstants.SECTOR_JOURNAL_LENGTH);
+		/**
+		 * The patches to the current revision that have been created, by the
+		 * revision they're applied to.
 		 */
-		private byte[] pack;
+		private final Map<Integer, Packet30SectorPatch> patches =
+				new HashMap<Integer, Packet30SectorPatch>();
 
 		/**
 		 * The clients that have requested this sector.
 		 */
 		private List<ClientSectorRequest> requestedClients =
 				new ArrayList<ClientSectorRequest>();
+		/**
+		 * The load that reads this sector from the disk.
+		 */
+		private SectorLoad load;
+		/**
+		 * The number of times this sector has been changed.
+		 */
+		private int modifications = 0;
+		/**
+		 * The number of changes that had been made when this sector was last
+		 * written to the disk.
+		 */
+		private int savedModifications = 0;
+		/**
+		 * The estimated bytes used by this sector, as counted in the resident
+		 * bytes.
+		 */
+		private long footprint = 0;
+
+		/**
+		 * Estimates the bytes used by this sector's tiles and packet data.
+		 * 
+		 * @return the estimated footprint
+		 */
+		private long estimateFootprint() {
+			long bytes = SECTOR_FOOTPRINT;
+			Sector sector = getSectorRaw();
+			if (sector != null) {
+				for (Tile[] column : sector.getTileArray()) {
+					for (Tile tile : column) {
+						bytes += TILE_FOOTPRINT;
+						for (TileLayer layer : TileLayer.values()) {
+							if (layer != TileLayer.MAX_VALUE
+									&& tile.getLayer(layer) != null) {
+								bytes += LAYER_FOOTPRINT;
+							}
+						}
+					}
+				}
+			}
+			for (int i = 0; i < pack.length; i++) {
+				if (pack[i] != null) {
+					bytes += ARRAY_FOOTPRINT + pack[i].length;
+				}
+				if (compressed[i] != null && compressed[i] != pack[i]) {
+					bytes += ARRAY_FOOTPRINT + compressed[i].length;
+				}
+			}
+			return bytes;
+		}
 
 		/**
-		 * Updates the raw packet data for this sector.
+		 * Checks if this sector has been loaded, either with its data or as
+		 * an empty sector.
+		 * 
+		 * @return if this sector is loaded
+		 */
+		private boolean isLoaded() {
+			return getSectorRaw() != null || isEmpty();
+		}
+
+		/**
+		 * Gets a patch that brings this sector from the given revision to the
+		 * current revision.
+		 * 
+		 * @param revision the revision the client has
+		 * @return the patch, or <code>null</code> if the journal doesn't go
+		 *         back far enough
+		 */
+		private Packet30SectorPatch getPatch(final int revision) {
+			Packet30SectorPatch patch = patches.get(revision);
+			if (patch == null && getSectorRaw() != null) {
+				int[] changed = journal.getChangesSince(revision);
+				if (changed != null) {
+					patch =
+							Packet30SectorPatch.create(getSectorRaw(),
+									revision, changed);
+					patches.put(revision, patch);
+				}
+			}
+			return patch;
+		}
+
+		/**
+		 * Updates the raw and compressed packet data for this sector in every
+		 * wire format.
 		 */
 		private void updatePacketData() {
+			encodePackets(super.getSector(), pack, compressed);
+		}
+
+		/**
+		 * Replaces the raw and compressed packet data with data encoded by
+		 * {@link #encodePackets(Sector, byte[][], byte[][])}.
+		 * 
+		 * @param sPack the raw packet data
+		 * @param sCompressed the compressed packet data
+		 */
+		private void setPacketData(final byte[][] sPack,
+				final byte[][] sCompressed) {
+			System.arraycopy(sPack, 0, pack, 0, pack.length);
+			System.arraycopy(sCompressed, 0, compressed, 0,
+					compressed.length);
+		}
+
+		/**
+		 * Encodes the raw and compressed packet data for a sector in every
+		 * wire format.
+		 * 
+		 * @param sector the sector
+		 * @param pack the array to put the raw packet data in, indexed by
+		 *            wire format ordinal
+		 * @param compressed the array to put the compressed packet data in,
+		 *            indexed by wire format ordinal
+		 */
+		private static void encodePackets(final Sector sector,
+				final byte[][] pack, final byte[][] compressed) {
 			Packet4Sector p = new Packet4Sector();
-			p.sector = super.getSector();
+			p.sector = sector;
+			for (WireFormat format : WireFormat.values()) {
+				int i = format.ordinal();
+				pack[i] = encode(p, format);
+				compressed[i] = pack[i];
+				if (pack[i] != null && ServerConstants.SECTOR_COMPRESSION) {
+					updateCompressedData(format, pack, compressed);
+				}
+			}
+		}
+
+		/**
+		 * Updates the compressed packet data in the given format from the raw
+		 * packet data. The compressed form is only kept if it's smaller.
+		 * 
+		 * @param format the wire format
+		 * @param pack the raw packet data, indexed by wire format ordinal
+		 * @param compressed the compressed packet data, indexed by wire format
+		 *            ordinal
+		 */
+		private static void updateCompressedData(final WireFormat format,
+				final byte[][] pack, final byte[][] compressed) {
+			byte[] raw = pack[format.ordinal()];
+			long start = System.nanoTime();
+			Packet28CompressedSector p =
+					Packet28CompressedSector.create(raw, SizeOf.BYTE,
+							raw.length - SizeOf.BYTE,
+							ServerConstants.SECTOR_COMPRESSION_LEVEL);
+			if (p.getPacketLength() < raw.length) {
+				byte[] data = encode(p, format);
+				if (data != null) {
+					compressed[format.ordinal()] = data;
+				}
+			}
+			COMPRESSION_TIME.addAndGet(System.nanoTime() - start);
+			COMPRESSED_COUNT.incrementAndGet();
+			COMPRESSION_INPUT.addAndGet(raw.length);
+			COMPRESSION_OUTPUT
+					.addAndGet(compressed[format.ordinal()].length);
+		}
+
+		/**
+		 * Encodes a packet in the given wire format.
+		 * 
+		 * @param p the packet
+		 * @param format the wire format
+		 * @return the packet data, or <code>null</code> if it couldn't be
+		 *         written
+		 */
+		private static byte[] encode(final Packet p, final WireFormat format) {
 			try {
 				PacketOutputStream pO =
 						new PacketOutputStream(
-								ByteBuffer.allocate(p
-										.getPacketLength()));
+								ByteBuffer.allocate(format.getMaxLength(p
+										.getPacketLength())), format);
 				p.writePacket(pO);
-				pack = pO.getByteBuffer().array();
+				return Arrays.copyOf(pO.getByteBuffer().array(), pO
+						.getByteBuffer().position());
 			} catch (Exception e) {
-				pack = null;
+				return null;
 			}
 		}
 
@@ -319,9 +950,9 @@ public class SectorManager extends ServerThread implements
 		 */
 		private static final class ClientSectorRequest {
 			/**
-			 * The client ID that requested this sector.
+			 * The client that requested this sector.
 			 */
-			private final int clientID;
+			private final Client client;
 			/**
 			 * The revision the client has on file.
 			 */
@@ -331,12 +962,12 @@ public class SectorManager extends ServerThread implements
 			 * Creates a client sector request instance for the given client,
 			 * with the given revision.
 			 * 
-			 * @param client the client id number
+			 * @param sClient the client
 			 * @param sRevision the sector revision
 			 */
-			public ClientSectorRequest(final int client,
+			public ClientSectorRequest(final Client sClient,
 					final int sRevision) {
-				this.clientID = client;
+				this.client = sClient;
 				this.revision = sRevision;
 			}
 		}
@@ -344,8 +975,89 @@ public class SectorManager extends ServerThread implements
 
 	@Override
 	public final Map<SectorLocation, SectorStorage> loadedMap() {
-		synchronized (getMutex()) {
-			return Collections.unmodifiableMap(map);
+		Map<SectorLocation, SectorStorage> loaded =
+				new HashMap<SectorLocation, SectorStorage>(map.size() * 2);
+		for (SectorTable.Entry<ServerSectorStorage> e : map) {
+			loaded.put(new SectorLocation(e.getSectorX(), e.getPlane(),
+					e.getSectorZ()), e.getValue());
+		}
+		return Collections.unmodifiableMap(loaded);
+	}
+
+	@Override
+	public final long getRequestCount() {
+		return requestCount.get();
+	}
+
+	@Override
+	public final long getHitCount() {
+		return hitCount.get();
+	}
+
+	@Override
+	public final long getLoadCount() {
+		return loadCount.get();
+	}
+
+	@Override
+	public final long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	@Override
+	public final long getWriteBackCount() {
+		return writeBackCount.get();
+	}
+
+	@Override
+	public final int getDirtyCount() {
+		return dirtyCount.get();
+	}
+
+	@Override
+	public final long getResidentBytes() {
+		return residentBytes.get();
+	}
+
+	@Override
+	public final long getBudget() {
+		return ServerConstants.SECTOR_CACHE_BUDGET;
+	}
+
+	/**
+	 * Gets the number of sector packets that have been compressed.
+	 * 
+	 * @return the compressed sector count
+	 */
+	public static long getCompressedSectorCount() {
+		return COMPRESSED_COUNT.get();
+	}
+
+	/**
+	 * Gets the ratio of compressed to raw sector packet bytes, or
+	 * <code>1</code> if no sectors have been compressed.
+	 * 
+	 * @return the compression ratio
+	 */
+	public static double getCompressionRatio() {
+		long input = COMPRESSION_INPUT.get();
+		if (input == 0) {
+			return 1;
+		}
+		return COMPRESSION_OUTPUT.get() / (double) input;
+	}
+
+	/**
+	 * Gets the average time in nanoseconds spent compressing a sector packet,
+	 * or <code>0</code> if none have been compressed.
+	 * 
+	 * @return the average compression time
+	 */
+	public static long getAverageCompressionTime() {
+		long count = COMPRESSED_COUNT.get();
+		if (count == 0) {
+			return 0;
 		}
+		return COMPRESSION_TIME.get() / count;
 	}
 }
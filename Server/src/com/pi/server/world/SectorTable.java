@@ -0,0 +1,392 @@
+package com.pi.server.world;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A hash table of sector locations to values, that can be read from any
+ * number of threads without locking.
+ * <p>
+ * The table uses open addressing with linear probing over an array of
+ * immutable entries, each holding a sector's <code>x</code>,
+ * <code>plane</code> and <code>z</code> coordinates along with its value, so
+ * a lookup takes the coordinates directly, and neither allocates nor locks.
+ * Writers lock the table, and replace an entry rather than changing it.
+ * Removed entries are replaced with a tombstone so lookups keep probing past
+ * them, and the array is rebuilt without tombstones when it gets too full. A
+ * lookup racing with a write sees the table either before or after it.
+ * 
+ * @author Westin
+ * 
+ * @param <E> the value type
+ */
+public class SectorTable<E> implements Iterable<SectorTable.Entry<E>> {
+	/**
+	 * The default starting number of slots.
+	 */
+	private static final int DEFAULT_CAPACITY = 256;
+	/**
+	 * The slots in use, including tombstones, can be at most the number of
+	 * slots shifted right by this amount before the table grows.
+	 */
+	private static final int LOAD_SHIFT = 1;
+
+	/**
+	 * A sector location and its value.
+	 * 
+	 * @author Westin
+	 * 
+	 * @param <E> the value type
+	 */
+	public static final class Entry<E> {
+		/**
+		 * The sector's x coordinate.
+		 */
+		private final int x;
+		/**
+		 * The sector's plane.
+		 */
+		private final int plane;
+		/**
+		 * The sector's z coordinate.
+		 */
+		private final int z;
+		/**
+		 * The value.
+		 */
+		private final E value;
+
+		/**
+		 * Creates an entry for the given sector location.
+		 * 
+		 * @param sX the sector's x coordinate
+		 * @param sPlane the sector's plane
+		 * @param sZ the sector's z coordinate
+		 * @param sValue the value
+		 */
+		private Entry(final int sX, final int sPlane, final int sZ,
+				final E sValue) {
+			this.x = sX;
+			this.plane = sPlane;
+			this.z = sZ;
+			this.value = sValue;
+		}
+
+		/**
+		 * Gets the sector's x coordinate.
+		 * 
+		 * @return the x coordinate
+		 */
+		public int getSectorX() {
+			return x;
+		}
+
+		/**
+		 * Gets the sector's plane.
+		 * 
+		 * @return the plane
+		 */
+		public int getPlane() {
+			return plane;
+		}
+
+		/**
+		 * Gets the sector's z coordinate.
+		 * 
+		 * @return the z coordinate
+		 */
+		public int getSectorZ() {
+			return z;
+		}
+
+		/**
+		 * Gets the value.
+		 * 
+		 * @return the value
+		 */
+		public E getValue() {
+			return value;
+		}
+
+		/**
+		 * Checks if this entry is for the given sector location.
+		 * 
+		 * @param sX the sector's x coordinate
+		 * @param sPlane the sector's plane
+		 * @param sZ the sector's z coordinate
+		 * @return if the coordinates match
+		 */
+		private boolean matches(final int sX, final int sPlane,
+				final int sZ) {
+			return x == sX && z == sZ && plane == sPlane;
+		}
+	}
+
+	/**
+	 * The entry left in a slot when its entry is removed.
+	 */
+	private final Entry<E> tombstone = new Entry<E>(0, 0, 0, null);
+	/**
+	 * The slots. The array is replaced when the table is rebuilt, and its
+	 * length is always a power of two.
+	 */
+	private volatile AtomicReferenceArray<Entry<E>> slots;
+	/**
+	 * The number of entries.
+	 */
+	private volatile int size = 0;
+	/**
+	 * The number of slots holding an entry or a tombstone.
+	 */
+	private int used = 0;
+
+	/**
+	 * Creates a table with the default capacity.
+	 */
+	public SectorTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a table with room for at least the given number of slots.
+	 * 
+	 * @param capacity the starting number of slots
+	 */
+	public SectorTable(final int capacity) {
+		this.slots =
+				new AtomicReferenceArray<Entry<E>>(
+						Integer.highestOneBit(Math.max(2, capacity - 1)) << 1);
+	}
+
+	/**
+	 * Gets the first slot a sector location is probed at.
+	 * 
+	 * @param x the sector's x coordinate
+	 * @param plane the sector's plane
+	 * @param z the sector's z coordinate
+	 * @return the hash
+	 */
+	private static int hash(final int x, final int plane, final int z) {
+		int h = x * 0x9E3779B1 + z * 0x85EBCA77 + plane * 0xC2B2AE3D;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Gets the value for the given sector location.
+	 * 
+	 * @param x the sector's x coordinate
+	 * @param plane the sector's plane
+	 * @param z the sector's z coordinate
+	 * @return the value, or <code>null</code> if there isn't one
+	 */
+	public final E get(final int x, final int plane, final int z) {
+		AtomicReferenceArray<Entry<E>> s = slots;
+		int mask = s.length() - 1;
+		int i = hash(x, plane, z) & mask;
+		for (int n = 0; n <= mask; n++) {
+			Entry<E> e = s.get(i);
+			if (e == null) {
+				return null;
+			}
+			if (e != tombstone && e.matches(x, plane, z)) {
+				return e.value;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the value for the given sector location.
+	 * 
+	 * @param x the sector's x coordinate
+	 * @param plane the sector's plane
+	 * @param z the sector's z coordinate
+	 * @param value the value
+	 * @return the previous value, or <code>null</code> if there wasn't one
+	 */
+	public final synchronized E put(final int x, final int plane,
+			final int z, final E value) {
+		if (value == null) {
+			return remove(x, plane, z);
+		}
+		Entry<E> entry = new Entry<E>(x, plane, z, value);
+		AtomicReferenceArray<Entry<E>> s = slots;
+		int mask = s.length() - 1;
+		int i = hash(x, plane, z) & mask;
+		int free = -1;
+		for (int n = 0; n <= mask; n++) {
+			Entry<E> e = s.get(i);
+			if (e == null) {
+				break;
+			}
+			if (e == tombstone) {
+				if (free < 0) {
+					free = i;
+				}
+			} else if (e.matches(x, plane, z)) {
+				s.set(i, entry);
+				return e.value;
+			}
+			i = (i + 1) & mask;
+		}
+		if (free >= 0) {
+			s.set(free, entry);
+		} else {
+			s.set(i, entry);
+			used++;
+		}
+		size++;
+		if (used > (s.length() >> LOAD_SHIFT)) {
+			rebuild();
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the value for the given sector location if it doesn't have one.
+	 * 
+	 * @param x the sector's x coordinate
+	 * @param plane the sector's plane
+	 * @param z the sector's z coordinate
+	 * @param value the value
+	 * @return the existing value, or <code>null</code> if the value was set
+	 */
+	public final synchronized E putIfAbsent(final int x, final int plane,
+			final int z, final E value) {
+		E existing = get(x, plane, z);
+		if (existing != null) {
+			return existing;
+		}
+		return put(x, plane, z, value);
+	}
+
+	/**
+	 * Removes the value for the given sector location if it's the given
+	 * value.
+	 * 
+	 * @param x the sector's x coordinate
+	 * @param plane the sector's plane
+	 * @param z the sector's z coordinate
+	 * @param value the value
+	 * @return if the value was removed
+	 */
+	public final synchronized boolean remove(final int x, final int plane,
+			final int z, final E value) {
+		if (get(x, plane, z) != value) {
+			return false;
+		}
+		remove(x, plane, z);
+		return true;
+	}
+
+	/**
+	 * Removes the value for the given sector location.
+	 * 
+	 * @param x the sector's x coordinate
+	 * @param plane the sector's plane
+	 * @param z the sector's z coordinate
+	 * @return the removed value, or <code>null</code> if there wasn't one
+	 */
+	public final synchronized E remove(final int x, final int plane,
+			final int z) {
+		AtomicReferenceArray<Entry<E>> s = slots;
+		int mask = s.length() - 1;
+		int i = hash(x, plane, z) & mask;
+		for (int n = 0; n <= mask; n++) {
+			Entry<E> e = s.get(i);
+			if (e == null) {
+				return null;
+			}
+			if (e != tombstone && e.matches(x, plane, z)) {
+				s.set(i, tombstone);
+				size--;
+				return e.value;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Copies the entries into a new array without tombstones, doubling its
+	 * length if more than a quarter of its slots would be in use.
+	 */
+	private void rebuild() {
+		AtomicReferenceArray<Entry<E>> old = slots;
+		int length = old.length();
+		if (size > (length >> (LOAD_SHIFT + 1))) {
+			length <<= 1;
+		}
+		AtomicReferenceArray<Entry<E>> s =
+				new AtomicReferenceArray<Entry<E>>(length);
+		int mask = length - 1;
+		for (int j = 0; j < old.length(); j++) {
+			Entry<E> e = old.get(j);
+			if (e != null && e != tombstone) {
+				int i = hash(e.x, e.plane, e.z) & mask;
+				while (s.get(i) != null) {
+					i = (i + 1) & mask;
+				}
+				s.set(i, e);
+			}
+		}
+		used = size;
+		slots = s;
+	}
+
+	/**
+	 * Gets the number of entries in this table.
+	 * 
+	 * @return the number of entries
+	 */
+	public final int size() {
+		return size;
+	}
+
+	/**
+	 * Iterates over the entries in this table. The iterator doesn't lock the
+	 * table, so it may or may not see changes made while iterating.
+	 * 
+	 * @return the iterator
+	 */
+	@Override
+	public final Iterator<Entry<E>> iterator() {
+		final AtomicReferenceArray<Entry<E>> s = slots;
+		return new Iterator<Entry<E>>() {
+			private int index = -1;
+			private Entry<E> next = advance();
+
+			private Entry<E> advance() {
+				while (++index < s.length()) {
+					Entry<E> e = s.get(index);
+					if (e != null && e != tombstone) {
+						return e;
+					}
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Entry<E> next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				Entry<E> e = next;
+				next = advance();
+				return e;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}